@@ -46,11 +46,14 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.github.perlundq.yajsync.AuthProvider;
+import com.github.perlundq.yajsync.CompressionCodec;
+import com.github.perlundq.yajsync.Durability;
 import com.github.perlundq.yajsync.FileSelection;
 import com.github.perlundq.yajsync.RsyncClient;
 import com.github.perlundq.yajsync.RsyncException;
 import com.github.perlundq.yajsync.RsyncServer;
 import com.github.perlundq.yajsync.Statistics;
+import com.github.perlundq.yajsync.StrongChecksum;
 import com.github.perlundq.yajsync.attr.DeviceInfo;
 import com.github.perlundq.yajsync.attr.FileInfo;
 import com.github.perlundq.yajsync.attr.Group;
@@ -373,6 +376,16 @@ public class YajSyncClient
                     _clientBuilder.isNumericIds(true);
                 }}));
 
+        options.add(
+                Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                          "checksum", "c",
+                                          "skip based on checksum, not " +
+                                          "mod-time & size",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option) {
+                        _clientBuilder.isAlwaysChecksum(true);
+                    }}));
+
         options.add(
                 Option.newWithoutArgument(Option.Policy.OPTIONAL,
                                           "ignore-times", "I",
@@ -383,6 +396,85 @@ public class YajSyncClient
                         _clientBuilder.isIgnoreTimes(true);
                     }}));
 
+        options.add(
+                Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                          "whole-file", "W",
+                                          "copy files whole (without delta-" +
+                                          "transfer algorithm)",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option) {
+                        _clientBuilder.isWholeFile(true);
+                    }}));
+
+        options.add(
+                Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                          "inplace", "",
+                                          "update destination files in-place",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option) {
+                        _clientBuilder.isInplace(true);
+                    }}));
+
+        options.add(
+                Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                          "sparse", "S",
+                                          "handle sparse files efficiently",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option) {
+                        _clientBuilder.isSparse(true);
+                    }}));
+
+        options.add(
+                Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                          "preallocate", "",
+                                          "allocate dest files before " +
+                                          "writing them",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option) {
+                        _clientBuilder.isPreallocate(true);
+                    }}));
+
+        options.add(
+                Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                          "partial", "",
+                                          "keep partially transferred files",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option) {
+                        _clientBuilder.isKeepPartial(true);
+                    }}));
+
+        options.add(
+                Option.newStringOption(Option.Policy.OPTIONAL,
+                                       "partial-dir", "",
+                                       "put a partially transferred file " +
+                                       "into DIR (relative to the directory " +
+                                       "of the file)",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option)
+                            throws ArgumentParsingError
+                    {
+                        String dir = (String) option.getValue();
+                        if (dir.isEmpty()) {
+                            throw new ArgumentParsingError(
+                                    "empty partial dir");
+                        }
+                        _clientBuilder.partialDir(Paths.get(dir));
+                    }}));
+
+        options.add(
+            Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                      "no-direct-copy", "",
+                                      "(local only) send the data of new " +
+                                      "files, or all files with " +
+                                      "--whole-file, through the sender " +
+                                      "instead of copying them directly " +
+                                      "(other files always use the delta " +
+                                      "transfer algorithm)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _clientBuilder.isDirectCopy(false);
+                }}));
+
         options.add(
             Option.newWithoutArgument(Option.Policy.OPTIONAL,
                                       "stats", "",
@@ -432,6 +524,310 @@ public class YajSyncClient
                     _readStdin = true;
                 }}));
 
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "delta-threads", "",
+                                    "(sender only) number of files whose " +
+                                    "delta is generated concurrently " +
+                                    "(default 1)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int numThreads = (int) option.getValue();
+                    if (numThreads < 1) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid number of delta threads %d - must " +
+                                "be greater than 0", numThreads));
+                    }
+                    _clientBuilder.deltaParallelism(numThreads);
+                }}));
+
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "checksum-threads", "",
+                                    "number of files whose block " +
+                                    "checksums (receiver only) or " +
+                                    "--checksum digests are generated " +
+                                    "concurrently (default 1)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int numThreads = (int) option.getValue();
+                    if (numThreads < 1) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid number of checksum threads %d - " +
+                                "must be greater than 0", numThreads));
+                    }
+                    _clientBuilder.checksumParallelism(numThreads);
+                }}));
+
+        options.add(
+            Option.newStringOption(Option.Policy.OPTIONAL,
+                                   "checksum-cache", "",
+                                   "(receiver only) cache the block " +
+                                   "checksums of basis files in DIR " +
+                                   "between transfers",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    String dir = (String) option.getValue();
+                    if (dir.isEmpty()) {
+                        throw new ArgumentParsingError(
+                                "empty checksum cache dir");
+                    }
+                    _clientBuilder.checksumCache(Paths.get(dir));
+                }}));
+
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "checksum-cache-size", "",
+                                    "(receiver only) maximum size in MiB " +
+                                    "of the checksum cache (default 256)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int size = (int) option.getValue();
+                    if (size < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid checksum cache size %d - must not " +
+                                "be negative", size));
+                    }
+                    _clientBuilder.checksumCacheSizeLimit(size * 1024L * 1024L);
+                }}));
+
+        options.add(
+            Option.newStringOption(Option.Policy.OPTIONAL,
+                                   "digest-cache", "",
+                                   "cache the --checksum digests of files " +
+                                   "in FILE between transfers",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    String file = (String) option.getValue();
+                    if (file.isEmpty()) {
+                        throw new ArgumentParsingError(
+                                "empty digest cache file");
+                    }
+                    _clientBuilder.digestCache(Paths.get(file));
+                }}));
+
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "digest-cache-size", "",
+                                    "maximum number of digests in the " +
+                                    "digest cache (default 1048576)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int size = (int) option.getValue();
+                    if (size < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid digest cache size %d - must not " +
+                                "be negative", size));
+                    }
+                    _clientBuilder.digestCacheSize(size);
+                }}));
+
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "checksum-seed", "",
+                                    "set block/file checksum seed (0 for " +
+                                    "the current time, default)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                {
+                    _clientBuilder.checksumSeed((int) option.getValue());
+                }}));
+
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "parallel-match-threshold", "",
+                                    "(sender only) minimum size in MiB of " +
+                                    "files whose blocks are matched in " +
+                                    "parallel when using --delta-threads " +
+                                    "(default 256)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int threshold = (int) option.getValue();
+                    if (threshold < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid parallel match threshold %d - must " +
+                                "not be negative", threshold));
+                    }
+                    _clientBuilder.parallelMatchThreshold(
+                        threshold * 1024L * 1024L);
+                }}));
+
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "delta-fallback-threshold", "",
+                                    "(sender only) size in MiB of the part " +
+                                    "of a file scanned for matching blocks, " +
+                                    "after which the rest is sent as is if " +
+                                    "almost nothing matched (default 16, 0 " +
+                                    "disables)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int threshold = (int) option.getValue();
+                    if (threshold < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid delta fallback threshold %d - must " +
+                                "not be negative", threshold));
+                    }
+                    _clientBuilder.deltaFallbackThreshold(
+                        threshold * 1024L * 1024L);
+                }}));
+
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "write-behind", "",
+                                    "(receiver only) size in MiB of received " +
+                                    "data buffered for writing to disk by a " +
+                                    "separate thread (default 0, writes " +
+                                    "directly)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int limit = (int) option.getValue();
+                    if (limit < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid write behind size %d - must " +
+                                "not be negative", limit));
+                    }
+                    _clientBuilder.writeBehindLimit(limit * 1024L * 1024L);
+                }}));
+
+        options.add(
+            Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                      "async-digest", "",
+                                      "(receiver only) compute the digest " +
+                                      "of received files in a separate " +
+                                      "thread (default false)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _clientBuilder.isAsyncDigest(true);
+                }}));
+
+        options.add(
+            Option.newStringOption(Option.Policy.OPTIONAL,
+                                   "durability", "",
+                                   "how received files are forced to disk " +
+                                   "before being moved into place: none, " +
+                                   "file or group (default none)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    String name = (String) option.getValue();
+                    Durability durability = Durability.fromName(name);
+                    if (durability == null) {
+                        throw new ArgumentParsingError(String.format(
+                                "unknown durability %s", name));
+                    }
+                    _clientBuilder.durability(durability);
+                }}));
+
+        options.add(
+            Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                      "fsync", "",
+                                      "force every received file to disk " +
+                                      "(same as --durability=file)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _clientBuilder.durability(Durability.PER_FILE);
+                }}));
+
+        options.add(
+            Option.newStringOption(Option.Policy.OPTIONAL,
+                                   "checksum-choice", "",
+                                   "strong checksum algorithm to use if " +
+                                   "supported by peer, otherwise md5 " +
+                                   "(xxh128 or md5, default xxh128)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    String name = (String) option.getValue();
+                    StrongChecksum strongChecksum =
+                        StrongChecksum.fromProtocolName(name);
+                    if (strongChecksum == null) {
+                        throw new ArgumentParsingError(String.format(
+                                "unknown checksum algorithm %s", name));
+                    }
+                    _clientBuilder.checksumChoice(strongChecksum);
+                }}));
+
+        options.add(
+            Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                      "compress", "z",
+                                      "compress file data during the " +
+                                      "transfer",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _clientBuilder.isCompress(true);
+                }}));
+
+        options.add(
+            Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                    "compress-level", "",
+                                    "explicitly set zlib compression level " +
+                                    "(1 - 9, 0 disables compression)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int level = (int) option.getValue();
+                    if (level < 0 || level > 9) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid compression level %d - must be " +
+                                "0 - 9", level));
+                    }
+                    _clientBuilder.compressionLevel(level);
+                }}));
+
+        options.add(
+            Option.newStringOption(Option.Policy.OPTIONAL,
+                                   "compress-choice", "",
+                                   "compression codec to use if supported " +
+                                   "by peer, otherwise zlib (lz4 or zlib, " +
+                                   "default lz4)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    String name = (String) option.getValue();
+                    CompressionCodec compressionCodec =
+                        CompressionCodec.fromProtocolName(name);
+                    if (compressionCodec == null) {
+                        throw new ArgumentParsingError(String.format(
+                                "unknown compression codec %s", name));
+                    }
+                    _clientBuilder.compressChoice(compressionCodec);
+                }}));
+
+        options.add(
+            Option.newStringOption(Option.Policy.OPTIONAL,
+                                   "skip-compress", "",
+                                   "skip compressing files with a suffix " +
+                                   "in LIST (slash separated, e.g. gz/jpg)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    String suffixes = (String) option.getValue();
+                    _clientBuilder.skipCompress(
+                        Arrays.asList(suffixes.split("/")));
+                }}));
+
         String deferredWriteHelp =
             "(receiver only) receiver defers writing into target tempfile as " +
             "long as possible to possibly eliminate all I/O writes for " +
@@ -770,10 +1166,10 @@ public class YajSyncClient
                 result = remoteTransfer(mode, srcArgs, dstArgOrNull);
             } else if (mode == Mode.LOCAL_COPY) {
                 if (_log.isLoggable(Level.FINE)) {
-                    _log.fine("starting local transfer (using rsync's delta " +
-                              "transfer algorithm - i.e. will not run with a " +
-                              "--whole-file option, so performance is most " +
-                              "probably lower than rsync)");
+                    _log.fine("starting local transfer (new files are " +
+                              "copied directly, existing files are updated " +
+                              "using rsync's delta transfer algorithm unless " +
+                              "--whole-file)");
                 }
                 result = _clientBuilder.buildLocal().
                                             copy(getPaths(srcArgs.pathNames())).
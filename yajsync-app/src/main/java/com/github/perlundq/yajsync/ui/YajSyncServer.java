@@ -26,6 +26,7 @@ import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -37,6 +38,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.github.perlundq.yajsync.Durability;
 import com.github.perlundq.yajsync.RsyncServer;
 import com.github.perlundq.yajsync.internal.channels.ChannelException;
 import com.github.perlundq.yajsync.internal.util.ArgumentParser;
@@ -166,6 +168,206 @@ public final class YajSyncServer
                     _numThreads = (int) option.getValue();
                 }}));
 
+        options.add(Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                            "delta-threads", "",
+                                            "number of files whose delta is " +
+                                            "generated concurrently when " +
+                                            "sending (default 1)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int numThreads = (int) option.getValue();
+                    if (numThreads < 1) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid number of delta threads %d - must " +
+                                "be greater than 0", numThreads));
+                    }
+                    _serverBuilder.deltaParallelism(numThreads);
+                }}));
+
+        options.add(Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                            "checksum-threads", "",
+                                            "number of files whose block " +
+                                            "checksums are generated " +
+                                            "concurrently when receiving, " +
+                                            "or --checksum digests " +
+                                            "(default 1)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int numThreads = (int) option.getValue();
+                    if (numThreads < 1) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid number of checksum threads %d - " +
+                                "must be greater than 0", numThreads));
+                    }
+                    _serverBuilder.checksumParallelism(numThreads);
+                }}));
+
+        options.add(Option.newStringOption(Option.Policy.OPTIONAL,
+                                           "checksum-cache", "",
+                                           "cache the block checksums of " +
+                                           "basis files in DIR between " +
+                                           "transfers",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    String dir = (String) option.getValue();
+                    if (dir.isEmpty()) {
+                        throw new ArgumentParsingError(
+                                "empty checksum cache dir");
+                    }
+                    _serverBuilder.checksumCache(Paths.get(dir));
+                }}));
+
+        options.add(Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                            "checksum-cache-size", "",
+                                            "maximum size in MiB of the " +
+                                            "checksum cache (default 256)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int size = (int) option.getValue();
+                    if (size < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid checksum cache size %d - must not " +
+                                "be negative", size));
+                    }
+                    _serverBuilder.checksumCacheSizeLimit(
+                        size * 1024L * 1024L);
+                }}));
+
+        options.add(Option.newStringOption(Option.Policy.OPTIONAL,
+                                           "digest-cache", "",
+                                           "cache the --checksum digests " +
+                                           "of files in FILE between " +
+                                           "sessions",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    String file = (String) option.getValue();
+                    if (file.isEmpty()) {
+                        throw new ArgumentParsingError(
+                                "empty digest cache file");
+                    }
+                    _serverBuilder.digestCache(Paths.get(file));
+                }}));
+
+        options.add(Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                            "digest-cache-size", "",
+                                            "maximum number of digests in " +
+                                            "the digest cache (default " +
+                                            "1048576)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int size = (int) option.getValue();
+                    if (size < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid digest cache size %d - must not " +
+                                "be negative", size));
+                    }
+                    _serverBuilder.digestCacheSize(size);
+                }}));
+
+        options.add(Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                            "parallel-match-threshold", "",
+                                            "minimum size in MiB of files " +
+                                            "whose blocks are matched in " +
+                                            "parallel when sending using " +
+                                            "--delta-threads (default 256)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int threshold = (int) option.getValue();
+                    if (threshold < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid parallel match threshold %d - must " +
+                                "not be negative", threshold));
+                    }
+                    _serverBuilder.parallelMatchThreshold(
+                        threshold * 1024L * 1024L);
+                }}));
+
+        options.add(Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                            "delta-fallback-threshold", "",
+                                            "size in MiB of the part of a " +
+                                            "file scanned for matching " +
+                                            "blocks when sending, after " +
+                                            "which the rest is sent as is if " +
+                                            "almost nothing matched (default " +
+                                            "16, 0 disables)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int threshold = (int) option.getValue();
+                    if (threshold < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid delta fallback threshold %d - must " +
+                                "not be negative", threshold));
+                    }
+                    _serverBuilder.deltaFallbackThreshold(
+                        threshold * 1024L * 1024L);
+                }}));
+
+        options.add(Option.newIntegerOption(Option.Policy.OPTIONAL,
+                                            "write-behind", "",
+                                            "size in MiB of received data " +
+                                            "buffered for writing to disk by " +
+                                            "a separate thread when " +
+                                            "receiving (default 0, writes " +
+                                            "directly)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int limit = (int) option.getValue();
+                    if (limit < 0) {
+                        throw new ArgumentParsingError(String.format(
+                                "invalid write behind size %d - must " +
+                                "not be negative", limit));
+                    }
+                    _serverBuilder.writeBehindLimit(limit * 1024L * 1024L);
+                }}));
+
+        options.add(Option.newWithoutArgument(Option.Policy.OPTIONAL,
+                                              "async-digest", "",
+                                              "compute the digest of " +
+                                              "received files in a separate " +
+                                              "thread (default false)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _serverBuilder.isAsyncDigest(true);
+                }}));
+
+        options.add(Option.newStringOption(Option.Policy.OPTIONAL,
+                                           "durability", "",
+                                           "how received files are forced " +
+                                           "to disk before being moved into " +
+                                           "place: none, file or group " +
+                                           "(default none, clients using " +
+                                           "--fsync get at least file)",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    String name = (String) option.getValue();
+                    Durability durability = Durability.fromName(name);
+                    if (durability == null) {
+                        throw new ArgumentParsingError(String.format(
+                                "unknown durability %s", name));
+                    }
+                    _serverBuilder.durability(durability);
+                }}));
+
         String deferredWriteHelp = "receiver defers writing into target " +
                 "tempfile as long as possible to reduce I/O, at the cost of " +
                 "highly increased risk of the file being modified by a " +
@@ -16,6 +16,7 @@
  */
 package com.github.perlundq.yajsync.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -33,12 +34,18 @@ import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.security.Principal;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
@@ -120,6 +127,24 @@ class FileUtil
         }
     }
 
+    /**
+     * @return the number of bytes allocated on disk for path according to
+     *         du(1), or -1 if unknown
+     */
+    public static long allocatedSize(Path path) throws InterruptedException
+    {
+        try {
+            Process p = new ProcessBuilder("du", "-k", path.toString()).
+                    redirectErrorStream(true).start();
+            try (Scanner scanner = new Scanner(p.getInputStream())) {
+                long kiB = scanner.hasNextLong() ? scanner.nextLong() : -1;
+                return p.waitFor() == 0 && kiB >= 0 ? kiB * 1024 : -1;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
     public static boolean isContentIdentical(Path leftPath, Path rightPath)
         throws IOException
     {
@@ -816,6 +841,635 @@ public class SystemTest
         assertTrue(status2.stats.totalMatchedSize() == 0);
     }
 
+    @Test
+    public void testCopyDirTwiceParallelDeltas() throws IOException
+    {
+        Path src = _tempDir.newFolder().toPath();
+        Path dst = _tempDir.newFolder().toPath();
+        int numDirs = 1;
+        int numFiles = 16;
+        int fileSize = 3000;
+        Path[] srcFiles = new Path[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            srcFiles[i] = src.resolve("file" + i);
+            byte[] content = FileUtil.generateBytes(i, fileSize);
+            content[i * 100] = (byte) 0xFF;
+            FileUtil.writeToFiles(content, srcFiles[i]);
+        }
+        ReturnStatus status = fileCopy(src.resolve("."), dst, "--recursive",
+                                       "--delta-threads=4");
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+        assertTrue(status.stats.numFiles() == numDirs + numFiles);
+        assertTrue(status.stats.numTransferredFiles() == numFiles);
+        assertTrue(status.stats.totalLiteralSize() == numFiles * fileSize);
+        assertTrue(status.stats.totalMatchedSize() == 0);
+
+        for (Path srcFile : srcFiles) {
+            FileUtil.writeToFiles(FileUtil.generateBytes(0x7E, fileSize),
+                                  srcFile);
+        }
+        ReturnStatus status2 = fileCopy(src.resolve("."), dst, "--recursive",
+                                        "--ignore-times",
+                                        "--delta-threads=4");
+        assertTrue(status2.rc == 0);
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+        assertTrue(status2.stats.numTransferredFiles() == numFiles);
+        assertTrue(status2.stats.totalLiteralSize() +
+                   status2.stats.totalMatchedSize() == numFiles * fileSize);
+    }
+
+    @Test
+    public void testCopyDirGroupCommit() throws IOException
+    {
+        Path src = _tempDir.newFolder().toPath();
+        Path dst = _tempDir.newFolder().toPath();
+        int numDirs = 4;
+        int numFiles = 50;
+        for (int i = 0; i < numDirs; i++) {
+            Path dir = src.resolve("dir" + i);
+            Files.createDirectory(dir);
+            for (int j = 0; j < numFiles; j++) {
+                FileUtil.writeToFiles(FileUtil.generateBytes(i + j, 1000 + j),
+                                      dir.resolve("file" + j));
+            }
+            Files.setLastModifiedTime(dir, FileTime.fromMillis(
+                                                1000000000000L + i * 1000));
+        }
+        ReturnStatus status = fileCopy(src.resolve("."), dst, "--recursive",
+                                       "--times", "--durability=group");
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+        assertTrue(status.stats.numTransferredFiles() == numDirs * numFiles);
+        // the directories are not modified by files moved into place late
+        for (int i = 0; i < numDirs; i++) {
+            assertEquals(Files.getLastModifiedTime(src.resolve("dir" + i)),
+                         Files.getLastModifiedTime(dst.resolve("dir" + i)));
+        }
+        Path file = src.resolve("dir0").resolve("file0");
+        FileUtil.writeToFiles(FileUtil.generateBytes(0x7E, 1000), file);
+        status = fileCopy(src.resolve("."), dst, "--recursive",
+                          "--ignore-times", "--durability=group");
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+    }
+
+    @Test
+    public void testCopyDirChecksumParallelism() throws IOException
+    {
+        Path src = _tempDir.newFolder().toPath();
+        Path dst = _tempDir.newFolder().toPath();
+        Random random = new Random(7);
+        int numFiles = 40;
+        byte[][] contents = new byte[numFiles][];
+        for (int i = 0; i < numFiles; i++) {
+            // a few of them empty
+            contents[i] = new byte[i % 10 == 0 ? 0 : random.nextInt(200000)];
+            random.nextBytes(contents[i]);
+            FileUtil.writeToFiles(contents[i], src.resolve("file" + i));
+        }
+        ReturnStatus status = fileCopy(src.resolve("."), dst, "--recursive");
+        assertTrue(status.rc == 0);
+
+        for (int i = 0; i < numFiles; i++) {
+            if (contents[i].length > 0) {
+                contents[i][contents[i].length / 2] ^= 1;
+            }
+            FileUtil.writeToFiles(contents[i], src.resolve("file" + i));
+        }
+        // replaced by a directory, and one basis larger than its file
+        Files.delete(dst.resolve("file3"));
+        Files.createDirectory(dst.resolve("file3"));
+        FileUtil.writeToFiles(new byte[300000], dst.resolve("file5"));
+
+        status = fileCopy(src.resolve("."), dst, "--recursive",
+                          "--ignore-times", "--checksum-threads=3");
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+        assertTrue(status.stats.totalMatchedSize() > 0);
+        assertTrue(status.stats.numTransferredFiles() == numFiles);
+    }
+
+    @Test
+    public void testCopyFileChecksumCache() throws IOException
+    {
+        int fileSize = 2 * 1024 * 1024 + 3;
+        Random random = new Random(8);
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        Path cache = _tempDir.newFolder().toPath();
+        String[] args = { "--times", "--checksum-seed=4711",
+                          "--checksum-cache=" + cache };
+        FileUtil.writeToFiles(content, src);
+        // too recently modified files are never cached
+        Files.setLastModifiedTime(src, FileTime.fromMillis(1000000000000L));
+
+        // the checksums of the received file are cached right away
+        ReturnStatus status = fileCopy(src, dst, args);
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isContentIdentical(src, dst));
+        assertTrue(cache.toFile().list().length == 1);
+
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 1000; j++) {
+                content[fileSize / 3 + j] = (byte) random.nextInt();
+            }
+            FileUtil.writeToFiles(content, src);
+            Files.setLastModifiedTime(src, FileTime.fromMillis(
+                                                1000000001000L + i * 1000));
+            status = fileCopy(src, dst, args);
+            assertTrue(status.rc == 0);
+            assertTrue(Arrays.equals(content, Files.readAllBytes(dst)));
+            assertTrue(status.stats.totalMatchedSize() > fileSize / 2);
+        }
+        assertTrue(cache.toFile().list().length == 3);
+
+        // the least recently used checksums are evicted
+        String[] nargs = Arrays.copyOf(args, args.length + 2);
+        nargs[args.length] = "--checksum-cache-size=0";
+        nargs[args.length + 1] = "--ignore-times";
+        status = fileCopy(src, dst, nargs);
+        assertTrue(status.rc == 0);
+        assertTrue(cache.toFile().list().length == 0);
+    }
+
+    @Test
+    public void testCopyFileChecksumCacheRewrittenBasis() throws IOException
+    {
+        int fileSize = 1024 * 1024;
+        Random random = new Random(9);
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        Path cache = _tempDir.newFolder().toPath();
+        String[] args = { "--times", "--ignore-times", "--checksum-seed=4711",
+                          "--checksum-cache=" + cache };
+        FileUtil.writeToFiles(content, src);
+        Files.setLastModifiedTime(src, FileTime.fromMillis(1000000000000L));
+        ReturnStatus status = fileCopy(src, dst, args);
+        assertTrue(status.rc == 0);
+        assertTrue(cache.toFile().list().length == 1);
+
+        // the cached checksums of the basis are stale once it is rewritten
+        // in place, even though its size and modification time are restored
+        FileTime modified = Files.getLastModifiedTime(dst);
+        byte[] rewritten = new byte[fileSize];
+        random.nextBytes(rewritten);
+        FileUtil.writeToFiles(rewritten, dst);
+        Files.setLastModifiedTime(dst, modified);
+        status = fileCopy(src, dst, args);
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isContentIdentical(src, dst));
+        assertTrue(status.stats.totalMatchedSize() == 0);
+        assertTrue(status.stats.totalLiteralSize() == fileSize);
+    }
+
+    @Test
+    public void testCopyDirAlwaysChecksum() throws IOException
+    {
+        Path src = _tempDir.newFolder().toPath();
+        Path dst = _tempDir.newFolder().toPath();
+        Path digestCache = _tempDir.newFolder().toPath().resolve("digests");
+        int numFiles = 20;
+        Random random = new Random(11);
+        for (int i = 0; i < numFiles; i++) {
+            byte[] content = new byte[random.nextInt(100000)];
+            random.nextBytes(content);
+            Path file = src.resolve("file" + i);
+            FileUtil.writeToFiles(content, file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(
+                                                1000000000000L + i * 1000));
+        }
+        ReturnStatus status = fileCopy(src.resolve("."), dst, "--recursive",
+                                       "--times");
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+
+        // a change of a replica not reflected by its size or modification
+        // time is only detected by comparing the digests
+        Path file = dst.resolve("file3");
+        FileTime modified = Files.getLastModifiedTime(file);
+        byte[] content = Files.readAllBytes(file);
+        content[content.length / 2]++;
+        FileUtil.writeToFiles(content, file);
+        Files.setLastModifiedTime(file, modified);
+        status = fileCopy(src.resolve("."), dst, "--recursive", "--times");
+        assertTrue(status.rc == 0);
+        assertTrue(status.stats.numTransferredFiles() == 0);
+        assertFalse(FileUtil.isDirectoriesIdentical(src, dst));
+
+        for (int i = 0; i < 2; i++) {
+            status = fileCopy(src.resolve("."), dst, "--recursive",
+                              "--times", "--checksum",
+                              "--checksum-threads=3",
+                              "--digest-cache=" + digestCache);
+            assertTrue(status.rc == 0);
+            assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+            assertTrue(status.stats.numTransferredFiles() == 1 - i);
+        }
+        assertTrue(Files.size(digestCache) > 0);
+
+        // the cached digest of a replica is stale once it is rewritten in
+        // place, even though its size and modification time are restored
+        file = dst.resolve("file5");
+        modified = Files.getLastModifiedTime(file);
+        content = Files.readAllBytes(file);
+        content[content.length / 3]++;
+        FileUtil.writeToFiles(content, file);
+        Files.setLastModifiedTime(file, modified);
+        status = fileCopy(src.resolve("."), dst, "--recursive", "--times",
+                          "--checksum", "--digest-cache=" + digestCache);
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+        assertTrue(status.stats.numTransferredFiles() == 1);
+    }
+
+    @Test
+    public void testCopyFileParallelMatch() throws IOException
+    {
+        int fileSize = 6 * 1024 * 1024;
+        Random random = new Random(0);
+        // a random first half and a second half repeating a short pattern,
+        // matching many blocks at many different offsets
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        for (int i = fileSize / 2 + 3001; i < fileSize; i++) {
+            content[i] = content[i - 3001];
+        }
+        // the modified file has bytes inserted and modified
+        byte[] modified = new byte[fileSize + 1000];
+        System.arraycopy(content, 0, modified, 1000, 2 * 1024 * 1024);
+        System.arraycopy(content, 2 * 1024 * 1024, modified,
+                         1000 + 2 * 1024 * 1024 + 777,
+                         fileSize - 2 * 1024 * 1024 - 777);
+        for (int i = 4 * 1024 * 1024; i < 4 * 1024 * 1024 + 100000; i++) {
+            modified[i] = (byte) random.nextInt();
+        }
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        Path dstParallel = Paths.get(src.toString() + ".copy.parallel");
+        FileUtil.writeToFiles(content, dst, dstParallel);
+        FileUtil.writeToFiles(modified, src);
+
+        ReturnStatus status = fileCopy(src, dst);
+        ReturnStatus statusParallel = fileCopy(src, dstParallel,
+                                               "--delta-threads=4",
+                                               "--parallel-match-threshold=1");
+        assertTrue(status.rc == 0);
+        assertTrue(statusParallel.rc == 0);
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dstParallel)));
+        assertTrue(status.stats.totalMatchedSize() > 0);
+        assertTrue(statusParallel.stats.totalMatchedSize() ==
+                   status.stats.totalMatchedSize());
+        assertTrue(statusParallel.stats.totalLiteralSize() ==
+                   status.stats.totalLiteralSize());
+    }
+
+    @Test
+    public void testCopyFileRollingCollision() throws IOException
+    {
+        // a basis smaller than 512 * 512 bytes has a block length of 512
+        int blockLength = 512;
+        int fileSize = 100000;
+        Random random = new Random(7);
+        byte[] content = new byte[fileSize];
+        for (int i = 0; i < fileSize; i++) {
+            content[i] = (byte) (10 + random.nextInt(90));
+        }
+        // the modified file starts with a copy of the first block with a
+        // rolling checksum collision, i.e. the same rolling checksum but
+        // different data, followed by some new data and then all of the
+        // basis, starting with the first block at an unaligned offset
+        byte[] collision = Arrays.copyOf(content, blockLength);
+        collision[100]++;
+        collision[101] -= 2;
+        collision[102]++;
+        byte[] modified = new byte[blockLength + 100 + fileSize];
+        System.arraycopy(collision, 0, modified, 0, blockLength);
+        for (int i = blockLength; i < blockLength + 100; i++) {
+            modified[i] = (byte) (10 + random.nextInt(90));
+        }
+        System.arraycopy(content, 0, modified, blockLength + 100, fileSize);
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        FileUtil.writeToFiles(content, dst);
+        FileUtil.writeToFiles(modified, src);
+
+        ReturnStatus status = fileCopy(src, dst);
+        assertTrue(status.rc == 0);
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+        // the strong checksum of the colliding window must not be reused
+        // for the rolling checksum hit of the real first block
+        assertTrue(status.stats.totalMatchedSize() == fileSize);
+        assertTrue(status.stats.totalLiteralSize() == blockLength + 100);
+    }
+
+    @Test
+    public void testCopyFileWriteBehind() throws IOException
+    {
+        int fileSize = 3 * 1024 * 1024 + 17;
+        Random random = new Random(1);
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        // the modified file has a few scattered modifications, giving both
+        // literal data and runs of matched blocks
+        byte[] modified = Arrays.copyOf(content, fileSize);
+        for (int i = 0; i < 20; i++) {
+            int offset = random.nextInt(fileSize - 1000);
+            for (int j = 0; j < 1000; j++) {
+                modified[offset + j] = (byte) random.nextInt();
+            }
+        }
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        Path dstWriteBehind = Paths.get(src.toString() + ".copy.wb");
+        FileUtil.writeToFiles(content, dst, dstWriteBehind);
+        FileUtil.writeToFiles(modified, src);
+
+        ReturnStatus status = fileCopy(src, dst, "--ignore-times");
+        ReturnStatus statusWriteBehind = fileCopy(src, dstWriteBehind,
+                                                  "--ignore-times",
+                                                  "--write-behind=1");
+        assertTrue(status.rc == 0);
+        assertTrue(statusWriteBehind.rc == 0);
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+        assertTrue(Arrays.equals(modified,
+                                 Files.readAllBytes(dstWriteBehind)));
+        assertTrue(status.stats.totalMatchedSize() > 0);
+        assertTrue(status.stats.totalLiteralSize() > 0);
+        assertTrue(statusWriteBehind.stats.totalMatchedSize() ==
+                   status.stats.totalMatchedSize());
+        assertTrue(statusWriteBehind.stats.totalLiteralSize() ==
+                   status.stats.totalLiteralSize());
+    }
+
+    @Test
+    public void testCopyFileAsyncDigest() throws IOException
+    {
+        int fileSize = 3 * 1024 * 1024 + 17;
+        Random random = new Random(6);
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        // ends with a hole when sparse
+        Arrays.fill(content, fileSize - 100000, fileSize, (byte) 0);
+        byte[] modified = Arrays.copyOf(content, fileSize);
+        for (int i = 0; i < 20; i++) {
+            int offset = random.nextInt(fileSize - 200000);
+            for (int j = 0; j < 1000; j++) {
+                modified[offset + j] = (byte) random.nextInt();
+            }
+        }
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        FileUtil.writeToFiles(modified, src);
+        FileUtil.writeToFiles(content, dst);
+        ReturnStatus expected = fileCopy(src, dst, "--ignore-times");
+        assertTrue(expected.rc == 0);
+        assertTrue(expected.stats.totalMatchedSize() > 0);
+
+        String[][] argsList = { { "--async-digest" },
+                                { "--async-digest", "--write-behind=1" },
+                                { "--async-digest", "--sparse" },
+                                { "--async-digest", "--inplace" },
+                                { "--async-digest", "--defer-write" } };
+        for (String[] args : argsList) {
+            FileUtil.writeToFiles(content, dst);
+            String[] nargs = Arrays.copyOf(args, args.length + 1);
+            nargs[args.length] = "--ignore-times";
+            ReturnStatus status = fileCopy(src, dst, nargs);
+            assertTrue(status.rc == 0);
+            assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+            // a file with a wrong digest would have been sent once more
+            assertTrue(status.stats.totalLiteralSize() ==
+                       expected.stats.totalLiteralSize());
+            assertTrue(status.stats.totalMatchedSize() ==
+                       expected.stats.totalMatchedSize());
+        }
+    }
+
+    @Test
+    public void testCopyFileInplace() throws IOException
+    {
+        int fileSize = 3 * 1024 * 1024 + 17;
+        Random random = new Random(2);
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        // the modified file is shifted left (blocks moved towards the start)
+        // and has a modification in the middle, followed by blocks at their
+        // original offsets
+        int shift = 777;
+        byte[] modified = Arrays.copyOfRange(content, shift, fileSize);
+        for (int i = 0; i < 1000; i++) {
+            modified[fileSize / 2 + i] = (byte) random.nextInt();
+        }
+        System.arraycopy(content, fileSize / 2 + 1000,
+                         modified, fileSize / 2 + 1000,
+                         modified.length - fileSize / 2 - 1000);
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        FileUtil.writeToFiles(content, dst);
+        FileUtil.writeToFiles(modified, src);
+        Object fileKey = Files.readAttributes(dst, BasicFileAttributes.class).
+                fileKey();
+
+        ReturnStatus status = fileCopy(src, dst, "--ignore-times",
+                                       "--inplace");
+        assertTrue(status.rc == 0);
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+        assertTrue(fileKey == null ||
+                   fileKey.equals(Files.readAttributes(
+                       dst, BasicFileAttributes.class).fileKey()));
+        assertTrue(status.stats.totalMatchedSize() > fileSize / 2);
+        assertTrue(status.stats.totalLiteralSize() < fileSize / 100);
+    }
+
+    // new files, and with --whole-file existing ones, are copied directly
+    // from the source files by the Receiver of a local transfer
+    @Test
+    public void testCopyDirDirect() throws IOException
+    {
+        Path src = _tempDir.newFolder().toPath();
+        Path dst = _tempDir.newFolder().toPath();
+        Path dstNoDirect = _tempDir.newFolder().toPath();
+        int[] fileSizes = { 0, 1, 4095, 4096, 100000, 3 * 1024 * 1024 + 5 };
+        long totalSize = 0;
+        for (int i = 0; i < fileSizes.length; i++) {
+            FileUtil.writeToFiles(FileUtil.generateBytes(i, fileSizes[i]),
+                                  src.resolve("file" + i));
+            totalSize += fileSizes[i];
+        }
+
+        ReturnStatus status = fileCopy(src.resolve("."), dst, "--recursive");
+        ReturnStatus statusNoDirect = fileCopy(src.resolve("."), dstNoDirect,
+                                               "--recursive",
+                                               "--no-direct-copy");
+        for (ReturnStatus s : new ReturnStatus[] { status, statusNoDirect }) {
+            assertTrue(s.rc == 0);
+            assertTrue(s.stats.numTransferredFiles() == fileSizes.length);
+            assertTrue(s.stats.totalLiteralSize() == totalSize);
+            assertTrue(s.stats.totalMatchedSize() == 0);
+        }
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dstNoDirect));
+
+        for (int i = 0; i < fileSizes.length; i++) {
+            FileUtil.writeToFiles(FileUtil.generateBytes(i + 1, fileSizes[i]),
+                                  src.resolve("file" + i));
+        }
+        status = fileCopy(src.resolve("."), dst, "--recursive",
+                          "--ignore-times", "--whole-file");
+        assertTrue(status.rc == 0);
+        assertTrue(FileUtil.isDirectoriesIdentical(src, dst));
+        assertTrue(status.stats.numTransferredFiles() == fileSizes.length);
+        assertTrue(status.stats.totalLiteralSize() == totalSize);
+        assertTrue(status.stats.totalMatchedSize() == 0);
+    }
+
+    // long runs of matched blocks are copied as single ranges, some of them
+    // longer than the buffer used to digest them (256 KiB)
+    @Test
+    public void testCopyFileMatchedRuns() throws IOException
+    {
+        int fileSize = 4 * 1024 * 1024 + 123;
+        Random random = new Random(5);
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        byte[] modified = Arrays.copyOf(content, fileSize);
+        int[] changes = { 1000, 1024 * 1024 + 7, 1024 * 1024 + 100000,
+                          3 * 1024 * 1024 };
+        for (int offset : changes) {
+            modified[offset]++;
+        }
+        // the square root of the file size rounded to a power of two
+        int blockLength = 2048;
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        Path dstDeferred = Paths.get(src.toString() + ".copy.dw");
+        FileUtil.writeToFiles(content, src);
+        assertTrue(fileCopy(src, dst).rc == 0);
+        assertTrue(fileCopy(src, dstDeferred).rc == 0);
+        FileUtil.writeToFiles(modified, src);
+
+        ReturnStatus status = fileCopy(src, dst, "--ignore-times");
+        ReturnStatus statusDeferred = fileCopy(src, dstDeferred,
+                                               "--ignore-times",
+                                               "--defer-write");
+        for (ReturnStatus s : new ReturnStatus[] { status, statusDeferred }) {
+            assertTrue(s.rc == 0);
+            assertTrue(s.stats.numTransferredFiles() == 1);
+            assertTrue(s.stats.totalMatchedSize() +
+                       s.stats.totalLiteralSize() == fileSize);
+            assertTrue(s.stats.totalMatchedSize() >=
+                       fileSize - changes.length * blockLength);
+        }
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dstDeferred)));
+    }
+
+    @Test
+    public void testCopyFileSparse() throws IOException, InterruptedException
+    {
+        int fileSize = 16 * 1024 * 1024 + 17;
+        Random random = new Random(3);
+        byte[] content = new byte[fileSize];
+        byte[] data = new byte[100000];
+        random.nextBytes(data);
+        System.arraycopy(data, 0, content, 5000, data.length);
+        System.arraycopy(data, 0, content, fileSize / 2 + 17, data.length);
+        byte[] modified = Arrays.copyOf(content, fileSize);
+        for (int i = 0; i < 1000; i++) {
+            modified[fileSize / 4 + i] = (byte) random.nextInt();
+        }
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        Path dstNoDirect = Paths.get(src.toString() + ".copy.nd");
+        FileUtil.writeToFiles(content, src);
+
+        // new files, then an update of the existing file
+        ReturnStatus status = fileCopy(src, dst, "--sparse");
+        ReturnStatus statusNoDirect = fileCopy(src, dstNoDirect, "--sparse",
+                                               "--no-direct-copy");
+        assertTrue(status.rc == 0);
+        assertTrue(statusNoDirect.rc == 0);
+        assertTrue(Arrays.equals(content, Files.readAllBytes(dst)));
+        assertTrue(Arrays.equals(content, Files.readAllBytes(dstNoDirect)));
+        FileUtil.writeToFiles(modified, src);
+        status = fileCopy(src, dst, "--sparse", "--ignore-times");
+        assertTrue(status.rc == 0);
+        assertTrue(status.stats.totalMatchedSize() > 0);
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+
+        long maxAllocated = 4 * (data.length + 1000);
+        for (Path p : new Path[] { dst, dstNoDirect }) {
+            long allocated = FileUtil.allocatedSize(p);
+            assertTrue(p + " " + allocated,
+                       allocated < 0 || allocated < maxAllocated);
+        }
+    }
+
+    @Test
+    public void testCopyFilePreallocate() throws IOException
+    {
+        int fileSize = 1024 * 1024 + 17;
+        Random random = new Random(4);
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        // shrinks the existing file by a few blocks
+        byte[] modified = Arrays.copyOfRange(content, 0, fileSize / 2);
+        for (int i = 0; i < 1000; i++) {
+            modified[fileSize / 4 + i] = (byte) random.nextInt();
+        }
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        FileUtil.writeToFiles(content, src);
+
+        ReturnStatus status = fileCopy(src, dst, "--preallocate");
+        assertTrue(status.rc == 0);
+        assertTrue(Arrays.equals(content, Files.readAllBytes(dst)));
+        FileUtil.writeToFiles(modified, src);
+        status = fileCopy(src, dst, "--preallocate", "--ignore-times");
+        assertTrue(status.rc == 0);
+        assertTrue(status.stats.totalMatchedSize() > 0);
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+    }
+
+    @Test
+    public void testCopyFilePartialDir() throws IOException
+    {
+        int fileSize = 1024 * 1024 + 17;
+        byte[] content = new byte[fileSize];
+        new Random(5).nextBytes(content);
+
+        Path src = _tempDir.newFile().toPath();
+        Path dst = Paths.get(src.toString() + ".copy");
+        Path partialDir = dst.resolveSibling(".rsync-partial");
+        Path partial = partialDir.resolve(dst.getFileName());
+        FileUtil.writeToFiles(content, src);
+        Files.createDirectory(partialDir);
+        FileUtil.writeToFiles(Arrays.copyOfRange(content, 0, fileSize / 2),
+                              partial);
+
+        ReturnStatus status = fileCopy(src, dst,
+                                       "--partial-dir=.rsync-partial");
+        assertTrue(status.rc == 0);
+        assertTrue(status.stats.totalMatchedSize() > 0);
+        assertTrue(Arrays.equals(content, Files.readAllBytes(dst)));
+        assertFalse(Files.exists(partial));
+        assertFalse(Files.exists(partialDir));
+    }
+
     @Test
     public void testClientCopyPreserveUid() throws IOException
     {
@@ -920,6 +1574,282 @@ public class SystemTest
         assertTrue(rc == 0);
     }
 
+    @Test(timeout=5000)
+    public void testServerCopyChecksumChoice() throws Exception
+    {
+        final CountDownLatch isListeningLatch = new CountDownLatch(1);
+        final Path modulePath = _tempDir.newFolder().toPath();
+
+        Callable<Integer> serverTask = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception
+            {
+                Module m = new SimpleModule("test", modulePath,
+                                            "a test module", true, true);
+                int rc = newServer(new TestModules(m)).
+                        setIsListeningLatch(isListeningLatch).
+                        start(new String[] { "--port=14415" });
+                return rc;
+            }
+        };
+        _service.submit(serverTask);
+        isListeningLatch.await();
+
+        byte[] content = new byte[1024 * 1024];
+        new Random(0).nextBytes(content);
+        byte[] modified = Arrays.copyOf(content, content.length + 1000);
+        for (int i = 500000; i < 510000; i++) {
+            modified[i] = (byte) ~modified[i];
+        }
+        Path src = _tempDir.newFile().toPath();
+        Path dst = modulePath.resolve("file");
+        FileUtil.writeToFiles(modified, src);
+
+        for (String checksumChoice : new String[] { "xxh128", "md5" }) {
+            FileUtil.writeToFiles(content, dst);
+            YajSyncClient client = newClient();
+            int rc = client.start(new String[] {
+                    "--port=14415", "--checksum-choice=" + checksumChoice,
+                    src.toString(), "localhost::test/file" });
+            assertTrue(rc == 0);
+            assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+            assertTrue(client.statistics().totalMatchedSize() > 0);
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testServerCopyDeltaFallback() throws Exception
+    {
+        final CountDownLatch isListeningLatch = new CountDownLatch(1);
+        final Path modulePath = _tempDir.newFolder().toPath();
+
+        Callable<Integer> serverTask = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception
+            {
+                Module m = new SimpleModule("test", modulePath,
+                                            "a test module", true, true);
+                int rc = newServer(new TestModules(m)).
+                        setIsListeningLatch(isListeningLatch).
+                        start(new String[] { "--port=14415" });
+                return rc;
+            }
+        };
+        _service.submit(serverTask);
+        isListeningLatch.await();
+
+        int fileSize = 4 * 1024 * 1024;
+        Random random = new Random(0);
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        // only the last block matches, after the fallback threshold
+        byte[] modified = new byte[fileSize];
+        random.nextBytes(modified);
+        System.arraycopy(content, fileSize - 8192, modified, fileSize - 8192,
+                         8192);
+        Path src = _tempDir.newFile().toPath();
+        Path dst = modulePath.resolve("file");
+        FileUtil.writeToFiles(modified, src);
+
+        String[][] argsList = {
+            { "--delta-fallback-threshold=1" },
+            { "--delta-fallback-threshold=1", "--delta-threads=2",
+              "--parallel-match-threshold=1" },
+            { "--delta-fallback-threshold=0" } };
+        for (String[] args : argsList) {
+            FileUtil.writeToFiles(content, dst);
+            List<String> clientArgs = new LinkedList<>(Arrays.asList(args));
+            clientArgs.addAll(Arrays.asList("--port=14415", "--ignore-times",
+                                            src.toString(),
+                                            "localhost::test/file"));
+            YajSyncClient client = newClient();
+            int rc = client.start(clientArgs.toArray(new String[0]));
+            assertTrue(rc == 0);
+            assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+            Statistics stats = client.statistics();
+            assertTrue(stats.totalLiteralSize() + stats.totalMatchedSize() ==
+                       fileSize);
+            if (args[0].endsWith("=0")) {
+                assertTrue(stats.numDeltaFallbacks() == 0);
+                assertTrue(stats.totalMatchedSize() > 0);
+            } else {
+                assertTrue(stats.numDeltaFallbacks() == 1);
+                assertTrue(stats.totalDeltaFallbackSize() > 0);
+                assertTrue(stats.totalMatchedSize() == 0);
+            }
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testServerCopyWholeFile() throws Exception
+    {
+        final CountDownLatch isListeningLatch = new CountDownLatch(1);
+        final Path modulePath = _tempDir.newFolder().toPath();
+
+        Callable<Integer> serverTask = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception
+            {
+                Module m = new SimpleModule("test", modulePath,
+                                            "a test module", true, true);
+                int rc = newServer(new TestModules(m)).
+                        setIsListeningLatch(isListeningLatch).
+                        start(new String[] { "--port=14415" });
+                return rc;
+            }
+        };
+        _service.submit(serverTask);
+        isListeningLatch.await();
+
+        int fileSize = 3 * 1024 * 1024 + 17;
+        byte[] content = FileUtil.generateBytes(0x18, fileSize);
+        byte[] modified = Arrays.copyOf(content, fileSize);
+        modified[fileSize / 2]++;
+        Path src = _tempDir.newFile().toPath();
+        Path dst = modulePath.resolve("file");
+        FileUtil.writeToFiles(modified, src);
+        FileUtil.writeToFiles(content, dst);
+
+        // every file is sent as literal data although most of it matches
+        YajSyncClient client = newClient();
+        int rc = client.start(new String[] { "--port=14415", "--whole-file",
+                                             "--ignore-times",
+                                             src.toString(),
+                                             "localhost::test/file" });
+        assertTrue(rc == 0);
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+        Statistics stats = client.statistics();
+        assertTrue(stats.totalLiteralSize() == fileSize);
+        assertTrue(stats.totalMatchedSize() == 0);
+
+        Path copy = _tempDir.newFile().toPath();
+        FileUtil.writeToFiles(content, copy);
+        client = newClient();
+        rc = client.start(new String[] { "--port=14415", "-W",
+                                         "--ignore-times",
+                                         "localhost::test/file",
+                                         copy.toString() });
+        assertTrue(rc == 0);
+        assertTrue(Arrays.equals(modified, Files.readAllBytes(copy)));
+        stats = client.statistics();
+        assertTrue(stats.totalLiteralSize() == fileSize);
+        assertTrue(stats.totalMatchedSize() == 0);
+    }
+
+    // compressed deltas of random data, which are larger than the data,
+    // are buffered concurrently
+    @Test(timeout=10000)
+    public void testServerCopyCompressParallelDeltas() throws Exception
+    {
+        final CountDownLatch isListeningLatch = new CountDownLatch(1);
+        final Path modulePath = _tempDir.newFolder().toPath();
+
+        Callable<Integer> serverTask = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception
+            {
+                Module m = new SimpleModule("test", modulePath,
+                                            "a test module", true, true);
+                int rc = newServer(new TestModules(m)).
+                        setIsListeningLatch(isListeningLatch).
+                        start(new String[] { "--port=14415" });
+                return rc;
+            }
+        };
+        _service.submit(serverTask);
+        isListeningLatch.await();
+
+        Path src = _tempDir.newFolder().toPath();
+        int numFiles = 8;
+        int fileSize = 100000;
+        Random random = new Random(0);
+        for (String compressChoice : new String[] { "lz4", "zlib" }) {
+            for (int i = 0; i < numFiles; i++) {
+                byte[] content = new byte[fileSize];
+                random.nextBytes(content);
+                FileUtil.writeToFiles(content, modulePath.resolve("file" + i));
+                // a changed byte in every block of 1000 bytes
+                for (int j = 500; j < fileSize; j += 1000) {
+                    content[j]++;
+                }
+                FileUtil.writeToFiles(content, src.resolve("file" + i));
+            }
+            YajSyncClient client = newClient();
+            int rc = client.start(new String[] {
+                    "--port=14415", "--recursive", "--ignore-times", "-z",
+                    "--compress-choice=" + compressChoice,
+                    "--delta-threads=4", src.toString() + "/",
+                    "localhost::test/" });
+            assertTrue(rc == 0);
+            for (int i = 0; i < numFiles; i++) {
+                assertTrue(FileUtil.isContentIdentical(
+                    src.resolve("file" + i), modulePath.resolve("file" + i)));
+            }
+            assertTrue(client.statistics().numTransferredFiles() == numFiles);
+            assertTrue(client.statistics().totalLiteralSize() +
+                       client.statistics().totalMatchedSize() ==
+                       numFiles * fileSize);
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testServerCopyCompress() throws Exception
+    {
+        final CountDownLatch isListeningLatch = new CountDownLatch(1);
+        final Path modulePath = _tempDir.newFolder().toPath();
+
+        Callable<Integer> serverTask = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception
+            {
+                Module m = new SimpleModule("test", modulePath,
+                                            "a test module", true, true);
+                int rc = newServer(new TestModules(m)).
+                        setIsListeningLatch(isListeningLatch).
+                        start(new String[] { "--port=14415" });
+                return rc;
+            }
+        };
+        _service.submit(serverTask);
+        isListeningLatch.await();
+
+        byte[] content = new byte[1024 * 1024];
+        Random random = new Random(0);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(8));
+        }
+        byte[] modified = Arrays.copyOf(content, content.length + 1000);
+        for (int i = 500000; i < 510000; i++) {
+            modified[i] = (byte) ~modified[i];
+        }
+        Path src = _tempDir.newFile().toPath();
+        Path dst = modulePath.resolve("file");
+        Path back = _tempDir.newFile().toPath();
+
+        for (String compressChoice : new String[] { "lz4", "zlib" }) {
+            FileUtil.writeToFiles(content, dst);
+            FileUtil.writeToFiles(modified, src);
+            YajSyncClient client = newClient();
+            int rc = client.start(new String[] {
+                    "--port=14415", "-z", "--compress-choice=" + compressChoice,
+                    src.toString(), "localhost::test/file" });
+            assertTrue(rc == 0);
+            assertTrue(Arrays.equals(modified, Files.readAllBytes(dst)));
+            assertTrue(client.statistics().totalMatchedSize() > 0);
+
+            FileUtil.writeToFiles(content, back);
+            client = newClient();
+            rc = client.start(new String[] {
+                    "--port=14415", "-z", "--compress-choice=" + compressChoice,
+                    "localhost::test/file", back.toString() });
+            assertTrue(rc == 0);
+            assertTrue(Arrays.equals(modified, Files.readAllBytes(back)));
+            assertTrue(client.statistics().totalMatchedSize() > 0);
+            assertTrue(client.statistics().totalBytesRead() <
+                       client.statistics().totalLiteralSize());
+        }
+    }
+
     @Test(timeout=1000)
     public void testProtectedServerConnection()
             throws InterruptedException
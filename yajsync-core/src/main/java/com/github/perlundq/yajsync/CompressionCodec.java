@@ -0,0 +1,74 @@
+/*
+ * Compression codecs for literal data
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync;
+
+/**
+ * The codecs which may be used for compressing the literal data of file
+ * transfers (-z), in order of preference. ZLIB is the codec of rsync
+ * protocol 30 and is always used unless both peers agree on another one
+ * during the session handshake.
+ */
+public enum CompressionCodec
+{
+    /**
+     * LZ4 blocks, compressed independently of each other and of matched
+     * data. Much cheaper than ZLIB at a lower compression ratio.
+     */
+    LZ4("lz4"),
+
+    /**
+     * Raw deflate with the history of matched data, as native rsync.
+     */
+    ZLIB("zlib");
+
+    private final String _protocolName;
+
+    CompressionCodec(String protocolName)
+    {
+        _protocolName = protocolName;
+    }
+
+    /**
+     * @return the name of this codec as exchanged with peer, these are the
+     *         same names as used by native rsync
+     */
+    public String protocolName()
+    {
+        return _protocolName;
+    }
+
+    /**
+     * @return the codec named protocolName or null if there is no such codec
+     */
+    public static CompressionCodec fromProtocolName(String protocolName)
+    {
+        for (CompressionCodec c : values()) {
+            if (c._protocolName.equals(protocolName)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _protocolName;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Durability policies for received files
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync;
+
+/**
+ * How the data of received files is forced to disk before the files are
+ * moved into place, i.e. what is left after a crash or power loss of the
+ * receiving host.
+ */
+public enum Durability
+{
+    /**
+     * Leave it to the operating system to write the data eventually. A
+     * crash might leave files which are moved into place but are empty or
+     * incomplete. The fastest and the default.
+     */
+    NONE("none"),
+
+    /**
+     * Force the data of every file to disk before moving it into place, and
+     * its directory after. Every file costs at least two synchronous disk
+     * writes, which limits the throughput of small files.
+     */
+    PER_FILE("file"),
+
+    /**
+     * Force the data of a group of completed files to disk before moving
+     * all of them into place, and their directories after, in a separate
+     * thread. A file is then moved into place some time after it has been
+     * received, but never before its data is on disk.
+     */
+    GROUP_COMMIT("group");
+
+    private final String _name;
+
+    Durability(String name)
+    {
+        _name = name;
+    }
+
+    /**
+     * @return the durability named name (none, file or group) or null if
+     *         there is no such durability
+     */
+    public static Durability fromName(String name)
+    {
+        for (Durability d : values()) {
+            if (d._name.equals(name)) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _name;
+    }
+}
@@ -19,13 +19,13 @@ package com.github.perlundq.yajsync;
 import java.io.Console;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.nio.channels.Pipe;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -40,7 +40,11 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.github.perlundq.yajsync.attr.FileInfo;
+import com.github.perlundq.yajsync.internal.channels.LocalPipe;
+import com.github.perlundq.yajsync.internal.session.ChecksumCache;
+import com.github.perlundq.yajsync.internal.session.DigestCache;
 import com.github.perlundq.yajsync.internal.session.ClientSessionConfig;
+import com.github.perlundq.yajsync.internal.session.FileHandoff;
 import com.github.perlundq.yajsync.internal.session.FilterMode;
 import com.github.perlundq.yajsync.internal.session.Generator;
 import com.github.perlundq.yajsync.internal.session.Receiver;
@@ -155,6 +159,7 @@ public final class RsyncClient
                         Generator generator = new Generator.Builder(out,
                                                                     cfg.checksumSeed()).
                                 charset(cfg.charset()).
+                                strongChecksum(cfg.strongChecksum()).
                                 fileSelection(fileSelection).
                                 isDelete(_isDelete).
                                 isPreserveDevices(_isPreserveDevices).
@@ -302,13 +307,11 @@ public final class RsyncClient
         }
     }
 
-    private static Pipe[] pipePair()
+    // both ends of a local transfer are within this process, so there is
+    // no need for pipes of the operating system
+    private static LocalPipe[] pipePair()
     {
-        try {
-            return new Pipe[] { Pipe.open(), Pipe.open() };
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return new LocalPipe[] { new LocalPipe(), new LocalPipe() };
     }
 
     public class Local
@@ -345,13 +348,13 @@ public final class RsyncClient
         public FileListing list(Iterable<Path> srcPaths)
         {
             assert srcPaths != null;
-            Pipe[] pipePair = pipePair();
-            Pipe toSender = pipePair[0];
-            Pipe toReceiver = pipePair[1];
+            LocalPipe[] pipePair = pipePair();
+            LocalPipe toSender = pipePair[0];
+            LocalPipe toReceiver = pipePair[1];
             FileSelection fileSelection =
                     Util.defaultIfNull(_fileSelectionOrNull,
                                        FileSelection.TRANSFER_DIRS);
-            byte[] seed = BitOps.toLittleEndianBuf((int) System.currentTimeMillis());
+            byte[] seed = newChecksumSeed();
             Sender sender = new Sender.Builder(toSender.source(),
                                                toReceiver.sink(),
                                                srcPaths,
@@ -364,9 +367,11 @@ public final class RsyncClient
                     isPreserveUser(_isPreserveUser).
                     isPreserveGroup(_isPreserveGroup).
                     isNumericIds(_isNumericIds).
+                    strongChecksum(_strongChecksums.get(0)).
                     fileSelection(fileSelection).build();
             Generator generator = new Generator.Builder(toSender.sink(), seed).
                     charset(_charset).
+                    strongChecksum(_strongChecksums.get(0)).
                     fileSelection(fileSelection).
                     isDelete(_isDelete).
                     isPreserveDevices(_isPreserveDevices).
@@ -397,13 +402,14 @@ public final class RsyncClient
         {
             assert srcPaths != null;
             assert dstPath != null;
-            Pipe[] pipePair = pipePair();
-            Pipe toSender = pipePair[0];
-            Pipe toReceiver = pipePair[1];
+            LocalPipe[] pipePair = pipePair();
+            LocalPipe toSender = pipePair[0];
+            LocalPipe toReceiver = pipePair[1];
             FileSelection fileSelection =
                     Util.defaultIfNull(_fileSelectionOrNull,
                                        FileSelection.EXACT);
-            byte[] seed = BitOps.toLittleEndianBuf((int) System.currentTimeMillis());
+            byte[] seed = newChecksumSeed();
+            FileHandoff fileHandoff = _isDirectCopy ? new FileHandoff() : null;
             Sender sender = new Sender.Builder(toSender.source(),
                                                toReceiver.sink(),
                                                srcPaths,
@@ -416,9 +422,20 @@ public final class RsyncClient
                     isPreserveUser(_isPreserveUser).
                     isPreserveGroup(_isPreserveGroup).
                     isNumericIds(_isNumericIds).
+                    fileHandoff(fileHandoff).
+                    deltaParallelism(_deltaParallelism).
+                    parallelMatchThreshold(_parallelMatchThreshold).
+                    deltaFallbackThreshold(_deltaFallbackThreshold).
+                    strongChecksum(_strongChecksums.get(0)).
+                    isWholeFile(_isWholeFile).
+                    isInplace(_isInplace).
+                    isAlwaysChecksum(_isAlwaysChecksum).
+                    checksumParallelism(_checksumParallelism).
+                    digestCache(digestCacheOrNull()).
                     fileSelection(fileSelection).build();
             Generator generator = new Generator.Builder(toSender.sink(), seed).
                     charset(_charset).
+                    strongChecksum(_strongChecksums.get(0)).
                     fileSelection(fileSelection).
                     isDelete(_isDelete).
                     isPreserveDevices(_isPreserveDevices).
@@ -430,17 +447,36 @@ public final class RsyncClient
                     isPreserveGroup(_isPreserveGroup).
                     isNumericIds(_isNumericIds).
                     isIgnoreTimes(_isIgnoreTimes).
+                    isWholeFile(_isWholeFile).
+                    isKeepPartial(_isKeepPartial).
+                    partialDir(_partialDir).
+                    checksumParallelism(_checksumParallelism).
+                    checksumCache(checksumCacheOrNull()).
+                    isAlwaysChecksum(_isAlwaysChecksum).
+                    digestCache(digestCacheOrNull()).
                     isAlwaysItemize(_isAlwaysItemize).build();
             Receiver receiver = new Receiver.Builder(generator,
                                                      toReceiver.source(),
                                                      dstPath).
                     isExitEarlyIfEmptyList(true).
-                    isDeferWrite(_isDeferWrite).build();
+                    fileHandoff(fileHandoff).
+                    writeBehindLimit(_writeBehindLimit).
+                    isAsyncDigest(_isAsyncDigest).
+                    durability(_durability).
+                    groupCommit(_groupCommitSize, _groupCommitInterval).
+                    isDeferWrite(_isDeferWrite).
+                    isInplace(_isInplace).
+                    isSparse(_isSparse).
+                    isPreallocate(_isPreallocate).build();
             try {
                 boolean isOK = _rsyncTaskExecutor.exec(sender, generator,
                                                        receiver);
                 return new Result(isOK, receiver.statistics());
             } finally {
+                saveDigestCache();
+                if (fileHandoff != null) {
+                    fileHandoff.close();
+                }
                 if (_isOwnerOfExecutorService) {
                     _executorService.shutdown();
                 }
@@ -488,7 +524,9 @@ public final class RsyncClient
                                                               _out,
                                                               _charset,
                                                               fileSelection == FileSelection.RECURSE,
-                                                              _stderr);
+                                                              _stderr,
+                                                              _strongChecksums,
+                                                              Collections.<CompressionCodec>emptyList());
             return new FileListing(cfg,
                                    moduleName,
                                    serverArgs,
@@ -524,7 +562,9 @@ public final class RsyncClient
                                                               _out,
                                                               _charset,
                                                               fileSelection == FileSelection.RECURSE,
-                                                              _stderr);
+                                                              _stderr,
+                                                              _strongChecksums,
+                                                              Collections.<CompressionCodec>emptyList());
             return new ModuleListing(cfg, serverArgs);
         }
 
@@ -586,7 +626,9 @@ public final class RsyncClient
                                                                   _out,
                                                                   _charset,
                                                                   fileSelection == FileSelection.RECURSE,
-                                                                  _stderr);
+                                                                  _stderr,
+                                                                  _strongChecksums,
+                                                                  _compressionCodecs);
                 SessionStatus status = cfg.handshake(moduleName, serverArgs,
                                                      _authProvider);
                 if (_log.isLoggable(Level.FINE)) {
@@ -613,10 +655,23 @@ public final class RsyncClient
                             isPreserveGroup(_isPreserveGroup).
                             isNumericIds(_isNumericIds).
                             isInterruptible(_isInterruptible).
+                            deltaParallelism(_deltaParallelism).
+                            parallelMatchThreshold(_parallelMatchThreshold).
+                            deltaFallbackThreshold(_deltaFallbackThreshold).
+                            strongChecksum(cfg.strongChecksum()).
+                            compressionCodec(cfg.compressionCodec()).
+                            compressionLevel(_compressionLevel).
+                            skipCompress(_skipCompress).
+                            isWholeFile(_isWholeFile).
+                            isInplace(_isInplace).
+                            isAlwaysChecksum(_isAlwaysChecksum).
+                            checksumParallelism(_checksumParallelism).
+                            digestCache(digestCacheOrNull()).
                             isSafeFileList(cfg.isSafeFileList()).build();
                     boolean isOK = _rsyncTaskExecutor.exec(sender);
                     return new Result(isOK, sender.statistics());
                 } finally {
+                    saveDigestCache();
                     if (_isOwnerOfExecutorService) {
                         if (_log.isLoggable(Level.FINE)) {
                             _log.fine("shutting down " + _executorService);
@@ -666,7 +721,9 @@ public final class RsyncClient
                                                                   _out,
                                                                   _charset,
                                                                   fileSelection == FileSelection.RECURSE,
-                                                                  _stderr);
+                                                                  _stderr,
+                                                                  _strongChecksums,
+                                                                  _compressionCodecs);
                 SessionStatus status = cfg.handshake(_moduleName, serverArgs,
                                                      _authProvider);
                 if (_log.isLoggable(Level.FINE)) {
@@ -683,6 +740,7 @@ public final class RsyncClient
                     Generator generator = new Generator.Builder(_out,
                                                                 cfg.checksumSeed()).
                             charset(cfg.charset()).
+                            strongChecksum(cfg.strongChecksum()).
                             fileSelection(fileSelection).
                             isDelete(_isDelete).
                             isPreserveLinks(_isPreserveLinks).
@@ -692,12 +750,28 @@ public final class RsyncClient
                             isPreserveGroup(_isPreserveGroup).
                             isNumericIds(_isNumericIds).
                             isIgnoreTimes(_isIgnoreTimes).
+                            isWholeFile(_isWholeFile).
+                            isKeepPartial(_isKeepPartial).
+                            partialDir(_partialDir).
+                            checksumParallelism(_checksumParallelism).
+                            checksumCache(checksumCacheOrNull()).
+                            isAlwaysChecksum(_isAlwaysChecksum).
+                            digestCache(digestCacheOrNull()).
                             isAlwaysItemize(_verbosity > 1).
                             isInterruptible(_isInterruptible).build();
                     Receiver receiver = new Receiver.Builder(generator, _in,
                                                              dstPath).
                             filterMode(FilterMode.SEND).
                             isDeferWrite(_isDeferWrite).
+                            isInplace(_isInplace).
+                            isSparse(_isSparse).
+                            isPreallocate(_isPreallocate).
+                            writeBehindLimit(_writeBehindLimit).
+                            isAsyncDigest(_isAsyncDigest).
+                            durability(_durability).
+                            groupCommit(_groupCommitSize,
+                                        _groupCommitInterval).
+                            compressionCodec(cfg.compressionCodec()).
                             isExitAfterEOF(true).
                             isExitEarlyIfEmptyList(true).
                             isReceiveStatistics(true).
@@ -705,6 +779,7 @@ public final class RsyncClient
                     boolean isOK = _rsyncTaskExecutor.exec(generator, receiver);
                     return new Result(isOK, receiver.statistics());
                 } finally {
+                    saveDigestCache();
                     if (_isOwnerOfExecutorService) {
                         if (_log.isLoggable(Level.FINE)) {
                             _log.fine("shutting down " + _executorService);
@@ -729,6 +804,10 @@ public final class RsyncClient
         {
             assert mode != null;
             assert fileSelection != null;
+            List<CompressionCodec> compressionCodecs =
+                mode == Mode.REMOTE_LIST
+                    ? Collections.<CompressionCodec>emptyList()
+                    : _compressionCodecs;
             List<String> serverArgs = new LinkedList<>();
             serverArgs.add("--server");
             boolean isPeerSender = mode != Mode.REMOTE_SEND;
@@ -765,9 +844,21 @@ public final class RsyncClient
             if (_isIgnoreTimes) {
                 sb.append("I");
             }
+            if (_isAlwaysChecksum && mode != Mode.REMOTE_LIST) {
+                sb.append("c");
+            }
+            if (_isWholeFile) {
+                sb.append("W");
+            }
+            if (_isSparse) {
+                sb.append("S");
+            }
             if (fileSelection == FileSelection.RECURSE) {
                 sb.append("r");
             }
+            if (!compressionCodecs.isEmpty()) {
+                sb.append("z");
+            }
             sb.append("e");
             sb.append(".");
             if (fileSelection == FileSelection.RECURSE) {
@@ -775,6 +866,10 @@ public final class RsyncClient
             }
             sb.append("s");
             sb.append("f");
+            if (ClientSessionConfig.isNegotiable(_strongChecksums,
+                                                 compressionCodecs)) {
+                sb.append("X"); // CF_NEGOTIATED_ALGORITHMS, yajsync extension
+            }
             serverArgs.add(sb.toString());
 
             if (_isDelete && mode == Mode.REMOTE_SEND) {
@@ -783,6 +878,23 @@ public final class RsyncClient
             if (_isNumericIds) {
                 serverArgs.add("--numeric-ids");
             }
+            if (_isInplace) {
+                serverArgs.add("--inplace");
+            }
+            if (_isPreallocate) {
+                serverArgs.add("--preallocate");
+            }
+            if (_durability != Durability.NONE) {
+                serverArgs.add("--fsync");
+            }
+            if (_checksumSeed != 0) {
+                serverArgs.add("--checksum-seed=" + _checksumSeed);
+            }
+            if (_partialDir != null) {
+                serverArgs.add("--partial-dir=" + _partialDir);
+            } else if (_isKeepPartial) {
+                serverArgs.add("--partial");
+            }
             if (_isDelete &&
                 _fileSelectionOrNull == FileSelection.TRANSFER_DIRS)
             {
@@ -793,6 +905,15 @@ public final class RsyncClient
             if (_isPreserveDevices && !_isPreserveSpecials) {
                 serverArgs.add("--no-specials");
             }
+            if (!compressionCodecs.isEmpty() &&
+                _compressionLevel != Sender.DEFAULT_COMPRESSION_LEVEL) {
+                serverArgs.add("--compress-level=" + _compressionLevel);
+            }
+            if (!compressionCodecs.isEmpty() && isPeerSender &&
+                _skipCompress != Sender.DEFAULT_SKIP_COMPRESS) {
+                serverArgs.add("--skip-compress=" +
+                               String.join("/", _skipCompress));
+            }
 
             serverArgs.add("."); // arg delimiter
 
@@ -830,6 +951,19 @@ public final class RsyncClient
         private boolean _isDeferWrite;
         private boolean _isDelete;
         private boolean _isIgnoreTimes;
+        private boolean _isAlwaysChecksum;
+        private boolean _isWholeFile;
+        private boolean _isInplace;
+        private boolean _isSparse;
+        private boolean _isPreallocate;
+        private boolean _isKeepPartial;
+        private Path _partialDir;
+        private Path _checksumCacheDir;
+        private long _checksumCacheSizeLimit = ChecksumCache.DEFAULT_SIZE_LIMIT;
+        private Path _digestCacheFile;
+        private int _digestCacheSize = DigestCache.DEFAULT_MAX_ENTRIES;
+        private int _checksumSeed;
+        private boolean _isDirectCopy = true;
         private boolean _isPreserveDevices;
         private boolean _isPreserveSpecials;
         private boolean _isPreserveLinks;
@@ -841,6 +975,26 @@ public final class RsyncClient
         private Charset _charset = Charset.forName(Text.UTF8_NAME);
         private ExecutorService _executorService;
         private FileSelection _fileSelection;
+        private int _deltaParallelism = 1;
+        private int _checksumParallelism = 1;
+        private long _parallelMatchThreshold =
+            Sender.DEFAULT_PARALLEL_MATCH_THRESHOLD;
+        private long _deltaFallbackThreshold =
+            Sender.DEFAULT_DELTA_FALLBACK_THRESHOLD;
+        private long _writeBehindLimit = Receiver.DEFAULT_WRITE_BEHIND_LIMIT;
+        private boolean _isAsyncDigest;
+        private Durability _durability = Durability.NONE;
+        private int _groupCommitSize = Receiver.DEFAULT_GROUP_COMMIT_SIZE;
+        private long _groupCommitInterval =
+            Receiver.DEFAULT_GROUP_COMMIT_INTERVAL;
+        private List<StrongChecksum> _strongChecksums =
+            Arrays.asList(StrongChecksum.values());
+        private boolean _isCompress;
+        private int _compressionLevel = Sender.DEFAULT_COMPRESSION_LEVEL;
+        private List<CompressionCodec> _compressionCodecs =
+            Arrays.asList(CompressionCodec.values());
+        private Collection<String> _skipCompress =
+            Sender.DEFAULT_SKIP_COMPRESS;
         private int _verbosity;
         private PrintStream _stderr = System.err;
 
@@ -886,6 +1040,160 @@ public final class RsyncClient
             return this;
         }
 
+        /**
+         * @param isWholeFile true if files should always be sent as a whole
+         *        without using the delta transfer algorithm against any
+         *        existing replica, which is faster if the network (or local
+         *        disk) is faster than computing and comparing checksums
+         */
+        public Builder isWholeFile(boolean isWholeFile)
+        {
+            _isWholeFile = isWholeFile;
+            return this;
+        }
+
+        /**
+         * @param isInplace true if the destination files should be updated
+         *        in place instead of being rebuilt into temp files, which
+         *        avoids rewriting (and temporarily doubling the disk space
+         *        of) huge files with few changes. A file is left in an
+         *        inconsistent state if the transfer is interrupted
+         */
+        public Builder isInplace(boolean isInplace)
+        {
+            _isInplace = isInplace;
+            return this;
+        }
+
+        /**
+         * @param isSparse true if blocks of zeroes of the files received
+         *        should be left as holes in the destination files instead of
+         *        being written, e.g. for disk images
+         */
+        public Builder isSparse(boolean isSparse)
+        {
+            _isSparse = isSparse;
+            return this;
+        }
+
+        /**
+         * @param isPreallocate true if the destination files should be
+         *        extended to their final size before their data is written
+         */
+        public Builder isPreallocate(boolean isPreallocate)
+        {
+            _isPreallocate = isPreallocate;
+            return this;
+        }
+
+        /**
+         * @param isKeepPartial true if the data received of a file should be
+         *        kept if its transfer fails, replacing the destination file
+         *        unless there is a partial dir, so that a following transfer
+         *        only has to send the rest of it
+         */
+        public Builder isKeepPartial(boolean isKeepPartial)
+        {
+            _isKeepPartial = isKeepPartial;
+            return this;
+        }
+
+        /**
+         * @param partialDir the directory, relative to the directory of each
+         *        destination file unless absolute (local transfers only),
+         *        where the data of failed transfers is kept until the file
+         *        is transferred, or null (default). Implies isKeepPartial
+         */
+        public Builder partialDir(Path partialDir)
+        {
+            _partialDir = partialDir;
+            return this;
+        }
+
+        /**
+         * @param checksumSeed the seed of the block checksums of every
+         *        transfer, or 0 (default) for a new seed based on the current
+         *        time. A fixed seed is what makes a checksum cache useful
+         */
+        public Builder checksumSeed(int checksumSeed)
+        {
+            _checksumSeed = checksumSeed;
+            return this;
+        }
+
+        /**
+         * @param checksumCacheDir the directory where the block checksums of
+         *        basis files (when receiving) are cached between transfers,
+         *        or null (default) for no cache
+         */
+        public Builder checksumCache(Path checksumCacheDir)
+        {
+            _checksumCacheDir = checksumCacheDir;
+            return this;
+        }
+
+        /**
+         * @param checksumCacheSizeLimit the maximum total size in bytes of
+         *        the cached block checksums, the least recently used are
+         *        evicted first (default 256 MiB)
+         */
+        public Builder checksumCacheSizeLimit(long checksumCacheSizeLimit)
+        {
+            assert checksumCacheSizeLimit >= 0;
+            _checksumCacheSizeLimit = checksumCacheSizeLimit;
+            return this;
+        }
+
+        /**
+         * @param isAlwaysChecksum true if files of the same size are
+         *        compared by the digests of their contents rather than their
+         *        modification times (--checksum). Every regular file is then
+         *        read by both sender and receiver
+         */
+        public Builder isAlwaysChecksum(boolean isAlwaysChecksum)
+        {
+            _isAlwaysChecksum = isAlwaysChecksum;
+            return this;
+        }
+
+        /**
+         * @param digestCacheFile the file where the digests of files
+         *        computed with --checksum are cached between transfers, or
+         *        null (default) for no cache
+         */
+        public Builder digestCache(Path digestCacheFile)
+        {
+            _digestCacheFile = digestCacheFile;
+            return this;
+        }
+
+        /**
+         * @param digestCacheSize the maximum number of cached digests, the
+         *        least recently used are evicted first (default 1048576)
+         */
+        public Builder digestCacheSize(int digestCacheSize)
+        {
+            assert digestCacheSize >= 0;
+            _digestCacheSize = digestCacheSize;
+            return this;
+        }
+
+        /**
+         * @param isDirectCopy true (default) if the data of files sent as a
+         *        whole during a local transfer (new files, or all files
+         *        with isWholeFile) should be copied directly from the source
+         *        file to the destination file, instead of being sent through
+         *        the Sender to the Receiver. This does not affect files
+         *        updated with the delta transfer algorithm, nor the file
+         *        list, itemizing or deletions, which always go through the
+         *        Sender, Generator and Receiver as for a remote transfer
+         */
+        public Builder isDirectCopy(boolean isDirectCopy)
+        {
+            _isDirectCopy = isDirectCopy;
+            return this;
+        }
+
         public Builder isPreserveDevices(boolean isPreserveDevices)
         {
             _isPreserveDevices = isPreserveDevices;
@@ -957,6 +1265,168 @@ public final class RsyncClient
             return this;
         }
 
+        /**
+         * @param deltaParallelism the number of files (when sending) whose
+         *        delta may be generated concurrently (default 1)
+         */
+        public Builder deltaParallelism(int deltaParallelism)
+        {
+            assert deltaParallelism > 0;
+            _deltaParallelism = deltaParallelism;
+            return this;
+        }
+
+        /**
+         * @param checksumParallelism the number of files (when receiving)
+         *        whose block checksums may be generated concurrently, also
+         *        the number of files whose digests may be computed
+         *        concurrently with --checksum (default 1)
+         */
+        public Builder checksumParallelism(int checksumParallelism)
+        {
+            assert checksumParallelism > 0;
+            _checksumParallelism = checksumParallelism;
+            return this;
+        }
+
+        /**
+         * @param parallelMatchThreshold the minimum size of files (when
+         *        sending) whose blocks are matched in parallel, if
+         *        deltaParallelism is greater than 1 (default 256 MiB)
+         */
+        public Builder parallelMatchThreshold(long parallelMatchThreshold)
+        {
+            assert parallelMatchThreshold >= 0;
+            _parallelMatchThreshold = parallelMatchThreshold;
+            return this;
+        }
+
+        /**
+         * @param deltaFallbackThreshold the number of bytes of a file (when
+         *        sending) scanned for matching blocks after which the rest
+         *        of it is sent as literal data if almost nothing has matched,
+         *        0 disables the fallback (default 16 MiB)
+         */
+        public Builder deltaFallbackThreshold(long deltaFallbackThreshold)
+        {
+            assert deltaFallbackThreshold >= 0;
+            _deltaFallbackThreshold = deltaFallbackThreshold;
+            return this;
+        }
+
+        /**
+         * @param writeBehindLimit the maximum number of bytes of received
+         *        data (when receiving) buffered for writing to disk by a
+         *        separate thread, after which receiving from peer blocks, 0
+         *        writes all data directly (default 0)
+         */
+        public Builder writeBehindLimit(long writeBehindLimit)
+        {
+            assert writeBehindLimit >= 0;
+            _writeBehindLimit = writeBehindLimit;
+            return this;
+        }
+
+        /**
+         * @param isAsyncDigest true if the digest of each file received is
+         *        computed by a separate thread, so that hashing is not
+         *        competing with receiving from peer (default false)
+         */
+        public Builder isAsyncDigest(boolean isAsyncDigest)
+        {
+            _isAsyncDigest = isAsyncDigest;
+            return this;
+        }
+
+        /**
+         * @param durability how received files are forced to disk before
+         *        being moved into place (default NONE). A remote receiver is
+         *        asked to force every file (--fsync) unless NONE, which a
+         *        yajsync server does according to its own durability or
+         *        else PER_FILE
+         */
+        public Builder durability(Durability durability)
+        {
+            assert durability != null;
+            _durability = durability;
+            return this;
+        }
+
+        /**
+         * @param size the maximum number of files forced to disk and moved
+         *        into place together with GROUP_COMMIT (default 64)
+         * @param intervalMillis the maximum time in milliseconds a received
+         *        file waits for more files of its group with GROUP_COMMIT
+         *        (default 100)
+         */
+        public Builder groupCommit(int size, long intervalMillis)
+        {
+            assert size > 0;
+            assert intervalMillis >= 0;
+            _groupCommitSize = size;
+            _groupCommitInterval = intervalMillis;
+            return this;
+        }
+
+        /**
+         * @param strongChecksum the only strong checksum algorithm to use
+         *        for block and file digests besides MD5, which is always used
+         *        with peers not supporting the negotiation of it. The default
+         *        is to use the fastest algorithm supported by peer.
+         */
+        public Builder checksumChoice(StrongChecksum strongChecksum)
+        {
+            assert strongChecksum != null;
+            _strongChecksums = Collections.singletonList(strongChecksum);
+            return this;
+        }
+
+        /**
+         * @param isCompress compress literal file data sent over the
+         *        network (default false), ignored by local transfers
+         */
+        public Builder isCompress(boolean isCompress)
+        {
+            _isCompress = isCompress;
+            return this;
+        }
+
+        /**
+         * @param compressionLevel the zlib compression level 1 - 9, -1 for
+         *        the default level or 0 for not compressing at all
+         */
+        public Builder compressionLevel(int compressionLevel)
+        {
+            assert compressionLevel >= -1 && compressionLevel <= 9;
+            _compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * @param compressionCodec the only compression codec to use besides
+         *        zlib, which is always used with peers not supporting the
+         *        negotiation of it. The default is to use the fastest codec
+         *        supported by peer.
+         */
+        public Builder compressChoice(CompressionCodec compressionCodec)
+        {
+            assert compressionCodec != null;
+            _compressionCodecs = Collections.singletonList(compressionCodec);
+            return this;
+        }
+
+        /**
+         * @param skipCompress the suffixes of the names of files not to
+         *        compress when sending, matched case insensitively (default
+         *        Sender.DEFAULT_SKIP_COMPRESS)
+         */
+        public Builder skipCompress(Collection<String> skipCompress)
+        {
+            assert skipCompress != null;
+            _skipCompress = skipCompress;
+            return this;
+        }
+
         public Builder stderr(PrintStream stderr)
         {
             _stderr = stderr;
@@ -977,6 +1447,19 @@ public final class RsyncClient
     private final boolean _isDeferWrite;
     private final boolean _isDelete;
     private final boolean _isIgnoreTimes;
+    private final boolean _isAlwaysChecksum;
+    private final boolean _isWholeFile;
+    private final boolean _isInplace;
+    private final boolean _isSparse;
+    private final boolean _isPreallocate;
+    private final boolean _isKeepPartial;
+    private final Path _partialDir;
+    private final Path _checksumCacheDir;
+    private final long _checksumCacheSizeLimit;
+    private final int _checksumSeed;
+    private final Path _digestCacheFile;
+    private final int _digestCacheSize;
+    private final boolean _isDirectCopy;
     private final boolean _isOwnerOfExecutorService;
     private final boolean _isPreserveDevices;
     private final boolean _isPreserveSpecials;
@@ -989,9 +1472,25 @@ public final class RsyncClient
     private final Charset _charset;
     private final ExecutorService _executorService;
     private final FileSelection _fileSelectionOrNull;
+    private final int _deltaParallelism;
+    private final int _checksumParallelism;
+    private final long _parallelMatchThreshold;
+    private final long _deltaFallbackThreshold;
+    private final long _writeBehindLimit;
+    private final boolean _isAsyncDigest;
+    private final Durability _durability;
+    private final int _groupCommitSize;
+    private final long _groupCommitInterval;
+    private final List<StrongChecksum> _strongChecksums;
+    // empty if not compressing
+    private final List<CompressionCodec> _compressionCodecs;
+    private final int _compressionLevel;
+    private final Collection<String> _skipCompress;
     private final int _verbosity;
     private final PrintStream _stderr;
     private final RsyncTaskExecutor _rsyncTaskExecutor;
+    private ChecksumCache _checksumCache;
+    private DigestCache _digestCache;
 
     private RsyncClient(Builder builder)
     {
@@ -1001,6 +1500,19 @@ public final class RsyncClient
         _isDeferWrite = builder._isDeferWrite;
         _isDelete = builder._isDelete;
         _isIgnoreTimes = builder._isIgnoreTimes;
+        _isAlwaysChecksum = builder._isAlwaysChecksum;
+        _isWholeFile = builder._isWholeFile;
+        _isInplace = builder._isInplace;
+        _isSparse = builder._isSparse;
+        _isPreallocate = builder._isPreallocate;
+        _isKeepPartial = builder._isKeepPartial;
+        _partialDir = builder._partialDir;
+        _checksumCacheDir = builder._checksumCacheDir;
+        _checksumCacheSizeLimit = builder._checksumCacheSizeLimit;
+        _checksumSeed = builder._checksumSeed;
+        _digestCacheFile = builder._digestCacheFile;
+        _digestCacheSize = builder._digestCacheSize;
+        _isDirectCopy = builder._isDirectCopy;
         _isPreserveDevices = builder._isPreserveDevices;
         _isPreserveSpecials = builder._isPreserveSpecials;
         _isPreserveUser = builder._isPreserveUser;
@@ -1019,7 +1531,97 @@ public final class RsyncClient
         }
         _rsyncTaskExecutor = new RsyncTaskExecutor(_executorService);
         _fileSelectionOrNull = builder._fileSelection;
+        _deltaParallelism = builder._deltaParallelism;
+        _checksumParallelism = builder._checksumParallelism;
+        _parallelMatchThreshold = builder._parallelMatchThreshold;
+        _deltaFallbackThreshold = builder._deltaFallbackThreshold;
+        _writeBehindLimit = builder._writeBehindLimit;
+        _isAsyncDigest = builder._isAsyncDigest;
+        _durability = builder._durability;
+        _groupCommitSize = builder._groupCommitSize;
+        _groupCommitInterval = builder._groupCommitInterval;
+        _strongChecksums = builder._strongChecksums;
+        if (builder._isCompress && builder._compressionLevel != 0) {
+            _compressionCodecs = builder._compressionCodecs;
+        } else {
+            _compressionCodecs = Collections.emptyList();
+        }
+        _compressionLevel = builder._compressionLevel;
+        _skipCompress = builder._skipCompress;
         _verbosity = builder._verbosity;
         _stderr = builder._stderr;
     }
+
+    private byte[] newChecksumSeed()
+    {
+        int seed = _checksumSeed != 0 ? _checksumSeed
+                                      : (int) System.currentTimeMillis();
+        return BitOps.toLittleEndianBuf(seed);
+    }
+
+    /**
+     * @return the checksum cache shared by all transfers of this client,
+     *         opened by the first one, or null if there is none. There is
+     *         none without a fixed checksum seed as nothing cached would
+     *         ever be used
+     */
+    private synchronized ChecksumCache checksumCacheOrNull()
+    {
+        if (_checksumCache == null && _checksumCacheDir != null &&
+            _checksumSeed != 0) {
+            try {
+                _checksumCache = ChecksumCache.open(_checksumCacheDir,
+                                                    _checksumCacheSizeLimit);
+            } catch (IOException e) {
+                if (_log.isLoggable(Level.WARNING)) {
+                    _log.warning(String.format(
+                        "failed to open checksum cache %s, continuing " +
+                        "without it: %s", _checksumCacheDir, e.getMessage()));
+                }
+            }
+        }
+        return _checksumCache;
+    }
+
+    /**
+     * @return the digest cache shared by all transfers of this client,
+     *         opened by the first one with --checksum, or null if there is
+     *         none
+     */
+    private synchronized DigestCache digestCacheOrNull()
+    {
+        if (_digestCache == null && _digestCacheFile != null &&
+            _isAlwaysChecksum) {
+            try {
+                _digestCache = DigestCache.open(_digestCacheFile,
+                                                _digestCacheSize);
+            } catch (IOException e) {
+                if (_log.isLoggable(Level.WARNING)) {
+                    _log.warning(String.format(
+                        "failed to open digest cache %s, continuing " +
+                        "without it: %s", _digestCacheFile, e.getMessage()));
+                }
+            }
+        }
+        return _digestCache;
+    }
+
+    private void saveDigestCache()
+    {
+        DigestCache digestCache;
+        synchronized (this) {
+            digestCache = _digestCache;
+        }
+        if (digestCache != null) {
+            try {
+                digestCache.save();
+            } catch (IOException e) {
+                if (_log.isLoggable(Level.WARNING)) {
+                    _log.warning(String.format("failed to save digest " +
+                                               "cache %s: %s", _digestCacheFile,
+                                               e.getMessage()));
+                }
+            }
+        }
+    }
 }
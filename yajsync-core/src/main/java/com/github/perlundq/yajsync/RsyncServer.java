@@ -19,12 +19,18 @@
  */
 package com.github.perlundq.yajsync;
 
+import java.io.IOException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.github.perlundq.yajsync.internal.session.ChecksumCache;
+import com.github.perlundq.yajsync.internal.session.DigestCache;
 import com.github.perlundq.yajsync.internal.session.FilterMode;
 import com.github.perlundq.yajsync.internal.session.Generator;
 import com.github.perlundq.yajsync.internal.session.Receiver;
@@ -40,12 +46,30 @@ import com.github.perlundq.yajsync.server.module.Modules;
 public class RsyncServer
 {
     public static final int DEFAULT_LISTEN_PORT = 873;
+    private static final Logger _log =
+        Logger.getLogger(RsyncServer.class.getName());
 
     public static class Builder
     {
         private boolean _isDeferWrite;
         private Charset _charset = Charset.forName(Text.UTF8_NAME);
         private ExecutorService _executorService;
+        private int _deltaParallelism = 1;
+        private int _checksumParallelism = 1;
+        private Path _checksumCacheDir;
+        private long _checksumCacheSizeLimit = ChecksumCache.DEFAULT_SIZE_LIMIT;
+        private Path _digestCacheFile;
+        private int _digestCacheSize = DigestCache.DEFAULT_MAX_ENTRIES;
+        private long _parallelMatchThreshold =
+            Sender.DEFAULT_PARALLEL_MATCH_THRESHOLD;
+        private long _deltaFallbackThreshold =
+            Sender.DEFAULT_DELTA_FALLBACK_THRESHOLD;
+        private long _writeBehindLimit = Receiver.DEFAULT_WRITE_BEHIND_LIMIT;
+        private boolean _isAsyncDigest;
+        private Durability _durability = Durability.NONE;
+        private int _groupCommitSize = Receiver.DEFAULT_GROUP_COMMIT_SIZE;
+        private long _groupCommitInterval =
+            Receiver.DEFAULT_GROUP_COMMIT_INTERVAL;
 
         public Builder isDeferWrite(boolean isDeferWrite)
         {
@@ -53,6 +77,153 @@ public class RsyncServer
             return this;
         }
 
+        /**
+         * @param deltaParallelism the number of files (when sending) whose
+         *        delta may be generated concurrently (default 1)
+         */
+        public Builder deltaParallelism(int deltaParallelism)
+        {
+            assert deltaParallelism > 0;
+            _deltaParallelism = deltaParallelism;
+            return this;
+        }
+
+        /**
+         * @param checksumParallelism the number of files (when receiving)
+         *        whose block checksums may be generated concurrently, also
+         *        the number of files whose digests may be computed
+         *        concurrently with --checksum (default 1)
+         */
+        public Builder checksumParallelism(int checksumParallelism)
+        {
+            assert checksumParallelism > 0;
+            _checksumParallelism = checksumParallelism;
+            return this;
+        }
+
+        /**
+         * @param checksumCacheDir the directory where the block checksums of
+         *        basis files (when receiving) are cached between transfers,
+         *        or null (default) for no cache. Only used by clients with a
+         *        fixed checksum seed (--checksum-seed)
+         */
+        public Builder checksumCache(Path checksumCacheDir)
+        {
+            _checksumCacheDir = checksumCacheDir;
+            return this;
+        }
+
+        /**
+         * @param checksumCacheSizeLimit the maximum total size in bytes of
+         *        the cached block checksums, the least recently used are
+         *        evicted first (default 256 MiB)
+         */
+        public Builder checksumCacheSizeLimit(long checksumCacheSizeLimit)
+        {
+            assert checksumCacheSizeLimit >= 0;
+            _checksumCacheSizeLimit = checksumCacheSizeLimit;
+            return this;
+        }
+
+        /**
+         * @param digestCacheFile the file where the digests of files
+         *        computed for clients using --checksum are cached between
+         *        sessions, or null (default) for no cache
+         */
+        public Builder digestCache(Path digestCacheFile)
+        {
+            _digestCacheFile = digestCacheFile;
+            return this;
+        }
+
+        /**
+         * @param digestCacheSize the maximum number of cached digests, the
+         *        least recently used are evicted first (default 1048576)
+         */
+        public Builder digestCacheSize(int digestCacheSize)
+        {
+            assert digestCacheSize >= 0;
+            _digestCacheSize = digestCacheSize;
+            return this;
+        }
+
+        /**
+         * @param parallelMatchThreshold the minimum size of files (when
+         *        sending) whose blocks are matched in parallel, if
+         *        deltaParallelism is greater than 1 (default 256 MiB)
+         */
+        public Builder parallelMatchThreshold(long parallelMatchThreshold)
+        {
+            assert parallelMatchThreshold >= 0;
+            _parallelMatchThreshold = parallelMatchThreshold;
+            return this;
+        }
+
+        /**
+         * @param deltaFallbackThreshold the number of bytes of a file (when
+         *        sending) scanned for matching blocks after which the rest
+         *        of it is sent as literal data if almost nothing has matched,
+         *        0 disables the fallback (default 16 MiB)
+         */
+        public Builder deltaFallbackThreshold(long deltaFallbackThreshold)
+        {
+            assert deltaFallbackThreshold >= 0;
+            _deltaFallbackThreshold = deltaFallbackThreshold;
+            return this;
+        }
+
+        /**
+         * @param writeBehindLimit the maximum number of bytes of received
+         *        data (when receiving) buffered for writing to disk by a
+         *        separate thread, after which receiving from peer blocks, 0
+         *        writes all data directly (default 0)
+         */
+        public Builder writeBehindLimit(long writeBehindLimit)
+        {
+            assert writeBehindLimit >= 0;
+            _writeBehindLimit = writeBehindLimit;
+            return this;
+        }
+
+        /**
+         * @param isAsyncDigest true if the digest of each file received is
+         *        computed by a separate thread, so that hashing is not
+         *        competing with receiving from peer (default false)
+         */
+        public Builder isAsyncDigest(boolean isAsyncDigest)
+        {
+            _isAsyncDigest = isAsyncDigest;
+            return this;
+        }
+
+        /**
+         * @param durability how received files are forced to disk before
+         *        being moved into place (default NONE). A client requiring
+         *        it (--fsync) always gets at least PER_FILE
+         */
+        public Builder durability(Durability durability)
+        {
+            assert durability != null;
+            _durability = durability;
+            return this;
+        }
+
+        /**
+         * @param size the maximum number of files forced to disk and moved
+         *        into place together with GROUP_COMMIT (default 64)
+         * @param intervalMillis the maximum time in milliseconds a received
+         *        file waits for more files of its group with GROUP_COMMIT
+         *        (default 100)
+         */
+        public Builder groupCommit(int size, long intervalMillis)
+        {
+            assert size > 0;
+            assert intervalMillis >= 0;
+            _groupCommitSize = size;
+            _groupCommitInterval = intervalMillis;
+            return this;
+        }
+
         /**
          *
          * @throws UnsupportedCharsetException if charset is not supported
@@ -75,12 +246,40 @@ public class RsyncServer
 
     private final boolean _isDeferWrite;
     private final Charset _charset;
+    private final int _deltaParallelism;
+    private final int _checksumParallelism;
+    private final Path _checksumCacheDir;
+    private final long _checksumCacheSizeLimit;
+    private final Path _digestCacheFile;
+    private final int _digestCacheSize;
+    private final long _parallelMatchThreshold;
+    private final long _deltaFallbackThreshold;
+    private final long _writeBehindLimit;
+    private final boolean _isAsyncDigest;
+    private final Durability _durability;
+    private final int _groupCommitSize;
+    private final long _groupCommitInterval;
     private final RsyncTaskExecutor _rsyncTaskExecutor;
+    private ChecksumCache _checksumCache;
+    private DigestCache _digestCache;
 
     private RsyncServer(Builder builder)
     {
         _isDeferWrite = builder._isDeferWrite;
         _charset = builder._charset;
+        _deltaParallelism = builder._deltaParallelism;
+        _checksumParallelism = builder._checksumParallelism;
+        _checksumCacheDir = builder._checksumCacheDir;
+        _checksumCacheSizeLimit = builder._checksumCacheSizeLimit;
+        _digestCacheFile = builder._digestCacheFile;
+        _digestCacheSize = builder._digestCacheSize;
+        _parallelMatchThreshold = builder._parallelMatchThreshold;
+        _deltaFallbackThreshold = builder._deltaFallbackThreshold;
+        _writeBehindLimit = builder._writeBehindLimit;
+        _isAsyncDigest = builder._isAsyncDigest;
+        _durability = builder._durability;
+        _groupCommitSize = builder._groupCommitSize;
+        _groupCommitInterval = builder._groupCommitInterval;
         _rsyncTaskExecutor = new RsyncTaskExecutor(builder._executorService);
     }
 
@@ -117,12 +316,30 @@ public class RsyncServer
                     isPreserveGroup(cfg.isPreserveGroup()).
                     isNumericIds(cfg.isNumericIds()).
                     isInterruptible(isChannelsInterruptible).
+                    deltaParallelism(_deltaParallelism).
+                    parallelMatchThreshold(_parallelMatchThreshold).
+                    deltaFallbackThreshold(_deltaFallbackThreshold).
+                    strongChecksum(cfg.strongChecksum()).
+                    compressionCodec(cfg.compressionCodec()).
+                    compressionLevel(cfg.compressionLevel()).
+                    skipCompress(cfg.skipCompress()).
+                    isWholeFile(cfg.isWholeFile()).
+                    isInplace(cfg.isInplace()).
+                    isAlwaysChecksum(cfg.isAlwaysChecksum()).
+                    checksumParallelism(_checksumParallelism).
+                    digestCache(cfg.isAlwaysChecksum() ? digestCacheOrNull()
+                                                       : null).
                     isSafeFileList(cfg.isSafeFileList()).build();
-            return _rsyncTaskExecutor.exec(sender);
+            try {
+                return _rsyncTaskExecutor.exec(sender);
+            } finally {
+                saveDigestCache();
+            }
         } else {
             Generator generator = new Generator.Builder(out,
                                                         cfg.checksumSeed()).
                     charset(cfg.charset()).
+                    strongChecksum(cfg.strongChecksum()).
                     fileSelection(cfg.fileSelection()).
                     isDelete(cfg.isDelete()).
                     isPreserveDevices(cfg.isPreserveDevices()).
@@ -134,6 +351,16 @@ public class RsyncServer
                     isPreserveGroup(cfg.isPreserveGroup()).
                     isNumericIds(cfg.isNumericIds()).
                     isIgnoreTimes(cfg.isIgnoreTimes()).
+                    isWholeFile(cfg.isWholeFile()).
+                    isKeepPartial(cfg.isKeepPartial()).
+                    partialDir(cfg.partialDir()).
+                    checksumParallelism(_checksumParallelism).
+                    checksumCache(cfg.isFixedChecksumSeed()
+                                      ? checksumCacheOrNull()
+                                      : null).
+                    isAlwaysChecksum(cfg.isAlwaysChecksum()).
+                    digestCache(cfg.isAlwaysChecksum() ? digestCacheOrNull()
+                                                       : null).
                     isAlwaysItemize(cfg.verbosity() > 1).
                     isInterruptible(isChannelsInterruptible).build();
             Receiver receiver = Receiver.Builder.newServer(generator,
@@ -142,8 +369,82 @@ public class RsyncServer
                     filterMode(cfg.isDelete() ? FilterMode.RECEIVE
                                               : FilterMode.NONE).
                     isDeferWrite(_isDeferWrite).
+                    isInplace(cfg.isInplace()).
+                    isSparse(cfg.isSparse()).
+                    isPreallocate(cfg.isPreallocate()).
+                    writeBehindLimit(_writeBehindLimit).
+                    isAsyncDigest(_isAsyncDigest).
+                    durability(cfg.isFsync() && _durability == Durability.NONE
+                                   ? Durability.PER_FILE : _durability).
+                    groupCommit(_groupCommitSize, _groupCommitInterval).
+                    compressionCodec(cfg.compressionCodec()).
                     isSafeFileList(cfg.isSafeFileList()).build();
-            return _rsyncTaskExecutor.exec(generator, receiver);
+            try {
+                return _rsyncTaskExecutor.exec(generator, receiver);
+            } finally {
+                saveDigestCache();
+            }
+        }
+    }
+
+    /**
+     * @return the checksum cache shared by all sessions of this server,
+     *         opened by the first one, or null if there is none
+     */
+    private synchronized ChecksumCache checksumCacheOrNull()
+    {
+        if (_checksumCache == null && _checksumCacheDir != null) {
+            try {
+                _checksumCache = ChecksumCache.open(_checksumCacheDir,
+                                                    _checksumCacheSizeLimit);
+            } catch (IOException e) {
+                if (_log.isLoggable(Level.WARNING)) {
+                    _log.warning(String.format(
+                        "failed to open checksum cache %s, continuing " +
+                        "without it: %s", _checksumCacheDir, e.getMessage()));
+                }
+            }
+        }
+        return _checksumCache;
+    }
+
+    /**
+     * @return the digest cache shared by all sessions of this server, opened
+     *         by the first one with --checksum, or null if there is none
+     */
+    private synchronized DigestCache digestCacheOrNull()
+    {
+        if (_digestCache == null && _digestCacheFile != null) {
+            try {
+                _digestCache = DigestCache.open(_digestCacheFile,
+                                                _digestCacheSize);
+            } catch (IOException e) {
+                if (_log.isLoggable(Level.WARNING)) {
+                    _log.warning(String.format(
+                        "failed to open digest cache %s, continuing " +
+                        "without it: %s", _digestCacheFile, e.getMessage()));
+                }
+            }
+        }
+        return _digestCache;
+    }
+
+    private void saveDigestCache()
+    {
+        DigestCache digestCache;
+        synchronized (this) {
+            digestCache = _digestCache;
+        }
+        if (digestCache != null) {
+            try {
+                digestCache.save();
+            } catch (IOException e) {
+                if (_log.isLoggable(Level.WARNING)) {
+                    _log.warning(String.format("failed to save digest " +
+                                               "cache %s: %s", _digestCacheFile,
+                                               e.getMessage()));
+                }
+            }
         }
     }
 }
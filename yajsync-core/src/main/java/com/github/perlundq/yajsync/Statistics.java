@@ -80,4 +80,24 @@ public interface Statistics
      *     several segments).
      */
     long fileListTransferTime();
+
+    /**
+     * @return number of files (sent) whose matching of blocks was stopped
+     *     early as unproductive, sending the rest of the file as literal
+     *     data (0 unless implemented)
+     */
+    default int numDeltaFallbacks()
+    {
+        return 0;
+    }
+
+    /**
+     * @return total amount of literal file data sent without matching after
+     *     stopping the matching of blocks early (in bytes, 0 unless
+     *     implemented)
+     */
+    default long totalDeltaFallbackSize()
+    {
+        return 0;
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Strong checksum algorithms for block and whole file digests
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * The strong checksum algorithms which may be used for block digests and
+ * whole file digests, in order of preference. MD5 is the algorithm of rsync
+ * protocol 30 and is always used unless both peers agree on another one
+ * during the session handshake.
+ *
+ * (The enum constants shadow the classes of the same names, hence the fully
+ * qualified class names below.)
+ */
+public enum StrongChecksum
+{
+    XXH128("xxh128",
+           com.github.perlundq.yajsync.internal.util.XXH128.DIGEST_LENGTH) {
+        @Override
+        public MessageDigest newInstance()
+        {
+            return new com.github.perlundq.yajsync.internal.util.XXH128();
+        }
+    },
+
+    MD5("md5",
+        com.github.perlundq.yajsync.internal.util.MD5.DIGEST_LENGTH) {
+        @Override
+        public MessageDigest newInstance()
+        {
+            return com.github.perlundq.yajsync.internal.util.MD5.newInstance();
+        }
+    };
+
+    private final String _protocolName;
+    private final int _digestLength;
+
+    StrongChecksum(String protocolName, int digestLength)
+    {
+        _protocolName = protocolName;
+        _digestLength = digestLength;
+    }
+
+    public abstract MessageDigest newInstance();
+
+    /**
+     * @return the name of this algorithm as exchanged with peer, these are
+     *         the same names as used by native rsync
+     */
+    public String protocolName()
+    {
+        return _protocolName;
+    }
+
+    public int digestLength()
+    {
+        return _digestLength;
+    }
+
+    /**
+     * Complete the digest computation of md, storing the result in buf
+     * instead of a newly allocated array. md is reset afterwards.
+     */
+    public void digestInto(MessageDigest md, byte[] buf)
+    {
+        assert buf.length >= _digestLength;
+        try {
+            md.digest(buf, 0, _digestLength);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);              // buf is always large enough so this should not happen
+        }
+    }
+
+    /**
+     * @return the algorithm named protocolName or null if there is no such
+     *         algorithm
+     */
+    public static StrongChecksum fromProtocolName(String protocolName)
+    {
+        for (StrongChecksum s : values()) {
+            if (s._protocolName.equals(protocolName)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _protocolName;
+    }
+}
@@ -18,6 +18,8 @@
  */
 package com.github.perlundq.yajsync.internal.channels;
 
+import java.nio.ByteBuffer;
+
 public class AutoFlushableRsyncDuplexChannel extends AutoFlushableDuplexChannel
                                              implements Taggable, IndexDecoder,
                                                         IndexEncoder
@@ -41,12 +43,26 @@ public class AutoFlushableRsyncDuplexChannel extends AutoFlushableDuplexChannel
         }
     }
 
+    /**
+     * Flush the output regardless of the input, for a thread writing while
+     * another one is reading.
+     */
+    public void flushOutput() throws ChannelException
+    {
+        super.flush();
+    }
+
     @Override
     public void putMessage(Message message) throws ChannelException
     {
         _outChannel.putMessage(message);
     }
 
+    public void sendData(ByteBuffer src) throws ChannelException
+    {
+        _outChannel.sendData(src);
+    }
+
     @Override
     public void encodeIndex(int index) throws ChannelException
     {
@@ -60,6 +76,15 @@ public class AutoFlushableRsyncDuplexChannel extends AutoFlushableDuplexChannel
         return _inChannel.decodeIndex();
     }
 
+    /**
+     * Decode the next index without flushing the output first, for when
+     * another thread is writing to it meanwhile.
+     */
+    public int decodeIndexWithoutFlush() throws ChannelException
+    {
+        return _inChannel.decodeIndex();
+    }
+
     public int numBytesAvailable()
     {
         return _inChannel.numBytesAvailable();
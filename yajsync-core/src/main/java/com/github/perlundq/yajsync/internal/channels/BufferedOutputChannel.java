@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.WritableByteChannel;
 
 import com.github.perlundq.yajsync.internal.util.Consts;
@@ -34,7 +35,9 @@ public class BufferedOutputChannel implements Bufferable
 {
     private static final int DEFAULT_BUF_SIZE = 8 * 1024;
     private final WritableByteChannel _sinkChannel;
-    protected final ByteBuffer _buffer;
+    // replaced by another one of the same size when handed over to a
+    // LocalPipe
+    protected ByteBuffer _buffer;
     private long _numBytesWritten;
 
     public BufferedOutputChannel(WritableByteChannel sock)
@@ -71,13 +74,63 @@ public class BufferedOutputChannel implements Bufferable
         }
     }
 
+    /**
+     * Send all buffered data followed by all remaining bytes of src, using
+     * a single gathering write if possible. src is not copied into the
+     * buffer.
+     */
+    protected void flushAndSend(ByteBuffer src) throws ChannelException
+    {
+        _buffer.flip();
+        if (_sinkChannel instanceof GatheringByteChannel) {
+            GatheringByteChannel sink = (GatheringByteChannel) _sinkChannel;
+            ByteBuffer[] srcs = { _buffer, src };
+            try {
+                while (_buffer.hasRemaining() || src.hasRemaining()) {
+                    long count = sink.write(srcs);
+                    if (count <= 0) {
+                        throw new ChannelEOFException(String.format(
+                            "channel write unexpectedly returned %d (EOF)",
+                            count));
+                    }
+                    _numBytesWritten += count;
+                }
+            } catch (ClosedByInterruptException e) {
+                throw new RuntimeInterruptException(e);
+            } catch (IOException e) {
+                throw new ChannelException(e);
+            }
+        } else {
+            send(_buffer);
+            send(src);
+        }
+        _buffer.clear();
+    }
+
     @Override
     public void flush() throws ChannelException
     {
         if (numBytesBuffered() > 0) {
             _buffer.flip();
-            send(_buffer);
-            _buffer.clear();
+            if (_sinkChannel instanceof LocalPipe.Sink) {
+                exchange((LocalPipe.Sink) _sinkChannel);
+            } else {
+                send(_buffer);
+                _buffer.clear();
+            }
+        }
+    }
+
+    private void exchange(LocalPipe.Sink sink) throws ChannelException
+    {
+        try {
+            int count = _buffer.remaining();
+            _buffer = sink.exchange(_buffer);
+            _numBytesWritten += count;
+        } catch (ClosedByInterruptException e) {
+            throw new RuntimeInterruptException(e);
+        } catch (IOException e) {
+            throw new ChannelException(e);
         }
     }
 
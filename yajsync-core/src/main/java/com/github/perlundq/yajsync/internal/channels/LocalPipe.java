@@ -0,0 +1,405 @@
+/*
+ * An in-memory pipe between two threads of the same process
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.perlundq.yajsync.internal.util.Environment;
+
+/**
+ * A replacement of java.nio.channels.Pipe for connecting two threads of the
+ * same process, e.g. the Sender and the Receiver of a local transfer,
+ * without any system calls or copying of data through the kernel.
+ *
+ * The data is kept in a ring of pooled buffers. Data written to the sink
+ * is appended to the buffer at the tail of the ring and may be read as soon
+ * as the write returns; the buffer is handed over to the source once it is
+ * full, after which the sink continues with the next free buffer. A writer
+ * having its own buffer of the same kind as the pooled ones may instead
+ * hand it over as a whole with Sink.exchange, getting a free pooled buffer
+ * in return, so that its data is not copied on the way in.
+ *
+ * The ring has a single producer and a single consumer: each end must only
+ * be used by one thread at a time. A thread waiting for the other end is
+ * parked, and is like for an InterruptibleChannel closed and woken up with a
+ * ClosedByInterruptException if interrupted.
+ */
+public final class LocalPipe
+{
+    private static final int DEFAULT_NUM_BUFFERS = 64;
+    // the same as the output buffers of Sender and Generator, so that they
+    // may be exchanged
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    // the number of times to check for the other end before parking
+    private static final int NUM_SPINS = 64;
+
+    private final class Source implements ReadableByteChannel
+    {
+        // the part of the buffer at head not yet read, null until there is
+        // any data in it
+        private ByteBuffer _view;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException
+        {
+            checkInterrupt(this);
+            if (_isSourceClosed) {
+                throw new ClosedChannelException();
+            } else if (!dst.hasRemaining()) {
+                return 0;
+            }
+            int count = 0;
+            while (dst.hasRemaining()) {
+                long head = _head;
+                long tail = _tail;
+                int length = _fillLength;
+                if (tail != _tail) {
+                    continue; // length may be that of a later buffer
+                }
+                int slot = (int) head & _mask;
+                if (head < tail) {
+                    length = _lengths[slot];
+                }
+                if (_view == null && length > 0) {
+                    _view = _ring[slot].duplicate();
+                    _view.position(0);
+                }
+                int position = _view == null ? 0 : _view.position();
+                if (position < length) {
+                    _view.limit(length);
+                    count += transfer(_view, dst);
+                } else if (head < tail) {
+                    // fully read, hand it back to the sink
+                    _view = null;
+                    _head = head + 1;
+                    wakeUp(_writer);
+                } else if (count > 0 || !awaitData(head, position)) {
+                    break;
+                }
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return !_isSourceClosed;
+        }
+
+        @Override
+        public void close()
+        {
+            _isSourceClosed = true;
+            wakeUp(_writer);
+            wakeUp(_reader);
+        }
+    }
+
+    public final class Sink implements GatheringByteChannel
+    {
+        private Sink() {}
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException
+        {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException
+        {
+            ensureWritable();
+            long count = 0;
+            for (int i = offset; i < offset + length; i++) {
+                ByteBuffer src = srcs[i];
+                while (src.hasRemaining()) {
+                    ByteBuffer buf = _ring[(int) _tail & _mask];
+                    if (!buf.hasRemaining()) {
+                        handOver();
+                        buf = _ring[(int) _tail & _mask];
+                    }
+                    count += transfer(src, buf);
+                    _fillLength = buf.position();
+                    wakeUp(_reader);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Hand over filled, which must be flipped, to the source without
+         * copying it if it is of the same kind as the pooled buffers and
+         * at least half full, otherwise write its contents like write.
+         * filled must not be used afterwards by the caller.
+         *
+         * @return an empty buffer to use instead of filled, in the same
+         *         byte order
+         */
+        public ByteBuffer exchange(ByteBuffer filled) throws IOException
+        {
+            ensureWritable();
+            if (filled.capacity() != _bufferSize ||
+                filled.isDirect() != _isDirect || filled.position() != 0 ||
+                filled.remaining() < _bufferSize / 2) {
+                write(filled);
+                filled.clear();
+                return filled;
+            }
+            if (_fillLength > 0) {
+                handOver();
+            }
+            int slot = (int) _tail & _mask;
+            ByteBuffer free = _ring[slot];
+            filled.position(filled.limit());
+            _ring[slot] = filled;
+            handOver();
+            free.clear();
+            free.order(filled.order());
+            return free;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return !_isSinkClosed;
+        }
+
+        @Override
+        public void close()
+        {
+            _isSinkClosed = true;
+            wakeUp(_reader);
+            wakeUp(_writer);
+        }
+    }
+
+    private final ByteBuffer[] _ring;
+    // the number of bytes of each handed over buffer
+    private final int[] _lengths;
+    private final int _mask;
+    private final int _bufferSize;
+    private final boolean _isDirect;
+    private final Source _source = new Source();
+    private final Sink _sink = new Sink();
+    // the index of the buffer being read, only updated by the reader
+    private volatile long _head;
+    // the index of the buffer being written, only updated by the writer
+    private volatile long _tail;
+    // the number of bytes written to the buffer at tail
+    private volatile int _fillLength;
+    private volatile Thread _reader;
+    private volatile Thread _writer;
+    private volatile boolean _isSourceClosed;
+    private volatile boolean _isSinkClosed;
+
+    public LocalPipe()
+    {
+        this(DEFAULT_NUM_BUFFERS, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param numBuffers the number of buffers of the ring, a power of 2 and
+     *        at least 2
+     * @param bufferSize the size of every buffer
+     */
+    public LocalPipe(int numBuffers, int bufferSize)
+    {
+        assert numBuffers > 1 && Integer.bitCount(numBuffers) == 1;
+        assert bufferSize > 0;
+        _isDirect = Environment.isAllocateDirect();
+        _ring = new ByteBuffer[numBuffers];
+        for (int i = 0; i < numBuffers; i++) {
+            _ring[i] = _isDirect ? ByteBuffer.allocateDirect(bufferSize)
+                                 : ByteBuffer.allocate(bufferSize);
+        }
+        _lengths = new int[numBuffers];
+        _mask = numBuffers - 1;
+        _bufferSize = bufferSize;
+    }
+
+    public ReadableByteChannel source()
+    {
+        return _source;
+    }
+
+    public Sink sink()
+    {
+        return _sink;
+    }
+
+    private static int transfer(ByteBuffer src, ByteBuffer dst)
+    {
+        int length = Math.min(src.remaining(), dst.remaining());
+        if (src.remaining() <= length) {
+            dst.put(src);
+        } else {
+            int limit = src.limit();
+            src.limit(src.position() + length);
+            dst.put(src);
+            src.limit(limit);
+        }
+        return length;
+    }
+
+    private static void wakeUp(Thread threadOrNull)
+    {
+        if (threadOrNull != null) {
+            LockSupport.unpark(threadOrNull);
+        }
+    }
+
+    private void ensureWritable() throws IOException
+    {
+        checkInterrupt(_sink);
+        if (_isSinkClosed) {
+            throw new ClosedChannelException();
+        }
+        ensureConnected();
+    }
+
+    /**
+     * Hand over the buffer at tail to the source and continue with the next
+     * one, waiting for it to be free.
+     */
+    private void handOver() throws IOException
+    {
+        long tail = _tail;
+        // the buffer at tail is not free until it is handed over
+        while (tail + 1 - _head == _ring.length) {
+            awaitSpace(tail);
+        }
+        int slot = (int) tail & _mask;
+        _lengths[slot] = _ring[slot].position();
+        _ring[(int) (tail + 1) & _mask].clear();
+        // NOTE: the fill length must be reset before tail is updated, as the
+        // source takes it as that of the buffer at tail if tail is the same
+        // before and after reading it. A fill length of 0 read together
+        // with the previous tail is only taken as no more data yet
+        _fillLength = 0;
+        _tail = tail + 1;
+        wakeUp(_reader);
+    }
+
+    /**
+     * Wait until there is more data than position in the buffer at head,
+     * the buffer at head is handed over or the sink is closed.
+     *
+     * @return false if there is no more data
+     */
+    private boolean awaitData(long head, int position) throws IOException
+    {
+        for (int i = 0; i < NUM_SPINS; i++) {
+            ensureOpen(_isSourceClosed);
+            if (isDataAvailable(head, position)) {
+                return true;
+            } else if (_isSinkClosed) {
+                return isDataAvailable(head, position);
+            }
+            Thread.yield();
+        }
+        _reader = Thread.currentThread();
+        try {
+            if (!isDataAvailable(head, position) && !_isSinkClosed &&
+                !_isSourceClosed) {
+                LockSupport.park(this);
+            }
+        } finally {
+            _reader = null;
+        }
+        checkInterrupt(_source);
+        ensureOpen(_isSourceClosed);
+        return isDataAvailable(head, position) || !_isSinkClosed;
+    }
+
+    private boolean isDataAvailable(long head, int position)
+    {
+        return head != _tail || _fillLength > position;
+    }
+
+    /**
+     * Wait until the buffer after tail is free or the source is closed.
+     */
+    private void awaitSpace(long tail) throws IOException
+    {
+        for (int i = 0; i < NUM_SPINS; i++) {
+            ensureOpen(_isSinkClosed);
+            ensureConnected();
+            if (tail + 1 - _head < _ring.length) {
+                return;
+            }
+            Thread.yield();
+        }
+        _writer = Thread.currentThread();
+        try {
+            if (tail + 1 - _head == _ring.length && !_isSourceClosed &&
+                !_isSinkClosed) {
+                LockSupport.park(this);
+            }
+        } finally {
+            _writer = null;
+        }
+        checkInterrupt(_sink);
+        ensureOpen(_isSinkClosed);
+        ensureConnected();
+    }
+
+    private static void ensureOpen(boolean isClosed)
+        throws AsynchronousCloseException
+    {
+        if (isClosed) {
+            throw new AsynchronousCloseException();
+        }
+    }
+
+    private void ensureConnected() throws IOException
+    {
+        if (_isSourceClosed) {
+            throw new IOException("Broken pipe");
+        }
+    }
+
+    // the interrupt status is left set, like for an InterruptibleChannel
+    private static void checkInterrupt(Channel channel)
+        throws ClosedByInterruptException
+    {
+        if (Thread.currentThread().isInterrupted()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignored, the interrupt is what matters
+            }
+            throw new ClosedByInterruptException();
+        }
+    }
+}
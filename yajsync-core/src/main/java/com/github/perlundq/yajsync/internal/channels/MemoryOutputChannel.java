@@ -0,0 +1,108 @@
+/*
+ * Writable collecting rsync basic data in memory
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.channels;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Collects everything written to it in a growing heap buffer, using the same
+ * byte order as the rsync channels, so that it later can be sent as is to
+ * the peer.
+ */
+public class MemoryOutputChannel implements Writable
+{
+    private ByteBuffer _buffer;
+
+    public MemoryOutputChannel(int initialSize)
+    {
+        assert initialSize > 0;
+        _buffer = ByteBuffer.allocate(initialSize).
+                             order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void ensureRemaining(int numBytes)
+    {
+        if (_buffer.remaining() < numBytes) {
+            long minSize = (long) _buffer.position() + numBytes;
+            long nextSize = Math.max(minSize, 2L * _buffer.capacity());
+            if (minSize > Integer.MAX_VALUE) {
+                throw new IllegalStateException(String.format(
+                    "unable to buffer more than %d bytes (%d)",
+                    Integer.MAX_VALUE, minSize));
+            }
+            ByteBuffer result = ByteBuffer.allocate(
+                (int) Math.min(Integer.MAX_VALUE, nextSize)).
+                order(ByteOrder.LITTLE_ENDIAN);
+            _buffer.flip();
+            result.put(_buffer);
+            _buffer = result;
+        }
+    }
+
+    /**
+     * @return a buffer of all the bytes written so far
+     */
+    public ByteBuffer flip()
+    {
+        ByteBuffer result = _buffer.duplicate();
+        result.flip();
+        return result;
+    }
+
+    public int numBytesWritten()
+    {
+        return _buffer.position();
+    }
+
+    @Override
+    public void put(ByteBuffer src)
+    {
+        ensureRemaining(src.remaining());
+        _buffer.put(src);
+    }
+
+    @Override
+    public void put(byte[] src, int offset, int length)
+    {
+        ensureRemaining(length);
+        _buffer.put(src, offset, length);
+    }
+
+    @Override
+    public void putByte(byte b)
+    {
+        ensureRemaining(1);
+        _buffer.put(b);
+    }
+
+    @Override
+    public void putChar(char c)
+    {
+        ensureRemaining(2);
+        _buffer.putChar(c);
+    }
+
+    @Override
+    public void putInt(int i)
+    {
+        ensureRemaining(4);
+        _buffer.putInt(i);
+    }
+}
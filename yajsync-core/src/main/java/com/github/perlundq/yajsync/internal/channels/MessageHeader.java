@@ -25,7 +25,7 @@ import java.util.Objects;
 public class MessageHeader
 {
     private static final int MSG_TYPE_OFFSET = 7;
-    private static final int MSG_MAX_LENGTH = 0xFFFFFF;
+    static final int MSG_MAX_LENGTH = 0xFFFFFF;
     private final MessageCode _code;
     private final int _length;
 
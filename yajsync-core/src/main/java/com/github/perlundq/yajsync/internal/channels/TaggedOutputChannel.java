@@ -20,9 +20,11 @@
  */
 package com.github.perlundq.yajsync.internal.channels;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 
 import com.github.perlundq.yajsync.internal.util.Consts;
+import com.github.perlundq.yajsync.internal.util.Util;
 
 public class TaggedOutputChannel extends BufferedOutputChannel
                                  implements Taggable
@@ -80,6 +82,33 @@ public class TaggedOutputChannel extends BufferedOutputChannel
         }
     }
 
+    /**
+     * Send all remaining bytes of src as data, written directly from src
+     * after any buffered data instead of being copied into the buffer. Only
+     * worthwhile for large amounts of data, e.g. whole files.
+     */
+    public void sendData(ByteBuffer src) throws ChannelException
+    {
+        while (src.hasRemaining()) {
+            int length = Math.min(src.remaining(),
+                                  MessageHeader.MSG_MAX_LENGTH);
+            if (_buffer.remaining() <= TAG_SIZE) {
+                flush();
+            } else if (numBytesUntagged() > 0) {
+                tagCurrentData();
+                updateTagOffsetAndBufPos(_buffer.position());
+            }
+            // the header of src is sent as the last buffered bytes
+            putMessageHeader(_tag_offset, new MessageHeader(MessageCode.DATA,
+                                                            length));
+            ByteBuffer slice = Util.slice(src, src.position(),
+                                          src.position() + length);
+            flushAndSend(slice);
+            src.position(slice.position());
+            updateTagOffsetAndBufPos(DEFAULT_TAG_OFFSET);
+        }
+    }
+
     @Override
     public int numBytesBuffered()
     {
@@ -25,6 +25,7 @@ import java.nio.file.Path;
 public class AutoDeletable implements AutoCloseable
 {
     private final Path _path;
+    private boolean _isDeletable = true;
 
     public AutoDeletable(Path path)
     {
@@ -42,9 +43,20 @@ public class AutoDeletable implements AutoCloseable
         return _path.toString();
     }
 
+    /**
+     * Leave the file as is when closed, e.g. after handing it over to
+     * someone else.
+     */
+    public void keep()
+    {
+        _isDeletable = false;
+    }
+
     @Override
     public void close() throws IOException
     {
-        Files.deleteIfExists(_path);
+        if (_isDeletable) {
+            Files.deleteIfExists(_path);
+        }
     }
 }
@@ -23,25 +23,31 @@ package com.github.perlundq.yajsync.internal.io;
 import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
-import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.github.perlundq.yajsync.internal.util.Environment;
 import com.github.perlundq.yajsync.internal.util.RuntimeInterruptException;
 
-public class FileView implements AutoCloseable
+/**
+ * A sliding window over the contents of a file. Offsets are relative to a
+ * backing buffer of capacity() bytes, whose contents are accessed using
+ * valueAt and slice. The backing storage is provided by subclasses - either a
+ * heap buffer filled from an InputStream or a read only mapping of (a part
+ * of) the file.
+ */
+public abstract class FileView implements AutoCloseable
 {
     private static final Logger _log =
         Logger.getLogger(FileView.class.getName());
     public final static int DEFAULT_BLOCK_SIZE = 8 * 1024;
-    private final InputStream _is;
-    private final int _windowLength;  // size of sliding window (<= _buf.length)
-    private final byte[] _buf;
+    // files smaller than this are cheaper to read than to map
+    private static final long MIN_MAPPED_FILE_SIZE = 1024 * 1024;
+    private final int _windowLength;  // size of sliding window (<= capacity())
     private final String _fileName;
     private int _startOffset = 0;
     private int _endOffset = -1;     // length == _endOffset - _startOffset + 1
@@ -50,39 +56,92 @@ public class FileView implements AutoCloseable
     private long _remainingBytes;
     private IOException _ioError = null;
 
-    public FileView(Path path, long fileSize, int windowLength, int bufferSize)
-        throws FileViewOpenFailed
+    protected FileView(Path path, long size, int windowLength)
     {
         assert path != null;
-        assert fileSize >= 0;
+        assert size >= 0;
         assert windowLength >= 0;
-        assert bufferSize >= 0;
-        assert windowLength <= bufferSize;
+        _fileName = path.toString();
+        _remainingBytes = size;
+        _windowLength = size > 0 ? windowLength : 0;
+    }
 
-        try {
-            _fileName = path.toString();
-            _remainingBytes = fileSize;
-
-            if (fileSize > 0) {
-                _is = Files.newInputStream(path);
-                _windowLength = windowLength;
-                _buf = new byte[bufferSize];
-                slide(0);
-                assert _startOffset == 0;
-                assert _endOffset >= 0;
-            } else {
-                _is = null;
-                _windowLength = 0;
-                _buf = new byte[0];
-            }
+    /**
+     * Open a view of path, using a memory mapped view for large files if
+     * supported and enabled, falling back to a stream based view otherwise.
+     *
+     * @throws FileViewNotFound if path does not exist
+     * @throws FileViewOpenFailed on any other error opening path
+     */
+    public static FileView open(Path path, long fileSize, int windowLength,
+                                int bufferSize)
+        throws FileViewOpenFailed
+    {
+        return open(path, 0, fileSize, windowLength, bufferSize);
+    }
 
-        } catch (FileNotFoundException | NoSuchFileException e) { // TODO: which exception should we really catch
-            throw new FileViewNotFound(e.getMessage());
-        } catch (IOException e) {
-            throw new FileViewOpenFailed(e.getMessage());
+    /**
+     * Open a view of the size bytes of path starting at position.
+     *
+     * @throws FileViewNotFound if path does not exist
+     * @throws FileViewOpenFailed on any other error opening path
+     */
+    public static FileView open(Path path, long position, long size,
+                                int windowLength, int bufferSize)
+        throws FileViewOpenFailed
+    {
+        assert position >= 0;
+        assert windowLength <= bufferSize;
+        if (size >= MIN_MAPPED_FILE_SIZE &&
+            windowLength <= MappedFileView.DEFAULT_MAP_LENGTH &&
+            Environment.isMapFiles()) {
+            try {
+                return new MappedFileView(path, position, size, windowLength,
+                                          MappedFileView.DEFAULT_MAP_LENGTH);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                throw new FileViewNotFound(e.getMessage());
+            } catch (ClosedByInterruptException e) {
+                throw new RuntimeInterruptException(e);
+            } catch (IOException | UnsupportedOperationException e) {
+                if (_log.isLoggable(Level.FINE)) {
+                    _log.fine(String.format("failed to map %s, falling back " +
+                                            "to reading it: %s", path, e));
+                }
+            }
         }
+        return new StreamFileView(path, position, size, windowLength,
+                                  bufferSize);
     }
 
+    /**
+     * @return the number of bytes of the backing buffer
+     */
+    protected abstract int capacity();
+
+    /**
+     * @return the backing buffer, whose position and limit are only used by
+     *         slice
+     */
+    protected abstract ByteBuffer buffer();
+
+    protected abstract byte get(int offset);
+
+    /**
+     * Make at least 1 and at most length more bytes available at offset.
+     *
+     * @return the number of bytes made available, or -1 on end of file
+     */
+    protected abstract int read(int offset, int length) throws IOException;
+
+    protected abstract void zero(int offset, int length);
+
+    /**
+     * Move length bytes at offset to the start of the backing buffer.
+     */
+    protected abstract void move(int offset, int length) throws IOException;
+
+    protected abstract void closeSource() throws IOException;
+
     @Override
     public String toString()
     {
@@ -97,14 +156,12 @@ public class FileView implements AutoCloseable
     @Override
     public void close() throws FileViewReadError
     {
-        if (_is != null) {
-            try {
-                _is.close();
-            } catch (ClosedByInterruptException e) {
-                throw new RuntimeInterruptException(e);
-            } catch (IOException e) {
-                throw new FileViewReadError(e);
-            }
+        try {
+            closeSource();
+        } catch (ClosedByInterruptException e) {
+            throw new RuntimeInterruptException(e);
+        } catch (IOException e) {
+            throw new FileViewReadError(e);
         }
 
         if (_ioError != null) {
@@ -112,16 +169,28 @@ public class FileView implements AutoCloseable
         }
     }
 
-    public byte[] array()
+    /**
+     * @return a buffer whose remaining bytes are the length bytes at offset.
+     *         The returned buffer is shared and only valid until the next
+     *         call to slice or slide.
+     */
+    public ByteBuffer slice(int offset, int length)
     {
-        return _buf;
+        assert offset >= 0;
+        assert length >= 0;
+        assert offset + length <= _readOffset + 1;
+        ByteBuffer buf = buffer();
+        buf.clear();
+        buf.position(offset);
+        buf.limit(offset + length);
+        return buf;
     }
 
     // TODO: the names startOffset and firstOffset are confusingly similar
     public int startOffset()
     {
         assert _startOffset >= 0;
-        assert _startOffset <= _buf.length - 1 || _is == null;
+        assert _startOffset <= capacity() - 1 || _windowLength == 0;
         return _startOffset;
     }
 
@@ -129,10 +198,9 @@ public class FileView implements AutoCloseable
     public int markOffset()
     {
         assert _markOffset >= -1;
-        assert _markOffset <= _buf.length - 1 || _is == null;
+        assert _markOffset <= capacity() - 1 || _windowLength == 0;
         return _markOffset;
     }
-
     // TODO: the names startOffset and firstOffset are confusingly similar
     public int firstOffset()
     {
@@ -184,21 +252,21 @@ public class FileView implements AutoCloseable
 
     private int bufferSpaceAvailable()
     {
-        assert _readOffset <= _buf.length - 1;
-        return (_buf.length - 1) - _readOffset;
+        assert _readOffset <= capacity() - 1;
+        return (capacity() - 1) - _readOffset;
     }
 
     public byte valueAt(int offset)
     {
         assert offset >= firstOffset();
         assert offset <= _endOffset;
-        return _buf[offset];
+        return get(offset);
     }
 
     public boolean isFull()
     {
-        assert totalBytes() <= _buf.length;
-        return totalBytes() == _buf.length; // || windowLength() == 0 && _remainingBytes == 0
+        assert totalBytes() <= capacity();
+        return totalBytes() == capacity(); // || windowLength() == 0 && _remainingBytes == 0
     }
 
     private void readBetween(int min, int max) throws IOException
@@ -209,7 +277,7 @@ public class FileView implements AutoCloseable
 
         int numBytesRead = 0;
         while (numBytesRead < min) {
-            int len = _is.read(_buf, _readOffset + 1 , max - numBytesRead);
+            int len = read(_readOffset + 1, max - numBytesRead);
             if (len <= 0) {
                 throw new EOFException(String.format("File ended prematurely " +
                                                      "(%d)", len));
@@ -232,7 +300,7 @@ public class FileView implements AutoCloseable
         assert amount <= _remainingBytes;
         assert amount <= bufferSpaceAvailable();
 
-        Arrays.fill(_buf, _readOffset + 1, _readOffset + 1 + amount, (byte)0);
+        zero(_readOffset + 1, amount);
         _readOffset += amount;
         _remainingBytes -= amount;
     }
@@ -271,7 +339,13 @@ public class FileView implements AutoCloseable
 
         if (minBytesToRead > 0) {
             if (minBytesToRead > bufferSpaceAvailable()) {
-                compact();
+                try {
+                    compact();
+                } catch (ClosedByInterruptException e) {
+                    throw new RuntimeInterruptException(e);
+                } catch (IOException e) {
+                    _ioError = e;
+                }
             }
 
             int saveOffset = _readOffset;
@@ -298,7 +372,7 @@ public class FileView implements AutoCloseable
         assert _endOffset <= _readOffset;
     }
 
-    private void compact()
+    private void compact() throws IOException
     {
         assert numBytesPrefetched() >= 0;
         assert totalBytes() >= 0; // unless we'd support skipping
@@ -309,11 +383,10 @@ public class FileView implements AutoCloseable
         if (_log.isLoggable(Level.FINEST)) {
             _log.finest(String.format(
                 "compact of %s before - buf[%d] %d bytes to buf[0], " +
-                "buf.length = %d",
-                this, shiftOffset, numShifts, _buf.length));
+                "capacity = %d",
+                this, shiftOffset, numShifts, capacity()));
         }
 
-        System.arraycopy(_buf, shiftOffset, _buf, 0, numShifts);
         _startOffset -= shiftOffset;
         _endOffset -= shiftOffset;
         _readOffset -= shiftOffset;
@@ -326,6 +399,8 @@ public class FileView implements AutoCloseable
         assert _readOffset >= -1;
         assert _markOffset >= -1;
 
+        move(shiftOffset, numShifts);
+
         if (_log.isLoggable(Level.FINEST)) {
             _log.finest(String.format("compacted %d bytes, result after: %s",
                                       numShifts, this));
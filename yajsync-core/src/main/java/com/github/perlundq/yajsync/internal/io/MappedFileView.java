@@ -0,0 +1,183 @@
+/*
+ * FileView backed by bounded read only mappings of a file
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Maps at most mapLength bytes of the file at a time, the backing buffer is
+ * the current mapping itself. Slices are read only views of the mapping, so
+ * the bytes of the file are never copied, reading is free as all bytes of
+ * the current mapping are available right away and compaction remaps the
+ * file at the new first offset instead of moving any data.
+ *
+ * The size of the file is retrieved once when opened and no mapping extends
+ * beyond it, as accessing a mapped page beyond the end of a file raises
+ * SIGBUS. A file shorter than the view is a read error like any other: the
+ * backing buffer is then replaced by a heap buffer, the rest of the view is
+ * read as zeroes and the error is reported by close. So is a remap that
+ * fails.
+ *
+ * A file truncated by a concurrent writer while it is mapped still raises
+ * SIGBUS when a consumer of a slice accesses a page beyond the new end of
+ * the file. The JVM turns that into an InternalError, which ends the
+ * session. Mapping is therefore experimental and opt-in (see
+ * Environment.isMapFiles), and unsafe for files that may be truncated while
+ * being transferred. Old mappings are released when garbage collected,
+ * until then a mapped file can also not be moved or deleted on Windows.
+ */
+class MappedFileView extends FileView
+{
+    static final int DEFAULT_MAP_LENGTH = 16 * 1024 * 1024;
+
+    private final FileChannel _channel;
+    private final long _endPosition; // file position of end of view or file
+    private final int _mapLength;
+    private long _mapPosition;       // file position of buffer offset 0
+    private ByteBuffer _map;
+    private ByteBuffer _slice;       // a view of _map whose limit is modified
+    private boolean _isFailed;       // _map is then a heap buffer
+
+    /**
+     * @throws IOException if the file could not be opened or mapped
+     * @throws UnsupportedOperationException if the file system of path does
+     *         not support mapping files
+     */
+    MappedFileView(Path path, long position, long size, int windowLength,
+                   int mapLength)
+        throws IOException
+    {
+        super(path, size, windowLength);
+        assert position >= 0;
+        assert size > 0;
+        assert windowLength <= mapLength;
+
+        _mapPosition = position;
+        _mapLength = mapLength;
+        _channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            _endPosition = Math.max(position,
+                                    Math.min(position + size,
+                                             _channel.size()));
+            setMap(map());
+        } catch (IOException | UnsupportedOperationException e) {
+            _channel.close();
+            throw e;
+        }
+        slide(0);
+        assert startOffset() == 0;
+        assert endOffset() >= 0;
+    }
+
+    private ByteBuffer map() throws IOException
+    {
+        long length = Math.min(_mapLength, _endPosition - _mapPosition);
+        return _channel.map(FileChannel.MapMode.READ_ONLY, _mapPosition,
+                            length);
+    }
+
+    private void setMap(ByteBuffer map)
+    {
+        _map = map;
+        _slice = map.duplicate();
+    }
+
+    /**
+     * Replace the mapping with a heap buffer holding a copy of the length
+     * bytes at offset at its start.
+     */
+    private void fail(int offset, int length)
+    {
+        assert !_isFailed;
+        ByteBuffer heap = ByteBuffer.allocate(_mapLength);
+        ByteBuffer src = _map.duplicate();
+        src.position(offset);
+        src.limit(offset + length);
+        heap.put(src);
+        heap.clear();
+        _isFailed = true;
+        setMap(heap);
+    }
+
+    @Override
+    protected int capacity()
+    {
+        return _mapLength;
+    }
+
+    @Override
+    protected ByteBuffer buffer()
+    {
+        return _slice;
+    }
+
+    @Override
+    protected byte get(int offset)
+    {
+        return _map.get(offset);
+    }
+
+    @Override
+    protected int read(int offset, int length) throws IOException
+    {
+        int available = _map.capacity() - offset;
+        if (_isFailed || available <= 0) {
+            throw new EOFException(String.format(
+                "File ended prematurely at %d", _mapPosition + offset));
+        }
+        return Math.min(length, available);
+    }
+
+    @Override
+    protected void zero(int offset, int length)
+    {
+        if (!_isFailed) {
+            fail(0, offset);
+        }
+        Arrays.fill(_map.array(), offset, offset + length, (byte) 0);
+    }
+
+    @Override
+    protected void move(int offset, int length) throws IOException
+    {
+        if (_isFailed) {
+            System.arraycopy(_map.array(), offset, _map.array(), 0, length);
+            return;
+        }
+        _mapPosition += offset;
+        try {
+            setMap(map());
+        } catch (IOException e) {
+            fail(offset, length);
+            throw e;
+        }
+    }
+
+    @Override
+    protected void closeSource() throws IOException
+    {
+        _channel.close();
+    }
+}
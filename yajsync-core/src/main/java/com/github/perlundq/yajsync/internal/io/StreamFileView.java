@@ -0,0 +1,131 @@
+/*
+ * FileView reading file contents into a heap buffer
+ *
+ * Copyright (C) 1996-2011 by Andrew Tridgell, Wayne Davison, and others
+ * Copyright (C) 2013, 2014 Per Lundqvist
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.io;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+class StreamFileView extends FileView
+{
+    private final InputStream _is;
+    private final byte[] _buf;
+    private final ByteBuffer _wrapped;
+
+    StreamFileView(Path path, long position, long size, int windowLength,
+                   int bufferSize)
+        throws FileViewOpenFailed
+    {
+        super(path, size, windowLength);
+        assert position >= 0;
+        assert bufferSize >= 0;
+        assert windowLength <= bufferSize;
+
+        try {
+            if (size > 0) {
+                _is = Files.newInputStream(path);
+                try {
+                    skipFully(_is, position);
+                } catch (IOException e) {
+                    _is.close();
+                    throw e;
+                }
+                _buf = new byte[bufferSize];
+                _wrapped = ByteBuffer.wrap(_buf);
+                slide(0);
+                assert startOffset() == 0;
+                assert endOffset() >= 0;
+            } else {
+                _is = null;
+                _buf = new byte[0];
+                _wrapped = ByteBuffer.wrap(_buf);
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) { // TODO: which exception should we really catch
+            throw new FileViewNotFound(e.getMessage());
+        } catch (IOException e) {
+            throw new FileViewOpenFailed(e.getMessage());
+        }
+    }
+
+    private static void skipFully(InputStream is, long amount)
+        throws IOException
+    {
+        long remaining = amount;
+        while (remaining > 0) {
+            long numSkipped = is.skip(remaining);
+            if (numSkipped <= 0) {
+                throw new EOFException(String.format(
+                    "File ended prematurely while skipping %d bytes",
+                    amount));
+            }
+            remaining -= numSkipped;
+        }
+    }
+
+    @Override
+    protected int capacity()
+    {
+        return _buf.length;
+    }
+
+    @Override
+    protected ByteBuffer buffer()
+    {
+        return _wrapped;
+    }
+
+    @Override
+    protected byte get(int offset)
+    {
+        return _buf[offset];
+    }
+
+    @Override
+    protected int read(int offset, int length) throws IOException
+    {
+        return _is.read(_buf, offset, length);
+    }
+
+    @Override
+    protected void zero(int offset, int length)
+    {
+        Arrays.fill(_buf, offset, offset + length, (byte) 0);
+    }
+
+    @Override
+    protected void move(int offset, int length)
+    {
+        System.arraycopy(_buf, offset, _buf, 0, length);
+    }
+
+    @Override
+    protected void closeSource() throws IOException
+    {
+        if (_is != null) {
+            _is.close();
+        }
+    }
+}
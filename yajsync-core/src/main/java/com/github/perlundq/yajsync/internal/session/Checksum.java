@@ -19,12 +19,7 @@
  */
 package com.github.perlundq.yajsync.internal.session;
 
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
-import java.util.NoSuchElementException;
-
-import com.github.perlundq.yajsync.internal.util.Multimap;
+import java.util.Arrays;
 
 class Checksum
 {
@@ -35,35 +30,70 @@ class Checksum
         }
     }
 
-    public static class Chunk {
-
-        private final byte[] _md5sum;
-        private final int _length;
-        private final int _chunkIndex;
+    /**
+     * A reusable cursor over the chunks matching a rolling checksum. A Probe
+     * is not thread safe, but any number of probes may be used concurrently
+     * against the same (fully populated) Checksum. Probing never allocates.
+     */
+    public final class Probe {
+        private int _start;
+        private int _end;
+        private int _next;
+        private int _initial;
+        private int _length;
+        private boolean _isInitial;
+
+        private Probe() {}
 
-        private Chunk(int length, byte[] md5sum, int chunkIndex)
+        /**
+         * Position this probe at the chunks with the given rolling checksum
+         * and length, where the chunk closest to preferredChunkIndex is
+         * returned first by next() followed by any other matching chunks in
+         * ascending chunk index order.
+         *
+         * @return false if there are definitely no candidate chunks
+         */
+        public boolean reset(int rolling, int length, int preferredChunkIndex)
         {
-            assert length >= 0;
-            assert md5sum != null;
-            assert md5sum.length > 0;
+            assert _isIndexed;
             _length = length;
-            _md5sum = md5sum;
-            _chunkIndex = chunkIndex;
-        }
-
-        public byte[] md5Checksum()
-        {
-            return _md5sum;
-        }
-
-        public int length()
-        {
-            return _length;
+            int slot = isTagged(rolling) ? slotOf(rolling) : -1;
+            if (slot < 0) {
+                _start = _end = _next = 0;
+                _isInitial = false;
+                return false;
+            }
+            _start = _slotStarts[slot] - 1;
+            _end = _slotEnds[slot];
+            _next = _start;
+            _initial = closeIndexOf(_start, _end, preferredChunkIndex);
+            _isInitial = true;
+            return true;
         }
 
-        public int chunkIndex()
+        /**
+         * @return the chunk index of the next candidate chunk or -1 if there
+         *         are no more candidates
+         */
+        public int next()
         {
-            return _chunkIndex;
+            if (_isInitial) {
+                _isInitial = false;
+                int chunkIndex = chunkIndexAt(_initial);
+                if (chunkLengthFor(chunkIndex) == _length) {
+                    return chunkIndex;
+                }
+            }
+            while (_next < _end) {
+                int pos = _next++;
+                if (pos != _initial) {
+                    int chunkIndex = chunkIndexAt(pos);
+                    if (chunkLengthFor(chunkIndex) == _length) {
+                        return chunkIndex;
+                    }
+                }
+            }
+            return -1;
         }
     }
 
@@ -178,21 +208,31 @@ class Checksum
     public static final int MAX_DIGEST_LENGTH = 16;
 
     private static final int MAX_CHECKSUM_BLOCK_LENGTH = 1 << 17;
-    private static final Iterable<Chunk> EMPTY_ITERABLE =
-        new Iterable<Chunk>() {
-        @Override
-        public Iterator<Chunk> iterator() {
-            return Collections.emptyIterator();
-        }
-    };
+    private static final int NUM_TAGS = 1 << 16;
 
     private final Header _header;
-    private final Multimap<Integer, Chunk> _sums;
+    // strong checksums of all chunks, each being _header._digestLength long
+    private final byte[] _digests;
+    // (rolling checksum << 32 | chunk index), sorted once all chunks are added
+    private final long[] _entries;
+    // one bit per 16 bit tag of every rolling checksum added, used as a cheap
+    // prefilter before looking up the rolling checksum in the hash table
+    private final long[] _tags = new long[NUM_TAGS / Long.SIZE];
+    private int _numChunks;
+    private boolean _isIndexed;
+    // open addressing hash table of rolling checksum -> range of _entries
+    private int[] _slotKeys;
+    private int[] _slotStarts;  // 1 + start offset in _entries, 0 if free
+    private int[] _slotEnds;
 
     public Checksum(Header header)
     {
         _header = header;
-        _sums = new Multimap<>(header.chunkCount());
+        _digests = new byte[header._chunkCount * header._digestLength];
+        _entries = new long[header._chunkCount];
+        if (header._chunkCount == 0) {
+            buildIndex();
+        }
     }
 
     @Override
@@ -211,38 +251,126 @@ class Checksum
         return _header._blockLength;
     }
 
+    private static int tagOf(int rolling)
+    {
+        return (rolling + (rolling >>> 16)) & 0xFFFF;
+    }
+
+    private boolean isTagged(int rolling)
+    {
+        int tag = tagOf(rolling);
+        return (_tags[tag >>> 6] & (1L << tag)) != 0;
+    }
+
+    private static int hash(int rolling)
+    {
+        int h = rolling * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int chunkIndexAt(long entry)
+    {
+        return (int) entry;
+    }
+
+    private int chunkIndexAt(int pos)
+    {
+        return chunkIndexAt(_entries[pos]);
+    }
+
+    private static int rollingOf(long entry)
+    {
+        return (int) (entry >> 32);
+    }
+
     public void addChunkInformation(int rolling, byte[] md5sum)
     {
         assert md5sum != null;
         assert md5sum.length >= MIN_DIGEST_LENGTH &&
                md5sum.length <= MAX_DIGEST_LENGTH;
-        assert _sums.size() <= _header._chunkCount - 1;
+        assert md5sum.length == _header._digestLength;
+        assert _numChunks <= _header._chunkCount - 1;
+
+        int chunkIndex = _numChunks++;
+        System.arraycopy(md5sum, 0, _digests,
+                         chunkIndex * _header._digestLength,
+                         _header._digestLength);
+        _entries[chunkIndex] = ((long) rolling << 32) | chunkIndex;
+        int tag = tagOf(rolling);
+        _tags[tag >>> 6] |= 1L << tag;
+        if (_numChunks == _header._chunkCount) {
+            buildIndex();
+        }
+    }
+
+    // sort all entries on rolling checksum (and chunk index within equal
+    // rolling checksums) and create the hash table for locating the range of
+    // entries having the same rolling checksum
+    private void buildIndex()
+    {
+        Arrays.sort(_entries);
+        int numKeys = 0;
+        for (int i = 0; i < _entries.length; i++) {
+            if (i == 0 || rollingOf(_entries[i]) != rollingOf(_entries[i - 1])) {
+                numKeys++;
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(numKeys, 1)) << 2;
+        _slotKeys = new int[capacity];
+        _slotStarts = new int[capacity];
+        _slotEnds = new int[capacity];
+        int mask = capacity - 1;
+        int start = 0;
+        for (int i = 1; i <= _entries.length; i++) {
+            if (i == _entries.length ||
+                rollingOf(_entries[i]) != rollingOf(_entries[start])) {
+                int rolling = rollingOf(_entries[start]);
+                int slot = hash(rolling) & mask;
+                while (_slotStarts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                _slotKeys[slot] = rolling;
+                _slotStarts[slot] = start + 1;
+                _slotEnds[slot] = i;
+                start = i;
+            }
+        }
+        _isIndexed = true;
+    }
 
-        int chunkIndex = _sums.size();
-        int chunkLength = chunkLengthFor(chunkIndex);
-        Chunk chunk = new Chunk(chunkLength, md5sum, chunkIndex);
-        _sums.put(rolling, chunk);
+    private int slotOf(int rolling)
+    {
+        int mask = _slotKeys.length - 1;
+        int slot = hash(rolling) & mask;
+        while (_slotStarts[slot] != 0) {
+            if (_slotKeys[slot] == rolling) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
     }
 
-    // retrieve a close index for the chunk with the supplied chunk index
-    private int closeIndexOf(List<Chunk> chunks, int chunkIndex)
+    // retrieve a close position within [start, end) for the chunk with the
+    // supplied chunk index
+    private int closeIndexOf(int start, int end, int chunkIndex)
     {
-        int idx = binarySearch(chunks, chunkIndex);
+        int idx = binarySearch(start, end, chunkIndex);
         if (idx < 0) {
             int insertionPoint = - idx - 1;
-            return Math.min(insertionPoint, chunks.size() - 1);
+            return Math.min(insertionPoint, end - 1);
         }
         return idx;
     }
 
-    private int binarySearch(List<Chunk> chunks, int chunkIndex)
+    private int binarySearch(int start, int end, int chunkIndex)
     {
-        int i_left = 0;
-        int i_right = chunks.size() - 1;
+        int i_left = start;
+        int i_right = end - 1;
 
         while (i_left <= i_right) {
             int i_middle = i_left + (i_right - i_left) / 2;                     // i_middle < i_right and i_middle >= i_left
-            int chunkIndex_m = chunks.get(i_middle).chunkIndex();
+            int chunkIndex_m = chunkIndexAt(i_middle);
             if (chunkIndex_m == chunkIndex) {
                 return i_middle;
             } else if (chunkIndex_m < chunkIndex) {
@@ -252,78 +380,52 @@ class Checksum
             }
         }
         /*
-         * return i_left as the insertion point - the first index with a chunk
-         * index greater than chunkIndex.
-         * i_left >= 0 and i_left <= chunks.size()
+         * return i_left as the insertion point - the first position with a
+         * chunk index greater than chunkIndex.
+         * i_left >= start and i_left <= end
          */
         return - i_left - 1;
     }
 
-    public Iterable<Chunk> getCandidateChunks(int rolling,
-                                              final int length,
-                                              final int preferredChunkIndex)
+    /**
+     * @return the index of the first of the rolling checksums sums[from],
+     *         ..., sums[to - 1] for which there are any chunks (of any
+     *         length), or to if there is none
+     */
+    public int indexOfCandidate(int[] sums, int from, int to)
     {
-        final List<Chunk> chunks = _sums.get(rolling);
-        // Optimization to avoid allocating tons of empty iterators for non
-        // matching entries on large files:
-        if (chunks.isEmpty()) {
-            return EMPTY_ITERABLE;
+        assert _isIndexed;
+        assert from >= 0 && from <= to && to <= sums.length;
+        for (int i = from; i < to; i++) {
+            int rolling = sums[i];
+            if (isTagged(rolling) && slotOf(rolling) >= 0) {
+                return i;
+            }
         }
+        return to;
+    }
 
-        // return an Iterable which filters out chunks with non matching length
-        // and starts with preferredIndex (or close to preferredIndex)
-        return new Iterable<Chunk>() {
-            int it_index = 0;
-            int initialIndex = closeIndexOf(chunks, preferredChunkIndex);
-            boolean isInitial = true;
-
-            @Override
-            public Iterator<Chunk> iterator() {
-                return new Iterator<Chunk>() {
-
-                    private int nextIndex() {
-                        for (int i = it_index; i < chunks.size(); i++) {
-                            if (i != initialIndex &&
-                                chunks.get(i).length() == length) {
-                                return i;
-                            }
-                        }
-                        return chunks.size();
-                    }
-
-                    @Override
-                    public boolean hasNext() {
-                        if (isInitial) {
-                            return true;
-                        }
-                        it_index = nextIndex();
-                        return it_index < chunks.size();
-                    }
-
-                    @Override
-                    public Chunk next() {
-                        try {
-                            Chunk c;
-                            if (isInitial) {
-                                c = chunks.get(initialIndex);
-                                isInitial = false;
-                            } else {
-                                c = chunks.get(it_index);
-                                it_index++;
-                            }
-                            return c;
-                        } catch (IndexOutOfBoundsException e) {
-                            throw new NoSuchElementException(e.getMessage());
-                        }
-                    }
+    public Probe newProbe()
+    {
+        return new Probe();
+    }
 
-                    @Override
-                    public void remove() {
-                        throw new UnsupportedOperationException();
-                    }
-                };
+    /**
+     * @return true if the first digestLength bytes of digest, starting at
+     *         offset, equals the strong checksum of chunk chunkIndex
+     */
+    public boolean isDigestEqual(int chunkIndex, byte[] digest, int offset)
+    {
+        assert chunkIndex >= 0 && chunkIndex < _numChunks;
+        assert digest.length - offset >= _header._digestLength;
+        int digestLength = _header._digestLength;
+        int base = chunkIndex * digestLength;
+        for (int i = 0; i < digestLength; i++) {
+            if (_digests[base + i] != digest[offset + i]) {
+                return false;
             }
-        };
+        }
+        return true;
     }
 
     public Header header()
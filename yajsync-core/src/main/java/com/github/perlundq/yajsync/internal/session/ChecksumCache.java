@@ -0,0 +1,415 @@
+/*
+ * Persistent cache of the block checksums of basis files
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.StrongChecksum;
+import com.github.perlundq.yajsync.internal.util.BitOps;
+import com.github.perlundq.yajsync.internal.util.FileOps;
+import com.github.perlundq.yajsync.internal.util.MD5;
+
+/**
+ * A directory of the block checksums of basis files generated by previous
+ * transfers, so that a file which has not changed since does not have to
+ * be read again. Shared by all Generators of a client or server, and by
+ * any other process using the same directory.
+ *
+ * An entry is keyed by the device and inode of its file, its size,
+ * modification time, status change time (see FileVersion), block length
+ * and digest length as well as the strong checksum algorithm and the
+ * checksum seed - the block digests depend on
+ * the seed, which is why a cache is only useful with a fixed seed
+ * (--checksum-seed). A modified file gets a new key, also if its
+ * modification time is restored afterwards, its old entry is never used
+ * again and eventually evicted. Files whose file system does not provide a
+ * status change time are not cached. Entries of files modified less
+ * than MIN_AGE ago are not stored, as another modification within the
+ * granularity of the file system's modification time might go unnoticed.
+ *
+ * The total size of the entries is bounded, the least recently used
+ * entries are evicted first. The time an entry was last used is its
+ * modification time, which is how the order is kept between runs.
+ */
+public final class ChecksumCache
+{
+    /**
+     * The block checksums of a file.
+     */
+    static final class Sums
+    {
+        final int[] _rollings;
+        final byte[] _digests;
+
+        Sums(int numBlocks, int digestLength)
+        {
+            _rollings = new int[numBlocks];
+            _digests = new byte[numBlocks * digestLength];
+        }
+    }
+
+    /**
+     * Identifies the block checksums of a file as it is right now.
+     */
+    static final class Key
+    {
+        private final Path _file;
+        private final String _id;
+        private final FileVersion _version;
+        private final int _numBlocks;
+        private final int _digestLength;
+
+        private Key(Path file, String id, FileVersion version, int numBlocks,
+                    int digestLength)
+        {
+            _file = file;
+            _id = id;
+            _version = version;
+            _numBlocks = numBlocks;
+            _digestLength = digestLength;
+        }
+
+        long fileSize()
+        {
+            return _version.size();
+        }
+
+        int numBlocks()
+        {
+            return _numBlocks;
+        }
+
+        @Override
+        public String toString()
+        {
+            return _id;
+        }
+    }
+
+    public static final long DEFAULT_SIZE_LIMIT = 256 * 1024 * 1024;
+    private static final long MIN_AGE = TimeUnit.SECONDS.toNanos(2);
+    private static final int MAGIC = 0x594a4353; // YJCS
+    private static final String ENTRY_SUFFIX = ".sums";
+    private static final Logger _log =
+        Logger.getLogger(ChecksumCache.class.getName());
+
+    private final Path _dir;
+    private final long _sizeLimit;
+    // entry file name -> size, least recently used first
+    private final Map<String, Long> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private long _size;
+
+    private ChecksumCache(Path dir, long sizeLimit)
+    {
+        _dir = dir;
+        _sizeLimit = sizeLimit;
+    }
+
+    /**
+     * @param dir the directory of the cache, created if missing
+     * @param sizeLimit the maximum total size in bytes of the entries
+     * @throws IOException if failing to create or list dir
+     */
+    public static ChecksumCache open(Path dir, long sizeLimit)
+        throws IOException
+    {
+        assert dir != null;
+        assert sizeLimit >= 0;
+        ChecksumCache cache = new ChecksumCache(dir, sizeLimit);
+        Files.createDirectories(dir);
+        cache.load();
+        return cache;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s(dir=%s, sizeLimit=%d)",
+                             getClass().getSimpleName(), _dir, _sizeLimit);
+    }
+
+    /**
+     * @return the key of the block checksums of file, or null if it cannot
+     *         be cached
+     */
+    Key keyOrNull(Path file, StrongChecksum strongChecksum, byte[] seed,
+                  int blockLength, int digestLength)
+    {
+        assert blockLength > 0;
+        FileVersion version;
+        try {
+            version = FileVersion.ofOrNull(file);
+        } catch (IOException e) {
+            return null;
+        }
+        if (version == null) {
+            return null;
+        }
+        long numBlocks = (version.size() + blockLength - 1) / blockLength;
+        if (numBlocks * (4 + digestLength) > _sizeLimit) {
+            return null;
+        }
+        String id = String.format("%s blockLength=%d digestLength=%d " +
+                                  "checksum=%s seed=%d",
+                                  version, blockLength, digestLength,
+                                  strongChecksum,
+                                  BitOps.toBigEndianInt(seed));
+        return new Key(file, id, version, (int) numBlocks, digestLength);
+    }
+
+    /**
+     * @return the block checksums of key, or null if not cached
+     */
+    Sums getOrNull(Key key)
+    {
+        String name = entryName(key);
+        synchronized (this) {
+            if (!_entries.containsKey(name)) {
+                return null;
+            }
+        }
+        Path entry = _dir.resolve(name);
+        try {
+            Sums sums = read(entry, key);
+            if (sums != null) {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(
+                                                  System.currentTimeMillis()));
+                synchronized (this) {
+                    _entries.get(name); // most recently used
+                }
+                return sums;
+            }
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("removing invalid entry %s of " +
+                                           "%s", entry, key._file));
+            }
+        } catch (NoSuchFileException e) {
+            // evicted by another process
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("failed to read %s: %s",
+                                           entry, e.getMessage()));
+            }
+        }
+        remove(name);
+        return null;
+    }
+
+    /**
+     * Store sums as the block checksums of key, unless its file has changed
+     * since key was created or was modified too recently. Any I/O error is
+     * logged and ignored.
+     */
+    void put(Key key, Sums sums)
+    {
+        assert sums._rollings.length == key._numBlocks;
+        try {
+            if (!key._version.equals(FileVersion.ofOrNull(key._file))) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (now - key._version.modifiedNanos() < MIN_AGE) {
+            return;
+        }
+
+        String name = entryName(key);
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(_dir, null, null);
+            write(tempFile, key, sums);
+            long size = Files.size(tempFile);
+            if (!FileOps.atomicMove(tempFile, _dir.resolve(name))) {
+                throw new IOException("failed to move " + tempFile);
+            }
+            tempFile = null;
+            synchronized (this) {
+                Long prevSize = _entries.put(name, size);
+                _size += size - (prevSize == null ? 0 : prevSize);
+            }
+            evict();
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("failed to cache the checksums " +
+                                           "of %s: %s", key._file,
+                                           e.getMessage()));
+            }
+        } finally {
+            if (tempFile != null) {
+                deleteQuietly(tempFile);
+            }
+        }
+    }
+
+    // the entries of a previous run, ordered by their last use
+    private void load() throws IOException
+    {
+        final Map<Path, FileTime> lastUsed = new HashMap<>();
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream =
+                 Files.newDirectoryStream(_dir, "*" + ENTRY_SUFFIX)) {
+            for (Path entry : stream) {
+                try {
+                    lastUsed.put(entry, Files.getLastModifiedTime(entry));
+                    entries.add(entry);
+                } catch (IOException e) {
+                    // removed by another process
+                }
+            }
+        }
+        Collections.sort(entries, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b)
+            {
+                return lastUsed.get(a).compareTo(lastUsed.get(b));
+            }
+        });
+        for (Path entry : entries) {
+            long size = FileOps.sizeOf(entry);
+            if (size >= 0) {
+                _entries.put(entry.getFileName().toString(), size);
+                _size += size;
+            }
+        }
+        evict();
+    }
+
+    private void evict()
+    {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> it =
+                _entries.entrySet().iterator();
+            while (_size > _sizeLimit && it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                _size -= e.getValue();
+                evicted.add(e.getKey());
+                it.remove();
+            }
+        }
+        for (String name : evicted) {
+            if (_log.isLoggable(Level.FINE)) {
+                _log.fine("evicting " + name);
+            }
+            deleteQuietly(_dir.resolve(name));
+        }
+    }
+
+    private void remove(String name)
+    {
+        synchronized (this) {
+            Long size = _entries.remove(name);
+            if (size != null) {
+                _size -= size;
+            }
+        }
+        deleteQuietly(_dir.resolve(name));
+    }
+
+    private static String entryName(Key key)
+    {
+        MessageDigest md = MD5.newInstance();
+        byte[] digest = md.digest(key._id.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(2 * digest.length +
+                                             ENTRY_SUFFIX.length());
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.append(ENTRY_SUFFIX).toString();
+    }
+
+    private static void write(Path file, Key key, Sums sums)
+        throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key._id);
+            out.writeInt(key._numBlocks);
+            for (int rolling : sums._rollings) {
+                out.writeInt(rolling);
+            }
+            out.write(sums._digests);
+        }
+    }
+
+    /**
+     * @return the sums stored in file, or null if file is not an entry of
+     *         key (e.g. truncated or a collision of entry names)
+     */
+    private static Sums read(Path file, Key key) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(key._id) ||
+                in.readInt() != key._numBlocks) {
+                return null;
+            }
+            Sums sums = new Sums(key._numBlocks, key._digestLength);
+            for (int i = 0; i < key._numBlocks; i++) {
+                sums._rollings[i] = in.readInt();
+            }
+            in.readFully(sums._digests);
+            if (in.read() != -1) {
+                return null;
+            }
+            return sums;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(Path file)
+    {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("failed to delete %s: %s",
+                                           file, e.getMessage()));
+            }
+        }
+    }
+}
@@ -25,14 +25,17 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.github.perlundq.yajsync.AuthProvider;
+import com.github.perlundq.yajsync.CompressionCodec;
 import com.github.perlundq.yajsync.RsyncException;
 import com.github.perlundq.yajsync.RsyncProtocolException;
+import com.github.perlundq.yajsync.StrongChecksum;
 import com.github.perlundq.yajsync.internal.channels.ChannelException;
 import com.github.perlundq.yajsync.internal.text.TextConversionException;
 import com.github.perlundq.yajsync.internal.util.BitOps;
@@ -47,19 +50,58 @@ public class ClientSessionConfig extends SessionConfig
     private final PrintStream _err;
     private final BlockingQueue<Pair<Boolean, String>> _listing =
             new LinkedBlockingQueue<>();
+    private final List<StrongChecksum> _strongChecksums;
+    private final List<CompressionCodec> _compressionCodecs;
     private boolean _isSafeFileList;
 
 
     /**
+     * @param strongChecksums the strong checksum algorithms we are willing to
+     *        use, in order of preference. The algorithm is negotiated with
+     *        peer only if isNegotiable, in which case the client must have
+     *        requested it in the compatibility string sent to peer.
+     * @param compressionCodecs the compression codecs we are willing to use,
+     *        in order of preference, or an empty list if not compressing
+     *        (in which case the client must not have asked peer to compress
+     *        either). Negotiated together with the strong checksum.
      * @throws IllegalArgumentException if charset is not supported
      */
     public ClientSessionConfig(ReadableByteChannel in, WritableByteChannel out,
                                Charset charset, boolean isRecursive,
-                               PrintStream stderr)
+                               PrintStream stderr,
+                               List<StrongChecksum> strongChecksums,
+                               List<CompressionCodec> compressionCodecs)
     {
         super(in, out, charset);
+        assert !strongChecksums.isEmpty();
         _isRecursive = isRecursive;
         _err = stderr;
+        _strongChecksums = strongChecksums;
+        _compressionCodecs = compressionCodecs;
+        if (!compressionCodecs.isEmpty()) {
+            _compressionCodec = CompressionCodec.ZLIB;
+        }
+    }
+
+    /**
+     * @return true if the negotiation of the strong checksum algorithm and
+     *         the compression codec should be requested from peer when
+     *         using strongChecksums and compressionCodecs
+     */
+    public static boolean isNegotiable(List<StrongChecksum> strongChecksums,
+                                       List<CompressionCodec> compressionCodecs)
+    {
+        for (StrongChecksum s : strongChecksums) {
+            if (s != StrongChecksum.MD5) {
+                return true;
+            }
+        }
+        for (CompressionCodec c : compressionCodecs) {
+            if (c != CompressionCodec.ZLIB) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -85,7 +127,13 @@ public class ClientSessionConfig extends SessionConfig
 
             assert !moduleName.isEmpty();
             sendArguments(args);
-            receiveCompatibilities();
+            boolean isNegotiated = receiveCompatibilities();
+            if (isNegotiated) {
+                negotiateStrongChecksum();
+                if (!_compressionCodecs.isEmpty()) {
+                    negotiateCompressionCodec();
+                }
+            }
             receiveChecksumSeed();
             return _status;
         } catch (TextConversionException e) {
@@ -188,11 +236,13 @@ public class ClientSessionConfig extends SessionConfig
     }
 
     /**
+     * @return true if peer agreed on negotiating the strong checksum algorithm
+     *         and the compression codec
      * @throws ChannelException if there is a communication failure with peer
      * @throws RsyncProtocolException if peer protocol is incompatible with ours
      */
-    private void receiveCompatibilities() throws ChannelException,
-                                                 RsyncProtocolException
+    private boolean receiveCompatibilities() throws ChannelException,
+                                                    RsyncProtocolException
     {
         byte flags = _peerConnection.getByte();
         if (_log.isLoggable(Level.FINER)) {
@@ -204,6 +254,84 @@ public class ClientSessionConfig extends SessionConfig
                                              "incremental recurse");
         }
         _isSafeFileList = (flags & RsyncCompatibilities.CF_SAFE_FLIST) != 0;
+        boolean isNegotiated =
+            (flags & RsyncCompatibilities.CF_NEGOTIATED_ALGORITHMS) != 0;
+        if (isNegotiated &&
+            !isNegotiable(_strongChecksums, _compressionCodecs)) {
+            throw new RsyncProtocolException("peer wants to negotiate " +
+                                             "algorithms without us asking " +
+                                             "for it");
+        }
+        return isNegotiated;
+    }
+
+    /**
+     * Send our strong checksum algorithms in order of preference and receive
+     * peer's choice.
+     *
+     * @throws ChannelException if there is a communication failure with peer
+     * @throws RsyncProtocolException if peer chose an algorithm we did not
+     *         offer
+     */
+    private void negotiateStrongChecksum() throws ChannelException,
+                                                  RsyncProtocolException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (StrongChecksum s : _strongChecksums) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(s.protocolName());
+        }
+        writeString(sb.append('\n').toString());
+        String peerChoice = readLine();
+        StrongChecksum strongChecksum =
+            StrongChecksum.fromProtocolName(peerChoice);
+        if (strongChecksum == null ||
+            strongChecksum != StrongChecksum.MD5 &&
+            !_strongChecksums.contains(strongChecksum)) {
+            throw new RsyncProtocolException(String.format(
+                "peer chose a strong checksum we did not offer: %s",
+                peerChoice));
+        }
+        _strongChecksum = strongChecksum;
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine("using strong checksum " + _strongChecksum);
+        }
+    }
+
+    /**
+     * Send our compression codecs in order of preference and receive peer's
+     * choice.
+     *
+     * @throws ChannelException if there is a communication failure with peer
+     * @throws RsyncProtocolException if peer chose a codec we did not offer
+     */
+    private void negotiateCompressionCodec() throws ChannelException,
+                                                    RsyncProtocolException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (CompressionCodec c : _compressionCodecs) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(c.protocolName());
+        }
+        writeString(sb.append('\n').toString());
+        String peerChoice = readLine();
+        CompressionCodec compressionCodec =
+            CompressionCodec.fromProtocolName(peerChoice);
+        if (compressionCodec == null ||
+            compressionCodec != CompressionCodec.ZLIB &&
+            !_compressionCodecs.contains(compressionCodec)) {
+            throw new RsyncProtocolException(String.format(
+                "peer chose a compression codec we did not offer: %s",
+                peerChoice));
+        }
+        _compressionCodec = compressionCodec;
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine("using compression codec " + _compressionCodec);
+        }
     }
 
     private void receiveChecksumSeed() throws ChannelException
@@ -0,0 +1,344 @@
+/*
+ * Decoding of the tokens of a file transfer with compressed literal data
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.github.perlundq.yajsync.CompressionCodec;
+import com.github.perlundq.yajsync.RsyncProtocolException;
+import com.github.perlundq.yajsync.internal.channels.ChannelException;
+import com.github.perlundq.yajsync.internal.channels.Readable;
+import com.github.perlundq.yajsync.internal.util.LZ4;
+
+/**
+ * Reads the compressed token stream described in CompressedTokenEncoder.
+ */
+abstract class CompressedTokenDecoder extends TokenDecoder
+{
+    /**
+     * See CompressedTokenEncoder.Zlib.
+     */
+    private static final class Zlib extends CompressedTokenDecoder
+    {
+        private static final byte[] SYNC_MARKER = { 0, 0, (byte) 0xff,
+                                                    (byte) 0xff };
+        private static final int MAX_HISTORY_PIECE =
+            CompressedTokenEncoder.MAX_HISTORY_PIECE;
+
+        private final Inflater _inflater = new Inflater(true);
+        private final byte[] _header = new byte[5];
+        private byte[] _history;
+
+        private Zlib(Readable in)
+        {
+            super(in, CompressedTokenEncoder.DATA_BUF_SIZE);
+        }
+
+        @Override
+        protected void beginChunk(byte[] buf, int length)
+        {
+            _inflater.setInput(buf, 0, length);
+        }
+
+        @Override
+        protected int decompress(byte[] dst) throws DataFormatException
+        {
+            int n = _inflater.inflate(dst);
+            if (n == 0 && !_inflater.needsInput()) {
+                throw new DataFormatException("inflater stalled: finished=" +
+                                              _inflater.finished());
+            }
+            return n;
+        }
+
+        @Override
+        protected int endData(byte[] dst) throws DataFormatException
+        {
+            int n = _inflater.inflate(dst);
+            if (n > 0) {
+                return n;
+            }
+            _inflater.setInput(SYNC_MARKER);
+            discardOutput(dst);
+            return 0;
+        }
+
+        @Override
+        boolean isMatchDataNeeded()
+        {
+            return true;
+        }
+
+        /**
+         * Add the data of the block to the history, as a stored block
+         * (see CompressedTokenEncoder.Zlib).
+         */
+        @Override
+        void seeMatch(ByteBuffer blockData) throws RsyncProtocolException
+        {
+            int length = blockData.remaining();
+            int pieceLength = Math.min(length, MAX_HISTORY_PIECE);
+            if (_history == null || _history.length < pieceLength) {
+                _history = new byte[Math.max(pieceLength, 1024)];
+            }
+            blockData.duplicate().get(_history, 0, pieceLength);
+            try {
+                while (length > 0) {
+                    pieceLength = Math.min(length, MAX_HISTORY_PIECE);
+                    _header[0] = 0;
+                    _header[1] = (byte) pieceLength;
+                    _header[2] = (byte) (pieceLength >> 8);
+                    _header[3] = (byte) ~_header[1];
+                    _header[4] = (byte) ~_header[2];
+                    _inflater.setInput(_header);
+                    discardOutput(data());
+                    _inflater.setInput(_history, 0, pieceLength);
+                    discardOutput(data());
+                    length -= pieceLength;
+                }
+            } catch (DataFormatException e) {
+                throw new RsyncProtocolException(e);
+            }
+        }
+
+        private void discardOutput(byte[] dst) throws DataFormatException
+        {
+            while (decompress(dst) > 0) {
+                // the data is already known
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            _inflater.end();
+        }
+    }
+
+    /**
+     * See CompressedTokenEncoder.Lz4.
+     */
+    private static final class Lz4 extends CompressedTokenDecoder
+    {
+        private byte[] _chunk;
+        private int _chunkLength;
+
+        private Lz4(Readable in)
+        {
+            super(in, CompressedTokenEncoder.DATA_BUF_SIZE);
+        }
+
+        @Override
+        protected void beginChunk(byte[] buf, int length)
+        {
+            _chunk = buf;
+            _chunkLength = length;
+        }
+
+        @Override
+        protected int decompress(byte[] dst) throws DataFormatException
+        {
+            if (_chunk == null) {
+                return 0;
+            }
+            int n = LZ4.decompress(_chunk, 0, _chunkLength,
+                                   dst, 0, dst.length);
+            _chunk = null;
+            return n;
+        }
+
+        @Override
+        protected int endData(byte[] dst)
+        {
+            return 0;
+        }
+    }
+
+    private enum State { IDLE, DECOMPRESSING, DECOMPRESSED, RUNNING }
+
+    private final Readable _in;
+    private final byte[] _chunk =
+        new byte[CompressedTokenEncoder.MAX_DATA_COUNT];
+    private final byte[] _data;
+    private State _state = State.IDLE;
+    private int _savedFlag = -1;
+    private int _token;
+    private int _runLength;
+    private int _dataPosition;
+
+    private CompressedTokenDecoder(Readable in, int dataSize)
+    {
+        _in = in;
+        _data = new byte[dataSize];
+    }
+
+    static CompressedTokenDecoder newInstance(Readable in,
+                                              CompressionCodec codec)
+    {
+        switch (codec) {
+        case ZLIB:
+            return new Zlib(in);
+        case LZ4:
+            return new Lz4(in);
+        default:
+            throw new AssertionError(codec);
+        }
+    }
+
+    /**
+     * Start decompressing buf[0, length), buf is not modified until
+     * decompress returns 0.
+     */
+    protected abstract void beginChunk(byte[] buf, int length);
+
+    /**
+     * @return the number of bytes decompressed into dst, or 0 if the chunk
+     *         is exhausted
+     */
+    protected abstract int decompress(byte[] dst) throws DataFormatException;
+
+    /**
+     * A token follows decompressed data.
+     *
+     * @return the number of any remaining bytes decompressed into dst
+     */
+    protected abstract int endData(byte[] dst) throws DataFormatException;
+
+    protected final byte[] data()
+    {
+        return _data;
+    }
+
+    @Override
+    int getToken() throws ChannelException, RsyncProtocolException
+    {
+        try {
+            while (true) {
+                if (_state == State.RUNNING) {
+                    return nextOfRun();
+                }
+                if (_state == State.DECOMPRESSING) {
+                    int n = decompress(_data);
+                    if (n > 0) {
+                        _dataPosition = 0;
+                        return n;
+                    }
+                    _state = State.DECOMPRESSED;
+                }
+                int flag = readFlag();
+                if ((flag & 0xc0) == CompressedTokenEncoder.DEFLATED_DATA) {
+                    int length = readChunk(flag);
+                    beginChunk(_chunk, length);
+                    _state = State.DECOMPRESSING;
+                    continue;
+                }
+                if (_state == State.DECOMPRESSED) {
+                    int n = endData(_data);
+                    if (n > 0) {
+                        _savedFlag = flag;
+                        _dataPosition = 0;
+                        return n;
+                    }
+                    _state = State.IDLE;
+                }
+                return decodeToken(flag);
+            }
+        } catch (DataFormatException e) {
+            throw new RsyncProtocolException(e);
+        }
+    }
+
+    @Override
+    ByteBuffer getData(int numBytes)
+    {
+        ByteBuffer data = ByteBuffer.wrap(_data, _dataPosition, numBytes);
+        _dataPosition += numBytes;
+        return data;
+    }
+
+    @Override
+    int skipToken() throws ChannelException, RsyncProtocolException
+    {
+        if (_state == State.RUNNING) {
+            return nextOfRun();
+        }
+        int flag = readFlag();
+        if ((flag & 0xc0) == CompressedTokenEncoder.DEFLATED_DATA) {
+            return readChunk(flag);
+        }
+        return decodeToken(flag);
+    }
+
+    private int readFlag() throws ChannelException
+    {
+        if (_savedFlag >= 0) {
+            int flag = _savedFlag;
+            _savedFlag = -1;
+            return flag;
+        }
+        return _in.getByte() & 0xff;
+    }
+
+    private int readChunk(int flag) throws ChannelException
+    {
+        int length = (flag & 0x3f) << 8 | (_in.getByte() & 0xff);
+        _in.get(_chunk, 0, length);
+        return length;
+    }
+
+    private int decodeToken(int flag)
+        throws ChannelException, RsyncProtocolException
+    {
+        if (flag == CompressedTokenEncoder.END_FLAG) {
+            return 0;
+        }
+        if ((flag & CompressedTokenEncoder.TOKEN_REL) != 0) {
+            _token += flag & 0x3f;
+            flag >>= 6;
+        } else if ((flag & 0xfe) == CompressedTokenEncoder.TOKEN_LONG) {
+            _token = _in.getInt();
+        } else {
+            throw new RsyncProtocolException(String.format(
+                "received invalid token flag 0x%x", flag));
+        }
+        if ((flag & 1) != 0) {
+            int low = _in.getByte() & 0xff;
+            _runLength = low | (_in.getByte() & 0xff) << 8;
+            if (_runLength > 0) {
+                _state = State.RUNNING;
+            }
+        }
+        if (_token < 0) {
+            throw new RsyncProtocolException(String.format(
+                "received invalid block index %d", _token));
+        }
+        return - (_token + 1);
+    }
+
+    private int nextOfRun()
+    {
+        _token++;
+        if (--_runLength == 0) {
+            _state = State.IDLE;
+        }
+        return - (_token + 1);
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Encoding of the tokens of a file transfer with compressed literal data
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import com.github.perlundq.yajsync.CompressionCodec;
+import com.github.perlundq.yajsync.internal.channels.ChannelException;
+import com.github.perlundq.yajsync.internal.channels.Writable;
+import com.github.perlundq.yajsync.internal.util.LZ4;
+
+/**
+ * The compressed token stream of rsync (-z). Every token is a flag byte:
+ *
+ * END_FLAG                    end of file
+ * DEFLATED_DATA + high bits   followed by the low byte of the length and
+ *                             that many bytes of compressed literal data
+ * TOKEN_REL + r               block index of the last token + r (0 - 63)
+ * TOKENRUN_REL + r            the same followed by a 16 bit little endian
+ *                             count of consecutive blocks following it
+ * TOKEN_LONG                  followed by the block index as an int
+ * TOKENRUN_LONG               the same followed by a 16 bit count
+ *
+ * Matched blocks are never compressed. The compressed literal data is
+ * cut into chunks of at most MAX_DATA_COUNT bytes, which is how the codecs
+ * differ.
+ */
+abstract class CompressedTokenEncoder extends TokenEncoder
+{
+    static final int END_FLAG = 0x00;
+    static final int TOKEN_LONG = 0x20;
+    static final int TOKENRUN_LONG = 0x21;
+    static final int DEFLATED_DATA = 0x40;
+    static final int TOKEN_REL = 0x80;
+    static final int TOKENRUN_REL = 0xc0;
+    static final int MAX_DATA_COUNT = 16383;
+    static final int MAX_RUN_LENGTH = 65535;
+    // the largest piece of a matched block added to the zlib history at a
+    // time (the stored block length limit)
+    static final int MAX_HISTORY_PIECE = 0xffff;
+    static final int DATA_BUF_SIZE = 32 * 1024;
+    static final int WINDOW_SIZE = 32 * 1024;
+
+    /**
+     * Compatible with native rsync: a raw deflate stream which is reset for
+     * every file. The stream is synchronised (Z_SYNC_FLUSH) before every
+     * token following literal data and the trailing 00 00 ff ff of the
+     * synchronisation is left out as peer knows where it goes. Both peers
+     * also add the data of every matched block to the zlib history, so
+     * that literal data following a match may refer to it.
+     *
+     * Native rsync adds the data with Z_INSERT_ONLY of its own zlib, here
+     * it is added as a preset dictionary, which zlib allows for raw deflate
+     * streams at a block boundary and which inserts it into the window and
+     * hash table the same way. Protocol 30 adds the first 0xffff bytes of
+     * the block for every 0xffff bytes, which peer also does.
+     */
+    private static final class Zlib extends CompressedTokenEncoder
+    {
+        // the sync marker (00 00 ff ff) is held back until it is known
+        // whether it is the end of the output before a token
+        private static final int SYNC_LENGTH = 4;
+
+        private final Deflater _deflater;
+        private final byte[] _input = new byte[DATA_BUF_SIZE];
+        private final byte[] _output = new byte[2 * MAX_DATA_COUNT];
+        private int _outputLength;
+        private byte[] _history;
+
+        private Zlib(Writable out, int compressionLevel)
+        {
+            super(out);
+            _deflater = new Deflater(compressionLevel, true);
+        }
+
+        @Override
+        protected void compress(ByteBuffer src) throws ChannelException
+        {
+            while (src.hasRemaining()) {
+                int length = Math.min(src.remaining(), _input.length);
+                src.get(_input, 0, length);
+                _deflater.setInput(_input, 0, length);
+                while (!_deflater.needsInput()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+            }
+        }
+
+        @Override
+        protected void flush() throws ChannelException
+        {
+            while (deflate(Deflater.SYNC_FLUSH)) {
+                // until all output is available
+            }
+            assert _outputLength >= SYNC_LENGTH;
+            assert _output[_outputLength - 4] == 0 &&
+                   _output[_outputLength - 3] == 0 &&
+                   _output[_outputLength - 2] == (byte) 0xff &&
+                   _output[_outputLength - 1] == (byte) 0xff;
+            _outputLength -= SYNC_LENGTH;
+            if (_outputLength > 0) {
+                putChunk(_output, 0, _outputLength);
+                _outputLength = 0;
+            }
+        }
+
+        // @return true if the output buffer was filled
+        private boolean deflate(int flush) throws ChannelException
+        {
+            int available = _output.length - _outputLength;
+            int n = _deflater.deflate(_output, _outputLength, available,
+                                      flush);
+            _outputLength += n;
+            while (_outputLength - SYNC_LENGTH >= MAX_DATA_COUNT) {
+                putChunk(_output, 0, MAX_DATA_COUNT);
+                _outputLength -= MAX_DATA_COUNT;
+                System.arraycopy(_output, MAX_DATA_COUNT, _output, 0,
+                                 _outputLength);
+            }
+            return n == available;
+        }
+
+        @Override
+        protected void seeMatch(ByteBuffer blockData)
+        {
+            int length = blockData.remaining();
+            // only the last window size bytes of a piece are relevant
+            int pieceLength = Math.min(length, MAX_HISTORY_PIECE);
+            int dictionaryLength = Math.min(pieceLength, WINDOW_SIZE);
+            if (_history == null || _history.length < dictionaryLength) {
+                _history = new byte[Math.max(dictionaryLength, 1024)];
+            }
+            ByteBuffer b = blockData.duplicate();
+            while (length > 0) {
+                pieceLength = Math.min(length, MAX_HISTORY_PIECE);
+                dictionaryLength = Math.min(pieceLength, WINDOW_SIZE);
+                b.position(blockData.position() + pieceLength -
+                           dictionaryLength);
+                b.get(_history, 0, dictionaryLength);
+                _deflater.setDictionary(_history, 0, dictionaryLength);
+                length -= pieceLength;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            _deflater.end();
+        }
+    }
+
+    /**
+     * Compatible with the lz4 token stream of native rsync (3.2): every
+     * chunk is an LZ4 block of at most MAX_DATA_COUNT bytes of literal data,
+     * compressed independently of any previous data. The input of a chunk
+     * is halved until it compresses to at most MAX_DATA_COUNT bytes. There
+     * are no compression levels.
+     */
+    private static final class Lz4 extends CompressedTokenEncoder
+    {
+        private final byte[] _input = new byte[MAX_DATA_COUNT];
+        private final byte[] _output =
+            new byte[LZ4.maxCompressedLength(MAX_DATA_COUNT)];
+        private final int[] _table = LZ4.newHashTable();
+        private int _inputLength;
+
+        private Lz4(Writable out)
+        {
+            super(out);
+        }
+
+        @Override
+        protected void compress(ByteBuffer src) throws ChannelException
+        {
+            while (src.hasRemaining()) {
+                int length = Math.min(src.remaining(),
+                                      _input.length - _inputLength);
+                src.get(_input, _inputLength, length);
+                _inputLength += length;
+                if (_inputLength == _input.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        protected void flush() throws ChannelException
+        {
+            int offset = 0;
+            while (offset < _inputLength) {
+                int length = _inputLength - offset;
+                int n;
+                while ((n = LZ4.compress(_input, offset, length,
+                                         _output, 0, MAX_DATA_COUNT,
+                                         _table)) == 0) {
+                    length /= 2;
+                    assert length > 0;
+                }
+                putChunk(_output, 0, n);
+                offset += length;
+            }
+            _inputLength = 0;
+        }
+    }
+
+    private final Writable _out;
+    private boolean _isDataPending;
+    private boolean _isRunPending;
+    private int _runStart;
+    private int _lastRunEnd;
+    private int _lastToken = -1;
+
+    private CompressedTokenEncoder(Writable out)
+    {
+        _out = out;
+    }
+
+    static CompressedTokenEncoder newInstance(Writable out,
+                                              CompressionCodec codec,
+                                              int compressionLevel)
+    {
+        switch (codec) {
+        case ZLIB:
+            return new Zlib(out, compressionLevel);
+        case LZ4:
+            return new Lz4(out);
+        default:
+            throw new AssertionError(codec);
+        }
+    }
+
+    /**
+     * @return an upper bound of the number of bytes of the tokens of at most
+     *         dataLength bytes of literal data and numMatches matches,
+     *         whatever the codec
+     */
+    static long maxSize(long dataLength, long numMatches)
+    {
+        // the literal data is flushed before every match and at the end, so
+        // it is compressed in at most this many pieces of at most
+        // MAX_DATA_COUNT bytes. LZ4 may halve a piece, making two blocks of
+        // at most 1 / 255 + 16 bytes more than their input. Zlib adds at
+        // most 5 bytes of stored block header per 16 KB of input and a few
+        // bytes of every synchronisation. Either way a piece becomes at
+        // most two chunks of a 2 byte header each, and a run of matches is
+        // at most 7 bytes. The bound is generous as it only limits the
+        // memory of deltas buffered by Sender
+        long numPieces = dataLength / MAX_DATA_COUNT + numMatches + 1;
+        return dataLength + dataLength / 128 + 64 * numPieces +
+               8 * numMatches + 1;
+    }
+
+    /**
+     * Compress all remaining bytes of src, writing any completed chunks.
+     */
+    protected abstract void compress(ByteBuffer src) throws ChannelException;
+
+    /**
+     * Write all compressed data as chunks, a token follows.
+     */
+    protected abstract void flush() throws ChannelException;
+
+    /**
+     * The data of a matched block, which is about to be sent.
+     */
+    protected void seeMatch(ByteBuffer blockData) {}
+
+    protected final void putChunk(byte[] buf, int offset, int length)
+        throws ChannelException
+    {
+        assert length > 0 && length <= MAX_DATA_COUNT;
+        _out.putByte((byte) (DEFLATED_DATA + (length >> 8)));
+        _out.putByte((byte) length);
+        _out.put(buf, offset, length);
+    }
+
+    @Override
+    void putData(ByteBuffer src) throws ChannelException
+    {
+        if (!src.hasRemaining()) {
+            return;
+        }
+        if (_isRunPending) {
+            putRun();
+        }
+        compress(src);
+        _isDataPending = true;
+    }
+
+    @Override
+    void putMatch(int blockIndex, ByteBuffer blockData)
+        throws ChannelException
+    {
+        assert blockIndex >= 0;
+        if (_isDataPending) {
+            flush();
+            _isDataPending = false;
+        }
+        if (_isRunPending && (blockIndex != _lastToken + 1 ||
+                              blockIndex > _runStart + MAX_RUN_LENGTH)) {
+            putRun();
+        }
+        if (!_isRunPending) {
+            _runStart = blockIndex;
+            _isRunPending = true;
+        }
+        _lastToken = blockIndex;
+        seeMatch(blockData);
+    }
+
+    @Override
+    void putEnd() throws ChannelException
+    {
+        if (_isDataPending) {
+            flush();
+            _isDataPending = false;
+        }
+        if (_isRunPending) {
+            putRun();
+        }
+        _out.putByte((byte) END_FLAG);
+    }
+
+    private void putRun() throws ChannelException
+    {
+        int relative = _runStart - _lastRunEnd;
+        int count = _lastToken - _runStart;
+        if (relative >= 0 && relative <= 63) {
+            _out.putByte((byte) ((count == 0 ? TOKEN_REL : TOKENRUN_REL) +
+                                 relative));
+        } else {
+            _out.putByte((byte) (count == 0 ? TOKEN_LONG : TOKENRUN_LONG));
+            _out.putInt(_runStart);
+        }
+        if (count != 0) {
+            _out.putByte((byte) count);
+            _out.putByte((byte) (count >> 8));
+        }
+        _lastRunEnd = _lastToken;
+        _isRunPending = false;
+    }
+}
@@ -18,18 +18,18 @@
  */
 package com.github.perlundq.yajsync.internal.session;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.ConcurrentSkipListMap;
-
-import com.github.perlundq.yajsync.attr.FileInfo;
 
 public class ConcurrentFilelist extends Filelist
 {
-    public ConcurrentFilelist(boolean isRecursive, boolean isPruneDuplicates)
+    public ConcurrentFilelist(boolean isRecursive, boolean isPruneDuplicates,
+                              Charset charset)
     {
         super(isRecursive,
               isPruneDuplicates,
+              charset,
               Collections.synchronizedList(new ArrayList<Segment>()));
     }
 
@@ -41,13 +41,6 @@ public class ConcurrentFilelist extends Filelist
         }
     }
 
-    @Override
-    public Segment newSegment(SegmentBuilder builder)
-    {
-        return super.newSegment(builder,
-                                new ConcurrentSkipListMap<Integer, FileInfo>());
-    }
-
     @Override
     public Segment getSegmentWith(int fileIndex)
     {
@@ -0,0 +1,732 @@
+/*
+ * Writing of received file data to disk, optionally by a separate thread
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the data of a file being received - literal data from peer and
+ * ranges of matched blocks of its replica, in file order - to the temp file
+ * while updating the digest of the file.
+ *
+ * Given a write behind limit greater than zero the data is applied by a
+ * separate thread, so that receiving data from peer is not stalled by a
+ * slow disk and vice versa. Literal data is then copied into a bounded pool
+ * of buffers and the Receiver blocks, and thereby also peer, when all of
+ * them are waiting to be written (back-pressure). Otherwise the data is
+ * applied directly by the calling thread.
+ *
+ * Given async digest the digest is updated by a digest stage, a separate
+ * thread, instead of by the thread writing the data, so that hashing does
+ * not compete with receiving from peer. All data then passes through pooled
+ * buffers: literal data is copied into them as for write behind, and
+ * replica ranges are read into them instead of being copied by the kernel.
+ * Every buffer is handed to the digest stage once written and returned to
+ * its pool once hashed, the data is never read back. The digest of a file
+ * is available from digestOf once it has been finished.
+ *
+ * Any I/O error is reported first by finish, after all the data of the file
+ * has been received from peer, and makes the digest of the file invalid.
+ *
+ * A file updated in place (--inplace) is its own replica. All its ranges are
+ * then at or after the current position of the file, as peer never matches
+ * blocks that already have been overwritten, and are copied in ascending
+ * order so that the data is read before being overwritten. A range already
+ * at the correct offset is not written at all.
+ *
+ * In sparse mode (--sparse) every block of SPARSE_BLOCK_SIZE bytes of the
+ * file which is all zeroes is seeked past instead of being written, leaving
+ * a hole in the file. Sparse mode is not used for files updated in place,
+ * as any existing data of a block would then be left as is.
+ */
+final class DataWriter implements AutoCloseable
+{
+    private static final class Op
+    {
+        private final ByteBuffer _dataOrNull; // literal data if non null
+        private final long _offset;           // otherwise a replica range
+        private final long _length;
+
+        private Op(ByteBuffer dataOrNull, long offset, long length)
+        {
+            _dataOrNull = dataOrNull;
+            _offset = offset;
+            _length = length;
+        }
+    }
+
+    // a buffer of data to be hashed by the digest stage, and the pool to
+    // return it to once hashed
+    private static final class Chunk
+    {
+        private final ByteBuffer _buf;
+        private final BlockingQueue<ByteBuffer> _poolOrNull;
+
+        private Chunk(ByteBuffer buf, BlockingQueue<ByteBuffer> poolOrNull)
+        {
+            _buf = buf;
+            _poolOrNull = poolOrNull;
+        }
+    }
+
+    private static final Logger _log =
+        Logger.getLogger(DataWriter.class.getName());
+    private static final int BUF_SIZE = 64 * 1024;
+    private static final int MIN_NUM_BUFFERS = 2;
+    // the number of buffers of data the digest stage may lag behind, per
+    // pool
+    private static final int NUM_DIGEST_BUFFERS = 16;
+    // the unit of holes, the block size of most file systems
+    private static final int SPARSE_BLOCK_SIZE = 4096;
+    private static final Op END = new Op(null, 0, 0);
+    private static final Chunk DIGEST_END = new Chunk(null, null);
+
+    private final ByteBuffer _replicaBuf = ByteBuffer.allocateDirect(BUF_SIZE);
+    private final BlockingQueue<ByteBuffer> _freeBuffers;
+    private final BlockingQueue<Op> _ops;
+    private final ExecutorService _executorOrNull;
+    private final BlockingQueue<ByteBuffer> _replicaBuffersOrNull;
+    private final BlockingQueue<Chunk> _digestsOrNull;
+    private final ExecutorService _digestExecutorOrNull;
+    private final boolean _isSparse;
+
+    // the current file
+    private FileChannel _target;
+    private FileChannel _replicaOrNull;
+    private MessageDigest _md;
+    private boolean _isInplace;
+    private boolean _isSparseFile;
+    private IOException _error;
+    private ByteBuffer _literalBuf;
+    private Future<Void> _future;
+    // the digest of the current or last file and its future if digested by
+    // the digest stage
+    private MessageDigest _digestedMd;
+    private Future<MessageDigest> _digestFuture;
+
+    /**
+     * @param writeBehindLimit the maximum number of bytes of literal data
+     *        waiting to be written by a separate thread, 0 (default) to
+     *        write all data directly. With async digest it also bounds the
+     *        data waiting to be hashed.
+     * @param isSparse true if blocks of zeroes should be left as holes
+     * @param isAsyncDigest true if the digest is updated by a separate
+     *        thread
+     */
+    DataWriter(long writeBehindLimit, boolean isSparse, boolean isAsyncDigest)
+    {
+        assert writeBehindLimit >= 0;
+        _isSparse = isSparse;
+        int numBuffers = 0;
+        if (writeBehindLimit > 0) {
+            long limit = Math.min(writeBehindLimit / BUF_SIZE,
+                                  Integer.MAX_VALUE / 2);
+            numBuffers = (int) Math.max(MIN_NUM_BUFFERS, limit);
+            _ops = new ArrayBlockingQueue<>(2 * numBuffers);
+            _executorOrNull = newDaemonExecutor();
+        } else {
+            _ops = null;
+            _executorOrNull = null;
+        }
+        if (isAsyncDigest) {
+            if (numBuffers == 0) {
+                numBuffers = NUM_DIGEST_BUFFERS;
+            }
+            // taken only by the thread writing replica data, so that it is
+            // never waiting for a buffer held by queued literal data
+            _replicaBuffersOrNull = newPool(NUM_DIGEST_BUFFERS);
+            // never more than the pooled buffers and one DIGEST_END per file
+            _digestsOrNull = new LinkedBlockingQueue<>();
+            _digestExecutorOrNull = newDaemonExecutor();
+        } else {
+            _replicaBuffersOrNull = null;
+            _digestsOrNull = null;
+            _digestExecutorOrNull = null;
+        }
+        _freeBuffers = numBuffers > 0 ? newPool(numBuffers) : null;
+    }
+
+    private static BlockingQueue<ByteBuffer> newPool(int numBuffers)
+    {
+        BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(numBuffers);
+        for (int i = 0; i < numBuffers; i++) {
+            pool.add(ByteBuffer.allocate(BUF_SIZE));
+        }
+        return pool;
+    }
+
+    private static ExecutorService newDaemonExecutor()
+    {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            private final ThreadFactory _defaultFactory =
+                Executors.defaultThreadFactory();
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = _defaultFactory.newThread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    boolean isWriteBehind()
+    {
+        return _executorOrNull != null;
+    }
+
+    boolean isAsyncDigest()
+    {
+        return _digestExecutorOrNull != null;
+    }
+
+    /**
+     * Start writing a new file to target, must be followed by finish.
+     *
+     * @param isInplace true if target is updated in place, i.e. it is also
+     *        the replica
+     */
+    void begin(FileChannel target, FileChannel replicaOrNull,
+               final MessageDigest md, boolean isInplace)
+    {
+        assert target != null;
+        assert md != null;
+        assert _target == null : "missing finish of previous file";
+        assert !isInplace || replicaOrNull == null || replicaOrNull == target;
+        _target = target;
+        _replicaOrNull = replicaOrNull;
+        _md = md;
+        _isInplace = isInplace;
+        _isSparseFile = _isSparse && !isInplace;
+        _error = null;
+        _digestedMd = md;
+        if (isWriteBehind()) {
+            _future = _executorOrNull.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException
+                {
+                    applyQueuedOps();
+                    return null;
+                }
+            });
+        }
+        if (isAsyncDigest()) {
+            _digestFuture = _digestExecutorOrNull.submit(
+                new Callable<MessageDigest>() {
+                    @Override
+                    public MessageDigest call() throws InterruptedException
+                    {
+                        return digestQueued(md);
+                    }
+                });
+        }
+    }
+
+    /**
+     * @return md once updated with all the data of the file it was begun
+     *         with, must not be waited for before finish or abort of that
+     *         file. md is returned as is if it is not the digest of the
+     *         current or last file.
+     */
+    Future<MessageDigest> digestOf(MessageDigest md)
+    {
+        if (md == _digestedMd && _digestFuture != null) {
+            return _digestFuture;
+        }
+        return CompletableFuture.completedFuture(md);
+    }
+
+    /**
+     * Write the remaining bytes of data, which is not referenced after
+     * returning.
+     */
+    void putLiteral(ByteBuffer data) throws InterruptedException
+    {
+        if (_freeBuffers == null) {
+            writeLiteral(data, null);
+            return;
+        }
+        while (data.hasRemaining()) {
+            if (_literalBuf == null) {
+                _literalBuf = _freeBuffers.take();
+                _literalBuf.clear();
+            }
+            int length = Math.min(data.remaining(), _literalBuf.remaining());
+            ByteBuffer slice = data.slice();
+            slice.limit(length);
+            _literalBuf.put(slice);
+            data.position(data.position() + length);
+            if (!_literalBuf.hasRemaining()) {
+                flushLiteral();
+            }
+        }
+    }
+
+    /**
+     * Copy length bytes of the replica starting at offset.
+     */
+    void putReplicaRange(long offset, long length) throws InterruptedException
+    {
+        assert offset >= 0 && length >= 0;
+        if (length == 0) {
+            return;
+        }
+        assert _replicaOrNull != null;
+        flushLiteral();
+        if (isWriteBehind()) {
+            _ops.put(new Op(null, offset, length));
+        } else {
+            applyReplicaRange(offset, length);
+        }
+    }
+
+    /**
+     * Wait until all the data of the current file has been written, then
+     * truncate it to the size of the data in case it was larger (updated in
+     * place or preallocated).
+     *
+     * @throws IOException if failing to read any replica data (or to set
+     *         the final size of the file), in which case the contents of the
+     *         file are undefined and the digest is invalid
+     */
+    void finish() throws IOException, InterruptedException
+    {
+        finish(true);
+    }
+
+    /**
+     * Finish the current file, if any, ignoring any errors. Used when the
+     * data of the file could not be received completely.
+     */
+    void abort() throws InterruptedException
+    {
+        if (_target == null) {
+            return;
+        }
+        try {
+            finish(false);
+        } catch (IOException | RuntimeException e) {
+            if (_log.isLoggable(Level.FINE)) {
+                _log.fine("ignoring error of aborted file: " + e);
+            }
+        }
+    }
+
+    private void finish(boolean isComplete)
+        throws IOException, InterruptedException
+    {
+        assert _target != null;
+        try {
+            flushLiteral();
+            if (isWriteBehind()) {
+                _ops.put(END);
+                awaitQueuedOps();
+            }
+            if (_error != null) {
+                throw _error;
+            }
+            if (isComplete) {
+                // a file updated in place or preallocated might be larger
+                // than the data written
+                if (_isSparseFile) {
+                    extend(_target, _target.position());
+                }
+                _target.truncate(_target.position());
+            }
+        } catch (IOException e) {
+            digest(ByteBuffer.allocate(1), null); // invalid
+            throw e;
+        } finally {
+            if (isAsyncDigest()) {
+                _digestsOrNull.add(DIGEST_END);
+            }
+            _target = null;
+            _replicaOrNull = null;
+            _md = null;
+            _future = null;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (_executorOrNull != null) {
+            _executorOrNull.shutdownNow();
+        }
+        if (_digestExecutorOrNull != null) {
+            _digestExecutorOrNull.shutdownNow();
+        }
+    }
+
+    // hand the pending literal data over to the writer thread, or write it
+    // right away
+    private void flushLiteral() throws InterruptedException
+    {
+        if (_literalBuf != null) {
+            ByteBuffer buf = _literalBuf;
+            _literalBuf = null;
+            buf.flip();
+            if (isWriteBehind()) {
+                _ops.put(new Op(buf, 0, buf.remaining()));
+            } else {
+                writeLiteral(buf, _freeBuffers);
+            }
+        }
+    }
+
+    private void awaitQueuedOps() throws InterruptedException
+    {
+        await(_future);
+    }
+
+    /**
+     * @return the result of future once done
+     * @throws RuntimeException (or Error) as thrown by the task of future
+     */
+    static <T> T await(Future<T> future) throws InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new AssertionError("BUG - missing statement for " + cause);
+        }
+    }
+
+    // runs in the digest thread until DIGEST_END of the file of md, every
+    // buffer is returned to its pool once hashed
+    private MessageDigest digestQueued(MessageDigest md)
+        throws InterruptedException
+    {
+        while (true) {
+            Chunk chunk = _digestsOrNull.take();
+            if (chunk == DIGEST_END) {
+                return md;
+            }
+            md.update(chunk._buf);
+            release(chunk._buf, chunk._poolOrNull);
+        }
+    }
+
+    /**
+     * Update the digest with the remaining bytes of buf, which are written,
+     * then return buf to poolOrNull. Done by the digest stage if enabled.
+     */
+    private void digest(ByteBuffer buf, BlockingQueue<ByteBuffer> poolOrNull)
+    {
+        if (isAsyncDigest()) {
+            _digestsOrNull.add(new Chunk(buf, poolOrNull));
+        } else {
+            _md.update(buf);
+            release(buf, poolOrNull);
+        }
+    }
+
+    private static void release(ByteBuffer buf,
+                                BlockingQueue<ByteBuffer> poolOrNull)
+    {
+        if (poolOrNull != null) {
+            poolOrNull.add(buf);
+        }
+    }
+
+    // runs in the writer thread until END of the current file, the ops are
+    // drained even after a failure so that the Receiver never is blocked
+    private void applyQueuedOps() throws InterruptedException
+    {
+        RuntimeException failure = null;
+        while (true) {
+            Op op = _ops.take();
+            if (op == END) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return;
+            }
+            try {
+                if (failure != null) {
+                    if (op._dataOrNull != null) { // skip
+                        release(op._dataOrNull, _freeBuffers);
+                    }
+                } else if (op._dataOrNull != null) {
+                    writeLiteral(op._dataOrNull, _freeBuffers);
+                } else {
+                    applyReplicaRange(op._offset, op._length);
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Write data, then hand it to the digest which returns it to poolOrNull.
+     * It is returned right away if not written.
+     */
+    private void writeLiteral(ByteBuffer data,
+                              BlockingQueue<ByteBuffer> poolOrNull)
+    {
+        if (_error != null) {
+            data.position(data.limit());
+            release(data, poolOrNull);
+            return;
+        }
+        boolean isWritten = false;
+        try {
+            data.mark();
+            if (_isSparseFile) {
+                try {
+                    long position = _target.position();
+                    _target.position(writeSparse(_target, data, position));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                writeToFile(_target, data);
+            }
+            data.reset();
+            isWritten = true;
+            digest(data, poolOrNull);
+        } finally {
+            if (!isWritten) {
+                release(data, poolOrNull);
+            }
+        }
+    }
+
+    private void applyReplicaRange(long offset, long length)
+        throws InterruptedException
+    {
+        if (_error != null) {
+            return;
+        }
+        try {
+            if (_isInplace || _isSparseFile || isAsyncDigest()) {
+                copyThroughBuffers(offset, length);
+            } else {
+                copyFromReplica(offset, length);
+            }
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.FINE)) {
+                _log.fine(String.format("failed to copy %d bytes at %d " +
+                                        "from %s: %s", length, offset,
+                                        _replicaOrNull, e));
+            }
+            _error = e;
+        }
+    }
+
+    /**
+     * Copy the range of the replica to the current position of target,
+     * without the data passing through user space if supported by the file
+     * systems, then read it from the replica to update the digest.
+     */
+    private void copyFromReplica(long offset, long length)
+        throws IOException, InterruptedException
+    {
+        long bytesCopied = 0;
+        while (bytesCopied < length) {
+            long n = _replicaOrNull.transferTo(offset + bytesCopied,
+                                               length - bytesCopied,
+                                               _target);
+            if (n <= 0) {
+                throw new IOException(String.format(
+                    "truncated copy from replica (%s), copied %d bytes " +
+                    "but expected %d more bytes", _replicaOrNull,
+                    bytesCopied, length - bytesCopied));
+            }
+            bytesCopied += n;
+        }
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            ByteBuffer buf = readReplica(position, end);
+            position += buf.remaining();
+            digest(buf, null);
+        }
+    }
+
+    /**
+     * Copy the range of the replica to the current position of target
+     * through replica buffers, updating the digest with every buffer once
+     * written. Any blocks of zeroes are left as holes if sparse. If target
+     * is updated in place the current position is never after offset, and
+     * data already at the correct offset is not written.
+     */
+    private void copyThroughBuffers(long offset, long length)
+        throws IOException, InterruptedException
+    {
+        long position = _target.position();
+        assert !_isInplace || offset >= position;
+        long end = offset + length;
+        while (offset < end) {
+            ByteBuffer buf = readReplica(offset, end);
+            boolean isWritten = false;
+            try {
+                int n = buf.remaining();
+                buf.mark();
+                if (_isSparseFile) {
+                    writeSparse(_target, buf, position);
+                } else if (!_isInplace || position != offset) {
+                    while (buf.hasRemaining()) {
+                        _target.write(buf, position + buf.position());
+                    }
+                }
+                buf.reset();
+                isWritten = true;
+                digest(buf, _replicaBuffersOrNull);
+                offset += n;
+                position += n;
+            } finally {
+                if (!isWritten) {
+                    release(buf, _replicaBuffersOrNull);
+                }
+            }
+        }
+        _target.position(position);
+    }
+
+    /**
+     * @return a replica buffer filled with the data of the replica starting
+     *         at position, though not beyond end, which is to be handed to
+     *         the digest
+     */
+    private ByteBuffer readReplica(long position, long end)
+        throws IOException, InterruptedException
+    {
+        ByteBuffer buf = _replicaBuffersOrNull == null
+                             ? _replicaBuf : _replicaBuffersOrNull.take();
+        try {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - position));
+            while (buf.hasRemaining()) {
+                int n = _replicaOrNull.read(buf, position + buf.position());
+                if (n <= 0) {
+                    throw new IOException(String.format(
+                        "truncated read from replica (%s), read %d bytes " +
+                        "but expected %d more bytes", _replicaOrNull,
+                        buf.position(), buf.remaining()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            release(buf, _replicaBuffersOrNull);
+            throw e;
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Write the remaining bytes of src to out at position, skipping every
+     * block of the file that is all zeroes.
+     *
+     * @return the position of out following the data
+     */
+    static long writeSparse(FileChannel out, ByteBuffer src, long position)
+        throws IOException
+    {
+        while (src.hasRemaining()) {
+            int length = (int) Math.min(src.remaining(),
+                                        SPARSE_BLOCK_SIZE -
+                                        position % SPARSE_BLOCK_SIZE);
+            ByteBuffer block = src.slice();
+            block.limit(length);
+            if (!isZeroes(block)) {
+                long p = position;
+                while (block.hasRemaining()) {
+                    p += out.write(block, p);
+                }
+            }
+            src.position(src.position() + length);
+            position += length;
+        }
+        return position;
+    }
+
+    /**
+     * Extend out to size bytes if smaller, by writing its last byte. Used
+     * for ending a sparse file with a hole and for preallocating a file.
+     */
+    static void extend(FileChannel out, long size) throws IOException
+    {
+        if (size > 0 && out.size() < size) {
+            ByteBuffer zero = ByteBuffer.allocate(1);
+            while (zero.hasRemaining()) {
+                out.write(zero, size - 1);
+            }
+        }
+    }
+
+    private static boolean isZeroes(ByteBuffer buf)
+    {
+        int i = buf.position();
+        int end = buf.limit();
+        for (; i + 8 <= end; i += 8) {
+            if (buf.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (buf.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void writeToFile(FileChannel out, ByteBuffer src)
+    {
+        try {
+            // NOTE: might notably fail due to running out of disk space
+            out.write(src);
+            if (src.hasRemaining()) {
+                throw new IllegalStateException(String.format(
+                    "truncated write to %s, returned %d bytes, " +
+                    "expected %d more bytes",
+                    out, src.position(), src.remaining()));
+            }
+        } catch (IOException e) {
+            // native exists immediately if this happens, and so do we:
+            throw new RuntimeException(e);
+        }
+    }
+}
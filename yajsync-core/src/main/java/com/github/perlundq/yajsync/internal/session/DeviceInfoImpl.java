@@ -27,7 +27,15 @@ class DeviceInfoImpl extends FileInfoImpl implements DeviceInfo
     DeviceInfoImpl(String pathName, byte[] pathNameBytes,
                    RsyncFileAttributes attrs, int major, int minor)
     {
-        super(pathName, pathNameBytes, attrs);
+        this(pathName, pathNameBytes, 0, pathNameBytes.length, attrs, major,
+             minor);
+    }
+
+    DeviceInfoImpl(String pathName, byte[] pathNameBytes, int offset,
+                   int length, RsyncFileAttributes attrs, int major,
+                   int minor)
+    {
+        super(pathName, pathNameBytes, offset, length, attrs);
         assert attrs.isBlockDevice() || attrs.isCharacterDevice() ||
                attrs.isFifo() || attrs.isSocket();
         assert major >= 0;
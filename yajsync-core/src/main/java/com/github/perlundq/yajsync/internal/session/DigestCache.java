@@ -0,0 +1,264 @@
+/*
+ * Persistent cache of the whole file digests of --checksum
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.StrongChecksum;
+import com.github.perlundq.yajsync.internal.util.FileOps;
+
+/**
+ * A file of the whole file digests computed by previous transfers with
+ * --checksum, so that a file which has not changed since does not have to
+ * be read again. Shared by all Senders and Generators of a client or
+ * server.
+ *
+ * A digest is keyed by the device and inode of its file, its size,
+ * modification time and status change time (see FileVersion) as well as
+ * the strong checksum algorithm. A modified file gets a new key, also if
+ * its modification time is restored afterwards, its old entry is never
+ * used again and eventually evicted. Files whose file system does not
+ * provide a status change time are not cached. Digests of files modified
+ * less than MIN_AGE ago are not stored,
+ * as another modification within the granularity of the file system's
+ * modification time might go unnoticed.
+ *
+ * The number of entries is bounded, the least recently used entries are
+ * evicted first. The entries are kept in memory and written to the file
+ * by save, in the order they were used. Concurrent processes using the
+ * same file do not corrupt it but only the entries of the last one to
+ * save are kept.
+ */
+public final class DigestCache
+{
+    public static final int DEFAULT_MAX_ENTRIES = 1024 * 1024;
+    private static final long MIN_AGE = TimeUnit.SECONDS.toNanos(2);
+    private static final int MAGIC = 0x594a4443; // YJDC
+    private static final int BUF_SIZE = 64 * 1024;
+    private static final Logger _log =
+        Logger.getLogger(DigestCache.class.getName());
+
+    private final Path _file;
+    private final int _maxEntries;
+    // id -> digest, least recently used first
+    private final Map<String, byte[]> _entries;
+    private boolean _isModified;
+
+    private DigestCache(Path file, final int maxEntries)
+    {
+        _file = file;
+        _maxEntries = maxEntries;
+        _entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> e)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param file the file of the cache, created by the first save if
+     *        missing
+     * @param maxEntries the maximum number of digests
+     * @throws IOException if failing to read file
+     */
+    public static DigestCache open(Path file, int maxEntries)
+        throws IOException
+    {
+        assert file != null;
+        assert maxEntries >= 0;
+        DigestCache cache = new DigestCache(file, maxEntries);
+        try {
+            cache.load();
+        } catch (NoSuchFileException e) {
+            // created by save
+        }
+        return cache;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s(file=%s, maxEntries=%d)",
+                             getClass().getSimpleName(), _file, _maxEntries);
+    }
+
+    /**
+     * @return the digest of the contents of file, from the cache if file
+     *         has not been modified since it was cached
+     * @throws IOException if failing to read file
+     */
+    byte[] digestOf(Path file, StrongChecksum strongChecksum)
+        throws IOException
+    {
+        FileVersion versionOrNull = FileVersion.ofOrNull(file);
+        String idOrNull = idOrNull(versionOrNull, strongChecksum);
+        if (idOrNull != null) {
+            synchronized (this) {
+                byte[] digest = _entries.get(idOrNull);
+                if (digest != null) {
+                    return digest.clone();
+                }
+            }
+        }
+
+        byte[] digest = computeDigest(file, strongChecksum);
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (idOrNull != null &&
+            now - versionOrNull.modifiedNanos() >= MIN_AGE &&
+            versionOrNull.equals(FileVersion.ofOrNull(file))) {
+            synchronized (this) {
+                _entries.put(idOrNull, digest.clone());
+                _isModified = true;
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Write the entries to the file of the cache, unless unchanged since it
+     * was opened or last saved.
+     *
+     * @throws IOException if failing to write the file
+     */
+    public void save() throws IOException
+    {
+        List<Map.Entry<String, byte[]>> entries;
+        synchronized (this) {
+            if (!_isModified) {
+                return;
+            }
+            entries = new ArrayList<>(_entries.entrySet());
+            _isModified = false;
+        }
+
+        Path dir = _file.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(dir, null, null);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                         Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                for (Map.Entry<String, byte[]> e : entries) {
+                    out.writeUTF(e.getKey());
+                    out.writeByte(e.getValue().length);
+                    out.write(e.getValue());
+                }
+            }
+            if (!FileOps.atomicMove(tempFile, _file)) {
+                throw new IOException("failed to move " + tempFile);
+            }
+            tempFile = null;
+            if (_log.isLoggable(Level.FINE)) {
+                _log.fine(String.format("saved %d digests to %s",
+                                        entries.size(), _file));
+            }
+        } finally {
+            if (tempFile != null) {
+                synchronized (this) {
+                    _isModified = true;
+                }
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * @return the digest of the contents of file
+     * @throws IOException if failing to read file
+     */
+    static byte[] computeDigest(Path file, StrongChecksum strongChecksum)
+        throws IOException
+    {
+        MessageDigest md = strongChecksum.newInstance();
+        ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE);
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.READ)) {
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        }
+        return md.digest();
+    }
+
+    private static String idOrNull(FileVersion versionOrNull,
+                                   StrongChecksum strongChecksum)
+    {
+        if (versionOrNull == null) {
+            return null;
+        }
+        return String.format("%s checksum=%s", versionOrNull, strongChecksum);
+    }
+
+    // a file which is not a (complete) cache is replaced by the next save
+    private void load() throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(_file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new EOFException();
+            }
+            while (true) {
+                String id;
+                try {
+                    id = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] digest = new byte[in.readUnsignedByte()];
+                in.readFully(digest);
+                _entries.put(id, digest);
+            }
+        } catch (EOFException e) {
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("ignoring invalid digest cache %s",
+                                           _file));
+            }
+            _entries.clear();
+        }
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine(String.format("loaded %d digests from %s",
+                                    _entries.size(), _file));
+        }
+    }
+}
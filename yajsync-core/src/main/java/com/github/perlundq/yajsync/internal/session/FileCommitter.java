@@ -0,0 +1,415 @@
+/*
+ * Moving received files into place according to a durability policy
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.Durability;
+import com.github.perlundq.yajsync.internal.util.FileOps;
+
+/**
+ * Moves the completed temp files of the Receiver into place, forcing their
+ * data to disk first unless the durability is NONE.
+ *
+ * With GROUP_COMMIT the files are instead queued and committed by a
+ * separate thread, a group of at most groupSize files at a time or all
+ * files completed within groupInterval of the first one of the group,
+ * whichever is first: the data of all of them is forced to disk, all of
+ * them are moved into place and then every directory of the group is
+ * forced to disk once. The Receiver continues with the next file in the
+ * meantime and is notified through the Listener of each file once it has
+ * been committed.
+ */
+final class FileCommitter implements AutoCloseable
+{
+    /**
+     * Notified of a file once it has been committed, or failed to, by the
+     * thread committing it.
+     */
+    interface Listener
+    {
+        void committed(boolean isOK) throws InterruptedException;
+    }
+
+    private static final class Commit
+    {
+        private final Path _fileOrNull;  // a flush of the queue if null
+        private final Path _target;
+        private final Listener _listener;
+        private boolean _isOK;
+
+        private Commit(Path fileOrNull, Path target, Listener listener)
+        {
+            _fileOrNull = fileOrNull;
+            _target = target;
+            _listener = listener;
+        }
+
+        private boolean isFlush()
+        {
+            return _fileOrNull == null;
+        }
+    }
+
+    private static final Logger _log =
+        Logger.getLogger(FileCommitter.class.getName());
+
+    private final Durability _durability;
+    private final int _groupSize;
+    private final long _groupIntervalNanos;
+    private final BlockingQueue<Commit> _commits;
+    private final Set<Path> _pending;
+    private final ExecutorService _executorOrNull;
+    private volatile boolean _isFailed;
+    private volatile Throwable _failure;
+    private boolean _isStopped;
+
+    /**
+     * @param groupSize the maximum number of files of a group (GROUP_COMMIT)
+     * @param groupIntervalMillis the maximum time in milliseconds a file
+     *        waits for more files of its group (GROUP_COMMIT)
+     */
+    FileCommitter(Durability durability, int groupSize,
+                  long groupIntervalMillis)
+    {
+        assert durability != null;
+        assert groupSize > 0;
+        assert groupIntervalMillis >= 0;
+        _durability = durability;
+        _groupSize = groupSize;
+        _groupIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                                                        groupIntervalMillis);
+        if (durability == Durability.GROUP_COMMIT) {
+            _commits = new LinkedBlockingQueue<>();
+            _pending = ConcurrentHashMap.newKeySet();
+            _executorOrNull = Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+                    private final ThreadFactory _defaultFactory =
+                        Executors.defaultThreadFactory();
+
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = _defaultFactory.newThread(r);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            _executorOrNull.submit(new Runnable() {
+                @Override
+                public void run()
+                {
+                    commitQueued();
+                }
+            });
+        } else {
+            _commits = null;
+            _pending = null;
+            _executorOrNull = null;
+        }
+    }
+
+    Durability durability()
+    {
+        return _durability;
+    }
+
+    /**
+     * Commit file, i.e. move it to target unless it already is target. The
+     * listener is notified before returning unless the durability is
+     * GROUP_COMMIT, file is then pending until committed by the separate
+     * thread and must not be touched in the meantime.
+     *
+     * @return false if failing to commit file directly, any failure of a
+     *         pending file is instead reported by flush
+     * @throws IllegalStateException if the committer has stopped due to an
+     *         unexpected error
+     */
+    boolean commit(Path file, Path target, Listener listener)
+        throws InterruptedException
+    {
+        assert file != null;
+        assert target != null;
+        assert listener != null;
+        if (_executorOrNull != null) {
+            if (!enqueue(new Commit(file, target, listener))) {
+                throw new IllegalStateException("file committer has stopped",
+                                                _failure);
+            }
+            return true;
+        }
+
+        boolean isOK = _durability == Durability.NONE || force(file);
+        if (isOK && !file.equals(target)) {
+            if (_log.isLoggable(Level.FINE)) {
+                _log.fine(String.format("moving %s -> %s", file, target));
+            }
+            isOK = FileOps.atomicMove(file, target);
+            if (isOK && _durability == Durability.PER_FILE) {
+                forceDirectory(target.getParent());
+            }
+        }
+        listener.committed(isOK);
+        return isOK;
+    }
+
+    /**
+     * @return true if file has been queued but not yet committed
+     */
+    boolean isPending(Path file)
+    {
+        return _pending != null && _pending.contains(file);
+    }
+
+    /**
+     * Wait until all files queued so far have been committed.
+     *
+     * @return false if failing to commit any file queued since the previous
+     *         flush
+     */
+    boolean flush() throws InterruptedException
+    {
+        if (_executorOrNull != null) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            Commit flush = new Commit(null, null, new Listener() {
+                @Override
+                public void committed(boolean isOK)
+                {
+                    latch.countDown();
+                }
+            });
+            if (enqueue(flush)) {
+                latch.await();
+            }
+            Throwable failure = _failure;
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+        boolean isOK = !_isFailed;
+        _isFailed = false;
+        return isOK;
+    }
+
+    /**
+     * Commit any files still queued, unless interrupted in which case they
+     * are deleted and the interrupt status of the calling thread is set
+     * again, and stop.
+     */
+    @Override
+    public void close()
+    {
+        if (_executorOrNull != null) {
+            try {
+                flush();
+            } catch (InterruptedException e) {
+                if (_log.isLoggable(Level.WARNING)) {
+                    _log.warning("interrupted while committing queued " +
+                                 "files, deleting them");
+                }
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | Error e) {
+                // already logged by the separate thread
+            } finally {
+                _executorOrNull.shutdownNow();
+            }
+        }
+    }
+
+    private synchronized boolean enqueue(Commit commit)
+    {
+        if (_isStopped) {
+            return false;
+        }
+        if (!commit.isFlush()) {
+            _pending.add(commit._fileOrNull);
+        }
+        _commits.add(commit);
+        return true;
+    }
+
+    // runs in the separate thread until interrupted
+    private void commitQueued()
+    {
+        List<Commit> group = new ArrayList<>(_groupSize + 1);
+        try {
+            while (true) {
+                Commit commit = _commits.take();
+                long deadline = System.nanoTime() + _groupIntervalNanos;
+                while (commit != null) {
+                    group.add(commit);
+                    if (commit.isFlush() || group.size() >= _groupSize) {
+                        break;
+                    }
+                    commit = _commits.poll(deadline - System.nanoTime(),
+                                           TimeUnit.NANOSECONDS);
+                }
+                commitGroup(group);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (RuntimeException | Error e) {
+            _failure = e;
+            if (_log.isLoggable(Level.SEVERE)) {
+                _log.log(Level.SEVERE, "file committer failed", e);
+            }
+        } finally {
+            synchronized (this) {
+                _isStopped = true;
+                _commits.drainTo(group);
+            }
+            discard(group);
+        }
+    }
+
+    private void commitGroup(List<Commit> group) throws InterruptedException
+    {
+        for (Commit c : group) {
+            if (!c.isFlush()) {
+                c._isOK = force(c._fileOrNull);
+            }
+        }
+
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (Commit c : group) {
+            if (c.isFlush() || !c._isOK) {
+                continue;
+            }
+            if (!c._fileOrNull.equals(c._target)) {
+                if (_log.isLoggable(Level.FINE)) {
+                    _log.fine(String.format("moving %s -> %s",
+                                            c._fileOrNull, c._target));
+                }
+                c._isOK = FileOps.atomicMove(c._fileOrNull, c._target);
+                if (c._isOK) {
+                    dirs.add(c._target.getParent());
+                }
+            }
+        }
+        for (Path dir : dirs) {
+            forceDirectory(dir);
+        }
+
+        for (Commit c : group) {
+            if (!c.isFlush()) {
+                if (!c._isOK) {
+                    _isFailed = true;
+                    deleteIfTemp(c);
+                }
+                _pending.remove(c._fileOrNull);
+            }
+            c._listener.committed(c._isOK || c.isFlush());
+        }
+    }
+
+    // the files are deleted as they never were moved into place, any
+    // waiting flush is released
+    private void discard(List<Commit> commits)
+    {
+        for (Commit c : commits) {
+            if (c.isFlush()) {
+                try {
+                    c._listener.committed(true);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                deleteIfTemp(c);
+                _pending.remove(c._fileOrNull);
+            }
+        }
+    }
+
+    private static void deleteIfTemp(Commit commit)
+    {
+        if (!commit._fileOrNull.equals(commit._target)) {
+            try {
+                Files.deleteIfExists(commit._fileOrNull);
+            } catch (IOException e) {
+                if (_log.isLoggable(Level.WARNING)) {
+                    _log.warning(String.format("failed to delete %s: %s",
+                                               commit._fileOrNull,
+                                               e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if failing to force the data of file to disk
+     */
+    private static boolean force(Path file)
+    {
+        try {
+            try (FileChannel c = FileChannel.open(file,
+                                                  StandardOpenOption.READ)) {
+                c.force(true);
+            } catch (AccessDeniedException e) {
+                // e.g. write only with the final permissions already set
+                try (FileChannel c = FileChannel.open(
+                                            file, StandardOpenOption.WRITE)) {
+                    c.force(true);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.SEVERE)) {
+                _log.severe(String.format("failed to force %s to disk: %s",
+                                          file, e.getMessage()));
+            }
+            return false;
+        }
+    }
+
+    // not all platforms support forcing a directory, the data of the files
+    // is durable anyway
+    private static void forceDirectory(Path dir)
+    {
+        try (FileChannel c = FileChannel.open(dir, StandardOpenOption.READ)) {
+            c.force(true);
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.FINE)) {
+                _log.fine(String.format("failed to force directory %s to " +
+                                        "disk: %s", dir, e.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Computing the whole file digests of --checksum concurrently
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.perlundq.yajsync.StrongChecksum;
+import com.github.perlundq.yajsync.internal.util.RuntimeInterruptException;
+
+/**
+ * Computes the whole file digests compared with --checksum, through the
+ * digest cache if there is one. With a parallelism greater than 1 the
+ * digests of the files of a file list segment are submitted up front and
+ * computed by a pool of threads while the caller processes the files in
+ * order, otherwise each digest is computed by the caller once it is taken.
+ */
+final class FileDigester implements AutoCloseable
+{
+    /**
+     * The digest of a file, possibly being computed concurrently.
+     */
+    final class Pending
+    {
+        private final Path _file;
+        private final Future<byte[]> _futureOrNull;
+
+        private Pending(Path file, Future<byte[]> futureOrNull)
+        {
+            _file = file;
+            _futureOrNull = futureOrNull;
+        }
+
+        /**
+         * @return the digest of the file
+         * @throws IOException if failing to read the file
+         * @throws RuntimeInterruptException if interrupted while waiting for
+         *         the digest
+         */
+        byte[] take() throws IOException
+        {
+            if (_futureOrNull == null) {
+                return digestOf(_file);
+            }
+            try {
+                return _futureOrNull.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeInterruptException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new Error(cause);
+            }
+        }
+
+        void cancel()
+        {
+            if (_futureOrNull != null) {
+                _futureOrNull.cancel(true);
+            }
+        }
+    }
+
+    private final StrongChecksum _strongChecksum;
+    private final DigestCache _digestCacheOrNull;
+    private final ExecutorService _executorOrNull;
+
+    /**
+     * @param digestCacheOrNull the cache of previously computed digests
+     * @param parallelism the number of digests computed concurrently
+     */
+    FileDigester(StrongChecksum strongChecksum, DigestCache digestCacheOrNull,
+                 int parallelism)
+    {
+        assert strongChecksum != null;
+        assert parallelism > 0;
+        _strongChecksum = strongChecksum;
+        _digestCacheOrNull = digestCacheOrNull;
+        if (parallelism > 1) {
+            _executorOrNull = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactory() {
+                    private final ThreadFactory _defaultFactory =
+                        Executors.defaultThreadFactory();
+
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = _defaultFactory.newThread(r);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        } else {
+            _executorOrNull = null;
+        }
+    }
+
+    /**
+     * @return the digest of file, computed concurrently from now on if
+     *         parallelism is greater than 1
+     */
+    Pending submit(final Path file)
+    {
+        assert file != null;
+        if (_executorOrNull == null) {
+            return new Pending(file, null);
+        }
+        Future<byte[]> future = _executorOrNull.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException
+            {
+                return digestOf(file);
+            }
+        });
+        return new Pending(file, future);
+    }
+
+    /**
+     * @return the digest of the contents of file
+     * @throws IOException if failing to read file
+     */
+    byte[] digestOf(Path file) throws IOException
+    {
+        if (_digestCacheOrNull != null) {
+            return _digestCacheOrNull.digestOf(file, _strongChecksum);
+        }
+        return DigestCache.computeDigest(file, _strongChecksum);
+    }
+
+    @Override
+    public void close()
+    {
+        if (_executorOrNull != null) {
+            _executorOrNull.shutdownNow();
+        }
+    }
+}
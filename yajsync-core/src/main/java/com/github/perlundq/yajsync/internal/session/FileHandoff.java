@@ -0,0 +1,101 @@
+/*
+ * Hand over of opened source files from Sender to Receiver of a local
+ * transfer
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared by the Sender and the Receiver of a local transfer, i.e. when both
+ * the source and the destination are file systems of this process. A file
+ * that is sent as a whole is not streamed through the Sender, instead the
+ * Sender opens it and hands it over to the Receiver which copies it file to
+ * file (letting the kernel copy the data if supported). Only the file index,
+ * item flags and checksum header are still sent, as a notification to the
+ * Receiver. Files with a basis to update are not handed over, their deltas
+ * are sent as for a remote transfer.
+ */
+public final class FileHandoff implements AutoCloseable
+{
+    private static final Logger _log =
+        Logger.getLogger(FileHandoff.class.getName());
+
+    private final Map<Integer, FileChannel> _files = new ConcurrentHashMap<>();
+
+    /**
+     * Must be called by the Sender before notifying the Receiver about the
+     * file, which also makes source visible to the Receiver.
+     */
+    void put(int index, FileChannel source)
+    {
+        assert source != null;
+        FileChannel prev = _files.put(index, source);
+        assert prev == null : "file " + index + " handed over twice";
+    }
+
+    /**
+     * @return the source file of index, which is closed by the caller, or
+     *         null if there is none
+     */
+    FileChannel takeOrNull(int index)
+    {
+        return _files.remove(index);
+    }
+
+    /**
+     * Close the source file of index without copying it.
+     */
+    void discard(int index)
+    {
+        FileChannel source = _files.remove(index);
+        if (source != null) {
+            closeQuietly(source);
+        }
+    }
+
+    /**
+     * Close any source files that never were taken, e.g. due to a failed
+     * transfer.
+     */
+    @Override
+    public void close()
+    {
+        for (FileChannel source : _files.values()) {
+            closeQuietly(source);
+        }
+        _files.clear();
+    }
+
+    private static void closeQuietly(FileChannel source)
+    {
+        try {
+            source.close();
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("failed to close %s: %s",
+                                           source, e.getMessage()));
+            }
+        }
+    }
+}
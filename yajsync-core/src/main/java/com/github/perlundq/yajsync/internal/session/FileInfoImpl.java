@@ -29,21 +29,41 @@ class FileInfoImpl implements FileInfo
     // _pathNameOrNull may only be null internally in Receiver, any such
     // instance will never be exposed externally
     private final String _pathNameOrNull;
+    // the path name is _pathNameBytes[_pathNameOffset:_pathNameOffset +
+    // _pathNameLength], a part of the name arena of a Filelist.Segment if
+    // this is a view of one of its files
     private final byte[] _pathNameBytes;
+    private final int _pathNameOffset;
+    private final int _pathNameLength;
     private final RsyncFileAttributes _attrs;
+    // the whole file digest sent by peer with --checksum (regular files)
+    private byte[] _checksumOrNull;
 
     FileInfoImpl(String pathNameOrNull, byte[] pathNameBytes,
                  RsyncFileAttributes attrs)
+    {
+        this(pathNameOrNull, pathNameBytes, 0, pathNameBytes.length, attrs);
+    }
+
+    /**
+     * @param pathNameBytes holds the path name at offset, which must not be
+     *        modified afterwards
+     */
+    FileInfoImpl(String pathNameOrNull, byte[] pathNameBytes, int offset,
+                 int length, RsyncFileAttributes attrs)
     {
         assert pathNameBytes != null;
         assert attrs != null;
-        assert pathNameBytes.length > 0;
-        assert pathNameBytes[0] != Text.ASCII_SLASH;
-        assert !isDotDir(pathNameBytes) || attrs.isDirectory();
-        assert pathNameBytes[pathNameBytes.length - 1] != Text.ASCII_SLASH;
+        assert length > 0;
+        assert offset >= 0 && offset + length <= pathNameBytes.length;
+        assert pathNameBytes[offset] != Text.ASCII_SLASH;
+        assert !isDotDir(pathNameBytes, offset, length) || attrs.isDirectory();
+        assert pathNameBytes[offset + length - 1] != Text.ASCII_SLASH;
 
         _pathNameOrNull = pathNameOrNull;
         _pathNameBytes = pathNameBytes;
+        _pathNameOffset = offset;
+        _pathNameLength = length;
         _attrs = attrs;
     }
 
@@ -51,7 +71,9 @@ class FileInfoImpl implements FileInfo
     public String toString()
     {
         String str = _pathNameOrNull == null
-                ? "untransferrable " + Text.bytesToString(_pathNameBytes)
+                ? "untransferrable " + Text.bytesToString(
+                      Arrays.copyOfRange(_pathNameBytes, _pathNameOffset,
+                                         _pathNameOffset + _pathNameLength))
                 : _pathNameOrNull;
         return String.format("%s (%s)", getClass().getSimpleName(), str);
     }
@@ -63,16 +85,30 @@ class FileInfoImpl implements FileInfo
         // user and all our FileInfo implementing classes extends FileInfoImpl.
         if (obj instanceof FileInfoImpl) {
             FileInfoImpl other = (FileInfoImpl) obj;
-            return Arrays.equals(_pathNameBytes, other._pathNameBytes);
+            if (_pathNameLength != other._pathNameLength) {
+                return false;
+            }
+            for (int i = 0; i < _pathNameLength; i++) {
+                if (_pathNameBytes[_pathNameOffset + i] !=
+                    other._pathNameBytes[other._pathNameOffset + i]) {
+                    return false;
+                }
+            }
+            return true;
         } else {
             return false;
         }
     }
 
+    // the same as Arrays.hashCode of the path name bytes
     @Override
     public int hashCode()
     {
-        return Arrays.hashCode(_pathNameBytes);
+        int result = 1;
+        for (int i = 0; i < _pathNameLength; i++) {
+            result = 31 * result + _pathNameBytes[_pathNameOffset + i];
+        }
+        return result;
     }
 
     @Override
@@ -80,8 +116,12 @@ class FileInfoImpl implements FileInfo
     {
         FileInfoImpl other = (FileInfoImpl) otherFileInfo;
         int result = compareUnixFileNamesBytes(_pathNameBytes,
+                                               _pathNameOffset,
+                                               _pathNameLength,
                                                _attrs.isDirectory(),
                                                other._pathNameBytes,
+                                               other._pathNameOffset,
+                                               other._pathNameLength,
                                                other._attrs.isDirectory());
         assert result != 0 || this.equals(other);
         return result;
@@ -99,14 +139,41 @@ class FileInfoImpl implements FileInfo
         return _pathNameOrNull;
     }
 
+    /**
+     * @return the digest of the contents of this file as sent by peer, or
+     *         null if not --checksum
+     */
+    byte[] checksumOrNull()
+    {
+        return _checksumOrNull;
+    }
+
+    void setChecksum(byte[] checksum)
+    {
+        assert checksum != null;
+        assert _attrs.isRegularFile();
+        _checksumOrNull = checksum;
+    }
+
+    int pathNameLength()
+    {
+        return _pathNameLength;
+    }
+
+    void copyPathNameBytes(byte[] dst, int offset)
+    {
+        System.arraycopy(_pathNameBytes, _pathNameOffset, dst, offset,
+                         _pathNameLength);
+    }
+
     boolean isDotDir()
     {
-        return isDotDir(_pathNameBytes);
+        return isDotDir(_pathNameBytes, _pathNameOffset, _pathNameLength);
     }
 
-    private static boolean isDotDir(byte[] bytes)
+    private static boolean isDotDir(byte[] bytes, int offset, int length)
     {
-        return bytes.length == 1 && bytes[0] == Text.ASCII_DOT;
+        return length == 1 && bytes[offset] == Text.ASCII_DOT;
     }
 
     private static int cmp(byte a, byte b)
@@ -120,16 +187,20 @@ class FileInfoImpl implements FileInfo
      * compare dirs using a trailing slash
      */
     private static int compareUnixFileNamesBytes(byte[] leftBytes,
+                                                 int leftOffset,
+                                                 int leftLength,
                                                  boolean isLeftDir,
                                                  byte[] rightBytes,
+                                                 int rightOffset,
+                                                 int rightLength,
                                                  boolean isRightDir)
     {
-        if (isDotDir(leftBytes)) {
-            if (isDotDir(rightBytes)) {
+        if (isDotDir(leftBytes, leftOffset, leftLength)) {
+            if (isDotDir(rightBytes, rightOffset, rightLength)) {
                 return 0;
             }
             return -1;
-        } else if (isDotDir(rightBytes)) {
+        } else if (isDotDir(rightBytes, rightOffset, rightLength)) {
             return 1;
         }
 
@@ -141,8 +212,9 @@ class FileInfoImpl implements FileInfo
         }
 
         int i = 0;
-        for (; i < leftBytes.length && i < rightBytes.length; i++) {
-            int diff = cmp(leftBytes[i], rightBytes[i]);
+        for (; i < leftLength && i < rightLength; i++) {
+            int diff = cmp(leftBytes[leftOffset + i],
+                           rightBytes[rightOffset + i]);
             if (diff != 0) {
                 return diff;
             }
@@ -150,16 +222,16 @@ class FileInfoImpl implements FileInfo
         // one or both are at the end
         // one or both are a substring of the other
         // either both are directories or none is
-        boolean isLeftAtEnd = i == leftBytes.length;
-        boolean isRightAtEnd = i == rightBytes.length;
+        boolean isLeftAtEnd = i == leftLength;
+        boolean isRightAtEnd = i == rightLength;
 
         if (isLeftDir) { // && isRightDir
             if (isLeftAtEnd && isRightAtEnd) {
                 return 0;
             } else if (isLeftAtEnd) {
-                return cmp(Text.ASCII_SLASH, rightBytes[i]);
+                return cmp(Text.ASCII_SLASH, rightBytes[rightOffset + i]);
             } else if (isRightAtEnd) {
-                return cmp(leftBytes[i], Text.ASCII_SLASH);
+                return cmp(leftBytes[leftOffset + i], Text.ASCII_SLASH);
             }
         }
 
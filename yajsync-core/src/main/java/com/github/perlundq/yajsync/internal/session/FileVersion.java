@@ -0,0 +1,129 @@
+/*
+ * The identity of the contents of a file as it is right now
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The device and inode (file key), size, modification time and status
+ * change time (ctime) of a regular file, used by the caches to tell whether
+ * the contents of a file may have changed since it was cached.
+ *
+ * The modification time alone is not enough as it may be set to anything,
+ * e.g. restored after a file is rewritten in place (touch -r, --inplace
+ * with --times or a backup tool). The status change time cannot be set and
+ * is updated by every such write and by the restore of the modification
+ * time.
+ */
+final class FileVersion
+{
+    private static final String ATTRIBUTES =
+        "unix:fileKey,isRegularFile,size,lastModifiedTime,ctime";
+
+    private final Object _fileKey;
+    private final long _size;
+    private final long _modifiedNanos;
+    private final long _changedNanos;
+
+    private FileVersion(Object fileKey, long size, long modifiedNanos,
+                        long changedNanos)
+    {
+        _fileKey = fileKey;
+        _size = size;
+        _modifiedNanos = modifiedNanos;
+        _changedNanos = changedNanos;
+    }
+
+    /**
+     * @return the current version of file, or null if file is not a regular
+     *         file or if its file system does not provide a file key and a
+     *         status change time, in which case it must not be cached
+     * @throws IOException if failing to read the attributes of file
+     */
+    static FileVersion ofOrNull(Path file) throws IOException
+    {
+        Map<String, Object> attrs;
+        try {
+            attrs = Files.readAttributes(file, ATTRIBUTES,
+                                         LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return null; // no unix view
+        }
+        Object fileKey = attrs.get("fileKey");
+        Object changed = attrs.get("ctime");
+        if (fileKey == null || !(changed instanceof FileTime) ||
+            !Boolean.TRUE.equals(attrs.get("isRegularFile"))) {
+            return null;
+        }
+        return new FileVersion(
+            fileKey,
+            (Long) attrs.get("size"),
+            ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+            ((FileTime) changed).to(TimeUnit.NANOSECONDS));
+    }
+
+    long size()
+    {
+        return _size;
+    }
+
+    long modifiedNanos()
+    {
+        return _modifiedNanos;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == this) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        FileVersion other = (FileVersion) obj;
+        return _fileKey.equals(other._fileKey) && _size == other._size &&
+               _modifiedNanos == other._modifiedNanos &&
+               _changedNanos == other._changedNanos;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return _fileKey.hashCode() ^ Long.hashCode(_size) ^
+               Long.hashCode(_modifiedNanos) ^ Long.hashCode(_changedNanos);
+    }
+
+    /**
+     * @return all attributes as a string, which is part of the persistent
+     *         id of a cache entry
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%s size=%d mtime=%d ctime=%d",
+                             _fileKey, _size, _modifiedNanos, _changedNanos);
+    }
+}
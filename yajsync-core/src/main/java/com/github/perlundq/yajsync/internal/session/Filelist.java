@@ -19,18 +19,34 @@
  */
 package com.github.perlundq.yajsync.internal.session;
 
+import java.nio.charset.Charset;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.github.perlundq.yajsync.attr.DeviceInfo;
 import com.github.perlundq.yajsync.attr.FileInfo;
+import com.github.perlundq.yajsync.attr.Group;
+import com.github.perlundq.yajsync.attr.LocatableFileInfo;
+import com.github.perlundq.yajsync.attr.RsyncFileAttributes;
+import com.github.perlundq.yajsync.attr.SymlinkInfo;
+import com.github.perlundq.yajsync.attr.User;
 
 public class Filelist
 {
@@ -110,30 +126,115 @@ public class Filelist
         }
     }
 
+    /**
+     * The files of a segment are stored by column rather than as FileInfo
+     * objects: their path names one after another in a byte array arena,
+     * each attribute in an array of its own and their users and groups as
+     * indices into tables of the distinct users and groups of the segment,
+     * all indexed by index - dirIndex - 1. A FileInfo handed out is a view
+     * of the columns created on demand, referring to its path name in the
+     * arena. Its path name String and local path are derived from the path
+     * name bytes, only those of files where that does not give back the
+     * original are stored as they are.
+     *
+     * The columns are never modified once the segment is created. Removing a
+     * file clears its bit in a set of live files, which is what makes it
+     * safe for the Receiver to look up files while the Generator removes
+     * them.
+     */
     public static class Segment implements Comparable<Integer>
     {
+        private static final byte LOCATABLE = 1;
+        private static final byte SYMLINK = 2;
+        private static final byte DEVICE = 4;
+        private static final byte ODD_PATH_NAME = 8;
+        private static final byte ODD_PATH = 16;
+
         private final FileInfo _directory;
         private final int _dirIndex;
         private final int _endIndex;
-        private final Map<Integer, FileInfo> _files;
+        private final Charset _charset;
+        // the path name of file i is
+        // _names[_nameOffsets[i]:_nameOffsets[i + 1]]
+        private final byte[] _names;
+        private final int[] _nameOffsets;
+        private final int[] _modes;
+        private final long[] _sizes;
+        private final long[] _lastModified;
+        private final int[] _userIndices;
+        private final int[] _groupIndices;
+        private final User[] _users;
+        private final Group[] _groups;
+        // LOCATABLE, SYMLINK, DEVICE, ODD_PATH_NAME and ODD_PATH bits
+        private final byte[] _kinds;
+        // only allocated if any file of the segment needs them
+        private final String[] _symlinkTargetsOrNull;
+        private final int[] _majorsOrNull;
+        private final int[] _minorsOrNull;
+        private final byte[][] _checksumsOrNull;
+        // the path of a LOCATABLE file is _pathBaseOrNull.resolve(pathName)
+        // unless ODD_PATH
+        private final Path _pathBaseOrNull;
+        private final Map<Integer, String> _oddPathNames = new HashMap<>();
+        private final Map<Integer, Path> _oddPaths = new HashMap<>();
+        // bit i is set as long as file i is not removed
+        private final AtomicLongArray _live;
+        private final AtomicInteger _numFiles = new AtomicInteger();
         private long _totalFileSize;
 
         private Segment(FileInfo directory, int dirIndex, List<FileInfo> files,
-                        Map<Integer, FileInfo> map, boolean isPruneDuplicates)
+                        boolean isPruneDuplicates, Charset charset)
         {
             assert dirIndex >= -1;
             assert files != null;
-            assert map != null;
+            assert charset != null;
             _directory = directory;            // NOTE: might be null
             _dirIndex = dirIndex;
             _endIndex = dirIndex + files.size();
-            _files = map;
+            _charset = charset;
 
-            int index = dirIndex + 1;
             Collections.sort(files);
+            int numFiles = files.size();
+            int numNameBytes = 0;
+            boolean isAnySymlink = false;
+            boolean isAnyDevice = false;
+            boolean isAnyChecksum = false;
+            Path pathBaseOrNull = null;
+            for (FileInfo f : files) {
+                numNameBytes += ((FileInfoImpl) f).pathNameLength();
+                isAnySymlink |= f instanceof SymlinkInfo;
+                isAnyDevice |= f instanceof DeviceInfo;
+                isAnyChecksum |= ((FileInfoImpl) f).checksumOrNull() != null;
+                // the path of a dot dir does not always end with a dot
+                if (pathBaseOrNull == null &&
+                    f instanceof LocatableFileInfo &&
+                    !((FileInfoImpl) f).isDotDir()) {
+                    pathBaseOrNull = pathBaseOrNull(
+                        ((LocatableFileInfo) f).path(), f.pathName());
+                }
+            }
+            _pathBaseOrNull = pathBaseOrNull;
+            _names = new byte[numNameBytes];
+            _nameOffsets = new int[numFiles + 1];
+            _modes = new int[numFiles];
+            _sizes = new long[numFiles];
+            _lastModified = new long[numFiles];
+            _userIndices = new int[numFiles];
+            _groupIndices = new int[numFiles];
+            _kinds = new byte[numFiles];
+            _symlinkTargetsOrNull = isAnySymlink ? new String[numFiles] : null;
+            _majorsOrNull = isAnyDevice ? new int[numFiles] : null;
+            _minorsOrNull = isAnyDevice ? new int[numFiles] : null;
+            _checksumsOrNull = isAnyChecksum ? new byte[numFiles][] : null;
+            long[] live = new long[(numFiles + 63) / 64];
+            Map<User, Integer> users = new HashMap<>();
+            Map<Group, Integer> groups = new HashMap<>();
+
+            int i = 0;
             FileInfo prev = null;
 
             for (FileInfo f : files) {
+                set(i, (FileInfoImpl) f, users, groups);
                 // Note: we may not remove any other files here (if
                 // Receiver) without also notifying Sender with a
                 // Filelist.DONE if the Segment ends up being empty
@@ -142,23 +243,215 @@ public class Filelist
                         _log.warning("skipping duplicate " + f);
                     }
                 } else {
-                    _files.put(index, f);
+                    live[i >>> 6] |= 1L << i;
+                    _numFiles.incrementAndGet();
                     if (f.attrs().isRegularFile() ||
                         f.attrs().isSymbolicLink())
                     {
                         _totalFileSize += f.attrs().size();
                     }
                 }
-                index++;
+                i++;
                 prev = f;
             }
+            _live = new AtomicLongArray(live);
+            _users = new User[users.size()];
+            for (Map.Entry<User, Integer> e : users.entrySet()) {
+                _users[e.getValue()] = e.getKey();
+            }
+            _groups = new Group[groups.size()];
+            for (Map.Entry<Group, Integer> e : groups.entrySet()) {
+                _groups[e.getValue()] = e.getKey();
+            }
+        }
+
+        /**
+         * @return the directory which path is the resolution of pathName
+         *         against, or null if there is none
+         */
+        private static Path pathBaseOrNull(Path path, String pathName)
+        {
+            try {
+                Path relativePath = path.getFileSystem().getPath(pathName);
+                int numNames = path.getNameCount() -
+                               relativePath.getNameCount();
+                if (path.getRoot() == null || numNames < 0 ||
+                    !path.endsWith(relativePath)) {
+                    return null;
+                } else if (numNames == 0) {
+                    return path.getRoot();
+                }
+                return path.getRoot().resolve(path.subpath(0, numNames));
+            } catch (InvalidPathException e) {
+                return null;
+            }
+        }
+
+        private void set(int i, FileInfoImpl f, Map<User, Integer> users,
+                         Map<Group, Integer> groups)
+        {
+            int offset = _nameOffsets[i];
+            int length = f.pathNameLength();
+            f.copyPathNameBytes(_names, offset);
+            _nameOffsets[i + 1] = offset + length;
+
+            RsyncFileAttributes attrs = f.attrs();
+            _modes[i] = attrs.mode();
+            _sizes[i] = attrs.size();
+            _lastModified[i] = attrs.lastModifiedTime();
+            _userIndices[i] = indexOf(users, attrs.user());
+            _groupIndices[i] = indexOf(groups, attrs.group());
+
+            byte kind = 0;
+            String pathNameOrNull = f.pathName();
+            if (!new String(_names, offset, length, _charset).
+                    equals(pathNameOrNull)) {
+                kind |= ODD_PATH_NAME;
+                _oddPathNames.put(i, pathNameOrNull);
+            }
+            if (f instanceof LocatableFileInfo) {
+                kind |= LOCATABLE;
+                Path path = ((LocatableFileInfo) f).path();
+                if (_pathBaseOrNull == null ||
+                    !_pathBaseOrNull.resolve(pathNameOrNull).equals(path)) {
+                    kind |= ODD_PATH;
+                    _oddPaths.put(i, path);
+                }
+            }
+            if (f instanceof SymlinkInfo) {
+                kind |= SYMLINK;
+                _symlinkTargetsOrNull[i] =
+                    ((SymlinkInfo) f).targetPathName();
+            } else if (f instanceof DeviceInfo) {
+                kind |= DEVICE;
+                _majorsOrNull[i] = ((DeviceInfo) f).major();
+                _minorsOrNull[i] = ((DeviceInfo) f).minor();
+            }
+            _kinds[i] = kind;
+            if (_checksumsOrNull != null) {
+                _checksumsOrNull[i] = f.checksumOrNull();
+            }
+        }
+
+        private static <T> int indexOf(Map<T, Integer> table, T value)
+        {
+            Integer index = table.get(value);
+            if (index == null) {
+                index = table.size();
+                table.put(value, index);
+            }
+            return index;
+        }
+
+        /**
+         * @return a view of file i, a FileInfo of the same type and value as
+         *         the one it was created from
+         */
+        private FileInfo fileAt(int i)
+        {
+            int offset = _nameOffsets[i];
+            int length = _nameOffsets[i + 1] - offset;
+            byte kind = _kinds[i];
+            String pathNameOrNull = (kind & ODD_PATH_NAME) != 0
+                    ? _oddPathNames.get(i)
+                    : new String(_names, offset, length, _charset);
+            RsyncFileAttributes attrs =
+                new RsyncFileAttributes(_modes[i], _sizes[i],
+                                        _lastModified[i],
+                                        _users[_userIndices[i]],
+                                        _groups[_groupIndices[i]]);
+            FileInfoImpl f;
+            if ((kind & LOCATABLE) != 0) {
+                Path path = (kind & ODD_PATH) != 0
+                        ? _oddPaths.get(i)
+                        : _pathBaseOrNull.resolve(pathNameOrNull);
+                if ((kind & SYMLINK) != 0) {
+                    f = new LocatableSymlinkInfoImpl(pathNameOrNull, _names,
+                                                     offset, length, attrs,
+                                                     _symlinkTargetsOrNull[i],
+                                                     path);
+                } else if ((kind & DEVICE) != 0) {
+                    f = new LocatableDeviceInfoImpl(pathNameOrNull, _names,
+                                                    offset, length, attrs,
+                                                    _majorsOrNull[i],
+                                                    _minorsOrNull[i], path);
+                } else {
+                    f = new LocatableFileInfoImpl(pathNameOrNull, _names,
+                                                  offset, length, attrs,
+                                                  path);
+                }
+            } else if ((kind & SYMLINK) != 0) {
+                f = new SymlinkInfoImpl(pathNameOrNull, _names, offset,
+                                        length, attrs,
+                                        _symlinkTargetsOrNull[i]);
+            } else if ((kind & DEVICE) != 0) {
+                f = new DeviceInfoImpl(pathNameOrNull, _names, offset, length,
+                                       attrs, _majorsOrNull[i],
+                                       _minorsOrNull[i]);
+            } else {
+                f = new FileInfoImpl(pathNameOrNull, _names, offset, length,
+                                     attrs);
+            }
+            if (_checksumsOrNull != null && _checksumsOrNull[i] != null) {
+                f.setChecksum(_checksumsOrNull[i]);
+            }
+            return f;
+        }
+
+        private boolean isLive(int i)
+        {
+            return (_live.get(i >>> 6) & 1L << i) != 0;
+        }
+
+        /**
+         * @return false if file i was already removed
+         */
+        private boolean kill(int i)
+        {
+            int word = i >>> 6;
+            long bit = 1L << i;
+            while (true) {
+                long bits = _live.get(word);
+                if ((bits & bit) == 0) {
+                    return false;
+                }
+                if (_live.compareAndSet(word, bits, bits & ~bit)) {
+                    _numFiles.decrementAndGet();
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return the first file from i on which is not removed, or -1 if
+         *         none
+         */
+        private int nextLive(int i)
+        {
+            int word = i >>> 6;
+            if (word >= _live.length()) {
+                return -1;
+            }
+            long bits = _live.get(word) & -1L << i;
+            while (bits == 0) {
+                if (++word == _live.length()) {
+                    return -1;
+                }
+                bits = _live.get(word);
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        private boolean isInRange(int index)
+        {
+            return index > _dirIndex && index <= _endIndex;
         }
 
         @Override
         public String toString()
         {
             StringBuilder sb = new StringBuilder();
-            int active = _files.values().size();
+            int active = _numFiles.get();
             int size = _endIndex - _dirIndex;
             sb.append(String.format(
                 "%s [%s, dirIndex=%d, fileIndices=%d:%d, size=%d/%d]",
@@ -171,7 +464,7 @@ public class Filelist
                 size));
 
             if (_log.isLoggable(Level.FINEST)) {
-                for (Map.Entry<Integer, FileInfo> e : _files.entrySet()) {
+                for (Map.Entry<Integer, FileInfo> e : entrySet()) {
                     sb.append("   ").
                     append(e.getValue()).
                     append(", ").
@@ -204,63 +497,116 @@ public class Filelist
         // generator sender
         public Collection<FileInfo> files()
         {
-            return _files.values();
+            return new AbstractCollection<FileInfo>() {
+                @Override
+                public Iterator<FileInfo> iterator()
+                {
+                    final Iterator<Entry<Integer, FileInfo>> it =
+                        entrySet().iterator();
+                    return new Iterator<FileInfo>() {
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public FileInfo next()
+                        {
+                            return it.next().getValue();
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return _numFiles.get();
+                }
+            };
         }
 
         // generator
-        // can be automatically generated or possible removed
         public Iterable<Entry<Integer, FileInfo>> entrySet()
         {
-            return _files.entrySet();
+            return new Iterable<Entry<Integer, FileInfo>>() {
+                @Override
+                public Iterator<Entry<Integer, FileInfo>> iterator()
+                {
+                    return new Iterator<Entry<Integer, FileInfo>>() {
+                        private int _next = nextLive(0);
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return _next >= 0;
+                        }
+
+                        @Override
+                        public Entry<Integer, FileInfo> next()
+                        {
+                            if (_next < 0) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Integer, FileInfo> e =
+                                new AbstractMap.SimpleImmutableEntry<>(
+                                    _dirIndex + 1 + _next, fileAt(_next));
+                            _next = nextLive(_next + 1);
+                            return e;
+                        }
+                    };
+                }
+            };
         }
 
         // generator sender receiver
         public FileInfo getFileWithIndexOrNull(int index)
         {
             assert index >= 0;
-            return _files.get(index);
+            if (!contains(index)) {
+                return null;
+            }
+            return fileAt(index - _dirIndex - 1);
         }
 
         // sender generator
-        // use bitmap
         public FileInfo remove(int index)
         {
-            FileInfo f = _files.remove(index);
-            if (f == null) {
+            if (!isInRange(index) || !kill(index - _dirIndex - 1)) {
                 throw new IllegalStateException(String.format(
-                        "%s does not contain key %d (%s)",
-                        _files, index, this));
+                        "%s does not contain key %d", this, index));
             }
-            return f;
+            return fileAt(index - _dirIndex - 1);
         }
 
         // generator
-        // use bitmap
         public void removeAll()
         {
-            _files.clear();
+            for (int word = 0; word < _live.length(); word++) {
+                long bits = _live.getAndSet(word, 0);
+                _numFiles.addAndGet(-Long.bitCount(bits));
+            }
         }
 
         // generator
-        // inefficient, can possibly be removed
         public void removeAll(Collection<Integer> toRemove)
         {
-            for (int i : toRemove) {
-                _files.remove(i);
+            for (int index : toRemove) {
+                if (isInRange(index)) {
+                    kill(index - _dirIndex - 1);
+                }
             }
         }
 
         // sender generator
-        // use bitmap
         public boolean isFinished()
         {
-            return _files.isEmpty();
+            return _numFiles.get() == 0;
         }
 
-        // use bitmap
         private boolean contains(int index)
         {
-            return _files.containsKey(index);
+            return isInRange(index) && isLive(index - _dirIndex - 1);
         }
     }
 
@@ -273,6 +619,7 @@ public class Filelist
     protected final List<Segment> _segments;
     private final boolean _isRecursive;
     private final boolean _isPruneDuplicates;
+    private final Charset _charset;
     private final SortedMap<Integer, FileInfo> _stubDirectories;
     private int _nextDirIndex;
     private int _stubDirectoryIndex = 0;
@@ -280,12 +627,17 @@ public class Filelist
     private int _numFiles;
 
 
+    /**
+     * @param charset the character set of the path names of files, which
+     *        the segments use to derive them from their bytes
+     */
     protected Filelist(boolean isRecursive, boolean isPruneDuplicates,
-                       List<Segment> segments)
+                       Charset charset, List<Segment> segments)
     {
         _segments = segments;
         _isRecursive = isRecursive;
         _isPruneDuplicates = isPruneDuplicates;
+        _charset = charset;
         if (isRecursive) {
             _stubDirectories = new TreeMap<>();
             _nextDirIndex = 0;
@@ -295,13 +647,14 @@ public class Filelist
         }
     }
 
-    public Filelist(boolean isRecursive, boolean isPruneDuplicates)
+    public Filelist(boolean isRecursive, boolean isPruneDuplicates,
+                    Charset charset)
     {
-        this(isRecursive, isPruneDuplicates, new ArrayList<Segment>());
+        this(isRecursive, isPruneDuplicates, charset,
+             new ArrayList<Segment>());
     }
 
-    protected Segment newSegment(SegmentBuilder builder,
-                                 SortedMap<Integer, FileInfo> map)
+    public Segment newSegment(SegmentBuilder builder)
     {
         assert (builder._directory == null) ==
                    (_isRecursive && _nextDirIndex == 0 ||
@@ -310,21 +663,20 @@ public class Filelist
         assert builder._files != null;
 
         if (_log.isLoggable(Level.FINER)) {
-            _log.finer(String.format(
-                "creating new segment from builder=%s and map=%s",
-                builder, map));
+            _log.finer("creating new segment from builder=" + builder);
         }
 
         if (_isRecursive) {
             extractStubDirectories(builder._directories);
         }
         Segment segment = new Segment(builder._directory, _nextDirIndex,
-                                      builder._files, map, _isPruneDuplicates);
+                                      builder._files, _isPruneDuplicates,
+                                      _charset);
         builder.clear();
         _nextDirIndex = segment._endIndex + 1;
         _segments.add(segment);
         _totalFileSize += segment._totalFileSize;
-        _numFiles += segment._files.size();
+        _numFiles += segment._numFiles.get();
         return segment;
     }
 
@@ -350,11 +702,6 @@ public class Filelist
         }
     }
 
-    public Segment newSegment(SegmentBuilder builder)
-    {
-        return newSegment(builder, new TreeMap<Integer, FileInfo>());
-    }
-
     @Override
     public String toString()
     {
@@ -33,10 +33,13 @@ import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -44,7 +47,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -52,6 +62,7 @@ import java.util.logging.Logger;
 import com.github.perlundq.yajsync.FileSelection;
 import com.github.perlundq.yajsync.RsyncException;
 import com.github.perlundq.yajsync.RsyncProtocolException;
+import com.github.perlundq.yajsync.StrongChecksum;
 import com.github.perlundq.yajsync.attr.FileInfo;
 import com.github.perlundq.yajsync.attr.LocatableDeviceInfo;
 import com.github.perlundq.yajsync.attr.LocatableFileInfo;
@@ -68,7 +79,6 @@ import com.github.perlundq.yajsync.internal.text.Text;
 import com.github.perlundq.yajsync.internal.text.TextConversionException;
 import com.github.perlundq.yajsync.internal.text.TextEncoder;
 import com.github.perlundq.yajsync.internal.util.FileOps;
-import com.github.perlundq.yajsync.internal.util.MD5;
 import com.github.perlundq.yajsync.internal.util.Pair;
 import com.github.perlundq.yajsync.internal.util.Rolling;
 import com.github.perlundq.yajsync.internal.util.RuntimeInterruptException;
@@ -80,10 +90,12 @@ public class Generator implements RsyncTask
     {
         private final WritableByteChannel _out;
         private final byte[] _checksumSeed;
+        private boolean _isAlwaysChecksum;
         private boolean _isAlwaysItemize;
         private boolean _isIgnoreTimes;
         private boolean _isInterruptible = true;
         private boolean _isDelete;
+        private boolean _isKeepPartial;
         private boolean _isPreserveDevices;
         private boolean _isPreserveLinks;
         private boolean _isPreservePermissions;
@@ -92,8 +104,15 @@ public class Generator implements RsyncTask
         private boolean _isPreserveUser;
         private boolean _isPreserveGroup;
         private boolean _isNumericIds;
+        private boolean _isWholeFile;
         private Charset _charset;
+        private int _checksumParallelism = 1;
+        private long _checksumBufferLimit = DEFAULT_CHECKSUM_BUFFER_LIMIT;
+        private ChecksumCache _checksumCache;
+        private DigestCache _digestCache;
         private FileSelection _fileSelection = FileSelection.EXACT;
+        private Path _partialDir;
+        private StrongChecksum _strongChecksum = StrongChecksum.MD5;
 
         public Builder(WritableByteChannel out, byte[] checksumSeed)
         {
@@ -103,6 +122,17 @@ public class Generator implements RsyncTask
             _checksumSeed = checksumSeed;
         }
 
+        /**
+         * @param isAlwaysChecksum true if a regular file is compared with
+         *        the digest of its contents sent by peer in the file list
+         *        (--checksum) rather than its size and modification time
+         */
+        public Builder isAlwaysChecksum(boolean isAlwaysChecksum)
+        {
+            _isAlwaysChecksum = isAlwaysChecksum;
+            return this;
+        }
+
         public Builder isAlwaysItemize(boolean isAlwaysItemize)
         {
             _isAlwaysItemize = isAlwaysItemize;
@@ -175,6 +205,88 @@ public class Generator implements RsyncTask
             return this;
         }
 
+        /**
+         * @param isWholeFile true if peer's Sender should always send the
+         *        whole file as literal data, i.e. no block checksums are
+         *        generated from any existing replica
+         */
+        public Builder isWholeFile(boolean isWholeFile)
+        {
+            _isWholeFile = isWholeFile;
+            return this;
+        }
+
+        /**
+         * @param isKeepPartial true if the data received of a file is kept
+         *        if its transfer fails (--partial), replacing the file
+         *        unless there is a partial dir
+         */
+        public Builder isKeepPartial(boolean isKeepPartial)
+        {
+            _isKeepPartial = isKeepPartial;
+            return this;
+        }
+
+        /**
+         * @param partialDir the directory where the data of failed transfers
+         *        is kept (--partial-dir), relative to the directory of each
+         *        file unless absolute, or null (default). A file in it is
+         *        used as the basis of the next transfer of the file, and is
+         *        removed when the file has been transferred. Implies
+         *        isKeepPartial
+         */
+        public Builder partialDir(Path partialDir)
+        {
+            _partialDir = partialDir;
+            return this;
+        }
+
+        /**
+         * @param checksumParallelism the number of files whose block
+         *        checksums, or digests with --checksum, may be generated
+         *        concurrently, ahead of sending them. 1 (default) generates
+         *        all of them sequentially while sending them
+         */
+        public Builder checksumParallelism(int checksumParallelism)
+        {
+            assert checksumParallelism > 0;
+            _checksumParallelism = checksumParallelism;
+            return this;
+        }
+
+        /**
+         * @param checksumBufferLimit the maximum number of bytes of
+         *        concurrently generated block checksums kept in memory while
+         *        waiting to be sent, files with more block checksums than
+         *        that are generated sequentially
+         */
+        public Builder checksumBufferLimit(long checksumBufferLimit)
+        {
+            assert checksumBufferLimit >= 0;
+            _checksumBufferLimit = checksumBufferLimit;
+            return this;
+        }
+
+        /**
+         * @param checksumCache the cache of the block checksums of basis
+         *        files generated by previous transfers, or null (default)
+         */
+        public Builder checksumCache(ChecksumCache checksumCache)
+        {
+            _checksumCache = checksumCache;
+            return this;
+        }
+
+        /**
+         * @param digestCache the cache of the digests of files computed by
+         *        previous transfers (--checksum), or null (default)
+         */
+        public Builder digestCache(DigestCache digestCache)
+        {
+            _digestCache = digestCache;
+            return this;
+        }
+
         public Builder charset(Charset charset)
         {
             assert charset != null;
@@ -189,6 +301,17 @@ public class Generator implements RsyncTask
             return this;
         }
 
+        /**
+         * @param strongChecksum the strong checksum algorithm agreed upon
+         *        with peer, also used by the Receiver of this Generator
+         */
+        public Builder strongChecksum(StrongChecksum strongChecksum)
+        {
+            assert strongChecksum != null;
+            _strongChecksum = strongChecksum;
+            return this;
+        }
+
         public Generator build()
         {
             assert !_isDelete || _fileSelection != FileSelection.EXACT;
@@ -200,17 +323,83 @@ public class Generator implements RsyncTask
         void process() throws RsyncException;
     }
 
+    private enum JobType
+    {
+        PURGE_FILE, SEGMENT_FINISHED, STOP, SEND_BYTES, SEND_MESSAGE,
+        LIST_SEGMENT, GENERATE_SEGMENT, GENERATE_FILE, SEND_SEGMENT_DONE,
+        PROCESS_DEFERRED_JOBS
+    }
+
+    // the jobs which may be processed while a segment is being generated
+    private static final Set<JobType> GENERATE_AHEAD_JOBS =
+        EnumSet.of(JobType.SEGMENT_FINISHED, JobType.SEND_MESSAGE);
+    // the jobs whose producers never block on a full job queue. The
+    // Receiver appends them for any number of files while the Generator may
+    // be blocked sending to peer, which in turn may be blocked sending to
+    // the Receiver. The other jobs of the Receiver are a few per file list
+    // segment, and the number of segments in transit is bounded by the
+    // peer's file list look ahead (about a thousand files), well below the
+    // capacity of the queue.
+    private static final Set<JobType> UNBOUNDED_JOBS =
+        EnumSet.of(JobType.SEGMENT_FINISHED, JobType.SEND_MESSAGE);
+
+    /**
+     * The block checksums of the basis of a file, generated by the checksum
+     * executor while the Generator continues itemizing the files before it.
+     * The checksums are sent later, in file index order, unless the basis
+     * has changed in the meantime.
+     */
+    private static final class ChecksumTable
+    {
+        private final int _index;
+        private final Path _basis;
+        private final long _fileSize;
+        private final int _blockLength;
+        private final int _digestLength;
+        private final int _numBlocks;
+        // allocated once submitted
+        private ChecksumCache.Sums _sums;
+        private Future<Boolean> _future;
+
+        private ChecksumTable(int index, Path basis, long fileSize,
+                              int blockLength, int digestLength,
+                              int numBlocks)
+        {
+            _index = index;
+            _basis = basis;
+            _fileSize = fileSize;
+            _blockLength = blockLength;
+            _digestLength = digestLength;
+            _numBlocks = numBlocks;
+        }
+
+        private static long sizeOf(long numBlocks, int digestLength)
+        {
+            return numBlocks * (4 + digestLength);
+        }
+
+        private long size()
+        {
+            return sizeOf(_numBlocks, _digestLength);
+        }
+    }
+
     private static final Checksum.Header ZERO_SUM;
     private static final int MIN_BLOCK_SIZE = 512;
+    private static final long DEFAULT_CHECKSUM_BUFFER_LIMIT =
+        16 * 1024 * 1024;
     private static final int OUTPUT_CHANNEL_BUF_SIZE = 8 * 1024;
+    private static final int JOB_QUEUE_SIZE = 8 * 1024;
     private static final Logger _log =
         Logger.getLogger(Generator.class.getName());
 
     private final BitSet _pruned = new BitSet();
     private final boolean _isAlwaysItemize;
     private final boolean _isDelete;
+    private final boolean _isAlwaysChecksum;
     private final boolean _isIgnoreTimes;
     private final boolean _isInterruptible;
+    private final boolean _isKeepPartial;
     private final boolean _isPreserveDevices;
     private final boolean _isPreserveLinks;
     private final boolean _isPreservePermissions;
@@ -219,11 +408,48 @@ public class Generator implements RsyncTask
     private final boolean _isPreserveUser;
     private final boolean _isPreserveGroup;
     private final boolean _isNumericIds;
+    private final boolean _isWholeFile;
     private final byte[] _checksumSeed;
     private final Deque<Job> _deferredJobs = new ArrayDeque<>();
+    private final Deque<ChecksumTable> _pendingChecksums = new ArrayDeque<>();
     private final Filelist _fileList;
     private final FileSelection _fileSelection;
-    private final LinkedBlockingQueue<Job> _jobs = new LinkedBlockingQueue<>();
+    private final Path _partialDir;
+    private final StrongChecksum _strongChecksum;
+    private final int _checksumParallelism;
+    private final long _checksumBufferLimit;
+    private final ChecksumCache _checksumCacheOrNull;
+    private final ExecutorService _cacheExecutorOrNull;
+    private final DigestCache _digestCacheOrNull;
+    // the digests of the files of the segment being itemized (--checksum)
+    private final Map<Integer, FileDigester.Pending> _pendingDigests =
+        new HashMap<>();
+    private final JobQueue<JobType> _jobs = new JobQueue<>(JOB_QUEUE_SIZE,
+                                                             UNBOUNDED_JOBS);
+    private final JobQueue.Consumer<JobType> _jobProcessor =
+        new JobQueue.Consumer<JobType>() {
+            @Override
+            public void process(JobType type, Filelist.Segment segment,
+                                int index, Object arg)
+                throws RsyncException
+            {
+                processJob(type, segment, index, arg);
+            }
+        };
+    private final JobQueue.Consumer<JobType> _aheadJobProcessor =
+        new JobQueue.Consumer<JobType>() {
+            @Override
+            public void process(JobType type, Filelist.Segment segment,
+                                int index, Object arg)
+                throws RsyncException
+            {
+                // finished segments are removed once the segment being
+                // generated is done
+                if (type != JobType.SEGMENT_FINISHED) {
+                    processJob(type, segment, index, arg);
+                }
+            }
+        };
     private final BlockingQueue<Pair<Boolean, FileInfo>> _listing =
             new LinkedBlockingQueue<>();
     private final List<Filelist.Segment> _generated = new LinkedList<>();
@@ -234,6 +460,10 @@ public class Generator implements RsyncTask
     private boolean _isRunning = true;
     private FileAttributeManager _fileAttributeManager;
     private int _returnStatus;
+    private long _numBytesPendingChecksums;
+    private ChecksumTable _nextChecksumsOrNull;
+    private ExecutorService _checksumExecutor;
+    private FileDigester _fileDigester;
     private volatile boolean _isDeletionsEnabled;
 
     static {
@@ -248,16 +478,29 @@ public class Generator implements RsyncTask
     {
         _checksumSeed = builder._checksumSeed;
         _fileSelection = builder._fileSelection;
+        _strongChecksum = builder._strongChecksum;
+        _checksumParallelism = builder._checksumParallelism;
+        _checksumBufferLimit = builder._checksumBufferLimit;
+        _checksumCacheOrNull = builder._checksumCache;
+        // there are no block checksums to generate with --whole-file
+        _cacheExecutorOrNull =
+            _checksumCacheOrNull != null && !builder._isWholeFile
+                ? newChecksumExecutor(1)
+                : null;
+        _digestCacheOrNull = builder._digestCache;
         _fileList =
                 new ConcurrentFilelist(_fileSelection == FileSelection.RECURSE,
-                                       true);
+                                       true, builder._charset);
         _out = new RsyncOutChannel(builder._out, OUTPUT_CHANNEL_BUF_SIZE);
         _characterEncoder = TextEncoder.newStrict(builder._charset);
+        _isAlwaysChecksum = builder._isAlwaysChecksum;
         _isAlwaysItemize = builder._isAlwaysItemize;
         _isDelete = builder._isDelete;
         _isDeletionsEnabled = _fileSelection != FileSelection.EXACT;
         _isIgnoreTimes = builder._isIgnoreTimes;
         _isInterruptible = builder._isInterruptible;
+        _isKeepPartial = builder._isKeepPartial || builder._partialDir != null;
+        _partialDir = builder._partialDir;
         _isPreserveDevices = builder._isPreserveDevices;
         _isPreserveLinks = builder._isPreserveLinks;
         _isPreservePermissions = builder._isPreservePermissions;
@@ -266,6 +509,7 @@ public class Generator implements RsyncTask
         _isPreserveUser = builder._isPreserveUser;
         _isPreserveGroup = builder._isPreserveGroup;
         _isNumericIds = builder._isNumericIds;
+        _isWholeFile = builder._isWholeFile;
     }
 
     @Override
@@ -273,10 +517,12 @@ public class Generator implements RsyncTask
     {
         return String.format(
                 "%s(" +
+                "isAlwaysChecksum=%b, " +
                 "isAlwaysItemize=%b, " +
                 "isDelete=%b, " +
                 "isIgnoreTimes=%b, " +
                 "isInterruptible=%b, " +
+                "isKeepPartial=%b, " +
                 "isNumericIds=%b, " +
                 "isPreserveDevices=%b, " +
                 "isPreserveLinks=%b, " +
@@ -285,14 +531,22 @@ public class Generator implements RsyncTask
                 "isPreserveTimes=%b, " +
                 "isPreserveUser=%b, " +
                 "isPreserveGroup=%b, " +
+                "isWholeFile=%b, " +
+                "checksumParallelism=%d, " +
+                "checksumCache=%s, " +
+                "digestCache=%s, " +
                 "checksumSeed=%s, " +
-                "fileSelection=%s" +
+                "fileSelection=%s, " +
+                "partialDir=%s, " +
+                "strongChecksum=%s" +
                 ")",
                 getClass().getSimpleName(),
+                _isAlwaysChecksum,
                 _isAlwaysItemize,
                 _isDelete,
                 _isIgnoreTimes,
                 _isInterruptible,
+                _isKeepPartial,
                 _isNumericIds,
                 _isPreserveDevices,
                 _isPreserveLinks,
@@ -301,8 +555,14 @@ public class Generator implements RsyncTask
                 _isPreserveTimes,
                 _isPreserveUser,
                 _isPreserveGroup,
+                _isWholeFile,
+                _checksumParallelism,
+                _checksumCacheOrNull,
+                _digestCacheOrNull,
                 Text.bytesToString(_checksumSeed),
-                _fileSelection);
+                _fileSelection,
+                _partialDir,
+                _strongChecksum);
     }
 
     public BlockingQueue<Pair<Boolean, FileInfo>> files()
@@ -357,6 +617,46 @@ public class Generator implements RsyncTask
         return _fileSelection;
     }
 
+    public boolean isKeepPartial()
+    {
+        return _isKeepPartial;
+    }
+
+    /**
+     * @return the path where the data received of fileInfo is kept if its
+     *         transfer fails (--partial)
+     */
+    public Path partialPathOf(LocatableFileInfo fileInfo)
+    {
+        if (_partialDir == null) {
+            return fileInfo.path();
+        }
+        Path dir = fileInfo.path().getParent().resolve(_partialDir);
+        return dir.resolve(fileInfo.path().getFileName());
+    }
+
+    /**
+     * @return the file kept in the partial dir of a previously failed
+     *         transfer of fileInfo, which is then the basis of its transfer,
+     *         or null if there is none
+     */
+    public Path partialBasisOrNull(LocatableFileInfo fileInfo)
+    {
+        if (_partialDir == null) {
+            return null;
+        }
+        Path partial = partialPathOf(fileInfo);
+        if (Files.isRegularFile(partial, LinkOption.NOFOLLOW_LINKS)) {
+            return partial;
+        }
+        return null;
+    }
+
+    public StrongChecksum strongChecksum()
+    {
+        return _strongChecksum;
+    }
+
 
     public Filelist fileList()
     {
@@ -366,27 +666,18 @@ public class Generator implements RsyncTask
     public void processJobQueueBatched() throws InterruptedException,
                                                 RsyncException
     {
-        List<Job> jobList = new LinkedList<>();
         while (_isRunning) {
             if (_log.isLoggable(Level.FINE)) {
                 _log.fine("(Generator) awaiting next jobs...");
             }
 
-            jobList.add(_jobs.take());
-            _jobs.drainTo(jobList);
+            int numJobs = _jobs.drain(_jobProcessor);
 
             if (_log.isLoggable(Level.FINE)) {
-                _log.fine(String.format("(Generator) got %d job(s)",
-                                        jobList.size()));
+                _log.fine(String.format("(Generator) processed %d job(s)",
+                                        numJobs));
             }
 
-            for (Job job : jobList) {
-                if (_log.isLoggable(Level.FINE)) {
-                    _log.fine("(Generator) processing " + job);
-                }
-                job.process();
-            }
-            jobList.clear();
             if (_jobs.isEmpty()) {
                 if (_log.isLoggable(Level.FINE)) {
                     _log.fine(String.format(
@@ -398,6 +689,100 @@ public class Generator implements RsyncTask
         }
     }
 
+    private void processJob(JobType type, Filelist.Segment segment,
+                            int index, Object arg)
+        throws RsyncException
+    {
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine(String.format("(Generator) processing %s(%s, %d, %s)",
+                                    type, segment, index, arg));
+        }
+        switch (type) {
+        case PURGE_FILE:
+            throw new RsyncProtocolException(String.format(
+                "invalid file index %d from peer", index));
+        case SEGMENT_FINISHED:
+            removeAllFinishedSegmentsAndNotifySender();
+            break;
+        case STOP:
+            _isRunning = false;
+            break;
+        case SEND_BYTES:
+            _out.put((ByteBuffer) arg);
+            break;
+        case SEND_MESSAGE:
+            _out.putMessage((Message) arg);
+            break;
+        case LIST_SEGMENT:
+            list(segment);
+            break;
+        case GENERATE_SEGMENT:
+            sendChecksumForSegment(segment);
+            _generated.add(segment);
+            removeAllFinishedSegmentsAndNotifySender();
+            break;
+        case GENERATE_FILE:
+            generate(segment, index, (LocatableFileInfo) arg);
+            break;
+        case SEND_SEGMENT_DONE:
+            _out.encodeIndex(Filelist.DONE);
+            break;
+        case PROCESS_DEFERRED_JOBS:
+            for (Job j : _deferredJobs) {
+                j.process();
+            }
+            break;
+        default:
+            throw new IllegalStateException("unknown job type " + type);
+        }
+    }
+
+    private void list(Filelist.Segment segment) throws ChannelException
+    {
+        Collection<FileInfo> c;
+        if (_fileSelection != FileSelection.RECURSE) {
+            c = segment.files();
+        } else if (segment.directory() == null) {
+            c = toInitialListing(segment);
+        } else {
+            c = toListing(segment);
+        }
+        _listing.addAll(toListingPair(c));
+        segment.removeAll();
+        Filelist.Segment deleted = _fileList.deleteFirstSegment();
+        if (deleted != segment) {
+            throw new IllegalStateException(String.format("%s != %s",
+                                                          deleted,
+                                                          segment));
+        }
+        _out.encodeIndex(Filelist.DONE);
+    }
+
+    private void generate(Filelist.Segment segment, int fileIndex,
+                          LocatableFileInfo fileInfo)
+        throws ChannelException
+    {
+        try {
+            boolean isTransfer = itemizeFile(fileIndex, fileInfo,
+                                             Checksum.MAX_DIGEST_LENGTH);
+            if (!isTransfer) {
+                segment.remove(fileIndex);
+                removeAllFinishedSegmentsAndNotifySender();
+            }
+        } catch (IOException e) {
+            String msg = String.format("failed to generate file meta " +
+                                       "data for %s (index %d): %s",
+                                       fileInfo.path(),
+                                       fileIndex,
+                                       e.getMessage());
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(msg);
+            }
+            _out.putMessage(toMessage(MessageCode.ERROR_XFER, msg + '\n'));
+            _returnStatus++;
+        }
+    }
+
     @Override
     public Boolean call() throws InterruptedException, RsyncException
     {
@@ -405,77 +790,114 @@ public class Generator implements RsyncTask
             if (_log.isLoggable(Level.FINE)) {
                 _log.fine(this.toString());
             }
+            // there are no block checksums to generate with --whole-file
+            if (_checksumParallelism > 1 && !_isWholeFile) {
+                _checksumExecutor = newChecksumExecutor(_checksumParallelism);
+            }
+            if (_isAlwaysChecksum) {
+                _fileDigester = new FileDigester(_strongChecksum,
+                                                 _digestCacheOrNull,
+                                                 _checksumParallelism);
+            }
             processJobQueueBatched();
+            if (_cacheExecutorOrNull != null) {
+                // let the checksums of the last files received be cached
+                _cacheExecutorOrNull.shutdown();
+                _cacheExecutorOrNull.awaitTermination(Long.MAX_VALUE,
+                                                      TimeUnit.NANOSECONDS);
+            }
             return _returnStatus == 0;
         } catch (RuntimeInterruptException e) {
             throw new InterruptedException();
         } finally {
+            if (_checksumExecutor != null) {
+                _checksumExecutor.shutdownNow();
+            }
+            if (_cacheExecutorOrNull != null) {
+                _cacheExecutorOrNull.shutdownNow();
+            }
+            if (_fileDigester != null) {
+                _fileDigester.close();
+            }
             Pair<Boolean, FileInfo> poisonPill = new Pair<>(false, null);
             _listing.add(poisonPill);
         }
     }
 
-    public void purgeFile(final Filelist.Segment segment, final int index)
+    /**
+     * Remove the file of index from segment, or from the segment containing
+     * it if segment is null, once it has been transferred. The file is
+     * removed by the calling thread, a job is appended only if this
+     * finishes the segment.
+     */
+    public void purgeFile(Filelist.Segment segment, int index)
         throws InterruptedException
     {
-        Job j = new Job() {
-            @Override
-            public void process() throws ChannelException,
-                                         RsyncProtocolException {
-                if (segment != null) {
-                    segment.remove(index);
-                } else {
-                    Filelist.Segment tmpSegment =
-                            _fileList.getSegmentWith(index);
-                    if (tmpSegment == null) {
-                        throw new RsyncProtocolException(String.format(
-                            "invalid file index %d from peer", index));
-                    }
-                    tmpSegment.remove(index);
-                }
-                removeAllFinishedSegmentsAndNotifySender();
+        if (segment == null) {
+            segment = _fileList.getSegmentWith(index);
+            if (segment == null) {
+                // let the Generator fail with a protocol error
+                appendJob(JobType.PURGE_FILE, null, index, null);
+                return;
             }
+        }
+        segment.remove(index);
+        if (segment.isFinished()) {
+            appendJob(JobType.SEGMENT_FINISHED, segment, index, null);
+        }
+    }
 
-            @Override
-            public String toString() {
-                return String.format("purgeFile(%s, %d)", segment, index);
-            }
-        };
-        appendJob(j);
+    /**
+     * Generate the block checksums of file, which has just been received, in
+     * a separate thread and store them in the checksum cache, so that they
+     * are cached if file is the basis of the next transfer. Does nothing
+     * unless there is a checksum cache.
+     */
+    public void cacheChecksums(final Path file)
+    {
+        assert file != null;
+        if (_cacheExecutorOrNull == null) {
+            return;
+        }
+        try {
+            _cacheExecutorOrNull.submit(new Runnable() {
+                @Override
+                public void run()
+                {
+                    long fileSize = FileOps.sizeOf(file);
+                    if (fileSize <= 0) {
+                        return;
+                    }
+                    int blockLength = getBlockLengthFor(fileSize);
+                    int digestLength =
+                        Math.max(Checksum.MIN_DIGEST_LENGTH,
+                                 getDigestLength(fileSize, blockLength));
+                    ChecksumCache.Key keyOrNull =
+                        cacheKeyOrNull(file, fileSize, blockLength,
+                                       digestLength);
+                    if (keyOrNull != null) {
+                        generateChecksums(new ChecksumTable(
+                                                -1, file, fileSize,
+                                                blockLength, digestLength,
+                                                keyOrNull.numBlocks()));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
     }
 
     public void stop() throws InterruptedException
     {
-        Job job = new Job() {
-            @Override
-            public void process() {
-                _isRunning = false;
-            }
-            @Override
-            public String toString() {
-                return "stop()";
-            }
-        };
-        appendJob(job);
+        appendJob(JobType.STOP, null, 0, null);
     }
 
     // used for sending empty filter rules only
-    public void sendBytes(final ByteBuffer buf) throws InterruptedException
+    public void sendBytes(ByteBuffer buf) throws InterruptedException
     {
         assert buf != null;
-
-        Job j = new Job() {
-            @Override
-            public void process() throws ChannelException {
-                _out.put(buf);
-            }
-
-            @Override
-            public String toString() {
-                return String.format("sendBytes(%s)", buf.duplicate());
-            }
-        };
-        appendJob(j);
+        appendJob(JobType.SEND_BYTES, null, 0, buf);
     }
 
     /**
@@ -490,25 +912,12 @@ public class Generator implements RsyncTask
     /**
      * @throws TextConversionException
      */
-    public void sendMessage(final MessageCode code, final String text)
+    public void sendMessage(MessageCode code, String text)
         throws InterruptedException
     {
         assert code != null;
         assert text != null;
-        final Message message = toMessage(code, text);
-
-        Job j = new Job() {
-            @Override
-            public void process() throws ChannelException {
-                _out.putMessage(message);
-            }
-
-            @Override
-            public String toString() {
-                return String.format("sendMessage(%s, %s)", code, text);
-            }
-        };
-        appendJob(j);
+        appendJob(JobType.SEND_MESSAGE, null, 0, toMessage(code, text));
     }
 
     Collection<Pair<Boolean, FileInfo>>
@@ -522,129 +931,39 @@ public class Generator implements RsyncTask
         return listing;
     }
 
-    public void listSegment(final Filelist.Segment segment)
+    public void listSegment(Filelist.Segment segment)
         throws InterruptedException
     {
         assert segment != null;
-
-        Job j = new Job() {
-            @Override
-            public void process() throws ChannelException {
-                Collection<FileInfo> c;
-                if (_fileSelection != FileSelection.RECURSE) {
-                    c = segment.files();
-                } else if (segment.directory() == null) {
-                    c = toInitialListing(segment);
-                } else {
-                    c = toListing(segment);
-                }
-                _listing.addAll(toListingPair(c));
-                segment.removeAll();
-                Filelist.Segment deleted = _fileList.deleteFirstSegment();
-                if (deleted != segment) {
-                    throw new IllegalStateException(String.format("%s != %s",
-                                                                  deleted,
-                                                                  segment));
-                }
-                _out.encodeIndex(Filelist.DONE);
-
-            }
-
-            @Override
-            public String toString() {
-                return String.format("listSegment(%s)", segment);
-            }
-        };
-        appendJob(j);
+        appendJob(JobType.LIST_SEGMENT, segment, 0, null);
     }
 
-
-    public void generateSegment(final Filelist.Segment segment)
+    public void generateSegment(Filelist.Segment segment)
         throws InterruptedException
     {
         assert segment != null;
-
-        Job j = new Job() {
-            @Override
-            public void process() throws ChannelException {
-                sendChecksumForSegment(segment);
-                _generated.add(segment);
-                removeAllFinishedSegmentsAndNotifySender();
-            }
-
-            @Override
-            public String toString() {
-                return String.format("generateSegment(%s)", segment);
-            }
-        };
-        appendJob(j);
+        appendJob(JobType.GENERATE_SEGMENT, segment, 0, null);
     }
 
-    public void generateFile(final Filelist.Segment segment,
-                             final int fileIndex,
-                             final LocatableFileInfo fileInfo)
+    public void generateFile(Filelist.Segment segment, int fileIndex,
+                             LocatableFileInfo fileInfo)
         throws InterruptedException
     {
         assert segment != null;
         assert fileInfo != null;
-
-        Job j = new Job() {
-            @Override
-            public void process() throws ChannelException {
-                try {
-                    boolean isTransfer =
-                            itemizeFile(fileIndex, fileInfo,
-                                        Checksum.MAX_DIGEST_LENGTH);
-                    if (!isTransfer) {
-                        segment.remove(fileIndex);
-                        removeAllFinishedSegmentsAndNotifySender();
-                    }
-                } catch (IOException e) {
-                    String msg = String.format("failed to generate file meta " +
-                                               "data for %s (index %d): %s",
-                                               fileInfo.path(),
-                                               fileIndex,
-                                               e.getMessage());
-                    if (_log.isLoggable(Level.WARNING)) {
-                        _log.warning(msg);
-                    }
-                    _out.putMessage(toMessage(MessageCode.ERROR_XFER,
-                                              msg + '\n'));
-                    _returnStatus++;
-                }
-            }
-
-            @Override
-            public String toString()
-            {
-                return String.format("generateFile (%s, %d, %s)",
-                                     segment, fileIndex, fileInfo.path());
-            }
-        };
-        appendJob(j);
+        appendJob(JobType.GENERATE_FILE, segment, fileIndex, fileInfo);
     }
 
     public void sendSegmentDone() throws InterruptedException
     {
-        Job j = new Job() {
-            @Override
-            public void process() throws ChannelException {
-                _out.encodeIndex(Filelist.DONE);
-            }
-
-            @Override
-            public String toString()
-            {
-                return "sendSegmentDone()";
-            }
-        };
-        appendJob(j);
+        appendJob(JobType.SEND_SEGMENT_DONE, null, 0, null);
     }
 
-    private void appendJob(Job job) throws InterruptedException
+    private void appendJob(JobType type, Filelist.Segment segment, int index,
+                           Object arg)
+        throws InterruptedException
     {
-        assert job != null;
-        _jobs.put(job);
+        _jobs.put(type, segment, index, arg);
     }
 
     // NOTE: no error if dir already exists
@@ -662,16 +981,28 @@ public class Generator implements RsyncTask
         deferUpdateAttrsIfDiffer(dir.path(), attrs, dir.attrs());
     }
 
-    private int itemizeSegment(Filelist.Segment segment) throws ChannelException
+    private int itemizeSegment(Filelist.Segment segment) throws RsyncException
     {
         int numErrors = 0;
         List<Integer> toRemove = new LinkedList<>();
+        Iterator<Map.Entry<Integer, FileInfo>> ahead =
+            _checksumExecutor != null ? segment.entrySet().iterator() : null;
+        if (_isAlwaysChecksum) {
+            submitDigests(segment);
+        }
 
         for (Map.Entry<Integer, FileInfo> entry : segment.entrySet()) {
             final int index = entry.getKey();
             final FileInfo f = entry.getValue();
             boolean isTransfer = false;
 
+            if (ahead != null) {
+                submitChecksumsAhead(index, ahead);
+            }
+            // send messages without waiting for a large segment to be
+            // generated
+            _jobs.drainHead(GENERATE_AHEAD_JOBS, _aheadJobProcessor);
+
             if (f instanceof LocatableFileInfo) {
                 LocatableFileInfo lf = (LocatableFileInfo) f;
                 try {
@@ -732,10 +1063,325 @@ public class Generator implements RsyncTask
                 toRemove.add(index);
             }
         }
+        discardPendingChecksums();
+        discardPendingDigests();
         segment.removeAll(toRemove);
         return numErrors;
     }
 
+    /**
+     * Start computing the digests of the existing files which are to be
+     * compared with the digests of the regular files of segment
+     * (--checksum). A file of a different size is never compared.
+     */
+    private void submitDigests(Filelist.Segment segment)
+    {
+        for (Map.Entry<Integer, FileInfo> entry : segment.entrySet()) {
+            FileInfo f = entry.getValue();
+            if (!(f instanceof LocatableFileInfo) ||
+                !f.attrs().isRegularFile()) {
+                continue;
+            }
+            Path path = ((LocatableFileInfo) f).path();
+            try {
+                RsyncFileAttributes curAttrsOrNull =
+                    _fileAttributeManager.statIfExists(path);
+                if (curAttrsOrNull != null &&
+                    curAttrsOrNull.isRegularFile() &&
+                    curAttrsOrNull.size() == f.attrs().size()) {
+                    _pendingDigests.put(entry.getKey(),
+                                        _fileDigester.submit(path));
+                }
+            } catch (IOException e) {
+                // reported once itemized
+            }
+        }
+    }
+
+    private void discardPendingDigests()
+    {
+        for (FileDigester.Pending digest : _pendingDigests.values()) {
+            digest.cancel();
+        }
+        _pendingDigests.clear();
+    }
+
+    /**
+     * @return true if the data of fileInfo differs from its existing file
+     *         curAttrsOrNull, or always with --ignore-times unless
+     *         --checksum. With --checksum the digests of files of the same
+     *         size are compared instead of their modification times
+     */
+    private boolean isDataModified(int index, LocatableFileInfo fileInfo,
+                                   RsyncFileAttributes curAttrsOrNull)
+    {
+        if (!_isAlwaysChecksum) {
+            return _isIgnoreTimes ||
+                   FileOps.isDataModified(curAttrsOrNull, fileInfo.attrs());
+        }
+        if (curAttrsOrNull == null || !curAttrsOrNull.isRegularFile() ||
+            curAttrsOrNull.size() != fileInfo.attrs().size()) {
+            return true;
+        }
+        byte[] checksum = ((FileInfoImpl) fileInfo).checksumOrNull();
+        assert checksum != null;
+        // not pending if replaced since submitDigests or if redone
+        FileDigester.Pending digestOrNull = _pendingDigests.get(index);
+        try {
+            byte[] digest = digestOrNull != null
+                                ? digestOrNull.take()
+                                : _fileDigester.digestOf(fileInfo.path());
+            return !Arrays.equals(checksum, digest);
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.FINE)) {
+                _log.fine(String.format("failed to compute the digest of " +
+                                        "%s: %s", fileInfo.path(),
+                                        e.getMessage()));
+            }
+            return true;
+        }
+    }
+
+    private static ExecutorService newChecksumExecutor(int numThreads)
+    {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private final ThreadFactory _defaultFactory =
+                Executors.defaultThreadFactory();
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = _defaultFactory.newThread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start generating the block checksums of the files from index and
+     * onwards concurrently, as long as there is room for them within the
+     * checksum buffer limit. ahead iterates over the same files as the
+     * caller and is never behind index.
+     */
+    private void submitChecksumsAhead(int index,
+                                      Iterator<Map.Entry<Integer, FileInfo>>
+                                          ahead)
+    {
+        discardPendingChecksumsBefore(index);
+        while (_pendingChecksums.size() < 2 * _checksumParallelism) {
+            if (_nextChecksumsOrNull == null) {
+                if (!ahead.hasNext()) {
+                    return;
+                }
+                Map.Entry<Integer, FileInfo> entry = ahead.next();
+                _nextChecksumsOrNull =
+                    newChecksumTableOrNull(entry.getKey(), entry.getValue());
+            } else if (_nextChecksumsOrNull._index < index) {
+                _nextChecksumsOrNull = null;
+            } else if (_pendingChecksums.isEmpty() ||
+                       _numBytesPendingChecksums +
+                       _nextChecksumsOrNull.size() <= _checksumBufferLimit) {
+                submitChecksums(_nextChecksumsOrNull);
+                _nextChecksumsOrNull = null;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return a new table for the block checksums of the basis of f, if f
+     *         will be transferred and its basis exists, or null
+     */
+    private ChecksumTable newChecksumTableOrNull(int index, FileInfo f)
+    {
+        if (!(f instanceof LocatableFileInfo) || !f.attrs().isRegularFile()) {
+            return null;
+        }
+        LocatableFileInfo lf = (LocatableFileInfo) f;
+        try {
+            RsyncFileAttributes curAttrsOrNull =
+                _fileAttributeManager.statIfExists(lf.path());
+            if (curAttrsOrNull != null && !curAttrsOrNull.isRegularFile()) {
+                curAttrsOrNull = null; // deleted by itemizeFile
+            }
+            if (!isDataModified(index, lf, curAttrsOrNull)) {
+                return null;
+            }
+            Path basis = lf.path();
+            RsyncFileAttributes basisAttrsOrNull = curAttrsOrNull;
+            Path partialOrNull = partialBasisOrNull(lf);
+            if (partialOrNull != null) {
+                basis = partialOrNull;
+                basisAttrsOrNull = _fileAttributeManager.stat(partialOrNull);
+            }
+            if (basisAttrsOrNull == null || basisAttrsOrNull.size() == 0) {
+                return null;
+            }
+            long fileSize = basisAttrsOrNull.size();
+            int blockLength = getBlockLengthFor(fileSize);
+            int digestLength = Math.max(Checksum.MIN_DIGEST_LENGTH,
+                                        getDigestLength(fileSize,
+                                                        blockLength));
+            long numBlocks = (fileSize + blockLength - 1) / blockLength;
+            if (ChecksumTable.sizeOf(numBlocks, digestLength) >
+                _checksumBufferLimit) {
+                return null;
+            }
+            return new ChecksumTable(index, basis, fileSize, blockLength,
+                                     digestLength, (int) numBlocks);
+        } catch (IOException e) {
+            // reported once itemized
+            return null;
+        }
+    }
+
+    private void submitChecksums(final ChecksumTable table)
+    {
+        table._future = _checksumExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call()
+            {
+                return generateChecksums(table);
+            }
+        });
+        _pendingChecksums.add(table);
+        _numBytesPendingChecksums += table.size();
+    }
+
+    /**
+     * @return false if failing to generate the checksums of table, they are
+     *         then generated (and the error reported) when sent instead
+     */
+    private boolean generateChecksums(ChecksumTable table)
+    {
+        ChecksumCache.Key keyOrNull = cacheKeyOrNull(table._basis,
+                                                     table._fileSize,
+                                                     table._blockLength,
+                                                     table._digestLength);
+        if (keyOrNull != null) {
+            ChecksumCache.Sums sums = _checksumCacheOrNull.getOrNull(keyOrNull);
+            if (sums != null) {
+                table._sums = sums;
+                return true;
+            }
+        }
+        table._sums = new ChecksumCache.Sums(table._numBlocks,
+                                             table._digestLength);
+        try (FileView fv = FileView.open(table._basis,
+                                         table._fileSize,
+                                         table._blockLength,
+                                         table._blockLength)) {
+            MessageDigest md = _strongChecksum.newInstance();
+            int i = 0;
+            while (fv.windowLength() > 0) {
+                if (i == table._numBlocks) {
+                    return false; // the basis has grown
+                }
+                table._sums._rollings[i] = Rolling.compute(
+                        fv.slice(fv.startOffset(), fv.windowLength()));
+                md.update(fv.slice(fv.startOffset(), fv.windowLength()));
+                md.update(_checksumSeed);
+                byte[] digest = md.digest();
+                System.arraycopy(digest, 0, table._sums._digests,
+                                 i * table._digestLength,
+                                 table._digestLength);
+                fv.slide(fv.windowLength());
+                i++;
+            }
+            if (i != table._numBlocks) {
+                return false;
+            }
+        } catch (FileViewReadError e) {
+            if (_log.isLoggable(Level.FINE)) {
+                _log.fine(String.format(
+                    "(Generator) failed to generate checksums of %s ahead: %s",
+                    table._basis, e.getMessage()));
+            }
+            return false;
+        }
+        if (keyOrNull != null) {
+            _checksumCacheOrNull.put(keyOrNull, table._sums);
+        }
+        return true;
+    }
+
+    /**
+     * @return the key of the block checksums of basis in the checksum cache,
+     *         or null if there is no cache or basis is no longer fileSize
+     *         bytes
+     */
+    private ChecksumCache.Key cacheKeyOrNull(Path basis, long fileSize,
+                                             int blockLength,
+                                             int digestLength)
+    {
+        if (_checksumCacheOrNull == null || fileSize == 0) {
+            return null;
+        }
+        ChecksumCache.Key keyOrNull =
+            _checksumCacheOrNull.keyOrNull(basis, _strongChecksum,
+                                           _checksumSeed, blockLength,
+                                           digestLength);
+        if (keyOrNull != null && keyOrNull.fileSize() != fileSize) {
+            return null;
+        }
+        return keyOrNull;
+    }
+
+    /**
+     * @return the generated block checksums of the basis of the file with
+     *         index, or null if there are none or they are stale
+     */
+    private ChecksumTable takeChecksumsOrNull(int index, Path basis,
+                                              long fileSize, int digestLength)
+    {
+        discardPendingChecksumsBefore(index);
+        ChecksumTable table = _pendingChecksums.peek();
+        if (table != null && table._index == index) {
+            _pendingChecksums.remove();
+            _numBytesPendingChecksums -= table.size();
+            try {
+                if (table._future.get() &&
+                    table._basis.equals(basis) &&
+                    table._fileSize == fileSize &&
+                    table._digestLength == digestLength) {
+                    return table;
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeInterruptException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new AssertionError("BUG - missing statement for " +
+                                         cause);
+            }
+        }
+        return null;
+    }
+
+    // the files before index have been itemized without using their
+    // checksums, e.g. due to an I/O error
+    private void discardPendingChecksumsBefore(int index)
+    {
+        while (!_pendingChecksums.isEmpty() &&
+               _pendingChecksums.peek()._index < index) {
+            ChecksumTable table = _pendingChecksums.remove();
+            _numBytesPendingChecksums -= table.size();
+            table._future.cancel(false);
+        }
+    }
+
+    private void discardPendingChecksums()
+    {
+        discardPendingChecksumsBefore(Integer.MAX_VALUE);
+        _nextChecksumsOrNull = null;
+    }
+
     private Collection<FileInfo> toInitialListing(Filelist.Segment segment)
     {
         assert _fileSelection == FileSelection.RECURSE;
@@ -770,7 +1416,7 @@ public class Generator implements RsyncTask
     }
 
     private void sendChecksumForSegment(Filelist.Segment segment)
-        throws ChannelException
+        throws RsyncException
     {
         assert segment != null;
 
@@ -857,27 +1503,76 @@ public class Generator implements RsyncTask
         return Math.max(result, Checksum.MIN_DIGEST_LENGTH);
     }
 
+    /**
+     * @param basis the file to generate the block checksums from, either
+     *        fileInfo itself or its partial file
+     */
     private void sendItemizeAndChecksums(int index,
                                          LocatableFileInfo fileInfo,
-                                         RsyncFileAttributes curAttrs,
+                                         RsyncFileAttributes curAttrsOrNull,
+                                         Path basis,
+                                         RsyncFileAttributes basisAttrs,
                                          int minDigestLength)
         throws ChannelException
     {
         assert fileInfo != null;
-        assert curAttrs != null;
+        assert basis != null;
+        assert basisAttrs != null;
 
-        long currentSize = curAttrs.size();
+        long currentSize = basisAttrs.size();
         int blockLength = getBlockLengthFor(currentSize);
         int windowLength = blockLength;
         int digestLength = currentSize > 0
                            ? Math.max(minDigestLength,
                                       getDigestLength(currentSize, blockLength))
                            : 0;
+        ChecksumTable tableOrNull =
+            takeChecksumsOrNull(index, basis, currentSize, digestLength);
+        ChecksumCache.Key keyOrNull = null;
+        ChecksumCache.Sums sumsOrNull = null;
+        if (tableOrNull != null) {
+            sumsOrNull = tableOrNull._sums;
+        } else {
+            keyOrNull = cacheKeyOrNull(basis, currentSize, blockLength,
+                                       digestLength);
+            if (keyOrNull != null) {
+                sumsOrNull = _checksumCacheOrNull.getOrNull(keyOrNull);
+            }
+        }
+        if (sumsOrNull != null) {
+            try {
+                Checksum.Header header = new Checksum.Header(blockLength,
+                                                             digestLength,
+                                                             currentSize);
+                if (_log.isLoggable(Level.FINE)) {
+                    _log.fine(String.format("(Generator) generated file %s, " +
+                                            "index %d, checksum %s, basis " +
+                                            "%s in advance", fileInfo, index,
+                                            header, basis));
+                }
+                sendItemizeInfo(index, curAttrsOrNull, fileInfo.attrs(),
+                                Item.TRANSFER);
+                sendChecksumHeader(header);
+                for (int i = 0; i < sumsOrNull._rollings.length; i++) {
+                    _out.putInt(sumsOrNull._rollings[i]);
+                    _out.put(sumsOrNull._digests, i * digestLength,
+                             digestLength);
+                }
+                return;
+            } catch (Checksum.ChunkOverflow e) {
+                // handled below
+            }
+        }
+        // the checksums are cached once generated without any errors
+        ChecksumCache.Sums newSumsOrNull =
+            keyOrNull != null
+                ? new ChecksumCache.Sums(keyOrNull.numBlocks(), digestLength)
+                : null;
         // new FileView() throws FileViewOpenFailed
-        try (FileView fv = new FileView(fileInfo.path(),
-                                        currentSize,
-                                        blockLength,
-                                        windowLength)) {
+        try (FileView fv = FileView.open(basis,
+                                         currentSize,
+                                         blockLength,
+                                         windowLength)) {
 
             // throws ChunkCountOverflow
             Checksum.Header header = new Checksum.Header(blockLength,
@@ -885,23 +1580,29 @@ public class Generator implements RsyncTask
                                                          currentSize);
             if (_log.isLoggable(Level.FINE)) {
                 _log.fine(String.format("(Generator) generating file %s, " +
-                                        "index %d, checksum %s",
-                                        fileInfo, index, header));
+                                        "index %d, checksum %s, basis %s",
+                                        fileInfo, index, header, basis));
             }
 
-            sendItemizeInfo(index, curAttrs, fileInfo.attrs(), Item.TRANSFER);
+            sendItemizeInfo(index, curAttrsOrNull, fileInfo.attrs(),
+                            Item.TRANSFER);
             sendChecksumHeader(header);
 
-            MessageDigest md = MD5.newInstance();
+            MessageDigest md = _strongChecksum.newInstance();
 
-            while (fv.windowLength() > 0) {
-                int rolling = Rolling.compute(fv.array(),
-                                              fv.startOffset(),
-                                              fv.windowLength());
+            for (int i = 0; fv.windowLength() > 0; i++) {
+                int rolling = Rolling.compute(fv.slice(fv.startOffset(),
+                                                       fv.windowLength()));
                 _out.putInt(rolling);
-                md.update(fv.array(), fv.startOffset(), fv.windowLength());
+                md.update(fv.slice(fv.startOffset(), fv.windowLength()));
                 md.update(_checksumSeed);
-                _out.put(md.digest(), 0, digestLength);
+                byte[] digest = md.digest();
+                _out.put(digest, 0, digestLength);
+                if (newSumsOrNull != null) {
+                    newSumsOrNull._rollings[i] = rolling;
+                    System.arraycopy(digest, 0, newSumsOrNull._digests,
+                                     i * digestLength, digestLength);
+                }
                 fv.slide(fv.windowLength());
             }
         } catch (FileViewOpenFailed | Checksum.ChunkOverflow e) {
@@ -912,6 +1613,7 @@ public class Generator implements RsyncTask
             }
             sendItemizeInfo(index, null, fileInfo.attrs(), Item.TRANSFER);
             sendChecksumHeader(ZERO_SUM);
+            newSumsOrNull = null;
         } catch (FileViewReadError e) {
             // occurs at FileView.close() - if there were any I/O errors during
             // file read
@@ -920,6 +1622,10 @@ public class Generator implements RsyncTask
                              "checksum generation. Errors ignored and data " +
                              "filled with zeroes): " + e.getMessage());
             }
+            newSumsOrNull = null;
+        }
+        if (newSumsOrNull != null) {
+            _checksumCacheOrNull.put(keyOrNull, newSumsOrNull);
         }
     }
 
@@ -1078,16 +1784,26 @@ public class Generator implements RsyncTask
 
         // NOTE: native opens the file first though even if its file size is
         // zero
-        if (FileOps.isDataModified(curAttrsOrNull, fileInfo.attrs()) || _isIgnoreTimes)
-        {
-            if (curAttrsOrNull == null) {
+        if (isDataModified(index, fileInfo, curAttrsOrNull)) {
+            // resume a previously failed transfer by using its partial data
+            // as basis, even if the file itself is missing
+            Path basis = fileInfo.path();
+            RsyncFileAttributes basisAttrsOrNull = curAttrsOrNull;
+            Path partialOrNull = _isWholeFile ? null
+                                              : partialBasisOrNull(fileInfo);
+            if (partialOrNull != null) {
+                basis = partialOrNull;
+                basisAttrsOrNull = _fileAttributeManager.stat(partialOrNull);
+            }
+            if (basisAttrsOrNull == null || _isWholeFile) {
                 sendItemizeInfo(index,
-                                null /* curAttrsOrNull */,
+                                curAttrsOrNull,
                                 fileInfo.attrs(),
                                 Item.TRANSFER);
                 sendChecksumHeader(ZERO_SUM);
             } else {
                 sendItemizeAndChecksums(index, fileInfo, curAttrsOrNull,
+                                        basis, basisAttrsOrNull,
                                         digestLength);
             }
             return true;
@@ -1288,6 +2004,11 @@ public class Generator implements RsyncTask
         return _isPreserveDevices;
     }
 
+    public boolean isAlwaysChecksum()
+    {
+        return _isAlwaysChecksum;
+    }
+
     public boolean isPreserveLinks()
     {
         return _isPreserveLinks;
@@ -1365,9 +2086,16 @@ public class Generator implements RsyncTask
             }
         }
 
+        // a relative partial dir is not a part of the transfer
+        Path partialDirOrNull = null;
+        if (_partialDir != null && !_partialDir.isAbsolute()) {
+            partialDirOrNull = dir.resolve(_partialDir.getName(0));
+        }
+
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
             for (Path entry : stream) {
-                if (!senderPaths.contains(entry)) {
+                if (!senderPaths.contains(entry) &&
+                    !entry.equals(partialDirOrNull)) {
                     try {
                         if (_log.isLoggable(Level.INFO)) {
                             _log.info("deleting extraneous " + entry);
@@ -1402,18 +2130,6 @@ public class Generator implements RsyncTask
 
     public void processDeferredJobs() throws InterruptedException
     {
-        Job job = new Job() {
-            @Override
-            public void process() throws RsyncException {
-                for (Job j : _deferredJobs) {
-                    j.process();
-                }
-            }
-            @Override
-            public String toString() {
-                return "processDeferredJobs()";
-            }
-        };
-        appendJob(job);
+        appendJob(JobType.PROCESS_DEFERRED_JOBS, null, 0, null);
     }
 }
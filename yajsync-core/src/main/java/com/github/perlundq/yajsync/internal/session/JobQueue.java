@@ -0,0 +1,357 @@
+/*
+ * Bounded multi producer single consumer job queue of the Generator
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.perlundq.yajsync.RsyncException;
+
+/**
+ * A ring of preallocated job slots filled by any number of producer threads
+ * and drained in batches by a single consumer thread. A job is a type and
+ * its arguments copied into a slot, so appending a job neither allocates
+ * nor takes a lock unless the ring is full.
+ *
+ * The ring is bounded: a producer appending to a full ring blocks until the
+ * consumer has freed a slot. Jobs of the unbounded types never block, as
+ * their producers must not wait for the consumer, e.g. when the consumer
+ * in turn may be waiting for them. Such jobs are appended to an unbounded
+ * overflow list instead of the ring, and so is any job appended while the
+ * overflow list is not empty in order to keep the jobs of each producer in
+ * order. The consumer processes the overflow list only when the ring is
+ * empty. Jobs in the overflow list do not take any slots of the ring, so
+ * they can never make a producer of other jobs block either.
+ */
+final class JobQueue<T>
+{
+    interface Consumer<T>
+    {
+        /**
+         * Process a job of type, the meaning of segment, index and arg
+         * depends on type.
+         */
+        void process(T type, Filelist.Segment segment, int index, Object arg)
+            throws RsyncException;
+    }
+
+    private static final class Slot<T>
+    {
+        // position + 1 once published, position + capacity once freed
+        private volatile long _sequence;
+        private T _type;
+        private Filelist.Segment _segment;
+        private int _index;
+        private Object _arg;
+
+        private Slot(long sequence)
+        {
+            _sequence = sequence;
+        }
+
+        private void set(T type, Filelist.Segment segment, int index,
+                         Object arg)
+        {
+            _type = type;
+            _segment = segment;
+            _index = index;
+            _arg = arg;
+        }
+    }
+
+    private static final int MAX_SPINS = 100;
+
+    private final Slot<T>[] _slots;
+    private final int _mask;
+    private final int _signalMask;
+    private final Set<T> _unboundedTypes;
+    // guarded by itself
+    private final Deque<Slot<T>> _overflow = new ArrayDeque<>();
+    private volatile int _numOverflowed;
+    // the next position to claim by a producer
+    private final AtomicLong _tail = new AtomicLong();
+    private final Object _notFull = new Object();
+    // the next position to process, only written by the consumer
+    private volatile long _head;
+    private volatile boolean _isConsumerWaiting;
+    private volatile int _numWaitingProducers;
+    private volatile Thread _consumer;
+
+    /**
+     * @param capacity the number of slots, a power of two
+     */
+    JobQueue(int capacity)
+    {
+        this(capacity, Collections.<T>emptySet());
+    }
+
+    /**
+     * @param capacity the number of slots, a power of two
+     * @param unboundedTypes the types of the jobs which never block when
+     *        appended
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    JobQueue(int capacity, Set<T> unboundedTypes)
+    {
+        assert capacity > 0 && Integer.bitCount(capacity) == 1;
+        assert unboundedTypes != null;
+        _unboundedTypes = unboundedTypes;
+        _slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            _slots[i] = new Slot<>(i);
+        }
+        _mask = capacity - 1;
+        _signalMask = Math.max(capacity / 4, 1) - 1;
+    }
+
+    int capacity()
+    {
+        return _slots.length;
+    }
+
+    /**
+     * Append a job, waiting for a free slot if the ring is full unless type
+     * is one of the unbounded types.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void put(T type, Filelist.Segment segment, int index, Object arg)
+        throws InterruptedException
+    {
+        assert type != null;
+        if ((_numOverflowed > 0 || _unboundedTypes.contains(type)) &&
+            overflow(type, segment, index, arg)) {
+            return;
+        }
+        for (int i = 0; ; i++) {
+            long pos = _tail.get();
+            Slot<T> slot = _slots[(int) pos & _mask];
+            long sequence = slot._sequence;
+            if (sequence == pos) {
+                if (_tail.compareAndSet(pos, pos + 1)) {
+                    slot.set(type, segment, index, arg);
+                    slot._sequence = pos + 1;
+                    signalConsumer();
+                    return;
+                }
+            } else if (sequence < pos) {
+                // full
+                if (i < MAX_SPINS) {
+                    Thread.yield();
+                } else {
+                    awaitSlot(slot, pos);
+                }
+            }
+            // else claimed by another producer
+        }
+    }
+
+    /**
+     * Append a job to the overflow list if type is one of the unbounded
+     * types or if the overflow list is not empty.
+     *
+     * @return false if the job must be appended to the ring instead
+     */
+    private boolean overflow(T type, Filelist.Segment segment, int index,
+                             Object arg)
+    {
+        synchronized (_overflow) {
+            if (_overflow.isEmpty() && !_unboundedTypes.contains(type)) {
+                return false;
+            }
+            Slot<T> slot = new Slot<>(0);
+            slot.set(type, segment, index, arg);
+            _overflow.addLast(slot);
+            _numOverflowed = _overflow.size();
+        }
+        signalConsumer();
+        return true;
+    }
+
+    private void signalConsumer()
+    {
+        if (_isConsumerWaiting) {
+            // unpark once rather than for every job appended until the
+            // consumer is scheduled
+            _isConsumerWaiting = false;
+            LockSupport.unpark(_consumer);
+        }
+    }
+
+    /**
+     * @return true if there are no jobs to process
+     */
+    boolean isEmpty()
+    {
+        return _head == _tail.get() && _numOverflowed == 0;
+    }
+
+    /**
+     * Wait for at least one job and process all jobs appended so far in
+     * order. Must only be called by the consumer thread.
+     *
+     * @return the number of jobs processed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws RsyncException if consumer fails to process a job, the
+     *         remaining jobs are not processed
+     */
+    int drain(Consumer<T> consumer) throws InterruptedException,
+                                           RsyncException
+    {
+        awaitJob();
+        int numJobs = 0;
+        long tail = _tail.get();
+        // NOTE: consumer may call drainHead and so advance head
+        while (_head < tail) {
+            processNext(_head, consumer);
+            numJobs++;
+        }
+        signalProducers();
+        // any job appended to the ring after the ring was found empty is
+        // appended after all jobs in the overflow list, unless appended
+        // concurrently by another producer
+        if (_head == _tail.get()) {
+            for (int i = _numOverflowed; i > 0 &&
+                                         processOverflowed(null, consumer);
+                 i--) {
+                numJobs++;
+            }
+        }
+        return numJobs;
+    }
+
+    /**
+     * Process the jobs at the head of the queue in order as long as their
+     * type is one of types, without waiting for more. Must only be called
+     * by the consumer thread, e.g. while it is processing a job that may
+     * take long.
+     *
+     * @return the number of jobs processed
+     */
+    int drainHead(Set<T> types, Consumer<T> consumer) throws RsyncException
+    {
+        int numJobs = 0;
+        while (true) {
+            if (_head < _tail.get()) {
+                if (!types.contains(awaitPublished(_head)._type)) {
+                    break;
+                }
+                processNext(_head, consumer);
+            } else if (!processOverflowed(types, consumer)) {
+                break;
+            }
+            numJobs++;
+        }
+        signalProducers();
+        return numJobs;
+    }
+
+    /**
+     * Process the first job of the overflow list, if any and if its type is
+     * one of typesOrNull or typesOrNull is null.
+     *
+     * @return true if a job was processed
+     */
+    private boolean processOverflowed(Set<T> typesOrNull,
+                                      Consumer<T> consumer)
+        throws RsyncException
+    {
+        Slot<T> slot;
+        synchronized (_overflow) {
+            slot = _overflow.peekFirst();
+            if (slot == null ||
+                typesOrNull != null && !typesOrNull.contains(slot._type)) {
+                return false;
+            }
+            _overflow.removeFirst();
+            _numOverflowed = _overflow.size();
+        }
+        consumer.process(slot._type, slot._segment, slot._index, slot._arg);
+        return true;
+    }
+
+    private Slot<T> awaitPublished(long pos)
+    {
+        Slot<T> slot = _slots[(int) pos & _mask];
+        while (slot._sequence != pos + 1) {
+            Thread.yield(); // claimed but not yet published
+        }
+        return slot;
+    }
+
+    private void processNext(long pos, Consumer<T> consumer)
+        throws RsyncException
+    {
+        Slot<T> slot = awaitPublished(pos);
+        T type = slot._type;
+        Filelist.Segment segment = slot._segment;
+        int index = slot._index;
+        Object arg = slot._arg;
+        slot.set(null, null, 0, null);
+        slot._sequence = pos + _slots.length;
+        _head = pos + 1;
+        // waking up producers per freed slot is expensive
+        if ((pos & _signalMask) == _signalMask) {
+            signalProducers();
+        }
+        consumer.process(type, segment, index, arg);
+    }
+
+    private void signalProducers()
+    {
+        if (_numWaitingProducers > 0) {
+            synchronized (_notFull) {
+                _notFull.notifyAll();
+            }
+        }
+    }
+
+    private void awaitSlot(Slot<T> slot, long pos) throws InterruptedException
+    {
+        synchronized (_notFull) {
+            _numWaitingProducers++;
+            try {
+                while (slot._sequence < pos && _tail.get() == pos) {
+                    _notFull.wait();
+                }
+            } finally {
+                _numWaitingProducers--;
+            }
+        }
+    }
+
+    private void awaitJob() throws InterruptedException
+    {
+        _consumer = Thread.currentThread();
+        while (isEmpty()) {
+            _isConsumerWaiting = true;
+            if (isEmpty()) {
+                LockSupport.park(this);
+            }
+            _isConsumerWaiting = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
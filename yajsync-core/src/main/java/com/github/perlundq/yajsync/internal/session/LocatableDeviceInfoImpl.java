@@ -30,7 +30,16 @@ class LocatableDeviceInfoImpl extends DeviceInfoImpl
                                    RsyncFileAttributes attrs,
                                    int major, int minor, Path path)
     {
-        super(pathName, pathNameBytes, attrs, major, minor);
+        this(pathName, pathNameBytes, 0, pathNameBytes.length, attrs, major,
+             minor, path);
+    }
+
+    LocatableDeviceInfoImpl(String pathName, byte[] pathNameBytes,
+                            int offset, int length,
+                            RsyncFileAttributes attrs, int major, int minor,
+                            Path path)
+    {
+        super(pathName, pathNameBytes, offset, length, attrs, major, minor);
         assert path != null;
         assert path.isAbsolute();
         _path = path;
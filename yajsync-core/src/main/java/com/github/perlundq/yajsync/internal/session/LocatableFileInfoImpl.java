@@ -28,7 +28,13 @@ class LocatableFileInfoImpl extends FileInfoImpl implements LocatableFileInfo
     LocatableFileInfoImpl(String pathName, byte[] pathNameBytes,
                           RsyncFileAttributes attrs, Path path)
     {
-        super(pathName, pathNameBytes, attrs);
+        this(pathName, pathNameBytes, 0, pathNameBytes.length, attrs, path);
+    }
+
+    LocatableFileInfoImpl(String pathName, byte[] pathNameBytes, int offset,
+                          int length, RsyncFileAttributes attrs, Path path)
+    {
+        super(pathName, pathNameBytes, offset, length, attrs);
         assert path != null;
         assert path.isAbsolute();
         _path = path;
@@ -31,7 +31,16 @@ class LocatableSymlinkInfoImpl extends SymlinkInfoImpl
                              RsyncFileAttributes attrs, String targetPathName,
                              Path path)
     {
-        super(pathName, pathNameBytes, attrs, targetPathName);
+        this(pathName, pathNameBytes, 0, pathNameBytes.length, attrs,
+             targetPathName, path);
+    }
+
+    LocatableSymlinkInfoImpl(String pathName, byte[] pathNameBytes,
+                             int offset, int length,
+                             RsyncFileAttributes attrs, String targetPathName,
+                             Path path)
+    {
+        super(pathName, pathNameBytes, offset, length, attrs, targetPathName);
         assert path != null;
         assert path.isAbsolute();
         _path = path;
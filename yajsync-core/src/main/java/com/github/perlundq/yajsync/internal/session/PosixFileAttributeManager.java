@@ -43,6 +43,7 @@ public final class PosixFileAttributeManager extends FileAttributeManager
     private final int _defaultGroupId;
     private final Map<String, UserPrincipal> _nameToUserPrincipal = new HashMap<>();
     private final Map<String, GroupPrincipal> _nameToGroupPrincipal = new HashMap<>();
+    private final UserGroupTable _userGroupTable = new UserGroupTable();
 
     public PosixFileAttributeManager(int defaultUserId, int defaultGroupId)
     {
@@ -64,8 +65,8 @@ public final class PosixFileAttributeManager extends FileAttributeManager
         return new RsyncFileAttributes(toMode(attrs),
                                        attrs.size(),
                                        attrs.lastModifiedTime().to(TimeUnit.SECONDS),
-                                       new User(userName, _defaultUserId),
-                                       new Group(groupName, _defaultGroupId));
+                                       _userGroupTable.user(userName, _defaultUserId),
+                                       _userGroupTable.group(groupName, _defaultGroupId));
     }
 
     private static int toMode(PosixFileAttributes attrs)
@@ -22,14 +22,17 @@ package com.github.perlundq.yajsync.internal.session;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.util.ArrayList;
@@ -38,14 +41,18 @@ import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.github.perlundq.yajsync.CompressionCodec;
+import com.github.perlundq.yajsync.Durability;
 import com.github.perlundq.yajsync.FileSelection;
 import com.github.perlundq.yajsync.RsyncException;
 import com.github.perlundq.yajsync.RsyncProtocolException;
 import com.github.perlundq.yajsync.RsyncSecurityException;
 import com.github.perlundq.yajsync.Statistics;
+import com.github.perlundq.yajsync.StrongChecksum;
 import com.github.perlundq.yajsync.attr.FileInfo;
 import com.github.perlundq.yajsync.attr.Group;
 import com.github.perlundq.yajsync.attr.LocatableFileInfo;
@@ -63,13 +70,16 @@ import com.github.perlundq.yajsync.internal.text.TextConversionException;
 import com.github.perlundq.yajsync.internal.text.TextDecoder;
 import com.github.perlundq.yajsync.internal.util.Environment;
 import com.github.perlundq.yajsync.internal.util.FileOps;
-import com.github.perlundq.yajsync.internal.util.MD5;
 import com.github.perlundq.yajsync.internal.util.PathOps;
 import com.github.perlundq.yajsync.internal.util.RuntimeInterruptException;
 import com.github.perlundq.yajsync.internal.util.Util;
 
 public class Receiver implements RsyncTask, MessageHandler
 {
+    public static final long DEFAULT_WRITE_BEHIND_LIMIT = 0;
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 64;
+    public static final long DEFAULT_GROUP_COMMIT_INTERVAL = 100;
+
     public static class Builder
     {
         private final Generator _generator;
@@ -78,9 +88,19 @@ public class Receiver implements RsyncTask, MessageHandler
         private boolean _isDeferWrite;
         private boolean _isExitAfterEOF;
         private boolean _isExitEarlyIfEmptyList;
+        private boolean _isInplace;
         private boolean _isReceiveStatistics;
         private boolean _isSafeFileList = true;
+        private boolean _isSparse;
+        private boolean _isPreallocate;
         private FilterMode _filterMode = FilterMode.NONE;
+        private CompressionCodec _compressionCodec;
+        private FileHandoff _fileHandoff;
+        private long _writeBehindLimit = DEFAULT_WRITE_BEHIND_LIMIT;
+        private boolean _isAsyncDigest;
+        private Durability _durability = Durability.NONE;
+        private int _groupCommitSize = DEFAULT_GROUP_COMMIT_SIZE;
+        private long _groupCommitInterval = DEFAULT_GROUP_COMMIT_INTERVAL;
 
         public User _defaultUser = User.NOBODY;
         public Group _defaultGroup = Group.NOBODY;
@@ -130,6 +150,20 @@ public class Receiver implements RsyncTask, MessageHandler
             return this;
         }
 
+        /**
+         * @param isInplace true if files are updated in place (--inplace)
+         *        instead of being rebuilt into temp files, which takes
+         *        precedence over isDeferWrite. Only the literal data and the
+         *        matched blocks not already at the correct offset are then
+         *        written. A file is left in an inconsistent state if the
+         *        transfer is interrupted
+         */
+        public Builder isInplace(boolean isInplace)
+        {
+            _isInplace = isInplace;
+            return this;
+        }
+
         public Builder isExitAfterEOF(boolean isExitAfterEOF)
         {
             _isExitAfterEOF = isExitAfterEOF;
@@ -154,6 +188,28 @@ public class Receiver implements RsyncTask, MessageHandler
             return this;
         }
 
+        /**
+         * @param isSparse true if blocks of zeroes of files received should
+         *        be left as holes instead of being written (--sparse), not
+         *        applicable to files updated in place
+         */
+        public Builder isSparse(boolean isSparse)
+        {
+            _isSparse = isSparse;
+            return this;
+        }
+
+        /**
+         * @param isPreallocate true if files received should be extended to
+         *        their final size before any data is written to them
+         *        (--preallocate)
+         */
+        public Builder isPreallocate(boolean isPreallocate)
+        {
+            _isPreallocate = isPreallocate;
+            return this;
+        }
+
         public Builder filterMode(FilterMode filterMode)
         {
             assert filterMode != null;
@@ -161,6 +217,80 @@ public class Receiver implements RsyncTask, MessageHandler
             return this;
         }
 
+        /**
+         * @param compressionCodec the codec agreed upon with peer for
+         *        compressing literal data, or null (the default) if not
+         *        compressing
+         */
+        public Builder compressionCodec(CompressionCodec compressionCodec)
+        {
+            _compressionCodec = compressionCodec;
+            return this;
+        }
+
+        /**
+         * @param fileHandoff if non null the Sender is within this process
+         *        (a local transfer) and files without any block checksums
+         *        are copied from the source files it hands over
+         */
+        public Builder fileHandoff(FileHandoff fileHandoff)
+        {
+            _fileHandoff = fileHandoff;
+            return this;
+        }
+
+        /**
+         * @param writeBehindLimit the maximum number of bytes of received
+         *        data buffered for writing to disk by a separate thread,
+         *        after which receiving from peer blocks, 0 (default) writes
+         *        all data directly
+         */
+        public Builder writeBehindLimit(long writeBehindLimit)
+        {
+            assert writeBehindLimit >= 0;
+            _writeBehindLimit = writeBehindLimit;
+            return this;
+        }
+
+        /**
+         * @param isAsyncDigest true if the digest of each file received is
+         *        computed by a separate thread, instead of by the thread
+         *        writing its data, so that hashing is not competing with
+         *        receiving from peer (default false)
+         */
+        public Builder isAsyncDigest(boolean isAsyncDigest)
+        {
+            _isAsyncDigest = isAsyncDigest;
+            return this;
+        }
+
+        /**
+         * @param durability how received files are forced to disk before
+         *        being moved into place, NONE (default), PER_FILE or
+         *        GROUP_COMMIT
+         */
+        public Builder durability(Durability durability)
+        {
+            assert durability != null;
+            _durability = durability;
+            return this;
+        }
+
+        /**
+         * @param size the maximum number of files forced to disk and moved
+         *        into place together with GROUP_COMMIT
+         * @param intervalMillis the maximum time in milliseconds a completed
+         *        file waits for more files of its group with GROUP_COMMIT
+         */
+        public Builder groupCommit(int size, long intervalMillis)
+        {
+            assert size > 0;
+            assert intervalMillis >= 0;
+            _groupCommitSize = size;
+            _groupCommitInterval = intervalMillis;
+            return this;
+        }
+
         public Builder defaultUser(User defaultUser)
         {
             _defaultUser = defaultUser;
@@ -198,6 +328,7 @@ public class Receiver implements RsyncTask, MessageHandler
         private String _symlinkTargetOrNull;
         private int _major = -1;
         private int _minor = -1;
+        private byte[] _checksumOrNull;
 
         @Override
         public String toString() {
@@ -221,13 +352,18 @@ public class Receiver implements RsyncTask, MessageHandler
     }
 
     private static final int INPUT_CHANNEL_BUF_SIZE = 8 * 1024;
+    private static final int REPLICA_BUF_SIZE = 256 * 1024;
     private static final Logger _log =
         Logger.getLogger(Receiver.class.getName());
 
     private final BitSet _transferred = new BitSet();
+    private final CompressionCodec _compressionCodec;
+    private final DataWriter _dataWriter;
+    private final FileCommitter _fileCommitter;
     private final boolean _isDeferWrite;
     private final boolean _isExitAfterEOF;
     private final boolean _isExitEarlyIfEmptyList;
+    private final boolean _isInplace;
     private final boolean _isInterruptible;
     private final boolean _isListOnly;
     private final boolean _isPreserveDevices;
@@ -240,7 +376,11 @@ public class Receiver implements RsyncTask, MessageHandler
     private final boolean _isNumericIds;
     private final boolean _isReceiveStatistics;
     private final boolean _isSafeFileList;
+    private final boolean _isSparse;
+    private final boolean _isPreallocate;
+    private final boolean _isAlwaysChecksum;
     private final FileAttributeManager _fileAttributeManager;
+    private final FileHandoff _fileHandoff;
     private final FileInfoCache _fileInfoCache = new FileInfoCache();
     private final Filelist _fileList;
     private final FileSelection _fileSelection;
@@ -248,21 +388,30 @@ public class Receiver implements RsyncTask, MessageHandler
     private final Generator _generator;
     private final Map<Integer, User> _recursiveUidUserMap = new HashMap<>();
     private final Map<Integer, Group> _recursiveGidGroupMap = new HashMap<>();
+    private final UserGroupTable _userGroupTable = new UserGroupTable();
     private final RsyncInChannel _in;
     private final SessionStatistics _stats = new SessionStatistics();
+    private final StrongChecksum _strongChecksum;
     private final Path _targetPath; // is null if file listing
     private final TextDecoder _characterDecoder;
 
     private int _ioError;
     private PathResolver _pathResolver;
+    // reused for reading matched replica data which is not written (deferred
+    // write or decompression history) and for sparse copies of files handed
+    // over, allocated on demand
+    private ByteBuffer _replicaBuf;
 
     private Receiver(Builder builder)
     {
         _isDeferWrite = builder._isDeferWrite;
         _isExitAfterEOF = builder._isExitAfterEOF;
         _isExitEarlyIfEmptyList = builder._isExitEarlyIfEmptyList;
+        _isInplace = builder._isInplace;
         _isReceiveStatistics = builder._isReceiveStatistics;
         _isSafeFileList = builder._isSafeFileList;
+        _isSparse = builder._isSparse;
+        _isPreallocate = builder._isPreallocate;
         _generator = builder._generator;
         _fileList = _generator.fileList();
         _isInterruptible = _generator.isInterruptible();
@@ -275,7 +424,17 @@ public class Receiver implements RsyncTask, MessageHandler
         _isPreserveGroup = _generator.isPreserveGroup();
         _isNumericIds = _generator.isNumericIds();
         _fileSelection = _generator.fileSelection();
+        _strongChecksum = _generator.strongChecksum();
+        _isAlwaysChecksum = _generator.isAlwaysChecksum();
+        _compressionCodec = builder._compressionCodec;
         _filterMode = builder._filterMode;
+        _fileHandoff = builder._fileHandoff;
+        _dataWriter = new DataWriter(builder._writeBehindLimit,
+                                     builder._isSparse,
+                                     builder._isAsyncDigest);
+        _fileCommitter = new FileCommitter(builder._durability,
+                                           builder._groupCommitSize,
+                                           builder._groupCommitInterval);
         _in = new RsyncInChannel(builder._in, this, INPUT_CHANNEL_BUF_SIZE);
         _targetPath = builder._targetPath;
         _isListOnly = _targetPath == null;
@@ -307,6 +466,7 @@ public class Receiver implements RsyncTask, MessageHandler
                 "isDeferWrite=%b, " +
                 "isExitAfterEOF=%b, " +
                 "isExitEarlyIfEmptyList=%b, " +
+                "isInplace=%b, " +
                 "isInterruptible=%b, " +
                 "isListOnly=%b, " +
                 "isNumericIds=%b, " +
@@ -319,6 +479,12 @@ public class Receiver implements RsyncTask, MessageHandler
                 "isPreserveGroup=%b, " +
                 "isReceiveStatistics=%b, " +
                 "isSafeFileList=%b, " +
+                "isSparse=%b, " +
+                "isPreallocate=%b, " +
+                "isFileHandoff=%b, " +
+                "isWriteBehind=%b, " +
+                "isAsyncDigest=%b, " +
+                "durability=%s, " +
                 "fileSelection=%s, " +
                 "filterMode=%s, " +
                 "targetPath=%s, " +
@@ -328,6 +494,7 @@ public class Receiver implements RsyncTask, MessageHandler
                 _isDeferWrite,
                 _isExitAfterEOF,
                 _isExitEarlyIfEmptyList,
+                _isInplace,
                 _isListOnly,
                 _isInterruptible,
                 _isNumericIds,
@@ -340,6 +507,12 @@ public class Receiver implements RsyncTask, MessageHandler
                 _isPreserveGroup,
                 _isReceiveStatistics,
                 _isSafeFileList,
+                _isSparse,
+                _isPreallocate,
+                _fileHandoff != null,
+                _dataWriter.isWriteBehind(),
+                _dataWriter.isAsyncDigest(),
+                _fileCommitter.durability(),
                 _fileSelection,
                 _filterMode,
                 _targetPath,
@@ -454,6 +627,8 @@ public class Receiver implements RsyncTask, MessageHandler
             throw new InterruptedException();
         } finally {
             _generator.stop();
+            _dataWriter.close();
+            _fileCommitter.close();
             if (_log.isLoggable(Level.FINE)) {
                 _log.fine(String.format("exit status %d", _ioError));
             }
@@ -491,7 +666,7 @@ public class Receiver implements RsyncTask, MessageHandler
                 return users;
             }
             String userName = receiveUserName();
-            User user = new User(userName, uid);
+            User user = _userGroupTable.user(userName, uid);
             users.put(uid, user);
         }
     }
@@ -510,7 +685,7 @@ public class Receiver implements RsyncTask, MessageHandler
                 return groups;
             }
             String groupName = receiveGroupName();
-            Group group = new Group(groupName, gid);
+            Group group = _userGroupTable.group(groupName, gid);
             groups.put(gid, group);
         }
     }
@@ -753,6 +928,9 @@ public class Receiver implements RsyncTask, MessageHandler
                                         pathOrNull,
                                         stub._symlinkTargetOrNull,
                                         stub._major, stub._minor);
+            if (stub._checksumOrNull != null) {
+                ((FileInfoImpl) f).setChecksum(stub._checksumOrNull);
+            }
             builder.add(f);
         }
 
@@ -904,6 +1082,11 @@ public class Receiver implements RsyncTask, MessageHandler
                     }
                     phase = phase.next();
                     if (phase == TransferPhase.TEAR_DOWN_1) {
+                        // all files must be in place before updating the
+                        // attributes of their directories
+                        if (!_fileCommitter.flush()) {
+                            ioError |= IoError.GENERAL;
+                        }
                         _generator.processDeferredJobs();
                     }
                     _generator.sendSegmentDone(); // 3 after empty
@@ -1017,57 +1200,79 @@ public class Receiver implements RsyncTask, MessageHandler
                 ioError |= receiveAndMatch(segment, index, fileInfo);
             }
         }
+        if (!_fileCommitter.flush()) {
+            ioError |= IoError.GENERAL;
+        }
         return ioError;
     }
 
-    private boolean isRemoteAndLocalFileIdentical(Path localFile,
-                                                  MessageDigest md,
-                                                  LocatableFileInfo fileInfo)
-        throws ChannelException
+    /**
+     * @param digestFuture the digest of the data received, which is waited
+     *        for after receiving the digest of peer
+     */
+    private boolean isRemoteAndLocalFileIdentical(
+                                        Path localFile,
+                                        Future<MessageDigest> digestFuture,
+                                        LocatableFileInfo fileInfo)
+        throws ChannelException, InterruptedException
     {
         long tempSize = localFile == null ? -1 : FileOps.sizeOf(localFile);
-        byte[] md5sum = md.digest();
-        byte[] peerMd5sum = new byte[md5sum.length];
-        _in.get(ByteBuffer.wrap(peerMd5sum));
+        byte[] peerDigest = new byte[_strongChecksum.digestLength()];
+        _in.get(ByteBuffer.wrap(peerDigest));
+        byte[] digest = DataWriter.await(digestFuture).digest();
         boolean isIdentical = tempSize == fileInfo.attrs().size() &&
-                              Arrays.equals(md5sum, peerMd5sum);
+                              Arrays.equals(digest, peerDigest);
 
         //isIdentical = isIdentical && Util.randomChance(0.25);
 
         if (_log.isLoggable(Level.FINE)) {
             if (isIdentical) {
                 _log.fine(String.format("%s data received OK (remote and " +
-                                        "local checksum is %s)",
-                                        fileInfo,
-                                        MD5.md5DigestToString(md5sum)));
+                                        "local %s checksum is %s)",
+                                        fileInfo, _strongChecksum,
+                                        Text.bytesToHexString(digest)));
             } else {
-                _log.fine(String.format("%s checksum/size mismatch : " +
+                _log.fine(String.format("%s %s checksum/size mismatch : " +
                                         "our=%s (size=%d), peer=%s (size=%d)",
-                                        fileInfo,
-                                        MD5.md5DigestToString(md5sum),
+                                        fileInfo, _strongChecksum,
+                                        Text.bytesToHexString(digest),
                                         tempSize,
-                                        MD5.md5DigestToString(peerMd5sum),
+                                        Text.bytesToHexString(peerDigest),
                                         fileInfo.attrs().size()));
             }
         }
         return isIdentical;
     }
 
-    private int moveTempfileToTarget(Path tempFile, Path target)
-            throws InterruptedException
+    /**
+     * @return a listener which completes fileInfo once resultFile has been
+     *         committed, i.e. moved into place according to the durability
+     */
+    private FileCommitter.Listener newCommitListener(
+                                            final Filelist.Segment segment,
+                                            final int index,
+                                            final LocatableFileInfo fileInfo,
+                                            final Path resultFile)
     {
-        boolean isOK = FileOps.atomicMove(tempFile, target);
-        if (isOK) {
-            return 0;
-        } else {
-            String msg = String.format("Error: when moving temporary file %s " +
-                                       "to %s", tempFile, target);
-            if (_log.isLoggable(Level.SEVERE)) {
-                _log.severe(msg);
+        return new FileCommitter.Listener() {
+            @Override
+            public void committed(boolean isOK) throws InterruptedException
+            {
+                if (isOK) {
+                    deletePartialIfAny(fileInfo, resultFile);
+                    _generator.cacheChecksums(fileInfo.path());
+                } else {
+                    String msg = String.format("Error: when moving temporary " +
+                                               "file %s to %s", resultFile,
+                                               fileInfo.path());
+                    if (_log.isLoggable(Level.SEVERE)) {
+                        _log.severe(msg);
+                    }
+                    _generator.sendMessage(MessageCode.ERROR_XFER, msg);
+                }
+                _generator.purgeFile(segment, index);
             }
-            _generator.sendMessage(MessageCode.ERROR_XFER, msg);
-            return IoError.GENERAL;
-        }
+        };
     }
 
     private void updateAttrsIfDiffer(Path path, RsyncFileAttributes targetAttrs)
@@ -1158,6 +1363,18 @@ public class Receiver implements RsyncTask, MessageHandler
             _log.fine("received peer checksum " + checksumHeader);
         }
 
+        // the data of a file without any block checksums is copied directly
+        // from the source file if handed over by a local Sender
+        boolean isHandedOver = _fileHandoff != null &&
+                               checksumHeader.blockLength() == 0;
+
+        if (_isInplace) {
+            if (isHandedOver) {
+                return copyData(segment, index, fileInfo, fileInfo.path());
+            }
+            return matchData(segment, index, fileInfo, checksumHeader, null);
+        }
+
         try (AutoDeletable tempFile = new AutoDeletable(
                 Files.createTempFile(fileInfo.path().getParent(),
                                      null, null)))
@@ -1165,8 +1382,24 @@ public class Receiver implements RsyncTask, MessageHandler
             if (_log.isLoggable(Level.FINE)) {
                 _log.fine("created tempfile " + tempFile);
             }
-            ioError |= matchData(segment, index, fileInfo, checksumHeader,
-                                 tempFile.path());
+            boolean isDone = false;
+            try {
+                if (isHandedOver) {
+                    ioError |= copyData(segment, index, fileInfo,
+                                        tempFile.path());
+                } else {
+                    ioError |= matchData(segment, index, fileInfo,
+                                         checksumHeader, tempFile.path());
+                }
+                isDone = true;
+            } finally {
+                if (!isDone && _generator.isKeepPartial()) {
+                    keepPartial(tempFile.path(), fileInfo);
+                }
+            }
+            if (_fileCommitter.isPending(tempFile.path())) {
+                tempFile.keep();
+            }
         } catch (IOException e) {
             String msg = String.format("failed to create tempfile in %s: %s",
                                        fileInfo.path().getParent(),
@@ -1175,44 +1408,83 @@ public class Receiver implements RsyncTask, MessageHandler
                 _log.severe(msg);
             }
             _generator.sendMessage(MessageCode.ERROR_XFER, msg + '\n');
-            discardData(checksumHeader);
-            _in.skip(Checksum.MAX_DIGEST_LENGTH);
+            if (isHandedOver) {
+                _fileHandoff.discard(index);
+            } else {
+                discardData(checksumHeader);
+                _in.skip(_strongChecksum.digestLength());
+            }
             ioError |= IoError.GENERAL;
             _generator.purgeFile(segment, index);
         }
         return ioError;
     }
 
+    /**
+     * @param tempFileOrNull the file to rebuild fileInfo into, or null if
+     *        updating it in place
+     */
     private int matchData(Filelist.Segment segment,
                           int index,
                           LocatableFileInfo fileInfo,
                           Checksum.Header checksumHeader,
-                          Path tempFile)
+                          Path tempFileOrNull)
         throws ChannelException, InterruptedException, RsyncProtocolException
+    {
+        MessageDigest md = _strongChecksum.newInstance();
+        Path resultFile;
+        if (tempFileOrNull == null) {
+            resultFile = mergeDataInplace(fileInfo, checksumHeader, md);
+        } else {
+            resultFile = mergeDataFromPeerAndReplica(fileInfo,
+                                                     tempFileOrNull,
+                                                     checksumHeader,
+                                                     md);
+        }
+        boolean isIdentical = isRemoteAndLocalFileIdentical(
+                                            resultFile,
+                                            _dataWriter.digestOf(md),
+                                            fileInfo);
+        return completeFile(segment, index, fileInfo, resultFile,
+                            isIdentical);
+    }
+
+    private int copyData(Filelist.Segment segment,
+                         int index,
+                         LocatableFileInfo fileInfo,
+                         Path targetFile)
+        throws InterruptedException
+    {
+        Path resultFile = copyFromSource(index, fileInfo, targetFile);
+        return completeFile(segment, index, fileInfo, resultFile,
+                            resultFile != null);
+    }
+
+    /**
+     * Commit resultFile if intact, i.e. move it into place (unless it already
+     * is the file of fileInfo) possibly later on, otherwise request the file
+     * once more from peer (or give up if it already has been re-sent).
+     */
+    private int completeFile(Filelist.Segment segment,
+                             int index,
+                             LocatableFileInfo fileInfo,
+                             Path resultFile,
+                             boolean isIntact)
+        throws InterruptedException
     {
         int ioError = 0;
-        MessageDigest md = MD5.newInstance();
-        Path resultFile = mergeDataFromPeerAndReplica(fileInfo,
-                                                      tempFile,
-                                                      checksumHeader,
-                                                      md);
-        if (isRemoteAndLocalFileIdentical(resultFile, md, fileInfo)) {
+        if (isIntact) {
             try {
                 if (_isPreservePermissions || _isPreserveTimes ||
                     _isPreserveUser || _isPreserveGroup)
                 {
                     updateAttrsIfDiffer(resultFile, fileInfo.attrs());
                 }
-                if (!_isDeferWrite ||
-                    !resultFile.equals(fileInfo.path()))
-                {
-                    if (_log.isLoggable(Level.FINE)) {
-                        _log.fine(String.format("moving %s -> %s",
-                                                resultFile,
-                                                fileInfo.path()));
-                    }
-                    ioError |= moveTempfileToTarget(resultFile,
-                                                    fileInfo.path());
+                if (!_fileCommitter.commit(resultFile, fileInfo.path(),
+                                           newCommitListener(segment, index,
+                                                             fileInfo,
+                                                             resultFile))) {
+                    ioError |= IoError.GENERAL;
                 }
             } catch (IOException e) {
                 ioError |= IoError.GENERAL;
@@ -1221,8 +1493,8 @@ public class Receiver implements RsyncTask, MessageHandler
                                               "%s",
                                               resultFile, e.getMessage()));
                 }
+                _generator.purgeFile(segment, index);
             }
-            _generator.purgeFile(segment, index);
         } else {
             if (isTransferred(index)) {
                 try {
@@ -1398,6 +1670,7 @@ public class Receiver implements RsyncTask, MessageHandler
         if (_isPreserveLinks && attrs.isSymbolicLink()) {
             symlinkTargetOrNull = receiveSymlinkTarget();
         }
+        byte[] checksumOrNull = receiveChecksumOrNull(attrs);
 
         FileInfoStub stub = new FileInfoStub();
         stub._pathNameOrNull = pathNameOrNull;
@@ -1406,6 +1679,7 @@ public class Receiver implements RsyncTask, MessageHandler
         stub._symlinkTargetOrNull = symlinkTargetOrNull;
         stub._major = major;
         stub._minor = minor;
+        stub._checksumOrNull = checksumOrNull;
 
         if (_log.isLoggable(Level.FINE)) {
             _log.fine("Finished receiving " + stub);
@@ -1479,10 +1753,14 @@ public class Receiver implements RsyncTask, MessageHandler
         if (_isPreserveLinks && attrs.isSymbolicLink()) {
             symlinkTargetOrNull = receiveSymlinkTarget();
         }
+        byte[] checksumOrNull = receiveChecksumOrNull(attrs);
 
         FileInfo fileInfo = createFileInfo(pathNameOrNull, pathNameBytes, attrs,
                                            fullPathOrNull, symlinkTargetOrNull,
                                            major, minor);
+        if (checksumOrNull != null) {
+            ((FileInfoImpl) fileInfo).setChecksum(checksumOrNull);
+        }
 
         if (!(fileInfo instanceof LocatableFileInfo)) {
             _generator.disableDelete();
@@ -1558,6 +1836,21 @@ public class Receiver implements RsyncTask, MessageHandler
     }
 
 
+    /**
+     * @return the digest of the contents of a regular file sent by peer
+     *         with --checksum, or null
+     */
+    private byte[] receiveChecksumOrNull(RsyncFileAttributes attrs)
+            throws ChannelException
+    {
+        if (!_isAlwaysChecksum || !attrs.isRegularFile()) {
+            return null;
+        }
+        byte[] checksum = new byte[_strongChecksum.digestLength()];
+        _in.get(checksum, 0, checksum.length);
+        return checksum;
+    }
+
     /**
      *
      * @throws TextConversionException
@@ -1658,7 +1951,7 @@ public class Receiver implements RsyncTask, MessageHandler
                 // Note: _uidUserMap contains a predefined mapping for root
                 user = _recursiveUidUserMap.get(uid);
                 if (user == null) {
-                    user = new User("", uid);
+                    user = incompleteUser(uid);
                 }
             } else { // if (_fileSelection != FileSelection.RECURSE) {
                 // User with uid but no user name. User name mappings are sent
@@ -1694,7 +1987,7 @@ public class Receiver implements RsyncTask, MessageHandler
                 int gid = receiveGroupId();
                 group = _recursiveGidGroupMap.get(gid);
                 if (group == null) {
-                    group = new Group("", gid);
+                    group = incompleteGroup(gid);
                 }
             } else { // if (_fileSelection != FileSelection.RECURSE) {
                 // Group with gid but no group name. Group name mappings are
@@ -1744,14 +2037,25 @@ public class Receiver implements RsyncTask, MessageHandler
                                                 RsyncProtocolException
     {
         int uid = receiveUserId();
-        return new User("", uid);
+        return incompleteUser(uid);
     }
 
     private Group receiveIncompleteGroup() throws ChannelException,
                                                   RsyncProtocolException
     {
         int gid = receiveGroupId();
-        return new Group("", gid);
+        return incompleteGroup(gid);
+    }
+
+    // a user without a name, until the name mappings have been received
+    private User incompleteUser(int uid)
+    {
+        return _userGroupTable.user("", uid);
+    }
+
+    private Group incompleteGroup(int gid)
+    {
+        return _userGroupTable.group("", gid);
     }
 
     private int receiveUserId() throws ChannelException, RsyncProtocolException
@@ -1833,33 +2137,34 @@ public class Receiver implements RsyncTask, MessageHandler
     {
         int uid = receiveUserId();
         String userName = receiveUserName();
-        return new User(userName, uid);
+        return _userGroupTable.user(userName, uid);
     }
 
     private Group receiveGroup() throws ChannelException, RsyncProtocolException
     {
         int gid = receiveGroupId();
         String groupName = receiveGroupName();
-        return new Group(groupName, gid);
+        return _userGroupTable.group(groupName, gid);
     }
 
     private void discardData(Checksum.Header checksumHeader)
-        throws ChannelException
+        throws ChannelException, RsyncProtocolException
     {
         long sizeLiteral = 0;
         long sizeMatch = 0;
-        while (true) {
-            int token = _in.getInt();
-            if (token == 0) {
-                break;
-            } else if (token > 0) {
-                int numBytes = token;
-                _in.skip(numBytes);
-                sizeLiteral += numBytes;
-            } else {
-                // blockIndex >= 0 && blockIndex <= Integer.MAX_VALUE
-                final int blockIndex = - (token + 1);
-                sizeMatch += blockSize(blockIndex, checksumHeader);
+        try (TokenDecoder tokens =
+                 TokenDecoder.newInstance(_in, _compressionCodec)) {
+            while (true) {
+                int token = tokens.skipToken();
+                if (token == 0) {
+                    break;
+                } else if (token > 0) {
+                    sizeLiteral += token;
+                } else {
+                    // blockIndex >= 0 && blockIndex <= Integer.MAX_VALUE
+                    final int blockIndex = - (token + 1);
+                    sizeMatch += blockSize(blockIndex, checksumHeader);
+                }
             }
         }
         _stats._totalLiteralSize += sizeLiteral;
@@ -1881,12 +2186,18 @@ public class Receiver implements RsyncTask, MessageHandler
 
         try (FileChannel target = FileChannel.open(tempFile,
                                                    StandardOpenOption.WRITE)) {
-            Path p = fileInfo.path();
+            preallocateIfEnabled(target, fileInfo);
+            // the partial file of a previously failed transfer is the
+            // replica if the Generator used it as basis
+            Path p = _generator.partialBasisOrNull(fileInfo);
+            if (p == null) {
+                p = fileInfo.path();
+            }
             try (FileChannel replica =
                     FileChannel.open(p, StandardOpenOption.READ)) {
                 RsyncFileAttributes attrs = _fileAttributeManager.stat(p);
                 if (attrs.isRegularFile()) {
-                    boolean isIntact = combineDataToFile(replica, target,
+                    boolean isIntact = combineDataToFile(p, replica, target,
                                                          checksumHeader, md);
                     if (isIntact) {
                         RsyncFileAttributes attrs2 = _fileAttributeManager.statOrNull(p);
@@ -1905,7 +2216,7 @@ public class Receiver implements RsyncTask, MessageHandler
                     return tempFile;
                 } // else discard later
             } catch (NoSuchFileException e) {  // replica.open
-                combineDataToFile(null, target, checksumHeader, md);
+                combineDataToFile(p, null, target, checksumHeader, md);
                 return tempFile;
             }
         } catch (IOException e) {        // target.open
@@ -1915,23 +2226,253 @@ public class Receiver implements RsyncTask, MessageHandler
         return null;
     }
 
-    private boolean combineDataToFile(FileChannel replicaOrNull,
+    /**
+     * Update fileInfo in place with the data from peer, the file being both
+     * the replica and the target. It is created if missing, in which case
+     * there are no block checksums either.
+     *
+     * @return the path of fileInfo, or null if it could not be opened
+     */
+    private Path mergeDataInplace(LocatableFileInfo fileInfo,
+                                  Checksum.Header checksumHeader,
+                                  MessageDigest md)
+            throws ChannelException,
+                   InterruptedException,
+                   RsyncProtocolException
+    {
+        Path p = fileInfo.path();
+        try (FileChannel file = FileChannel.open(p,
+                                                 StandardOpenOption.CREATE,
+                                                 StandardOpenOption.READ,
+                                                 StandardOpenOption.WRITE)) {
+            preallocateIfEnabled(file, fileInfo);
+            combineDataToFile(p, file, file, checksumHeader, md);
+            return p;
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.SEVERE)) {
+                _log.severe(String.format("failed to update %s in place: %s",
+                                          p, e.getMessage()));
+            }
+        }
+        discardData(checksumHeader);
+        return null;
+    }
+
+    /**
+     * Copy the data of fileInfo from the source file handed over by the local
+     * Sender to targetFile, letting the kernel copy the data if supported
+     * (unless sparse). targetFile is created if missing and truncated to the
+     * size copied.
+     *
+     * @return targetFile, or null if the data could not be copied completely
+     */
+    private Path copyFromSource(int index, LocatableFileInfo fileInfo,
+                                Path targetFile)
+    {
+        FileChannel sourceOrNull = _fileHandoff.takeOrNull(index);
+        if (sourceOrNull == null) {
+            throw new IllegalStateException(String.format(
+                "%s (index %d) was not handed over by the sender",
+                fileInfo, index));
+        }
+        long size = fileInfo.attrs().size();
+        long position = 0;
+        boolean isSparse = _isSparse && !_isInplace;
+        try (FileChannel source = sourceOrNull;
+             FileChannel target = FileChannel.open(targetFile,
+                                                   StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE)) {
+            preallocateIfEnabled(target, fileInfo);
+            while (position < size) {
+                long n;
+                if (isSparse) {
+                    n = copySparse(source, target, position, size);
+                } else {
+                    n = source.transferTo(position, size - position, target);
+                }
+                if (n <= 0) { // truncated since it was listed
+                    break;
+                }
+                position += n;
+            }
+            if (isSparse) {
+                DataWriter.extend(target, position);
+            }
+            target.truncate(position);
+        } catch (ClosedByInterruptException e) {
+            throw new RuntimeInterruptException(e);
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.SEVERE)) {
+                _log.severe(String.format("failed to copy %s to %s: %s",
+                                          fileInfo, targetFile,
+                                          e.getMessage()));
+            }
+            return null;
+        } finally {
+            _stats._totalLiteralSize += position;
+        }
+
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine(String.format("copied %d of %d bytes of %s to %s",
+                                    position, size, fileInfo, targetFile));
+        }
+        return position == size ? targetFile : null;
+    }
+
+    /**
+     * Keep the data received so far of fileInfo, in tempFile, as its partial
+     * file after a failed transfer (--partial). It is not kept if empty, or
+     * if smaller than an existing file in the partial dir that it is based
+     * on.
+     */
+    private void keepPartial(Path tempFile, LocatableFileInfo fileInfo)
+    {
+        Path partial = _generator.partialPathOf(fileInfo);
+        try {
+            long size = Files.size(tempFile);
+            Path prevPartial = _generator.partialBasisOrNull(fileInfo);
+            if (size == 0 ||
+                (prevPartial != null && size <= Files.size(prevPartial))) {
+                return;
+            }
+            Files.createDirectories(partial.getParent());
+            Files.move(tempFile, partial,
+                       StandardCopyOption.REPLACE_EXISTING);
+            if (_log.isLoggable(Level.INFO)) {
+                _log.info(String.format("kept %d bytes of partially " +
+                                        "transferred %s as %s",
+                                        size, fileInfo, partial));
+            }
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("failed to keep partial file " +
+                                           "%s of %s: %s", tempFile,
+                                           fileInfo, e));
+            }
+        }
+    }
+
+    /**
+     * Remove the partial file of fileInfo kept in the partial dir, if any,
+     * once fileInfo has been transferred (from resultFile, which might be the
+     * partial file itself), along with the partial dir if it then is empty
+     * and relative.
+     */
+    private void deletePartialIfAny(LocatableFileInfo fileInfo,
+                                    Path resultFile)
+    {
+        Path partial = _generator.partialPathOf(fileInfo);
+        Path dir = fileInfo.path().getParent();
+        if (partial.equals(fileInfo.path())) { // no partial dir
+            return;
+        }
+        try {
+            boolean isRemoved = resultFile.equals(partial) ||
+                                Files.deleteIfExists(partial);
+            if (isRemoved &&
+                !partial.getParent().equals(dir) &&
+                partial.startsWith(dir)) {
+                Files.deleteIfExists(partial.getParent());
+            }
+        } catch (DirectoryNotEmptyException e) {
+            // other partial files are still left
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("failed to remove partial file " +
+                                           "%s: %s", partial, e));
+            }
+        }
+    }
+
+    /**
+     * Extend target to the size of fileInfo if --preallocate, so that the
+     * file system knows the final size of the file before its data is
+     * written. Any space beyond the data actually received is released when
+     * the file is finished, and a temp file is removed as a whole if the
+     * transfer fails.
+     */
+    private void preallocateIfEnabled(FileChannel target,
+                                      LocatableFileInfo fileInfo)
+        throws IOException
+    {
+        if (_isPreallocate) {
+            DataWriter.extend(target, fileInfo.attrs().size());
+        }
+    }
+
+    /**
+     * Copy the next chunk of source at position, though not beyond end, to
+     * the same position of target through the replica buffer, leaving any
+     * blocks of zeroes as holes.
+     *
+     * @return the number of bytes copied or -1 if end of file
+     */
+    private long copySparse(FileChannel source, FileChannel target,
+                            long position, long end)
+        throws IOException
+    {
+        if (_replicaBuf == null) {
+            _replicaBuf = ByteBuffer.allocateDirect(REPLICA_BUF_SIZE);
+        }
+        ByteBuffer buf = _replicaBuf;
+        buf.clear();
+        buf.limit((int) Math.min(buf.capacity(), end - position));
+        int n = source.read(buf, position);
+        if (n > 0) {
+            buf.flip();
+            DataWriter.writeSparse(target, buf, position);
+        }
+        return n;
+    }
+
+    private boolean combineDataToFile(Path path,
+                                      FileChannel replicaOrNull,
                                       FileChannel target,
                                       Checksum.Header checksumHeader,
                                       MessageDigest md)
-        throws IOException, ChannelException, RsyncProtocolException
+        throws IOException, ChannelException, InterruptedException,
+               RsyncProtocolException
     {
+        assert path != null;
         assert target != null;
         assert checksumHeader != null;
         assert md != null;
 
-        boolean isDeferrable = _isDeferWrite && replicaOrNull != null;
+        try (TokenDecoder tokens =
+                 TokenDecoder.newInstance(_in, _compressionCodec)) {
+            _dataWriter.begin(target, replicaOrNull, md, _isInplace);
+            try {
+                return combineDataToFile(tokens, path, replicaOrNull,
+                                         checksumHeader, md);
+            } finally {
+                _dataWriter.abort();
+            }
+        }
+    }
+
+    private boolean combineDataToFile(TokenDecoder tokens,
+                                      Path path,
+                                      FileChannel replicaOrNull,
+                                      Checksum.Header checksumHeader,
+                                      MessageDigest md)
+        throws IOException, ChannelException, InterruptedException,
+               RsyncProtocolException
+    {
+        // there is nothing to defer if peer is sending the whole file (e.g.
+        // --whole-file), even if it is empty
+        boolean isDeferrable = _isDeferWrite && !_isInplace &&
+                               replicaOrNull != null &&
+                               checksumHeader.chunkCount() > 0;
         long sizeLiteral = 0;
         long sizeMatch = 0;
         int expectedIndex = 0;
+        // the pending run of consecutive matched blocks [runStart, runEnd),
+        // which are copied as one range when the run ends
+        int runStart = 0;
+        int runEnd = 0;
 
         while (true) {
-            final int token = _in.getInt();
+            final int token = tokens.getToken();
             if (token == 0) {
                 break;
             }
@@ -1967,6 +2508,11 @@ public class Receiver implements RsyncTask, MessageHandler
 
                 if (isDeferrable) {
                     if (blockIndex == expectedIndex) {
+                        if (tokens.isMatchDataNeeded()) {
+                            scanReplica(replicaOrNull, blockIndex,
+                                        blockIndex + 1, checksumHeader,
+                                        null, tokens);
+                        }
                         expectedIndex++;
                         continue;
                     }
@@ -1976,14 +2522,22 @@ public class Receiver implements RsyncTask, MessageHandler
                                                 blockIndex, expectedIndex));
                     }
                     isDeferrable = false;
-                    for (int i = 0; i < expectedIndex; i++) {
-                        copyFromReplicaAndUpdateDigest(replicaOrNull, i,
-                                                       target, md,
-                                                       checksumHeader);
-                    }
+                    runEnd = expectedIndex;
+                }
+                if (blockIndex != runEnd) {
+                    putReplicaRange(runStart, runEnd, checksumHeader);
+                    runStart = blockIndex;
+                }
+                runEnd = blockIndex + 1;
+                // a compressed stream must see the data of every match
+                // before its next token is decoded, which is read before
+                // it is copied as it might be overwritten if in place
+                if (tokens.isMatchDataNeeded()) {
+                    scanReplica(replicaOrNull, runStart, runEnd,
+                                checksumHeader, null, tokens);
+                    putReplicaRange(runStart, runEnd, checksumHeader);
+                    runStart = runEnd;
                 }
-                copyFromReplicaAndUpdateDigest(replicaOrNull, blockIndex,
-                                               target, md, checksumHeader);
             } else if (token > 0) { // receive literal data from peer:
                 if (isDeferrable) {
                     if (_log.isLoggable(Level.FINE)) {
@@ -1992,15 +2546,13 @@ public class Receiver implements RsyncTask, MessageHandler
                                                 token));
                     }
                     isDeferrable = false;
-                    for (int i = 0; i < expectedIndex; i++) {
-                        copyFromReplicaAndUpdateDigest(replicaOrNull, i,
-                                                       target, md,
-                                                       checksumHeader);
-                    }
+                    runEnd = expectedIndex;
                 }
+                putReplicaRange(runStart, runEnd, checksumHeader);
+                runStart = runEnd;
                 int length = token;
                 sizeLiteral += length;
-                copyFromPeerAndUpdateDigest(target, length, md);
+                copyFromPeer(tokens, length);
             }
         }
 
@@ -2014,18 +2566,31 @@ public class Receiver implements RsyncTask, MessageHandler
                                         checksumHeader.chunkCount()));
             }
             isDeferrable = false;
-            for (int i = 0; i < expectedIndex; i++) {
-                copyFromReplicaAndUpdateDigest(replicaOrNull, i,  target, md,
-                                               checksumHeader);
+            runEnd = expectedIndex;
+        }
+        if (!isDeferrable) {
+            putReplicaRange(runStart, runEnd, checksumHeader);
+        }
+        try {
+            _dataWriter.finish();
+        } catch (IOException e) {
+            // all data is received, so it is safe to continue with the next
+            // file. The digest is made invalid by the data writer in order
+            // to have the file re-sent (or discarded)
+            String msg = String.format("failed to copy data of %s from " +
+                                       "replica: %s", path, e.getMessage());
+            if (_log.isLoggable(Level.SEVERE)) {
+                _log.severe(msg);
             }
+            _generator.sendMessage(MessageCode.ERROR_XFER, msg + '\n');
         }
         if (isDeferrable) {
+            // nothing was written, though md may still be owned by the
+            // digest stage until it has seen the end of the file
+            DataWriter.await(_dataWriter.digestOf(md));
             // expectedIndex == checksumHeader.chunkCount()
-            for (int i = 0; i < expectedIndex; i++) {
-                ByteBuffer replicaBuf = readFromReplica(replicaOrNull, i,
-                                                        checksumHeader);
-                md.update(replicaBuf);
-            }
+            scanReplica(replicaOrNull, 0, expectedIndex, checksumHeader, md,
+                        null);
         }
 
         if (_log.isLoggable(Level.FINE)) {
@@ -2044,62 +2609,87 @@ public class Receiver implements RsyncTask, MessageHandler
         return isDeferrable;
     }
 
-    private void copyFromPeerAndUpdateDigest(FileChannel target, int length,
-                                             MessageDigest md)
-        throws ChannelException
+    private void copyFromPeer(TokenDecoder tokens, int length)
+        throws ChannelException, InterruptedException
     {
         int bytesReceived = 0;
         while (bytesReceived < length) {
             int chunkSize = Math.min(INPUT_CHANNEL_BUF_SIZE,
                                      length - bytesReceived);
-            ByteBuffer literalData = _in.get(chunkSize);
+            ByteBuffer literalData = tokens.getData(chunkSize);
             bytesReceived += chunkSize;
-            literalData.mark();
-            writeToFile(target, literalData);
-            literalData.reset();
-            md.update(literalData);
+            _dataWriter.putLiteral(literalData);
         }
     }
 
-    private void copyFromReplicaAndUpdateDigest(FileChannel replica,
-                                                int blockIndex,
-                                                FileChannel target,
-                                                MessageDigest md,
-                                                Checksum.Header checksumHeader)
-        throws IOException
+    /**
+     * Copy the blocks [startIndex, endIndex) of the replica to the temp file
+     * as one range.
+     */
+    private void putReplicaRange(int startIndex, int endIndex,
+                                 Checksum.Header checksumHeader)
+        throws InterruptedException
     {
-        ByteBuffer replicaBuf = readFromReplica(replica, blockIndex,
-                                                checksumHeader);
-        writeToFile(target, replicaBuf);
-        // it's OK to rewind since the buffer is newly allocated with an initial
-        // position of zero
-        replicaBuf.rewind();
-        md.update(replicaBuf);
+        if (startIndex < endIndex) {
+            _dataWriter.putReplicaRange(
+                (long) startIndex * checksumHeader.blockLength(),
+                rangeSize(startIndex, endIndex, checksumHeader));
+        }
     }
 
-    private ByteBuffer readFromReplica(FileChannel replica,
-                                       int blockIndex,
-                                       Checksum.Header checksumHeader)
-            throws IOException
+    /**
+     * Read the blocks [startIndex, endIndex) of replica through the pooled
+     * replica buffer, updating mdOrNull with the data and letting
+     * tokensOrNull see it.
+     */
+    private void scanReplica(FileChannel replica,
+                             int startIndex,
+                             int endIndex,
+                             Checksum.Header checksumHeader,
+                             MessageDigest mdOrNull,
+                             TokenDecoder tokensOrNull)
+        throws IOException, RsyncProtocolException
     {
-        int length = blockSize(blockIndex, checksumHeader);
-        long offset = (long) blockIndex * checksumHeader.blockLength();
-        return readFromReplica(replica, offset, length);
+        long offset = (long) startIndex * checksumHeader.blockLength();
+        long length = rangeSize(startIndex, endIndex, checksumHeader);
+        if (_replicaBuf == null) {
+            _replicaBuf = ByteBuffer.allocateDirect(REPLICA_BUF_SIZE);
+        }
+        ByteBuffer buf = _replicaBuf;
+        while (length > 0) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), length));
+            while (buf.hasRemaining()) {
+                int n = replica.read(buf, offset + buf.position());
+                if (n <= 0) {
+                    throw new IllegalStateException(String.format(
+                        "truncated read from replica (%s), read %d bytes " +
+                        "but expected %d more bytes",
+                        replica, buf.position(), buf.remaining()));
+                }
+            }
+            buf.flip();
+            if (tokensOrNull != null) {
+                tokensOrNull.seeMatch(buf);
+            }
+            if (mdOrNull != null) {
+                mdOrNull.update(buf);
+            }
+            offset += buf.limit();
+            length -= buf.limit();
+        }
     }
 
-    private ByteBuffer readFromReplica(FileChannel replica, long offset,
-                                       int length)
-            throws IOException
+    // @return the total size of the blocks [startIndex, endIndex)
+    private static long rangeSize(int startIndex, int endIndex,
+                                  Checksum.Header checksumHeader)
     {
-        ByteBuffer buf = ByteBuffer.allocate(length);
-        int bytesRead = replica.read(buf, offset);
-        if (buf.hasRemaining()) {
-            throw new IllegalStateException(String.format(
-                "truncated read from replica (%s), read %d bytes but expected" +
-                " %d more bytes", replica, bytesRead, buf.remaining()));
+        if (startIndex >= endIndex) {
+            return 0;
         }
-        buf.flip();
-        return buf;
+        return (long) (endIndex - startIndex - 1) *
+               checksumHeader.blockLength() +
+               blockSize(endIndex - 1, checksumHeader);
     }
 
     private static int blockSize(int index, Checksum.Header checksumHeader)
@@ -2111,23 +2701,6 @@ public class Receiver implements RsyncTask, MessageHandler
         return checksumHeader.blockLength();
     }
 
-    private void writeToFile(FileChannel out, ByteBuffer src)
-    {
-        try {
-            // NOTE: might notably fail due to running out of disk space
-            out.write(src);
-            if (src.hasRemaining()) {
-                throw new IllegalStateException(String.format(
-                    "truncated write to %s, returned %d bytes, " +
-                    "expected %d more bytes",
-                    out, src.position(), src.remaining()));
-            }
-        } catch (IOException e) {
-            // native exists immediately if this happens, and so do we:
-            throw new RuntimeException(e);
-        }
-    }
-
     // NOTE: code duplication with Sender
     public void readAllMessagesUntilEOF() throws ChannelException,
                                                  RsyncProtocolException
@@ -0,0 +1,279 @@
+/*
+ * Blocks of a region of a file matching the checksums of peer's replica
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import com.github.perlundq.yajsync.StrongChecksum;
+import com.github.perlundq.yajsync.internal.io.FileView;
+import com.github.perlundq.yajsync.internal.io.FileViewReadError;
+import com.github.perlundq.yajsync.internal.util.Rolling;
+
+/**
+ * The blocks found by scanning the positions [start, end) of a file for
+ * blocks matching peer's checksums, using the same search as Sender does
+ * sequentially: the window is moved past every match and otherwise one byte
+ * forward. The positions visited by the scan is its trajectory.
+ *
+ * Which chunk a match refers to is not resolved here, as it depends on the
+ * preceding match (the preferred chunk index) - the rolling checksum and the
+ * strong checksum of the match are recorded instead so that the chunk index
+ * may be resolved cheaply once the regions are merged in file order.
+ */
+final class RegionMatches
+{
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int ROLLING_RUN_LENGTH = 4096;
+
+    private final long _start;
+    private final long _end;
+    private final int _digestLength;
+    private long _exitPosition;
+    private int _size;
+    private long[] _offsets = new long[INITIAL_CAPACITY];
+    private int[] _lengths = new int[INITIAL_CAPACITY];
+    private int[] _rollings = new int[INITIAL_CAPACITY];
+    private byte[] _digests;
+    private int _cursor;
+
+    private RegionMatches(long start, long end, int digestLength)
+    {
+        assert start <= end;
+        _start = start;
+        _end = end;
+        _digestLength = digestLength;
+        _digests = new byte[INITIAL_CAPACITY * digestLength];
+        _exitPosition = start;
+    }
+
+    /**
+     * @return the matches of a region that could not be scanned, i.e. a
+     *         region where every position is visited and nothing matches
+     */
+    static RegionMatches empty(long start, long end)
+    {
+        RegionMatches region = new RegionMatches(start, end, 0);
+        region._exitPosition = end;
+        return region;
+    }
+
+    /**
+     * Scan positions [start, end) of path for matches of checksum. The
+     * scan may read up to one block past end, to verify a match starting
+     * before end. If syncWith is non null the scan stops as soon as it
+     * reaches a position on the trajectory of syncWith, from where on the
+     * scans are identical.
+     */
+    static RegionMatches scan(Path path, long fileSize, Checksum checksum,
+                              StrongChecksum strongChecksum,
+                              byte[] checksumSeed, long start, long end,
+                              RegionMatches syncWith)
+        throws FileViewReadError
+    {
+        assert start >= 0 && start <= end && end <= fileSize;
+        Checksum.Header header = checksum.header();
+        int blockLength = header.blockLength();
+        assert blockLength > 0;
+        RegionMatches region = new RegionMatches(start, end,
+                                                 strongChecksum.digestLength());
+        if (start == end) {
+            return region;
+        }
+
+        long viewEnd = Math.min(fileSize, end - 1 + blockLength);
+        MessageDigest chunkDigest = strongChecksum.newInstance();
+        byte[] localChunkMd5sum = new byte[strongChecksum.digestLength()];
+        Checksum.Probe probe = checksum.newProbe();
+        int[] rollings = new int[ROLLING_RUN_LENGTH];
+        int runIndex = 0;
+        int runLength = 0;
+        long position = start;
+
+        try (FileView fv = FileView.open(path, start, viewEnd - start,
+                                         blockLength, blockLength * 10)) {
+            int rolling = Rolling.compute(fv.slice(fv.startOffset(),
+                                                   fv.windowLength()));
+            while (position < end &&
+                   fv.windowLength() >= header.smallestChunkSize()) {
+                if (syncWith != null && syncWith.isOnTrajectory(position)) {
+                    break;
+                }
+                // skip positions without candidates (see
+                // Sender.sendMatchesAndData), unless synchronising as that
+                // has to be checked at every position
+                if (syncWith == null && fv.windowLength() == blockLength) {
+                    if (runIndex >= runLength - 1) {
+                        runIndex = 0;
+                        runLength = (int) Math.min(
+                            Math.min(rollings.length, end - position),
+                            fv.numBytesPrefetched() - blockLength + 1);
+                        Rolling.rollRun(rolling,
+                                        fv.slice(fv.startOffset(),
+                                                 runLength - 1 + blockLength),
+                                        blockLength, rollings, runLength);
+                    }
+                    int numSkipped = checksum.indexOfCandidate(
+                        rollings, runIndex, runLength - 1) - runIndex;
+                    if (numSkipped > 0) {
+                        for (int n = numSkipped; n > 0; n -= blockLength) {
+                            fv.slide(Math.min(n, blockLength));
+                        }
+                        position += numSkipped;
+                        runIndex += numSkipped;
+                        rolling = rollings[runIndex];
+                    }
+                }
+                int length = fv.windowLength();
+                boolean isMatch = false;
+                boolean isLocalChunkMd5sumValid = false;
+                probe.reset(rolling, length, 0);
+                for (int chunkIndex = probe.next(); chunkIndex >= 0;
+                     chunkIndex = probe.next()) {
+                    if (!isLocalChunkMd5sumValid) {
+                        chunkDigest.update(fv.slice(fv.startOffset(), length));
+                        chunkDigest.update(checksumSeed);
+                        strongChecksum.digestInto(chunkDigest,
+                                                  localChunkMd5sum);
+                        isLocalChunkMd5sumValid = true;
+                    }
+                    if (checksum.isDigestEqual(chunkIndex, localChunkMd5sum,
+                                               0)) {
+                        isMatch = true;
+                        break;
+                    }
+                }
+                if (isMatch) {
+                    region.add(position, length, rolling, localChunkMd5sum);
+                    runLength = 0;
+                    position += length;
+                    fv.slide(length);
+                    if (fv.windowLength() > 0) {
+                        rolling = Rolling.compute(
+                            fv.slice(fv.startOffset(), fv.windowLength()));
+                    }
+                } else {
+                    rolling = Rolling.subtract(rolling, length,
+                                               fv.valueAt(fv.startOffset()));
+                    position++;
+                    runIndex++;
+                    fv.slide(1);
+                    if (fv.windowLength() == blockLength) {
+                        rolling = Rolling.add(rolling,
+                                              fv.valueAt(fv.endOffset()));
+                    }
+                }
+            }
+        }
+        region._exitPosition = position;
+        return region;
+    }
+
+    private void add(long offset, int length, int rolling, byte[] digest)
+    {
+        if (_size == _offsets.length) {
+            int capacity = _size * 2;
+            _offsets = Arrays.copyOf(_offsets, capacity);
+            _lengths = Arrays.copyOf(_lengths, capacity);
+            _rollings = Arrays.copyOf(_rollings, capacity);
+            _digests = Arrays.copyOf(_digests, capacity * _digestLength);
+        }
+        _offsets[_size] = offset;
+        _lengths[_size] = length;
+        _rollings[_size] = rolling;
+        System.arraycopy(digest, 0, _digests, _size * _digestLength,
+                         _digestLength);
+        _size++;
+    }
+
+    long start()
+    {
+        return _start;
+    }
+
+    long end()
+    {
+        return _end;
+    }
+
+    /**
+     * @return the first position at or after end() which the scan would
+     *         have visited, or a position before end() if the scan stopped
+     *         early (at a synchronisation point or at the end of the file)
+     */
+    long exitPosition()
+    {
+        return _exitPosition;
+    }
+
+    /**
+     * @return true if the scan of this region visits position, i.e. if a
+     *         scan reaching position continues identically to this one.
+     *         position must not decrease between invocations.
+     */
+    boolean isOnTrajectory(long position)
+    {
+        assert position >= _start;
+        while (_cursor < _size &&
+               _offsets[_cursor] + _lengths[_cursor] <= position) {
+            _cursor++;
+        }
+        return _cursor == _size || _offsets[_cursor] >= position;
+    }
+
+    /**
+     * @return the index of the first match at or after the position most
+     *         recently given to isOnTrajectory
+     */
+    int cursor()
+    {
+        return _cursor;
+    }
+
+    int size()
+    {
+        return _size;
+    }
+
+    long offset(int index)
+    {
+        return _offsets[index];
+    }
+
+    int length(int index)
+    {
+        return _lengths[index];
+    }
+
+    int rolling(int index)
+    {
+        return _rollings[index];
+    }
+
+    byte[] digests()
+    {
+        return _digests;
+    }
+
+    int digestOffset(int index)
+    {
+        return index * _digestLength;
+    }
+}
@@ -27,4 +27,10 @@ final class RsyncCompatibilities
     public static final byte CF_SYMLINK_TIMES = 1 << 1;
     public static final byte CF_SYMLINK_ICONV = 1 << 2;
     public static final byte CF_SAFE_FLIST    = 1 << 3;
+    // yajsync extension: negotiation of the strong checksum algorithm and,
+    // if compressing, the compression codec, requested with 'X' in the
+    // client's compatibility string. Native rsync only sets this bit (as
+    // CF_VARINT_FLIST_FLAGS) if the client requests it with 'v', which we
+    // never do, and never sends 'X' itself
+    public static final byte CF_NEGOTIATED_ALGORITHMS = (byte) (1 << 7);
 }
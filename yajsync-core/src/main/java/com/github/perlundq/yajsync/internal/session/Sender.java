@@ -23,6 +23,8 @@ package com.github.perlundq.yajsync.internal.session;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
@@ -30,21 +32,39 @@ import java.nio.file.AccessDeniedException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.github.perlundq.yajsync.CompressionCodec;
 import com.github.perlundq.yajsync.FileSelection;
 import com.github.perlundq.yajsync.RsyncProtocolException;
 import com.github.perlundq.yajsync.Statistics;
+import com.github.perlundq.yajsync.StrongChecksum;
 import com.github.perlundq.yajsync.attr.DeviceInfo;
 import com.github.perlundq.yajsync.attr.FileInfo;
 import com.github.perlundq.yajsync.attr.Group;
@@ -55,11 +75,13 @@ import com.github.perlundq.yajsync.attr.User;
 import com.github.perlundq.yajsync.internal.channels.AutoFlushableRsyncDuplexChannel;
 import com.github.perlundq.yajsync.internal.channels.ChannelEOFException;
 import com.github.perlundq.yajsync.internal.channels.ChannelException;
+import com.github.perlundq.yajsync.internal.channels.MemoryOutputChannel;
 import com.github.perlundq.yajsync.internal.channels.Message;
 import com.github.perlundq.yajsync.internal.channels.MessageCode;
 import com.github.perlundq.yajsync.internal.channels.MessageHandler;
 import com.github.perlundq.yajsync.internal.channels.RsyncInChannel;
 import com.github.perlundq.yajsync.internal.channels.RsyncOutChannel;
+import com.github.perlundq.yajsync.internal.channels.Writable;
 import com.github.perlundq.yajsync.internal.io.FileView;
 import com.github.perlundq.yajsync.internal.io.FileViewNotFound;
 import com.github.perlundq.yajsync.internal.io.FileViewOpenFailed;
@@ -70,7 +92,6 @@ import com.github.perlundq.yajsync.internal.text.TextDecoder;
 import com.github.perlundq.yajsync.internal.text.TextEncoder;
 import com.github.perlundq.yajsync.internal.util.Environment;
 import com.github.perlundq.yajsync.internal.util.FileOps;
-import com.github.perlundq.yajsync.internal.util.MD5;
 import com.github.perlundq.yajsync.internal.util.PathOps;
 import com.github.perlundq.yajsync.internal.util.Rolling;
 import com.github.perlundq.yajsync.internal.util.RuntimeInterruptException;
@@ -78,6 +99,19 @@ import com.github.perlundq.yajsync.internal.util.StatusResult;
 
 public final class Sender implements RsyncTask, MessageHandler
 {
+    public static final long DEFAULT_PARALLEL_MATCH_THRESHOLD =
+        256 * 1024 * 1024;
+    public static final long DEFAULT_DELTA_FALLBACK_THRESHOLD =
+        16 * 1024 * 1024;
+    public static final int DEFAULT_COMPRESSION_LEVEL = -1;
+    // the default of native rsync
+    public static final List<String> DEFAULT_SKIP_COMPRESS =
+        Collections.unmodifiableList(Arrays.asList(
+            "7z", "ace", "avi", "bz2", "deb", "gpg", "gz", "iso", "jpeg",
+            "jpg", "lz", "lzma", "lzo", "mov", "mp3", "mp4", "ogg", "png",
+            "rar", "rpm", "rzip", "tbz", "tgz", "tlz", "txz", "xz", "z",
+            "zip"));
+
     public static class Builder
     {
         private final ReadableByteChannel _in;
@@ -86,6 +120,7 @@ public final class Sender implements RsyncTask, MessageHandler
         private final byte[] _checksumSeed;
         private boolean _isExitAfterEOF;
         private boolean _isExitEarlyIfEmptyList;
+        private boolean _isInplace;
         private boolean _isInterruptible = true;
         private boolean _isPreserveDevices;
         private boolean _isPreserveLinks;
@@ -95,9 +130,22 @@ public final class Sender implements RsyncTask, MessageHandler
         private boolean _isNumericIds;
         private boolean _isSafeFileList = true;
         private boolean _isSendStatistics;
+        private boolean _isWholeFile;
+        private boolean _isAlwaysChecksum;
         private Charset _charset = Charset.forName(Text.UTF8_NAME);
         private FileSelection _fileSelection = FileSelection.EXACT;
         private FilterMode _filterMode = FilterMode.NONE;
+        private int _deltaParallelism = 1;
+        private int _checksumParallelism = 1;
+        private DigestCache _digestCache;
+        private long _deltaBufferLimit = DEFAULT_DELTA_BUFFER_LIMIT;
+        private long _parallelMatchThreshold = DEFAULT_PARALLEL_MATCH_THRESHOLD;
+        private long _deltaFallbackThreshold = DEFAULT_DELTA_FALLBACK_THRESHOLD;
+        private StrongChecksum _strongChecksum = StrongChecksum.MD5;
+        private CompressionCodec _compressionCodec;
+        private FileHandoff _fileHandoff;
+        private int _compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+        private Collection<String> _skipCompress = DEFAULT_SKIP_COMPRESS;
         public User _defaultUser = User.NOBODY;
         public Group _defaultGroup = Group.NOBODY;
         public int _defaultFilePermissions = Environment.DEFAULT_FILE_PERMS;
@@ -218,6 +266,171 @@ public final class Sender implements RsyncTask, MessageHandler
             return this;
         }
 
+        /**
+         * @param isWholeFile true if peer is expected to request all files
+         *        without any block checksums (--whole-file), which are then
+         *        sent one at a time directly from the file to peer
+         */
+        public Builder isWholeFile(boolean isWholeFile)
+        {
+            _isWholeFile = isWholeFile;
+            return this;
+        }
+
+        /**
+         * @param isAlwaysChecksum true if the digest of the contents of
+         *        every regular file is sent in the file list (--checksum),
+         *        for peer to compare with its own files instead of their
+         *        size and modification time
+         */
+        public Builder isAlwaysChecksum(boolean isAlwaysChecksum)
+        {
+            _isAlwaysChecksum = isAlwaysChecksum;
+            return this;
+        }
+
+        /**
+         * @param isInplace true if peer updates its files in place
+         *        (--inplace), in which case only blocks of the replica that
+         *        are not yet overwritten by peer may be matched
+         */
+        public Builder isInplace(boolean isInplace)
+        {
+            _isInplace = isInplace;
+            return this;
+        }
+
+        /**
+         * @param fileHandoff if non null the Receiver is within this process
+         *        (a local transfer) and files without any block checksums
+         *        are handed over to it for copying instead of being sent
+         */
+        public Builder fileHandoff(FileHandoff fileHandoff)
+        {
+            _fileHandoff = fileHandoff;
+            return this;
+        }
+
+        /**
+         * @param deltaParallelism the number of files whose delta may be
+         *        generated concurrently, 1 (default) generates all deltas
+         *        sequentially while sending them
+         */
+        public Builder deltaParallelism(int deltaParallelism)
+        {
+            assert deltaParallelism > 0;
+            _deltaParallelism = deltaParallelism;
+            return this;
+        }
+
+        /**
+         * @param checksumParallelism the number of files whose digest
+         *        (--checksum) may be computed concurrently, 1 (default)
+         *        computes them sequentially while sending the file list
+         */
+        public Builder checksumParallelism(int checksumParallelism)
+        {
+            assert checksumParallelism > 0;
+            _checksumParallelism = checksumParallelism;
+            return this;
+        }
+
+        /**
+         * @param digestCache the cache of the digests of files computed by
+         *        previous transfers (--checksum), or null (default) for no
+         *        cache
+         */
+        public Builder digestCache(DigestCache digestCache)
+        {
+            _digestCache = digestCache;
+            return this;
+        }
+
+        /**
+         * @param deltaBufferLimit the maximum number of bytes of concurrently
+         *        generated deltas kept in memory while waiting to be sent,
+         *        files too large to fit are sent sequentially
+         */
+        public Builder deltaBufferLimit(long deltaBufferLimit)
+        {
+            assert deltaBufferLimit >= 0;
+            _deltaBufferLimit = deltaBufferLimit;
+            return this;
+        }
+
+        /**
+         * @param parallelMatchThreshold the minimum size of files whose
+         *        blocks are matched in parallel - by splitting the file into
+         *        regions scanned concurrently - when deltaParallelism is
+         *        greater than 1
+         */
+        public Builder parallelMatchThreshold(long parallelMatchThreshold)
+        {
+            assert parallelMatchThreshold >= 0;
+            _parallelMatchThreshold = parallelMatchThreshold;
+            return this;
+        }
+
+        /**
+         * @param deltaFallbackThreshold the number of bytes of a file
+         *        scanned for matching blocks after which the rest of the
+         *        file is sent as literal data without any matching if
+         *        almost nothing has matched so far, or 0 to always match
+         *        the whole file
+         */
+        public Builder deltaFallbackThreshold(long deltaFallbackThreshold)
+        {
+            assert deltaFallbackThreshold >= 0;
+            _deltaFallbackThreshold = deltaFallbackThreshold;
+            return this;
+        }
+
+        /**
+         * @param strongChecksum the strong checksum algorithm agreed upon
+         *        with peer
+         */
+        public Builder strongChecksum(StrongChecksum strongChecksum)
+        {
+            assert strongChecksum != null;
+            _strongChecksum = strongChecksum;
+            return this;
+        }
+
+        /**
+         * @param compressionCodec the codec agreed upon with peer for
+         *        compressing literal data, or null (the default) if not
+         *        compressing
+         */
+        public Builder compressionCodec(CompressionCodec compressionCodec)
+        {
+            _compressionCodec = compressionCodec;
+            return this;
+        }
+
+        /**
+         * @param compressionLevel 1 - 9, or -1 for the default level of the
+         *        codec (which is the default)
+         */
+        public Builder compressionLevel(int compressionLevel)
+        {
+            assert compressionLevel == DEFAULT_COMPRESSION_LEVEL ||
+                   compressionLevel >= 1 && compressionLevel <= 9;
+            _compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * @param skipCompress the (case insensitive) suffixes of the names of
+         *        files which are already compressed and are sent without
+         *        compressing them again (default DEFAULT_SKIP_COMPRESS)
+         */
+        public Builder skipCompress(Collection<String> skipCompress)
+        {
+            assert skipCompress != null;
+            _skipCompress = skipCompress;
+            return this;
+        }
+
         public Builder defaultUser(User defaultUser)
         {
             _defaultUser = defaultUser;
@@ -248,12 +461,69 @@ public final class Sender implements RsyncTask, MessageHandler
         }
     }
 
+    /**
+     * A request from peer to transfer a file, together with the generated
+     * reply. A buffered delta is generated concurrently by a worker thread
+     * while the Sender continues receiving requests, and is sent later in
+     * the same order as it was requested.
+     */
+    private static final class FileDelta
+    {
+        private final int _index;
+        private final char _iFlags;
+        private final LocatableFileInfo _fileInfo;
+        private final Filelist.Segment _segment;
+        private final Checksum _checksum;
+        private final long _fileSize;
+        // upper bound of the number of bytes of tokens of this delta
+        private final long _maxSize;
+        private MemoryOutputChannel _buffer;
+        private Future<Void> _future;
+        private volatile boolean _isGenerated;
+        private FileViewOpenFailed _openError;
+        private byte[] _fileMD5sum;
+        private long _literalSize;
+        private long _matchedSize;
+        // the file position from which all data was sent as literal data
+        // without matching, or -1
+        private long _fallbackPosition = -1;
+
+        private FileDelta(int index, char iFlags, LocatableFileInfo fileInfo,
+                          Filelist.Segment segment, Checksum checksum,
+                          CompressionCodec codecOrNull)
+        {
+            _index = index;
+            _iFlags = iFlags;
+            _fileInfo = fileInfo;
+            _segment = segment;
+            _checksum = checksum;
+            _fileSize = fileInfo.attrs().size();
+            _maxSize = TokenEncoder.maxSize(_fileSize,
+                                            checksum.header().blockLength(),
+                                            codecOrNull);
+        }
+
+        private boolean isBuffered()
+        {
+            return _buffer != null;
+        }
+    }
+
     private static final Logger _log =
         Logger.getLogger(Sender.class.getName());
     private static final int INPUT_CHANNEL_BUF_SIZE = 8 * 1024;
     private static final int OUTPUT_CHANNEL_BUF_SIZE = 8 * 1024;
     private static final int PARTIAL_FILE_LIST_SIZE = 1024;
-    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final long DEFAULT_DELTA_BUFFER_LIMIT = 64 * 1024 * 1024;
+    private static final int MAX_DELTA_INITIAL_BUF_SIZE = 64 * 1024;
+    // the size of the literal data tokens of a file sent directly to peer
+    private static final int DIRECT_CHUNK_SIZE = 256 * 1024;
+    private static final long MIN_MATCH_REGION_SIZE = 1024 * 1024;
+    private static final int ROLLING_RUN_LENGTH = 4096;
+    private static final long MAX_MATCH_REGION_SIZE = 64 * 1024 * 1024;
+    // matching is considered unproductive if less than 1 / 32 (about 3%)
+    // of the data scanned has matched
+    private static final int MIN_PRODUCTIVE_MATCH_RATIO = 32;
 
     private final AutoFlushableRsyncDuplexChannel _duplexChannel;
     private final BitSet _transferred = new BitSet();
@@ -268,10 +538,27 @@ public final class Sender implements RsyncTask, MessageHandler
     private final boolean _isNumericIds;
     private final boolean _isSafeFileList;
     private final boolean _isSendStatistics;
+    private final boolean _isWholeFile;
+    private final boolean _isInplace;
+    private final boolean _isAlwaysChecksum;
     private final byte[] _checksumSeed;
     private final FileInfoCache _fileInfoCache = new FileInfoCache();
     private final FileSelection _fileSelection;
     private final FilterMode _filterMode;
+    private final int _deltaParallelism;
+    private final int _checksumParallelism;
+    private final DigestCache _digestCacheOrNull;
+    private final long _deltaBufferLimit;
+    private final long _parallelMatchThreshold;
+    private final long _deltaFallbackThreshold;
+    private final StrongChecksum _strongChecksum;
+    private final CompressionCodec _compressionCodec;
+    private final FileHandoff _fileHandoff;
+    private final int _compressionLevel;
+    private final Set<String> _skipCompress = new HashSet<>();
+    // deltas being generated concurrently, in the order they must be sent
+    private final Deque<FileDelta> _pendingDeltas = new ArrayDeque<>();
+    private final Object _drainLock = new Object();
     private final int _defaultFilePermissions;
     private final int _defaultDirectoryPermissions;
     private final Iterable<Path> _sourceFiles;
@@ -286,6 +573,12 @@ public final class Sender implements RsyncTask, MessageHandler
     private FileAttributeManager _fileAttributeManager;
     private int _curSegmentIndex;
     private int _ioError;
+    private long _numBytesPendingDeltas;
+    private ExecutorService _deltaExecutor;
+    // sends the pending deltas while the Sender is waiting for a request
+    private ExecutorService _drainExecutor;
+    private volatile boolean _isDrainStopRequested;
+    private FileDigester _fileDigester;
 
     private Sender(Builder builder)
     {
@@ -306,9 +599,25 @@ public final class Sender implements RsyncTask, MessageHandler
         _isNumericIds = builder._isNumericIds;
         _isSafeFileList = builder._isSafeFileList;
         _isSendStatistics = builder._isSendStatistics;
+        _isWholeFile = builder._isWholeFile;
+        _isInplace = builder._isInplace;
+        _isAlwaysChecksum = builder._isAlwaysChecksum;
         _checksumSeed = builder._checksumSeed;
         _fileSelection = builder._fileSelection;
         _filterMode = builder._filterMode;
+        _deltaParallelism = builder._deltaParallelism;
+        _checksumParallelism = builder._checksumParallelism;
+        _digestCacheOrNull = builder._digestCache;
+        _deltaBufferLimit = builder._deltaBufferLimit;
+        _parallelMatchThreshold = builder._parallelMatchThreshold;
+        _deltaFallbackThreshold = builder._deltaFallbackThreshold;
+        _strongChecksum = builder._strongChecksum;
+        _compressionCodec = builder._compressionCodec;
+        _fileHandoff = builder._fileHandoff;
+        _compressionLevel = builder._compressionLevel;
+        for (String suffix : builder._skipCompress) {
+            _skipCompress.add(suffix.toLowerCase(Locale.ROOT));
+        }
         _sourceFiles = builder._sourceFiles;
         _characterDecoder = TextDecoder.newStrict(builder._charset);
         _characterEncoder = TextEncoder.newStrict(builder._charset);
@@ -334,9 +643,22 @@ public final class Sender implements RsyncTask, MessageHandler
                 "isPreserveGroup=%b, " +
                 "isSafeFileList=%b, " +
                 "isSendStatistics=%b, " +
+                "isWholeFile=%b, " +
+                "isInplace=%b, " +
+                "isAlwaysChecksum=%b, " +
+                "isFileHandoff=%b, " +
                 "checksumSeed=%s, " +
                 "fileSelection=%s, " +
                 "filterMode=%s, " +
+                "deltaParallelism=%d, " +
+                "checksumParallelism=%d, " +
+                "digestCache=%s, " +
+                "deltaBufferLimit=%d, " +
+                "parallelMatchThreshold=%d, " +
+                "deltaFallbackThreshold=%d, " +
+                "strongChecksum=%s, " +
+                "compressionCodec=%s, " +
+                "compressionLevel=%d, " +
                 "sourceFiles=%s" +
                 ")",
                 getClass().getSimpleName(),
@@ -351,9 +673,22 @@ public final class Sender implements RsyncTask, MessageHandler
                 _isPreserveGroup,
                 _isSafeFileList,
                 _isSendStatistics,
+                _isWholeFile,
+                _isInplace,
+                _isAlwaysChecksum,
+                _fileHandoff != null,
                 Text.bytesToString(_checksumSeed),
                 _fileSelection,
                 _filterMode,
+                _deltaParallelism,
+                _checksumParallelism,
+                _digestCacheOrNull,
+                _deltaBufferLimit,
+                _parallelMatchThreshold,
+                _deltaFallbackThreshold,
+                _strongChecksum,
+                _compressionCodec,
+                _compressionLevel,
                 _sourceFiles);
     }
 
@@ -374,11 +709,17 @@ public final class Sender implements RsyncTask, MessageHandler
                                  RsyncProtocolException
     {
         Filelist fileList =
-                new Filelist(_fileSelection == FileSelection.RECURSE, false);
+                new Filelist(_fileSelection == FileSelection.RECURSE, false,
+                             _characterEncoder.charset());
         try {
             if (_log.isLoggable(Level.FINE)) {
                 _log.fine(this.toString());
             }
+            if (_isAlwaysChecksum) {
+                _fileDigester = new FileDigester(_strongChecksum,
+                                                 _digestCacheOrNull,
+                                                 _checksumParallelism);
+            }
 
             if (_filterMode == FilterMode.RECEIVE) {
                 String rules = receiveFilterRules();
@@ -400,9 +741,7 @@ public final class Sender implements RsyncTask, MessageHandler
             builder.addAll(expandResult.value());
             Filelist.Segment initialSegment = fileList.newSegment(builder);
             long numBytesWritten = _duplexChannel.numBytesWritten();
-            for (FileInfo f : initialSegment.files()) {
-                sendFileMetaData((LocatableFileInfo) f);
-            }
+            sendFilesMetaData(initialSegment.files());
             long t2 = System.currentTimeMillis();
             if (_log.isLoggable(Level.FINE)) {
                 _log.fine("expanded segment: " + initialSegment.toString());
@@ -448,6 +787,13 @@ public final class Sender implements RsyncTask, MessageHandler
                 return isInitialListOK && _ioError == 0;
             }
 
+            // there is nothing to gain from generating deltas of whole files
+            // concurrently unless they are compressed
+            if (_deltaParallelism > 1 &&
+                (!_isWholeFile || _compressionCodec != null)) {
+                _deltaExecutor = newDeltaExecutor(_deltaParallelism);
+                _drainExecutor = newDeltaExecutor(1);
+            }
             int ioError = sendFiles(fileList);
             if (ioError != 0) {
                 sendIntMessage(MessageCode.IO_ERROR, ioError);
@@ -476,6 +822,13 @@ public final class Sender implements RsyncTask, MessageHandler
         } catch (RuntimeInterruptException e) {
             throw new InterruptedException();
         } finally {
+            if (_deltaExecutor != null) {
+                _deltaExecutor.shutdownNow();
+                _drainExecutor.shutdownNow();
+            }
+            if (_fileDigester != null) {
+                _fileDigester.close();
+            }
             _stats._totalFileSize = fileList.totalFileSize();
             _stats._totalBytesRead = _duplexChannel.numBytesRead();
             _stats._totalBytesWritten = _duplexChannel.numBytesWritten();
@@ -636,6 +989,7 @@ public final class Sender implements RsyncTask, MessageHandler
     }
 
     private int sendFiles(Filelist fileList) throws ChannelException,
+                                                    InterruptedException,
                                                     RsyncProtocolException
     {
         boolean sentEOF = false;
@@ -651,6 +1005,7 @@ public final class Sender implements RsyncTask, MessageHandler
                 (fileList.expandedSegments() == 1 ||
                  numFilesInTransit < PARTIAL_FILE_LIST_SIZE / 2))
             {
+                ioError |= sendPendingDeltas();
                 if (_log.isLoggable(Level.FINE)) {
                     _log.fine(String.format(
                             "expanding file list. In transit: %d files, " +
@@ -674,6 +1029,7 @@ public final class Sender implements RsyncTask, MessageHandler
             if (_fileSelection == FileSelection.RECURSE &&
                 !fileList.isExpandable() && !sentEOF)
             {
+                ioError |= sendPendingDeltas();
                 if (_log.isLoggable(Level.FINE)) {
                     _log.fine("sending file list EOF");
                 }
@@ -688,12 +1044,31 @@ public final class Sender implements RsyncTask, MessageHandler
                     _duplexChannel.numBytesAvailable()));
             }
 
-            final int index = _duplexChannel.decodeIndex();
+            // we would block reading the next request, while peer might be
+            // waiting for the replies of the requests received so far. They
+            // are sent by another thread as soon as they are generated until
+            // the next request has been read
+            Future<Integer> drain = null;
+            if (!_pendingDeltas.isEmpty() &&
+                _duplexChannel.numBytesAvailable() == 0) {
+                drain = startDrain();
+            }
+            final int index;
+            try {
+                index = drain == null
+                        ? _duplexChannel.decodeIndex()
+                        : _duplexChannel.decodeIndexWithoutFlush();
+            } finally {
+                if (drain != null) {
+                    ioError |= stopDrain(drain);
+                }
+            }
             if (_log.isLoggable(Level.FINE)) {
                 _log.fine("Received index " + index);
             }
 
             if (index == Filelist.DONE) {
+                ioError |= sendPendingDeltas();
                 if (_fileSelection == FileSelection.RECURSE &&
                     !fileList.isEmpty())
                 {
@@ -754,6 +1129,7 @@ public final class Sender implements RsyncTask, MessageHandler
                         }
                         numFilesInTransit--;
                     }
+                    ioError |= sendPendingDeltas();
                     sendIndexAndIflags(index, iFlags);
                 } else if (phase == TransferPhase.TRANSFER) {
                     LocatableFileInfo fileInfo = null;
@@ -796,73 +1172,21 @@ public final class Sender implements RsyncTask, MessageHandler
                         _log.fine("received peer checksum " + header);
                     }
                     Checksum checksum = receiveChecksumsFor(header);
-
-                    boolean isNew = header.blockLength() == 0;
-                    int blockSize = isNew ? FileView.DEFAULT_BLOCK_SIZE
-                                          : header.blockLength();
-                    int blockFactor = isNew ? 1 : 10;
-                    long fileSize = fileInfo.attrs().size();
-
-                    byte[] fileMD5sum = null;
-                    try (FileView fv = new FileView(fileInfo.path(),
-                                                    fileInfo.attrs().size(),
-                                                    blockSize,
-                                                    blockSize * blockFactor)) {
-
-                        sendIndexAndIflags(index, iFlags);
-                        sendChecksumHeader(header);
-
-                        if (isNew) {
-                            fileMD5sum = skipMatchSendData(fv, fileSize);
-                        } else {
-                            fileMD5sum = sendMatchesAndData(fv, checksum,
-                                                            fileSize);
-                        }
-                    } catch (FileViewOpenFailed e) { // on FileView.open()
-                        if (_log.isLoggable(Level.WARNING)) {
-                            _log.warning(String.format(
-                                "Error: cannot open %s: %s",
-                                fileInfo, e.getMessage()));
-                        }
-                        if (e instanceof FileViewNotFound) {
-                            ioError |= IoError.VANISHED;
-                        } else {
-                            ioError |= IoError.GENERAL;
-                        }
-
-                        FileInfo removed = segment.remove(index);
-                        if (_log.isLoggable(Level.FINE)) {
-                            _log.fine(String.format("Purging %s index=%d",
-                                                    removed, index));
-                        }
-                        sendIntMessage(MessageCode.NO_SEND, index);
-                        continue;
-                    } catch (FileViewReadError e) {  // on FileView.close()
-                        if (_log.isLoggable(Level.WARNING)) {
-                            _log.warning(String.format(
-                                "Error: general I/O error on %s (ignored and" +
-                                " skipped): %s", fileInfo, e.getMessage()));
-                        }
-                        // fileMD5sum is only null for FileViewOpenFailed - not
-                        // FileViewReadError which is caused by FileView.close()
-                        createIncorrectChecksum(fileMD5sum);
-                    }
-
-                    if (_log.isLoggable(Level.FINE)) {
-                        _log.finer(String.format(
-                            "sending checksum for %s: %s",
-                            fileInfo.path(), Text.bytesToString(fileMD5sum)));
-                    }
-                    _duplexChannel.put(fileMD5sum, 0, fileMD5sum.length);
-                    setIsTransferred(index);
-
-                    if (_log.isLoggable(Level.FINE)) {
-                        _log.fine(String.format("sent %s (%d bytes)",
-                                                fileInfo.path(), fileSize));
+                    FileDelta delta = new FileDelta(index, iFlags, fileInfo,
+                                                    segment, checksum,
+                                                    _compressionCodec);
+                    if (_fileHandoff != null && header.blockLength() == 0) {
+                        ioError |= sendPendingDeltas();
+                        ioError |= handOffFile(delta);
+                    } else if (_deltaExecutor != null &&
+                        delta._maxSize <= _deltaBufferLimit &&
+                        !isParallelMatch(delta)) {
+                        ioError |= submitDelta(delta);
+                    } else {
+                        ioError |= sendPendingDeltas();
+                        generateDelta(delta);
+                        ioError |= sendDelta(delta);
                     }
-
-                    _stats._numTransferredFiles++;
-                    _stats._totalTransferredSize += fileInfo.attrs().size();
                 } else {
                     throw new RsyncProtocolException(String.format(
                         "Error: received index in wrong phase (%s)",
@@ -887,6 +1211,345 @@ public final class Sender implements RsyncTask, MessageHandler
         checksum[0]++;
     }
 
+    private static ExecutorService newDeltaExecutor(int numThreads)
+    {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private final ThreadFactory _defaultFactory =
+                Executors.defaultThreadFactory();
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = _defaultFactory.newThread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start generating delta concurrently, after first sending the oldest
+     * pending deltas until there is room for it within the delta buffer
+     * limit.
+     */
+    private int submitDelta(final FileDelta delta)
+        throws ChannelException, InterruptedException
+    {
+        int ioError = 0;
+        while (!_pendingDeltas.isEmpty() &&
+               (_numBytesPendingDeltas + delta._maxSize > _deltaBufferLimit ||
+                _pendingDeltas.size() >= 2 * _deltaParallelism)) {
+            ioError |= sendOldestPendingDelta();
+        }
+
+        delta._buffer = new MemoryOutputChannel(
+            (int) Math.max(1, Math.min(delta._maxSize,
+                                       MAX_DELTA_INITIAL_BUF_SIZE)));
+        delta._future = _deltaExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ChannelException, InterruptedException
+            {
+                try {
+                    generateDelta(delta);
+                    assert delta._buffer.numBytesWritten() <= delta._maxSize;
+                    return null;
+                } finally {
+                    delta._isGenerated = true;
+                    synchronized (_drainLock) {
+                        _drainLock.notifyAll();
+                    }
+                }
+            }
+        });
+        _pendingDeltas.add(delta);
+        _numBytesPendingDeltas += delta._maxSize;
+        return ioError;
+    }
+
+    private int sendOldestPendingDelta()
+        throws ChannelException, InterruptedException
+    {
+        FileDelta delta = _pendingDeltas.remove();
+        _numBytesPendingDeltas -= delta._maxSize;
+        try {
+            delta._future.get();
+        } catch (ExecutionException e) {
+            throwCause(e);
+        }
+        return sendDelta(delta);
+    }
+
+    private static void throwCause(ExecutionException e)
+        throws ChannelException, InterruptedException
+    {
+        Throwable cause = e.getCause();
+        if (cause instanceof ChannelException) {
+            throw (ChannelException) cause;
+        } else if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new AssertionError("BUG - missing statement for " + cause);
+    }
+
+    /**
+     * Start sending the pending deltas in order as soon as they are
+     * generated, from another thread. The output must not be used by the
+     * Sender until stopDrain returns, whereas the input may.
+     */
+    private Future<Integer> startDrain()
+    {
+        _isDrainStopRequested = false;
+        return _drainExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws ChannelException,
+                                         InterruptedException
+            {
+                int ioError = 0;
+                while (!_isDrainStopRequested && !_pendingDeltas.isEmpty()) {
+                    if (_pendingDeltas.peek()._isGenerated) {
+                        ioError |= sendOldestPendingDelta();
+                        continue;
+                    }
+                    _duplexChannel.flushOutput();
+                    synchronized (_drainLock) {
+                        while (!_isDrainStopRequested &&
+                               !_pendingDeltas.peek()._isGenerated) {
+                            _drainLock.wait();
+                        }
+                    }
+                }
+                _duplexChannel.flushOutput();
+                return ioError;
+            }
+        });
+    }
+
+    /**
+     * Stop sending the pending deltas started by startDrain, waiting for
+     * the delta being sent, if any.
+     *
+     * @return the I/O errors of the deltas sent
+     */
+    private int stopDrain(Future<Integer> drain)
+        throws ChannelException, InterruptedException
+    {
+        synchronized (_drainLock) {
+            _isDrainStopRequested = true;
+            _drainLock.notifyAll();
+        }
+        try {
+            return drain.get();
+        } catch (ExecutionException e) {
+            throwCause(e);
+            throw new AssertionError("not reached");
+        }
+    }
+
+    private int sendPendingDeltas()
+        throws ChannelException, InterruptedException
+    {
+        int ioError = 0;
+        while (!_pendingDeltas.isEmpty()) {
+            ioError |= sendOldestPendingDelta();
+        }
+        return ioError;
+    }
+
+    /**
+     * Generate the tokens of delta's file against the checksums of peer's
+     * replica. If delta is buffered the tokens are written to its buffer,
+     * otherwise the file index, flags and checksum header are sent followed
+     * by the tokens. A file without any checksums (e.g. --whole-file) which
+     * is neither buffered nor compressed is sent in large chunks written
+     * directly from the file view to peer, i.e. from the file's mapping if
+     * -Dmap.files is enabled and the file is large enough to be mapped,
+     * otherwise from the heap buffer the file is read into.
+     */
+    private void generateDelta(FileDelta delta)
+        throws ChannelException, InterruptedException
+    {
+        Checksum.Header header = delta._checksum.header();
+        boolean isNew = header.blockLength() == 0;
+        boolean isDirect = isNew && !delta.isBuffered() &&
+                           _compressionCodec == null;
+        int blockSize;
+        if (isDirect) {
+            blockSize = (int) Math.min(delta._fileSize, DIRECT_CHUNK_SIZE);
+        } else if (isNew) {
+            blockSize = FileView.DEFAULT_BLOCK_SIZE;
+        } else {
+            blockSize = header.blockLength();
+        }
+        int blockFactor = isNew ? 1 : 10;
+
+        try (FileView fv = FileView.open(delta._fileInfo.path(),
+                                         delta._fileSize,
+                                         blockSize,
+                                         blockSize * blockFactor);
+             TokenEncoder tokens = newTokenEncoder(delta, isDirect)) {
+            if (!delta.isBuffered()) {
+                sendIndexAndIflags(delta._index, delta._iFlags);
+                sendChecksumHeader(header);
+            }
+            if (isNew) {
+                delta._fileMD5sum = skipMatchSendData(fv, delta, tokens);
+            } else if (isParallelMatch(delta)) {
+                delta._fileMD5sum = sendParallelMatchesAndData(fv, delta,
+                                                               tokens);
+            } else {
+                delta._fileMD5sum = sendMatchesAndData(fv, delta, tokens);
+            }
+        } catch (FileViewOpenFailed e) { // on FileView.open()
+            delta._openError = e;
+        } catch (FileViewReadError e) {  // on FileView.close()
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format(
+                    "Error: general I/O error on %s (ignored and" +
+                    " skipped): %s", delta._fileInfo, e.getMessage()));
+            }
+            // fileMD5sum is only null for FileViewOpenFailed - not
+            // FileViewReadError which is caused by FileView.close()
+            createIncorrectChecksum(delta._fileMD5sum);
+        }
+    }
+
+    private TokenEncoder newTokenEncoder(FileDelta delta, boolean isDirect)
+    {
+        if (isDirect) {
+            return TokenEncoder.newDirect(_duplexChannel);
+        }
+        Writable out = delta.isBuffered() ? delta._buffer : _duplexChannel;
+        return TokenEncoder.newInstance(out, _compressionCodec,
+                                        compressionLevelOf(delta._fileInfo));
+    }
+
+    /**
+     * @return the compression level for the data of fileInfo, which is 0
+     *         (no compression) if it is already compressed judging by its
+     *         suffix
+     */
+    private int compressionLevelOf(LocatableFileInfo fileInfo)
+    {
+        String fileName = fileInfo.path().getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        if (dot >= 0 && _skipCompress.contains(
+                fileName.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return 0;
+        }
+        return _compressionLevel;
+    }
+
+    /**
+     * Hand over delta's file to the local Receiver and notify it about the
+     * file (or about it not being sent).
+     *
+     * @return any I/O error flags for the file
+     */
+    private int handOffFile(FileDelta delta) throws ChannelException
+    {
+        LocatableFileInfo fileInfo = delta._fileInfo;
+        FileChannel source;
+        try {
+            source = FileChannel.open(fileInfo.path(),
+                                      StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return sendNoSend(delta, e.getMessage(), IoError.VANISHED);
+        } catch (ClosedByInterruptException e) {
+            throw new RuntimeInterruptException(e);
+        } catch (IOException e) {
+            return sendNoSend(delta, e.getMessage(), IoError.GENERAL);
+        }
+
+        _fileHandoff.put(delta._index, source);
+        sendIndexAndIflags(delta._index, delta._iFlags);
+        sendChecksumHeader(delta._checksum.header());
+        setIsTransferred(delta._index);
+
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine(String.format("handed over %s (%d bytes)",
+                                    fileInfo.path(), delta._fileSize));
+        }
+
+        // the data is counted as literal data by the Receiver copying it,
+        // it is not sent by Sender
+        _stats._numTransferredFiles++;
+        _stats._totalTransferredSize += delta._fileSize;
+        return 0;
+    }
+
+    /**
+     * Purge the file of delta which could not be opened and notify peer
+     * about it not being sent.
+     *
+     * @return ioError
+     */
+    private int sendNoSend(FileDelta delta, String reason, int ioError)
+        throws ChannelException
+    {
+        if (_log.isLoggable(Level.WARNING)) {
+            _log.warning(String.format("Error: cannot open %s: %s",
+                                       delta._fileInfo, reason));
+        }
+        FileInfo removed = delta._segment.remove(delta._index);
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine(String.format("Purging %s index=%d",
+                                    removed, delta._index));
+        }
+        sendIntMessage(MessageCode.NO_SEND, delta._index);
+        return ioError;
+    }
+
+    /**
+     * Send the remaining parts of a generated delta to peer (or notify peer
+     * about the file not being sent).
+     *
+     * @return any I/O error flags for the file
+     */
+    private int sendDelta(FileDelta delta) throws ChannelException
+    {
+        LocatableFileInfo fileInfo = delta._fileInfo;
+        if (delta._openError != null) {
+            return sendNoSend(delta, delta._openError.getMessage(),
+                              delta._openError instanceof FileViewNotFound
+                              ? IoError.VANISHED : IoError.GENERAL);
+        }
+
+        if (delta.isBuffered()) {
+            sendIndexAndIflags(delta._index, delta._iFlags);
+            sendChecksumHeader(delta._checksum.header());
+            _duplexChannel.put(delta._buffer.flip());
+        }
+
+        byte[] fileMD5sum = delta._fileMD5sum;
+        if (_log.isLoggable(Level.FINE)) {
+            _log.finer(String.format(
+                "sending checksum for %s: %s",
+                fileInfo.path(), Text.bytesToString(fileMD5sum)));
+        }
+        _duplexChannel.put(fileMD5sum, 0, fileMD5sum.length);
+        setIsTransferred(delta._index);
+
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine(String.format("sent %s (%d bytes)",
+                                    fileInfo.path(), delta._fileSize));
+        }
+
+        _stats._numTransferredFiles++;
+        _stats._totalTransferredSize += delta._fileSize;
+        _stats._totalLiteralSize += delta._literalSize;
+        _stats._totalMatchedSize += delta._matchedSize;
+        if (delta._fallbackPosition >= 0) {
+            _stats._numDeltaFallbacks++;
+            _stats._totalDeltaFallbackSize +=
+                delta._fileSize - delta._fallbackPosition;
+        }
+        return 0;
+    }
+
     /**
      * @throws TextConversionException
      * @throws IOException
@@ -1171,10 +1834,8 @@ public final class Sender implements RsyncTask, MessageHandler
                 }
             }
 
-            for (FileInfo fileInfo : segment.files()) {
-                sendFileMetaData((LocatableFileInfo) fileInfo);
-                numFilesSent++;
-            }
+            sendFilesMetaData(segment.files());
+            numFilesSent += segment.files().size();
 
             if (isExpandOK) {
                 sendSegmentDone();
@@ -1199,7 +1860,40 @@ public final class Sender implements RsyncTask, MessageHandler
         return new StatusResult<Integer>(isOK, numFilesSent);
     }
 
-    private void sendFileMetaData(LocatableFileInfo fileInfo)
+    private void sendFilesMetaData(Collection<FileInfo> files)
+            throws ChannelException
+    {
+        if (!_isAlwaysChecksum) {
+            for (FileInfo f : files) {
+                sendFileMetaData((LocatableFileInfo) f, null);
+            }
+            return;
+        }
+
+        Map<FileInfo, FileDigester.Pending> digests = new HashMap<>();
+        for (FileInfo f : files) {
+            if (f.attrs().isRegularFile()) {
+                Path path = ((LocatableFileInfo) f).path();
+                digests.put(f, _fileDigester.submit(path));
+            }
+        }
+        try {
+            for (FileInfo f : files) {
+                sendFileMetaData((LocatableFileInfo) f, digests.remove(f));
+            }
+        } finally {
+            for (FileDigester.Pending digest : digests.values()) {
+                digest.cancel();
+            }
+        }
+    }
+
+    /**
+     * @param digestOrNull the digest of the contents of fileInfo if it is a
+     *        regular file and --checksum
+     */
+    private void sendFileMetaData(LocatableFileInfo fileInfo,
+                                  FileDigester.Pending digestOrNull)
             throws ChannelException
     {
         if (_log.isLoggable(Level.FINE)) {
@@ -1359,6 +2053,28 @@ public final class Sender implements RsyncTask, MessageHandler
             sendEncodedInt(symlinkTargetBytes.length);
             _duplexChannel.put(ByteBuffer.wrap(symlinkTargetBytes));
         }
+
+        if (digestOrNull != null) {
+            _duplexChannel.put(ByteBuffer.wrap(takeDigest(fileInfo,
+                                                          digestOrNull)));
+        }
+    }
+
+    // a file which cannot be read gets a digest of zeroes, just as with
+    // native, the error is reported if peer requests it
+    private byte[] takeDigest(LocatableFileInfo fileInfo,
+                              FileDigester.Pending digest)
+    {
+        try {
+            return digest.take();
+        } catch (IOException e) {
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format("failed to compute the digest of " +
+                                           "%s: %s", fileInfo.path(),
+                                           e.getMessage()));
+            }
+            return new byte[_strongChecksum.digestLength()];
+        }
     }
 
     private void sendSegmentDone() throws ChannelException
@@ -1423,52 +2139,68 @@ public final class Sender implements RsyncTask, MessageHandler
         throws ChannelException
     {
         Checksum checksum = new Checksum(header);
+        byte[] md5sum = new byte[header.digestLength()];
         for (int i = 0; i < header.chunkCount(); i++) {
             int rolling = _duplexChannel.getInt();
-            byte[] md5sum = new byte[header.digestLength()];
             _duplexChannel.get(md5sum, 0, md5sum.length);
             checksum.addChunkInformation(rolling, md5sum);
         }
         return checksum;
     }
 
-    private byte[] skipMatchSendData(FileView view, long fileSize)
+    private byte[] skipMatchSendData(FileView view, FileDelta delta,
+                                     TokenEncoder tokens)
         throws ChannelException
     {
-        MessageDigest fileDigest = MD5.newInstance();
+        long fileSize = delta._fileSize;
+        MessageDigest fileDigest = _strongChecksum.newInstance();
         long bytesSent = 0;
         while (view.windowLength() > 0) {
-            sendDataFrom(view.array(), view.startOffset(), view.windowLength());
+            tokens.putData(view.slice(view.startOffset(),
+                                      view.windowLength()));
             bytesSent += view.windowLength();
-            fileDigest.update(view.array(), view.startOffset(),
-                              view.windowLength());
+            fileDigest.update(view.slice(view.startOffset(),
+                                         view.windowLength()));
             view.slide(view.windowLength());
         }
-        _stats._totalLiteralSize += fileSize;
-        _duplexChannel.putInt(0);
+        delta._literalSize = fileSize;
+        tokens.putEnd();
         assert bytesSent == fileSize;
         return fileDigest.digest();
     }
 
-    private byte[] sendMatchesAndData(FileView fv,
-                                      Checksum peerChecksum,
-                                      long fileSize)
+    private byte[] sendMatchesAndData(FileView fv, FileDelta delta,
+                                      TokenEncoder tokens)
         throws ChannelException
     {
+        Checksum peerChecksum = delta._checksum;
+        long fileSize = delta._fileSize;
         assert fv != null;
         assert peerChecksum != null;
         assert peerChecksum.header().blockLength() > 0;
         assert fileSize > 0;
 
-        MessageDigest fileDigest = MD5.newInstance();
-        MessageDigest chunkDigest = MD5.newInstance();
+        MessageDigest fileDigest = _strongChecksum.newInstance();
+        MessageDigest chunkDigest = _strongChecksum.newInstance();
 
-        int rolling = Rolling.compute(fv.array(), fv.startOffset(),
-                                      fv.windowLength());
+        int rolling = Rolling.compute(fv.slice(fv.startOffset(),
+                                               fv.windowLength()));
+        Checksum.Probe probe = peerChecksum.newProbe();
         int preferredIndex = 0;
         long sizeLiteral = 0;
         long sizeMatch = 0;
-        byte[] localChunkMd5sum = null;
+        // the strong checksum of the current window, computed lazily at most
+        // once per window position and only if there is a rolling checksum
+        // candidate
+        byte[] localChunkMd5sum = new byte[_strongChecksum.digestLength()];
+        boolean isLocalChunkMd5sumValid = false;
+        int blockLength = peerChecksum.header().blockLength();
+        // the rolling checksums of a run of consecutive window positions
+        // starting at the current one, computed in bulk so that the
+        // positions without any candidates can be skipped at once
+        int[] rollings = new int[ROLLING_RUN_LENGTH];
+        int runIndex = 0;
+        int runLength = 0;
         fv.setMarkRelativeToStart(0);
 
         while (fv.windowLength() >= peerChecksum.header().smallestChunkSize()) {
@@ -1477,39 +2209,94 @@ public final class Sender implements RsyncTask, MessageHandler
                 _log.finest(fv.toString());
             }
 
-            for (Checksum.Chunk chunk : peerChecksum.getCandidateChunks(
-                                                            rolling,
-                                                            fv.windowLength(),
-                                                            preferredIndex)) {
+            if (fv.windowLength() == blockLength) {
+                if (runIndex >= runLength - 1) {
+                    long position = sizeLiteral + sizeMatch +
+                                    fv.numBytesMarked();
+                    if (isDeltaUnproductive(sizeMatch, position)) {
+                        tokens.putData(fv.slice(fv.markOffset(),
+                                                fv.numBytesMarked()));
+                        fileDigest.update(fv.slice(fv.markOffset(),
+                                                   fv.numBytesMarked()));
+                        fv.setMarkRelativeToStart(0);
+                        delta._fallbackPosition = position;
+                        sizeLiteral = sendFileData(fv, fileDigest, tokens,
+                                                   position, fileSize, true) -
+                                      sizeMatch;
+                        break;
+                    }
+                    runIndex = 0;
+                    runLength = Math.min(rollings.length,
+                                         fv.numBytesPrefetched() -
+                                         blockLength + 1);
+                    Rolling.rollRun(rolling,
+                                    fv.slice(fv.startOffset(),
+                                             runLength - 1 + blockLength),
+                                    blockLength, rollings, runLength);
+                }
+                // the window of the last position of the run is always
+                // available without reading, whereas any window after it
+                // might not be
+                int numSkipped = peerChecksum.indexOfCandidate(
+                    rollings, runIndex, runLength - 1) - runIndex;
+                if (numSkipped > 0) {
+                    for (int n = numSkipped; n > 0; n -= blockLength) {
+                        fv.slide(Math.min(n, blockLength));
+                    }
+                    runIndex += numSkipped;
+                    rolling = rollings[runIndex];
+                    isLocalChunkMd5sumValid = false;
+                }
+                assert rolling == rollings[runIndex];
+            }
 
-                if (localChunkMd5sum == null) {
-                    chunkDigest.update(fv.array(),
-                                       fv.startOffset(),
-                                       fv.windowLength());
+            // the position of the window in the file of peer
+            long position = sizeLiteral + sizeMatch + fv.numBytesMarked();
+            if (_isInplace) {
+                // prefer the block of the replica at the same offset, which
+                // peer does not have to write at all
+                preferredIndex = (int) Math.min(Integer.MAX_VALUE,
+                                                position / blockLength);
+            }
+            probe.reset(rolling, fv.windowLength(), preferredIndex);
+            for (int chunkIndex = probe.next(); chunkIndex >= 0;
+                 chunkIndex = probe.next()) {
+
+                // peer writes its file in place in ascending order, the
+                // blocks before position are already overwritten
+                if (_isInplace && (long) chunkIndex * blockLength < position) {
+                    continue;
+                }
+
+                if (!isLocalChunkMd5sumValid) {
+                    chunkDigest.update(fv.slice(fv.startOffset(),
+                                                fv.windowLength()));
                     chunkDigest.update(_checksumSeed);
-                    localChunkMd5sum = Arrays.copyOf(
-                                                chunkDigest.digest(),
-                                                chunk.md5Checksum().length);
+                    _strongChecksum.digestInto(chunkDigest, localChunkMd5sum);
+                    isLocalChunkMd5sumValid = true;
                 }
 
-                if (Arrays.equals(localChunkMd5sum, chunk.md5Checksum())) {
+                if (peerChecksum.isDigestEqual(chunkIndex, localChunkMd5sum,
+                                               0)) {
                     if (_log.isLoggable(Level.FINER)) {
                         _log.finer(String.format(
-                            "match %s == %s %s",
-                            MD5.md5DigestToString(localChunkMd5sum),
-                            MD5.md5DigestToString(chunk.md5Checksum()),
-                            fv));
+                            "match %s %s == chunk %d %s",
+                            _strongChecksum,
+                            Text.bytesToHexString(localChunkMd5sum),
+                            chunkIndex, fv));
                     }
                     sizeMatch += fv.windowLength();
-                    sendDataFrom(fv.array(), fv.markOffset(),
-                                 fv.numBytesMarked());
+                    tokens.putData(fv.slice(fv.markOffset(),
+                                            fv.numBytesMarked()));
                     sizeLiteral += fv.numBytesMarked();
-                    fileDigest.update(fv.array(),
-                                      fv.markOffset(),
-                                      fv.totalBytes());
-
-                    _duplexChannel.putInt(- (chunk.chunkIndex() + 1));
-                    preferredIndex = chunk.chunkIndex() + 1;
+                    fileDigest.update(fv.slice(fv.markOffset(),
+                                               fv.totalBytes()));
+
+                    tokens.putMatch(chunkIndex,
+                                    fv.slice(fv.startOffset(),
+                                             fv.windowLength()));
+                    preferredIndex = chunkIndex + 1;
+                    runLength = 0;
                     // we have sent all literal data until start of this
                     // chunk which in turn is matching peer's checksum,
                     // reset cursor:
@@ -1520,10 +2307,8 @@ public final class Sender implements RsyncTask, MessageHandler
                     // TODO: optimize away an unnecessary expensive compact
                     // operation here while we only have 1 byte to compact,
                     // before reading in more data (if we're at the last block)
-                    rolling = Rolling.compute(fv.array(),
-                                              fv.startOffset(),
-                                              fv.windowLength());
-                    localChunkMd5sum = null;
+                    rolling = Rolling.compute(fv.slice(fv.startOffset(),
+                                                       fv.windowLength()));
                     break;
                 }
             }
@@ -1532,19 +2317,23 @@ public final class Sender implements RsyncTask, MessageHandler
                                        fv.windowLength(),
                                        fv.valueAt(fv.startOffset()));
 
+            // send the literal data preceding the window if there is no
+            // room for any more data, the window is kept as it might still
+            // be a part of a following match
             if (fv.isFull()) {
                 if (_log.isLoggable(Level.FINER)) {
                     _log.finer("view is full " + fv);
                 }
-                sendDataFrom(fv.array(), fv.firstOffset(), fv.totalBytes());
-                sizeLiteral += fv.totalBytes();
-                fileDigest.update(fv.array(), fv.firstOffset(),
-                                  fv.totalBytes());
-                fv.setMarkRelativeToStart(fv.windowLength());
-                fv.slide(fv.windowLength());
-            } else {
-                fv.slide(1);
+                tokens.putData(fv.slice(fv.markOffset(),
+                                        fv.numBytesMarked()));
+                sizeLiteral += fv.numBytesMarked();
+                fileDigest.update(fv.slice(fv.markOffset(),
+                                           fv.numBytesMarked()));
+                fv.setMarkRelativeToStart(0);
             }
+            fv.slide(1);
+            runIndex++;
+            isLocalChunkMd5sumValid = false;
 
             // i.e. not at the end of the file
             if (fv.windowLength() == peerChecksum.header().blockLength()) {
@@ -1552,11 +2341,18 @@ public final class Sender implements RsyncTask, MessageHandler
             }
         }
 
-        sendDataFrom(fv.array(), fv.firstOffset(), fv.totalBytes());
-        sizeLiteral += fv.totalBytes();
-        fileDigest.update(fv.array(), fv.firstOffset(), fv.totalBytes());
-        _duplexChannel.putInt(0);
+        if (delta._fallbackPosition < 0) {
+            tokens.putData(fv.slice(fv.firstOffset(), fv.totalBytes()));
+            sizeLiteral += fv.totalBytes();
+            fileDigest.update(fv.slice(fv.firstOffset(), fv.totalBytes()));
+        }
+        tokens.putEnd();
 
+        if (_log.isLoggable(Level.FINE) && delta._fallbackPosition >= 0) {
+            _log.fine(String.format("matching %s stopped at %d",
+                                    delta._fileInfo.path(),
+                                    delta._fallbackPosition));
+        }
         if (_log.isLoggable(Level.FINE)) {
             _log.fine(String.format("%d%% match: matched %d bytes, sent %d" +
                                     " bytes (file size %d bytes) %s",
@@ -1566,32 +2362,291 @@ public final class Sender implements RsyncTask, MessageHandler
                                     sizeMatch, sizeLiteral, fileSize, fv));
         }
 
-        _stats._totalLiteralSize += sizeLiteral;
-        _stats._totalMatchedSize += sizeMatch;
+        delta._literalSize = sizeLiteral;
+        delta._matchedSize = sizeMatch;
         assert sizeLiteral + sizeMatch == fileSize;
         return fileDigest.digest();
     }
 
 
-    private void sendDataFrom(byte[] buf, int startOffset, int length)
-        throws ChannelException
+    /**
+     * @return true if the rest of a file should be sent as literal data
+     *         without matching, as less than 1 / MIN_PRODUCTIVE_MATCH_RATIO
+     *         of the first numBytesScanned bytes of it have matched, e.g.
+     *         because it is compressed or encrypted
+     */
+    private boolean isDeltaUnproductive(long sizeMatch, long numBytesScanned)
     {
-        assert buf != null;
-        assert startOffset >= 0;
-        assert length >= 0;
-        assert startOffset + length <= buf.length;
+        return _deltaFallbackThreshold > 0 &&
+               numBytesScanned >= _deltaFallbackThreshold &&
+               sizeMatch < numBytesScanned / MIN_PRODUCTIVE_MATCH_RATIO;
+    }
+
+    /**
+     * Large files are matched in parallel by the (otherwise idle) delta
+     * executor, which is why their deltas are never generated concurrently
+     * with other deltas. The regions are matched independently of each
+     * other, which is why it is not used for --inplace.
+     */
+    private boolean isParallelMatch(FileDelta delta)
+    {
+        return _deltaExecutor != null && !_isInplace &&
+               delta._fileSize >= _parallelMatchThreshold &&
+               delta._checksum.header().blockLength() > 0;
+    }
+
+    private long matchRegionSizeFor(long fileSize, int blockLength)
+    {
+        long size = fileSize / (4L * _deltaParallelism);
+        size = Math.min(MAX_MATCH_REGION_SIZE, size);
+        size = Math.max(MIN_MATCH_REGION_SIZE, size);
+        return Math.max(16L * blockLength, size);
+    }
 
-        int endOffset = startOffset + length - 1;
-        int currentOffset = startOffset;
-        while (currentOffset <= endOffset) {
-            int len = Math.min(CHUNK_SIZE, endOffset - currentOffset + 1);
-            assert len > 0;
-            _duplexChannel.putInt(len);
-            _duplexChannel.put(buf, currentOffset, len);
-            currentOffset += len;
+    private RegionMatches scanRegion(FileDelta delta, long start, long end,
+                                     RegionMatches syncWith)
+    {
+        try {
+            return RegionMatches.scan(delta._fileInfo.path(), delta._fileSize,
+                                      delta._checksum, _strongChecksum,
+                                      _checksumSeed, start, end, syncWith);
+        } catch (FileViewReadError e) {
+            // the file is read again when sending it, where any persistent
+            // error is handled, until then treat the region as not matching
+            if (_log.isLoggable(Level.WARNING)) {
+                _log.warning(String.format(
+                    "Error: failed to scan %s [%d, %d) for matching blocks " +
+                    "(ignored): %s", delta._fileInfo, start, end,
+                    e.getMessage()));
+            }
+            return RegionMatches.empty(start, end);
         }
     }
 
+    private Future<RegionMatches> submitRegionScan(final FileDelta delta,
+                                                   final long start,
+                                                   final long end)
+    {
+        return _deltaExecutor.submit(new Callable<RegionMatches>() {
+            @Override
+            public RegionMatches call()
+            {
+                return scanRegion(delta, start, end, null);
+            }
+        });
+    }
+
+    private static RegionMatches awaitRegionScan(Future<RegionMatches> future)
+        throws InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AssertionError("BUG - missing statement for " + cause);
+        }
+    }
+
+    /**
+     * Generates the same tokens as sendMatchesAndData, but lets the delta
+     * executor search fixed size regions of the file for matching blocks
+     * concurrently. The scan of a region starts at its first position
+     * whereas the sequential scan enters it at the end of the previous
+     * match, possibly in the middle of a match found by the region scan.
+     * Both scans are identical from the first position they have in
+     * common, until then the region is rescanned sequentially. The chunk
+     * index of each match is resolved in file order here, so that the
+     * preferred index is the same as for the sequential scan, a match whose
+     * chunk index cannot be resolved is sent as literal data. Sending the
+     * literal data and computing the whole file checksum is done here
+     * sequentially.
+     */
+    private byte[] sendParallelMatchesAndData(FileView fv, FileDelta delta,
+                                              TokenEncoder tokens)
+        throws ChannelException, InterruptedException
+    {
+        Checksum peerChecksum = delta._checksum;
+        long fileSize = delta._fileSize;
+        int blockLength = peerChecksum.header().blockLength();
+        assert blockLength > 0;
+        assert fileSize > 0;
+
+        long regionSize = matchRegionSizeFor(fileSize, blockLength);
+        long numRegions = (fileSize + regionSize - 1) / regionSize;
+        Deque<Future<RegionMatches>> scans = new ArrayDeque<>();
+        long numSubmitted = 0;
+
+        MessageDigest fileDigest = _strongChecksum.newInstance();
+        Checksum.Probe probe = peerChecksum.newProbe();
+        int preferredIndex = 0;
+        long position = 0;     // of the sequential scan
+        long sentPosition = 0; // of fv, end of last sent match or literal data
+        long sizeMatch = 0;
+
+        try {
+            for (long i = 0; i < numRegions; i++) {
+                while (numSubmitted < numRegions &&
+                       scans.size() < 2 * _deltaParallelism) {
+                    long start = numSubmitted * regionSize;
+                    scans.add(submitRegionScan(delta, start,
+                                               Math.min(fileSize,
+                                                        start + regionSize)));
+                    numSubmitted++;
+                }
+                RegionMatches region = awaitRegionScan(scans.remove());
+                if (position >= region.end()) {
+                    continue;
+                }
+
+                List<RegionMatches> matches = new ArrayList<>(2);
+                if (!region.isOnTrajectory(position)) {
+                    RegionMatches rescanned = scanRegion(delta, position,
+                                                         region.end(), region);
+                    matches.add(rescanned);
+                    position = rescanned.exitPosition();
+                    if (_log.isLoggable(Level.FINER)) {
+                        _log.finer(String.format(
+                            "rescanned %s [%d, %d) with %d matches",
+                            delta._fileInfo, rescanned.start(), position,
+                            rescanned.size()));
+                    }
+                }
+                // the rescan stops before the end of the region only if it
+                // reaches the trajectory of the region or the end of the
+                // file (a window smaller than the smallest chunk)
+                boolean isEndOfScan = false;
+                if (position < region.end()) {
+                    if (region.isOnTrajectory(position)) {
+                        matches.add(region);
+                        position = region.exitPosition();
+                    } else {
+                        isEndOfScan = true;
+                    }
+                }
+
+                for (RegionMatches m : matches) {
+                    int first = m == region ? region.cursor() : 0;
+                    for (int j = first; j < m.size(); j++) {
+                        int chunkIndex = resolveChunkIndex(probe, peerChecksum,
+                                                           m, j,
+                                                           preferredIndex);
+                        if (chunkIndex < 0) {
+                            // sent as literal data along with the data
+                            // preceding the next match
+                            continue;
+                        }
+                        sentPosition = sendFileData(fv, fileDigest, tokens,
+                                                    sentPosition, m.offset(j),
+                                                    true);
+                        assert fv.windowLength() >= m.length(j);
+                        tokens.putMatch(chunkIndex,
+                                        fv.slice(fv.startOffset(),
+                                                 m.length(j)));
+                        sentPosition = sendFileData(fv, fileDigest, tokens,
+                                                    sentPosition,
+                                                    m.offset(j) + m.length(j),
+                                                    false);
+                        preferredIndex = chunkIndex + 1;
+                        sizeMatch += m.length(j);
+                    }
+                }
+                if (isEndOfScan) {
+                    break;
+                }
+                // all matches before position have been sent, the data
+                // from sentPosition is sent as literal data below
+                if (isDeltaUnproductive(sizeMatch, position)) {
+                    delta._fallbackPosition = sentPosition;
+                    if (_log.isLoggable(Level.FINE)) {
+                        _log.fine(String.format("matching %s stopped at %d",
+                                                delta._fileInfo.path(),
+                                                position));
+                    }
+                    break;
+                }
+            }
+        } finally {
+            for (Future<RegionMatches> scan : scans) {
+                scan.cancel(true);
+            }
+        }
+
+        long sizeLiteral = fileSize - sizeMatch;
+        sendFileData(fv, fileDigest, tokens, sentPosition, fileSize, true);
+        tokens.putEnd();
+
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine(String.format("%d%% match: matched %d bytes, sent %d" +
+                                    " bytes (file size %d bytes, %d " +
+                                    "regions) %s",
+                                    Math.round(100 * ((float) sizeMatch /
+                                                      fileSize)),
+                                    sizeMatch, sizeLiteral, fileSize,
+                                    numRegions, fv));
+        }
+
+        delta._literalSize = sizeLiteral;
+        delta._matchedSize = sizeMatch;
+        return fileDigest.digest();
+    }
+
+    /**
+     * @return the chunk index of match index of matches preferring
+     *         preferredIndex, or -1 if no chunk of peerChecksum equals the
+     *         match
+     */
+    private static int resolveChunkIndex(Checksum.Probe probe,
+                                         Checksum peerChecksum,
+                                         RegionMatches matches, int index,
+                                         int preferredIndex)
+    {
+        probe.reset(matches.rolling(index), matches.length(index),
+                    preferredIndex);
+        for (int chunkIndex = probe.next(); chunkIndex >= 0;
+             chunkIndex = probe.next()) {
+            if (peerChecksum.isDigestEqual(chunkIndex, matches.digests(),
+                                           matches.digestOffset(index))) {
+                return chunkIndex;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Slide fv from file position fromPosition to toPosition, updating
+     * fileDigest with the contents and also sending it as literal data if
+     * isLiteral. The mark of fv is left at toPosition.
+     *
+     * @return toPosition
+     */
+    private static long sendFileData(FileView fv, MessageDigest fileDigest,
+                                     TokenEncoder tokens, long fromPosition,
+                                     long toPosition, boolean isLiteral)
+        throws ChannelException
+    {
+        long position = fromPosition;
+        while (position < toPosition) {
+            int length = (int) Math.min(fv.windowLength(),
+                                        toPosition - position);
+            assert length > 0;
+            if (isLiteral) {
+                tokens.putData(fv.slice(fv.startOffset(), length));
+            }
+            fileDigest.update(fv.slice(fv.startOffset(), length));
+            // the data is done with, let any mark follow so that it may be
+            // compacted away
+            fv.setMarkRelativeToStart(length);
+            fv.slide(length);
+            position += length;
+        }
+        return toPosition;
+    }
+
     private void sendIntMessage(MessageCode code, int value)
         throws ChannelException
     {
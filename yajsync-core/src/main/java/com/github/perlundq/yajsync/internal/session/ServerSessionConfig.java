@@ -24,6 +24,7 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,9 +32,11 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import com.github.perlundq.yajsync.CompressionCodec;
 import com.github.perlundq.yajsync.FileSelection;
 import com.github.perlundq.yajsync.RsyncProtocolException;
 import com.github.perlundq.yajsync.RsyncSecurityException;
+import com.github.perlundq.yajsync.StrongChecksum;
 import com.github.perlundq.yajsync.internal.channels.ChannelEOFException;
 import com.github.perlundq.yajsync.internal.channels.ChannelException;
 import com.github.perlundq.yajsync.internal.text.Text;
@@ -61,6 +64,7 @@ public class ServerSessionConfig extends SessionConfig
     private Path _receiverDestination;
     private boolean _isDelete = false;
     private boolean _isIncrementalRecurse = false;
+    private boolean _isNegotiable = false;
     private boolean _isSender = false;
     private boolean _isPreserveDevices = false;
     private boolean _isPreserveLinks = false;
@@ -71,10 +75,21 @@ public class ServerSessionConfig extends SessionConfig
     private boolean _isPreserveGroup = false;
     private boolean _isNumericIds = false;
     private boolean _isIgnoreTimes = false;
+    private boolean _isAlwaysChecksum = false;
+    private boolean _isWholeFile = false;
+    private boolean _isInplace = false;
+    private boolean _isSparse = false;
+    private boolean _isPreallocate = false;
+    private boolean _isFsync = false;
+    private boolean _isFixedChecksumSeed = false;
+    private boolean _isKeepPartial = false;
+    private String _partialDir;
     private FileSelection _fileSelection = FileSelection.EXACT;
     private Module _module;
     private int _verbosity = 0;
     private boolean _isSafeFileList;
+    private int _compressionLevel = Sender.DEFAULT_COMPRESSION_LEVEL;
+    private List<String> _skipCompress = Sender.DEFAULT_SKIP_COMPRESS;
 
 
     /**
@@ -138,6 +153,12 @@ public class ServerSessionConfig extends SessionConfig
             }
             instance.parseArguments(args);
             instance.sendCompatibilities();
+            if (instance._isNegotiable) {
+                instance.negotiateStrongChecksum();
+                if (instance._compressionCodec != null) {
+                    instance.negotiateCompressionCodec();
+                }
+            }
             instance.sendChecksumSeed();
             return instance;
         } catch (ArgumentParsingError | TextConversionException e) {
@@ -335,6 +356,22 @@ public class ServerSessionConfig extends SessionConfig
                         setIsIgnoreTimes();
                     }}));
 
+        argsParser.add(Option.newWithoutArgument(
+                Option.Policy.OPTIONAL,
+                "checksum", "c", "",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option) {
+                        setIsAlwaysChecksum();
+                    }}));
+
+        argsParser.add(Option.newWithoutArgument(
+                Option.Policy.OPTIONAL,
+                "whole-file", "W", "",
+                new Option.ContinuingHandler() {
+                    @Override public void handleAndContinue(Option option) {
+                        setIsWholeFile();
+                    }}));
+
         argsParser.add(Option.newWithoutArgument(
             Option.Policy.OPTIONAL,
             "verbose", "v", "",
@@ -343,6 +380,69 @@ public class ServerSessionConfig extends SessionConfig
                     increaseVerbosity();
                 }}));
 
+        argsParser.add(Option.newWithoutArgument(
+            Option.Policy.OPTIONAL,
+            "sparse", "S", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    setIsSparse();
+                }}));
+
+        argsParser.add(Option.newWithoutArgument(
+            Option.Policy.OPTIONAL,
+            "partial", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _isKeepPartial = true;
+                }}));
+
+        argsParser.add(Option.newStringOption(
+            Option.Policy.OPTIONAL,
+            "partial-dir", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    setPartialDir((String) option.getValue());
+                }}));
+
+        argsParser.add(Option.newIntegerOption(
+            Option.Policy.OPTIONAL,
+            "checksum-seed", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                {
+                    int seed = (int) option.getValue();
+                    if (seed != 0) {  // 0 means the current time as usual
+                        _checksumSeed = BitOps.toLittleEndianBuf(seed);
+                        _isFixedChecksumSeed = true;
+                    }
+                }}));
+
+        argsParser.add(Option.newWithoutArgument(
+            Option.Policy.OPTIONAL,
+            "fsync", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _isFsync = true;
+                }}));
+
+        argsParser.add(Option.newWithoutArgument(
+            Option.Policy.OPTIONAL,
+            "preallocate", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    setIsPreallocate();
+                }}));
+
+        argsParser.add(Option.newWithoutArgument(
+            Option.Policy.OPTIONAL,
+            "inplace", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    setIsInplace();
+                }}));
+
         argsParser.add(Option.newWithoutArgument(
             Option.Policy.OPTIONAL,
             "delete", "", "",
@@ -424,6 +524,47 @@ public class ServerSessionConfig extends SessionConfig
                     setIsPreserveTimes();
                 }}));
 
+        argsParser.add(Option.newWithoutArgument(
+            Option.Policy.OPTIONAL,
+            "compress", "z", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _compressionCodec = CompressionCodec.ZLIB;
+                }}));
+
+        argsParser.add(Option.newWithoutArgument(
+            Option.Policy.OPTIONAL,
+            "old-compress", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    _compressionCodec = CompressionCodec.ZLIB;
+                }}));
+
+        argsParser.add(Option.newIntegerOption(
+            Option.Policy.OPTIONAL,
+            "compress-level", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option)
+                        throws ArgumentParsingError
+                {
+                    int level = (int) option.getValue();
+                    if (level != Sender.DEFAULT_COMPRESSION_LEVEL &&
+                        (level < 1 || level > 9)) {
+                        throw new ArgumentParsingError(String.format(
+                            "invalid compression level %d", level));
+                    }
+                    _compressionLevel = level;
+                }}));
+
+        argsParser.add(Option.newStringOption(
+            Option.Policy.OPTIONAL,
+            "skip-compress", "", "",
+            new Option.ContinuingHandler() {
+                @Override public void handleAndContinue(Option option) {
+                    String suffixes = (String) option.getValue();
+                    _skipCompress = Arrays.asList(suffixes.split("/"));
+                }}));
+
         argsParser.add(Option.newWithoutArgument(
             Option.Policy.OPTIONAL,
             "dirs", "d", "",
@@ -507,6 +648,7 @@ public class ServerSessionConfig extends SessionConfig
             if (str.contains("s")) { // CF_SYMLINK_ICONV
             }
             _isSafeFileList = str.contains("f");
+            _isNegotiable = str.contains("X"); // CF_NEGOTIATED_ALGORITHMS
         } else {
             throw new RsyncProtocolException(
                 String.format("Protocol not supported - got %s from peer",
@@ -523,12 +665,71 @@ public class ServerSessionConfig extends SessionConfig
         if (_isIncrementalRecurse) {
             flags |= RsyncCompatibilities.CF_INC_RECURSE;
         }
+        if (_isNegotiable) {
+            flags |= RsyncCompatibilities.CF_NEGOTIATED_ALGORITHMS;
+        }
         if (_log.isLoggable(Level.FINER)) {
             _log.finer("> (we support) " + flags);
         }
         _peerConnection.putByte(flags);
     }
 
+    /**
+     * Receive peer's strong checksum algorithms in order of preference and
+     * reply with the first one we support, falling back to MD5.
+     *
+     * @throws ChannelException if there is a communication failure with peer
+     * @throws RsyncProtocolException if failing to decode input characters
+     *         from peer using current character set
+     */
+    private void negotiateStrongChecksum() throws ChannelException,
+                                                  RsyncProtocolException
+    {
+        String peerChoices = readLine();
+        StrongChecksum choice = StrongChecksum.MD5;
+        for (String name : peerChoices.split(" ")) {
+            StrongChecksum strongChecksum =
+                StrongChecksum.fromProtocolName(name);
+            if (strongChecksum != null) {
+                choice = strongChecksum;
+                break;
+            }
+        }
+        writeString(choice.protocolName() + '\n');
+        _strongChecksum = choice;
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine("using strong checksum " + _strongChecksum);
+        }
+    }
+
+    /**
+     * Receive peer's compression codecs in order of preference and reply
+     * with the first one we support, falling back to zlib.
+     *
+     * @throws ChannelException if there is a communication failure with peer
+     * @throws RsyncProtocolException if failing to decode input characters
+     *         from peer using current character set
+     */
+    private void negotiateCompressionCodec() throws ChannelException,
+                                                    RsyncProtocolException
+    {
+        String peerChoices = readLine();
+        CompressionCodec choice = CompressionCodec.ZLIB;
+        for (String name : peerChoices.split(" ")) {
+            CompressionCodec compressionCodec =
+                CompressionCodec.fromProtocolName(name);
+            if (compressionCodec != null) {
+                choice = compressionCodec;
+                break;
+            }
+        }
+        writeString(choice.protocolName() + '\n');
+        _compressionCodec = choice;
+        if (_log.isLoggable(Level.FINE)) {
+            _log.fine("using compression codec " + _compressionCodec);
+        }
+    }
+
     private void sendChecksumSeed() throws ChannelException
     {
         assert _checksumSeed != null;
@@ -579,6 +780,45 @@ public class ServerSessionConfig extends SessionConfig
         _isIgnoreTimes = true;
     }
 
+    private void setIsAlwaysChecksum()
+    {
+        _isAlwaysChecksum = true;
+    }
+
+    private void setIsWholeFile()
+    {
+        _isWholeFile = true;
+    }
+
+    private void setIsInplace()
+    {
+        _isInplace = true;
+    }
+
+    private void setIsSparse()
+    {
+        _isSparse = true;
+    }
+
+    private void setIsPreallocate()
+    {
+        _isPreallocate = true;
+    }
+
+    // the partial dir must be within the module, i.e. relative to the
+    // directory of each file and without any parent references
+    private void setPartialDir(String partialDir) throws ArgumentParsingError
+    {
+        if (partialDir.isEmpty() || partialDir.startsWith("/") ||
+            Arrays.asList(partialDir.split("/")).contains(".."))
+        {
+            throw new ArgumentParsingError(String.format(
+                "partial dir %s must be a relative path below the " +
+                "destination", partialDir));
+        }
+        _partialDir = partialDir;
+    }
+
     public boolean isSender()
     {
         return _isSender;
@@ -639,11 +879,88 @@ public class ServerSessionConfig extends SessionConfig
         return _isIgnoreTimes;
     }
 
+    public boolean isAlwaysChecksum()
+    {
+        return _isAlwaysChecksum;
+    }
+
+    public boolean isWholeFile()
+    {
+        return _isWholeFile;
+    }
+
+    public boolean isInplace()
+    {
+        return _isInplace;
+    }
+
+    public boolean isSparse()
+    {
+        return _isSparse;
+    }
+
+    public boolean isPreallocate()
+    {
+        return _isPreallocate;
+    }
+
+    /**
+     * @return true if the client requires every received file to be forced
+     *         to disk before being moved into place
+     */
+    public boolean isFsync()
+    {
+        return _isFsync;
+    }
+
+    /**
+     * @return true if the checksum seed is chosen by the client
+     *         (--checksum-seed) rather than based on the current time
+     */
+    public boolean isFixedChecksumSeed()
+    {
+        return _isFixedChecksumSeed;
+    }
+
+    public boolean isKeepPartial()
+    {
+        return _isKeepPartial;
+    }
+
+    /**
+     * @return the partial dir relative to the directory of each file
+     *         received, or null if none
+     */
+    public Path partialDir()
+    {
+        if (_partialDir == null) {
+            return null;
+        }
+        return getReceiverDestination().getFileSystem().getPath(_partialDir);
+    }
+
     public boolean isSafeFileList()
     {
         return _isSafeFileList;
     }
 
+    /**
+     * @return the compression level requested by peer or
+     *         Sender.DEFAULT_COMPRESSION_LEVEL
+     */
+    public int compressionLevel()
+    {
+        return _compressionLevel;
+    }
+
+    /**
+     * @return the suffixes of the names of files not to compress
+     */
+    public List<String> skipCompress()
+    {
+        return _skipCompress;
+    }
+
     public Path getReceiverDestination()
     {
         assert _receiverDestination != null;
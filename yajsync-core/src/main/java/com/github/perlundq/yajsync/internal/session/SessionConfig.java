@@ -28,7 +28,9 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.github.perlundq.yajsync.CompressionCodec;
 import com.github.perlundq.yajsync.RsyncProtocolException;
+import com.github.perlundq.yajsync.StrongChecksum;
 import com.github.perlundq.yajsync.internal.channels.AutoFlushableDuplexChannel;
 import com.github.perlundq.yajsync.internal.channels.BufferedOutputChannel;
 import com.github.perlundq.yajsync.internal.channels.ChannelException;
@@ -55,6 +57,8 @@ public abstract class SessionConfig
     protected TextEncoder _characterEncoder;
     protected TextDecoder _characterDecoder;
     protected byte[] _checksumSeed; // always stored in little endian
+    protected StrongChecksum _strongChecksum = StrongChecksum.MD5;
+    protected CompressionCodec _compressionCodec; // null if not compressing
 
     private Charset _charset;
 
@@ -82,6 +86,25 @@ public abstract class SessionConfig
         return _checksumSeed;
     }
 
+    /**
+     * @return the strong checksum algorithm agreed upon with peer, MD5
+     *         unless both peers support the negotiation of another one
+     */
+    public StrongChecksum strongChecksum()
+    {
+        return _strongChecksum;
+    }
+
+    /**
+     * @return the codec agreed upon with peer for compressing literal data,
+     *         ZLIB unless both peers support the negotiation of another one,
+     *         or null if not compressing
+     */
+    public CompressionCodec compressionCodec()
+    {
+        return _compressionCodec;
+    }
+
     public SessionStatus status()
     {
         assert _status != null;
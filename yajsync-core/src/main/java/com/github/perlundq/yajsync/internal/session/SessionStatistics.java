@@ -35,6 +35,8 @@ public class SessionStatistics implements Statistics
     long _totalBytesWritten;
     long _fileListBuildTime;
     long _fileListTransferTime;
+    int _numDeltaFallbacks;
+    long _totalDeltaFallbackSize;
 
     @Override
     public int numFiles()
@@ -101,4 +103,16 @@ public class SessionStatistics implements Statistics
     {
         return _fileListTransferTime;
     }
+
+    @Override
+    public int numDeltaFallbacks()
+    {
+        return _numDeltaFallbacks;
+    }
+
+    @Override
+    public long totalDeltaFallbackSize()
+    {
+        return _totalDeltaFallbackSize;
+    }
 }
@@ -26,7 +26,15 @@ class SymlinkInfoImpl extends FileInfoImpl implements SymlinkInfo
     public SymlinkInfoImpl(String pathName, byte[] pathNameBytes,
                            RsyncFileAttributes attrs, String targetPathName)
     {
-        super(pathName, pathNameBytes, attrs);
+        this(pathName, pathNameBytes, 0, pathNameBytes.length, attrs,
+             targetPathName);
+    }
+
+    SymlinkInfoImpl(String pathName, byte[] pathNameBytes, int offset,
+                    int length, RsyncFileAttributes attrs,
+                    String targetPathName)
+    {
+        super(pathName, pathNameBytes, offset, length, attrs);
         assert targetPathName != null;
         assert attrs().isSymbolicLink();
         _targetPathName = targetPathName;
@@ -0,0 +1,122 @@
+/*
+ * Decoding of the tokens of a file transfer
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.nio.ByteBuffer;
+
+import com.github.perlundq.yajsync.CompressionCodec;
+import com.github.perlundq.yajsync.RsyncProtocolException;
+import com.github.perlundq.yajsync.internal.channels.ChannelException;
+import com.github.perlundq.yajsync.internal.channels.Readable;
+
+/**
+ * Reads the tokens of one file sent by TokenEncoder. A new instance is
+ * used for every file.
+ */
+abstract class TokenDecoder implements AutoCloseable
+{
+    private static final class Plain extends TokenDecoder
+    {
+        private final Readable _in;
+
+        private Plain(Readable in)
+        {
+            _in = in;
+        }
+
+        @Override
+        int getToken() throws ChannelException
+        {
+            return _in.getInt();
+        }
+
+        @Override
+        ByteBuffer getData(int numBytes) throws ChannelException
+        {
+            return _in.get(numBytes);
+        }
+
+        @Override
+        int skipToken() throws ChannelException
+        {
+            int token = _in.getInt();
+            if (token > 0) {
+                _in.skip(token);
+            }
+            return token;
+        }
+    }
+
+    /**
+     * @param codecOrNull the compression codec agreed upon with peer or
+     *        null if not compressing
+     */
+    static TokenDecoder newInstance(Readable in, CompressionCodec codecOrNull)
+    {
+        assert in != null;
+        if (codecOrNull == null) {
+            return new Plain(in);
+        }
+        return CompressedTokenDecoder.newInstance(in, codecOrNull);
+    }
+
+    /**
+     * @return the next token: the number of bytes of literal data available
+     *         from getData if positive, the negated index - 1 of a matched
+     *         block if negative or 0 at the end of the file
+     * @throws RsyncProtocolException if the compressed data is corrupt
+     */
+    abstract int getToken() throws ChannelException, RsyncProtocolException;
+
+    /**
+     * @return the next numBytes bytes of the literal data announced by the
+     *         last token, valid until the next invocation of any method
+     */
+    abstract ByteBuffer getData(int numBytes) throws ChannelException;
+
+    /**
+     * Like getToken but skipping any literal data without decompressing
+     * it, for when the file is discarded. The positive token is then the
+     * number of bytes skipped as sent by peer, i.e. compressed.
+     */
+    abstract int skipToken() throws ChannelException, RsyncProtocolException;
+
+    /**
+     * @return true if the data of every matched block must be given to
+     *         seeMatch, in order to decompress subsequent literal data
+     */
+    boolean isMatchDataNeeded()
+    {
+        return false;
+    }
+
+    /**
+     * The remaining bytes of blockData are the data of the matched block
+     * most recently returned by getToken, which are left untouched.
+     *
+     * @throws RsyncProtocolException if the compressed stream is corrupt
+     */
+    void seeMatch(ByteBuffer blockData) throws RsyncProtocolException {}
+
+    /**
+     * Release any resources held, the instance must not be used afterwards.
+     */
+    @Override
+    public void close() {}
+}
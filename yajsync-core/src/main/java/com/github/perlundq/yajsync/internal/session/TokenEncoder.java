@@ -0,0 +1,179 @@
+/*
+ * Encoding of the tokens of a file transfer
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.nio.ByteBuffer;
+
+import com.github.perlundq.yajsync.CompressionCodec;
+import com.github.perlundq.yajsync.internal.channels.AutoFlushableRsyncDuplexChannel;
+import com.github.perlundq.yajsync.internal.channels.ChannelException;
+import com.github.perlundq.yajsync.internal.channels.Writable;
+
+/**
+ * Writes the tokens of one file to peer: literal data and the indices of
+ * blocks of peer's replica matching the file, terminated by an end token.
+ * A new instance is used for every file, as the state of a compressed
+ * token stream is reset for every file.
+ */
+abstract class TokenEncoder implements AutoCloseable
+{
+    static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * The uncompressed token stream of rsync protocol 30, literal data is
+     * sent as chunks of at most CHUNK_SIZE bytes, each preceded by its
+     * length, a matched block as the negated block index - 1 and the end
+     * token as 0.
+     */
+    private static class Plain extends TokenEncoder
+    {
+        private final Writable _out;
+
+        private Plain(Writable out)
+        {
+            _out = out;
+        }
+
+        @Override
+        void putData(ByteBuffer src) throws ChannelException
+        {
+            int limit = src.limit();
+            while (src.hasRemaining()) {
+                int len = Math.min(CHUNK_SIZE, limit - src.position());
+                assert len > 0;
+                _out.putInt(len);
+                src.limit(src.position() + len);
+                _out.put(src);
+                src.limit(limit);
+            }
+        }
+
+        @Override
+        void putMatch(int blockIndex, ByteBuffer blockData)
+            throws ChannelException
+        {
+            _out.putInt(- (blockIndex + 1));
+        }
+
+        @Override
+        void putEnd() throws ChannelException
+        {
+            _out.putInt(0);
+        }
+    }
+
+    /**
+     * Plain tokens, but with the data of every putData sent as a single
+     * chunk written directly from src to peer instead of being copied into
+     * the output buffer. Peer accepts literal data of any length.
+     */
+    private static final class Direct extends Plain
+    {
+        private final AutoFlushableRsyncDuplexChannel _channel;
+
+        private Direct(AutoFlushableRsyncDuplexChannel out)
+        {
+            super(out);
+            _channel = out;
+        }
+
+        @Override
+        void putData(ByteBuffer src) throws ChannelException
+        {
+            if (src.hasRemaining()) {
+                _channel.putInt(src.remaining());
+                _channel.sendData(src);
+            }
+        }
+    }
+
+    /**
+     * @param codecOrNull the compression codec agreed upon with peer or
+     *        null if not compressing
+     * @param compressionLevel the compression level of the file (0 -
+     *        9, or -1 for the default level of the codec)
+     */
+    static TokenEncoder newInstance(Writable out,
+                                    CompressionCodec codecOrNull,
+                                    int compressionLevel)
+    {
+        assert out != null;
+        if (codecOrNull == null) {
+            return new Plain(out);
+        }
+        return CompressedTokenEncoder.newInstance(out, codecOrNull,
+                                                  compressionLevel);
+    }
+
+    /**
+     * @return an encoder of uncompressed tokens writing literal data
+     *         directly to out, for large amounts of literal data
+     */
+    static TokenEncoder newDirect(AutoFlushableRsyncDuplexChannel out)
+    {
+        assert out != null;
+        return new Direct(out);
+    }
+
+    /**
+     * @return an upper bound of the number of bytes of the tokens of a file
+     *         of fileSize bytes matched against blocks of blockLength bytes
+     *         (0 if there are none), encoded by an encoder of codecOrNull
+     */
+    static long maxSize(long fileSize, int blockLength,
+                        CompressionCodec codecOrNull)
+    {
+        assert fileSize >= 0;
+        assert blockLength >= 0;
+        // every match but the last one covers a whole block of the file
+        long numMatches = blockLength > 0 ? fileSize / blockLength + 1 : 0;
+        if (codecOrNull != null) {
+            return CompressedTokenEncoder.maxSize(fileSize, numMatches);
+        }
+        // all data sent as literal data, each chunk of literal data preceded
+        // by its length, and a match token (+ the length of the literal
+        // data preceding it) for every match
+        return fileSize + 4 * (fileSize / CHUNK_SIZE + 1) + 8 * numMatches +
+               4;
+    }
+
+    /**
+     * Send all remaining bytes of src as literal data, leaving src with no
+     * remaining bytes.
+     */
+    abstract void putData(ByteBuffer src) throws ChannelException;
+
+    /**
+     * Send a match of peer's block blockIndex. The remaining bytes of
+     * blockData are the contents of the block, which are left untouched.
+     */
+    abstract void putMatch(int blockIndex, ByteBuffer blockData)
+        throws ChannelException;
+
+    /**
+     * Send the end of the tokens of the file.
+     */
+    abstract void putEnd() throws ChannelException;
+
+    /**
+     * Release any resources held, the instance must not be used afterwards.
+     */
+    @Override
+    public void close() {}
+}
@@ -53,6 +53,7 @@ public final class UnixFileAttributeManager extends FileAttributeManager
     private final Map<Integer, String> _groupIdToGroupName;
     private final Map<String, UserPrincipal> _nameToUserPrincipal;
     private final Map<String, GroupPrincipal> _nameToGroupPrincipal;
+    private final UserGroupTable _userGroupTable = new UserGroupTable();
     private final User _defaultUser;
     private final Group _defaultGroup;
     private final boolean _isCacheEnabled;
@@ -212,8 +213,8 @@ public final class UnixFileAttributeManager extends FileAttributeManager
         int gid = (int) attrs.get("gid");
         String userName = _userIdToUserName.getOrDefault(uid, _defaultUser.name());
         String groupName = _groupIdToGroupName.getOrDefault(gid, _defaultGroup.name());
-        User user = new User(userName, uid);
-        Group group = new Group(groupName, gid);
+        User user = _userGroupTable.user(userName, uid);
+        Group group = _userGroupTable.group(groupName, gid);
 
         return new RsyncFileAttributes(mode, size, mtime, user, group);
     }
@@ -229,8 +230,8 @@ public final class UnixFileAttributeManager extends FileAttributeManager
         int gid = (int) attrs.get("gid");
         String userName = ((UserPrincipal ) attrs.get("owner")).getName();
         String groupName = ((GroupPrincipal) attrs.get("group")).getName();
-        User user = new User(userName, uid);
-        Group group = new Group(groupName, gid);
+        User user = _userGroupTable.user(userName, uid);
+        Group group = _userGroupTable.group(groupName, gid);
 
         return new RsyncFileAttributes(mode, size, mtime, user, group);
     }
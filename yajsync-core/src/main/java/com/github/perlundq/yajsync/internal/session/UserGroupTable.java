@@ -0,0 +1,57 @@
+/*
+ * Interned users and groups of file attributes
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.perlundq.yajsync.attr.Group;
+import com.github.perlundq.yajsync.attr.User;
+
+/**
+ * Interns the users and groups of file attributes, so that all files of the
+ * same owner share one User and one Group instance instead of one each per
+ * file. Users and groups are equal if both their names and ids are.
+ */
+final class UserGroupTable
+{
+    private final ConcurrentMap<User, User> _users = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Group, Group> _groups =
+        new ConcurrentHashMap<>();
+
+    /**
+     * @throws IllegalArgumentException if name or uid is invalid
+     */
+    User user(String name, int uid)
+    {
+        User user = new User(name, uid);
+        User interned = _users.putIfAbsent(user, user);
+        return interned != null ? interned : user;
+    }
+
+    /**
+     * @throws IllegalArgumentException if name or gid is invalid
+     */
+    Group group(String name, int gid)
+    {
+        Group group = new Group(name, gid);
+        Group interned = _groups.putIfAbsent(group, group);
+        return interned != null ? interned : group;
+    }
+}
@@ -108,6 +108,19 @@ public final class Text
         return byteBufferToString(ByteBuffer.wrap(buf));
     }
 
+    /**
+     * @return buf as a string of two lower case hex digits per byte, e.g. a
+     *         digest as usually printed
+     */
+    public static String bytesToHexString(byte[] buf)
+    {
+        StringBuilder sb = new StringBuilder(2 * buf.length);
+        for (byte b : buf) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
     public static String byteBufferToString(ByteBuffer buf)
     {
         StringBuilder sb = new StringBuilder();
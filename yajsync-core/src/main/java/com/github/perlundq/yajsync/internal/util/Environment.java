@@ -40,6 +40,7 @@ public final class Environment
     private static final String WINDOWS_NAME = "Windows";
     private static final String PROPERTY_OS_NAME = "os.name";
     private static final String PROPERTY_KEY_ALLOW_FORK = "allow.fork";
+    private static final String PROPERTY_KEY_MAP_FILES = "map.files";
 
     public static final int UMASK = umask();
     public static final int DEFAULT_DIR_PERMS = 0777 & ~ UMASK;
@@ -146,6 +147,17 @@ public final class Environment
         return Boolean.valueOf(value);
     }
 
+    // experimental and opt-in since slices of a mapped file truncated by a
+    // concurrent writer raise SIGBUS when accessed beyond its new end, which
+    // ends the session (see MappedFileView)
+    public static boolean isMapFiles()
+    {
+        String value =
+            Util.defaultIfNull(System.getProperty(PROPERTY_KEY_MAP_FILES),
+                               Boolean.FALSE.toString());
+        return Boolean.valueOf(value);
+    }
+
     public static boolean hasAllocateDirectArray()
     {
         return ByteBuffer.allocateDirect(1).hasArray();
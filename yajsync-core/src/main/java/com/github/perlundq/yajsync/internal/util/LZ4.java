@@ -0,0 +1,298 @@
+/*
+ * LZ4 block compression
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.util;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * Compression and decompression of LZ4 blocks (the raw block format, i.e.
+ * without any frame header). The compressor is the greedy single probe hash
+ * table search of the reference implementation's default (fast) mode, with
+ * the same skipping over incompressible data, so that its output is
+ * readable by LZ4_decompress_safe and vice versa.
+ */
+public final class LZ4
+{
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_DISTANCE = 65535;
+    // the last match must start at least MF_LIMIT bytes before the end of
+    // the input and the last LAST_LITERALS bytes are always literals
+    private static final int MF_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+    private static final int RUN_MASK = 15;
+    private static final int ML_MASK = 15;
+
+    private LZ4() {}
+
+    /**
+     * @return the largest possible size of length bytes of input when
+     *         compressed
+     */
+    public static int maxCompressedLength(int length)
+    {
+        assert length >= 0;
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @return a new hash table for use with compress
+     */
+    public static int[] newHashTable()
+    {
+        return new int[1 << HASH_LOG];
+    }
+
+    /**
+     * Compress src[srcOffset, srcOffset + srcLength) into dst[dstOffset,
+     * dstOffset + dstLength), using table (from newHashTable) as scratch
+     * space.
+     *
+     * @return the size of the compressed block or 0 if it does not fit in
+     *         dstLength bytes
+     */
+    public static int compress(byte[] src, int srcOffset, int srcLength,
+                               byte[] dst, int dstOffset, int dstLength,
+                               int[] table)
+    {
+        assert table.length == 1 << HASH_LOG;
+        final int srcEnd = srcOffset + srcLength;
+        final int dstEnd = dstOffset + dstLength;
+        int ip = srcOffset;
+        int anchor = srcOffset;
+        int op = dstOffset;
+
+        if (srcLength >= MF_LIMIT + 1) {
+            final int mfLimit = srcEnd - MF_LIMIT;
+            final int matchLimit = srcEnd - LAST_LITERALS;
+            Arrays.fill(table, -1);
+            table[hash(readInt(src, ip))] = ip;
+            ip++;
+
+            search:
+            while (true) {
+                int ref;
+                int numAttempts = 1 << SKIP_TRIGGER;
+                while (true) {
+                    if (ip > mfLimit) {
+                        break search;
+                    }
+                    int h = hash(readInt(src, ip));
+                    ref = table[h];
+                    table[h] = ip;
+                    if (ref >= 0 && ip - ref <= MAX_DISTANCE &&
+                        readInt(src, ref) == readInt(src, ip)) {
+                        break;
+                    }
+                    ip += numAttempts++ >>> SKIP_TRIGGER;
+                }
+                while (ip > anchor && ref > srcOffset &&
+                       src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+
+                int literalLength = ip - anchor;
+                int matchLength = MIN_MATCH +
+                    commonLength(src, ip + MIN_MATCH, ref + MIN_MATCH,
+                                 matchLimit);
+                // token, literal length, literals, offset, match length
+                if (op + 1 + literalLength / 255 + 1 + literalLength + 2 +
+                    (matchLength - MIN_MATCH) / 255 + 1 > dstEnd) {
+                    return 0;
+                }
+                int token = op++;
+                op = writeLiterals(src, anchor, literalLength, dst, token, op);
+                int distance = ip - ref;
+                dst[op++] = (byte) distance;
+                dst[op++] = (byte) (distance >>> 8);
+                op = writeMatchLength(matchLength - MIN_MATCH, dst, token, op);
+
+                ip += matchLength;
+                anchor = ip;
+                if (ip > mfLimit) {
+                    break;
+                }
+                table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+
+        int literalLength = srcEnd - anchor;
+        if (op + 1 + literalLength / 255 + 1 + literalLength > dstEnd) {
+            return 0;
+        }
+        int token = op++;
+        op = writeLiterals(src, anchor, literalLength, dst, token, op);
+        return op - dstOffset;
+    }
+
+    /**
+     * Decompress the block src[srcOffset, srcOffset + srcLength) into
+     * dst[dstOffset, dstOffset + dstLength).
+     *
+     * @return the size of the decompressed data
+     * @throws DataFormatException if the block is malformed or would not
+     *         fit in dstLength bytes when decompressed
+     */
+    public static int decompress(byte[] src, int srcOffset, int srcLength,
+                                 byte[] dst, int dstOffset, int dstLength)
+        throws DataFormatException
+    {
+        final int srcEnd = srcOffset + srcLength;
+        final int dstEnd = dstOffset + dstLength;
+        int ip = srcOffset;
+        int op = dstOffset;
+
+        while (true) {
+            if (ip >= srcEnd) {
+                throw new DataFormatException("truncated LZ4 block");
+            }
+            int token = src[ip++] & 0xff;
+
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new DataFormatException("truncated LZ4 block");
+                    }
+                    b = src[ip++] & 0xff;
+                    literalLength += b;
+                } while (b == 255 && literalLength >= 0);
+            }
+            if (literalLength < 0 || literalLength > srcEnd - ip ||
+                literalLength > dstEnd - op) {
+                throw new DataFormatException(String.format(
+                    "invalid LZ4 literal length %d", literalLength));
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip == srcEnd) {
+                return op - dstOffset;
+            }
+
+            if (srcEnd - ip < 2) {
+                throw new DataFormatException("truncated LZ4 block");
+            }
+            int distance = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+            ip += 2;
+            if (distance == 0 || distance > op - dstOffset) {
+                throw new DataFormatException(String.format(
+                    "invalid LZ4 match distance %d", distance));
+            }
+            int matchLength = token & ML_MASK;
+            if (matchLength == ML_MASK) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new DataFormatException("truncated LZ4 block");
+                    }
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255 && matchLength >= 0);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength < MIN_MATCH || matchLength > dstEnd - op) {
+                throw new DataFormatException(String.format(
+                    "invalid LZ4 match length %d", matchLength));
+            }
+            int ref = op - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+                op += matchLength;
+            } else {
+                // overlapping, i.e. a repetition of the last distance bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        }
+    }
+
+    private static int writeLiterals(byte[] src, int offset, int length,
+                                     byte[] dst, int token, int op)
+    {
+        if (length >= RUN_MASK) {
+            dst[token] = (byte) (RUN_MASK << 4);
+            int n = length - RUN_MASK;
+            for (; n >= 255; n -= 255) {
+                dst[op++] = (byte) 255;
+            }
+            dst[op++] = (byte) n;
+        } else {
+            dst[token] = (byte) (length << 4);
+        }
+        System.arraycopy(src, offset, dst, op, length);
+        return op + length;
+    }
+
+    private static int writeMatchLength(int length, byte[] dst, int token,
+                                        int op)
+    {
+        if (length >= ML_MASK) {
+            dst[token] |= ML_MASK;
+            int n = length - ML_MASK;
+            for (; n >= 255; n -= 255) {
+                dst[op++] = (byte) 255;
+            }
+            dst[op++] = (byte) n;
+        } else {
+            dst[token] |= length;
+        }
+        return op;
+    }
+
+    // the number of equal bytes of src starting at a and b, where a > b,
+    // not counting any at or after limit
+    private static int commonLength(byte[] src, int a, int b, int limit)
+    {
+        int start = a;
+        while (a <= limit - 8 && readLong(src, a) == readLong(src, b)) {
+            a += 8;
+            b += 8;
+        }
+        while (a < limit && src[a] == src[b]) {
+            a++;
+            b++;
+        }
+        return a - start;
+    }
+
+    private static int hash(int value)
+    {
+        return (value * -1640531535) >>> (32 - HASH_LOG); // 2654435761
+    }
+
+    private static int readInt(byte[] buf, int offset)
+    {
+        return (buf[offset] & 0xff) |
+               (buf[offset + 1] & 0xff) << 8 |
+               (buf[offset + 2] & 0xff) << 16 |
+               (buf[offset + 3] & 0xff) << 24;
+    }
+
+    private static long readLong(byte[] buf, int offset)
+    {
+        return (readInt(buf, offset) & 0xffffffffL) |
+               (long) readInt(buf, offset + 4) << 32;
+    }
+}
@@ -23,6 +23,7 @@ import java.security.NoSuchAlgorithmException;
 
 public final class MD5
 {
+    public static final int DIGEST_LENGTH = 16;
     private static final String MD5_NAME = "MD5";
 
     private MD5() {}
@@ -19,6 +19,8 @@
  */
 package com.github.perlundq.yajsync.internal.util;
 
+import java.nio.ByteBuffer;
+
 public class Rolling
 {
     private final static int CHAR_OFFSET = 0; // currently unused
@@ -51,6 +53,93 @@ public class Rolling
         return toInt(low16, high16);
     }
 
+    // computes the checksum of the remaining bytes of buf without changing
+    // its position
+    public static int compute(ByteBuffer buf)
+    {
+        if (buf.hasArray()) {
+            return compute(buf.array(), buf.arrayOffset() + buf.position(),
+                           buf.remaining());
+        }
+
+        int low16 = 0;
+        int high16 = 0;
+        for (int idx = buf.position(); idx < buf.limit(); idx++) {
+            low16 += buf.get(idx) + CHAR_OFFSET;
+            high16 += low16;
+        }
+        return toInt(low16, high16);
+    }
+
+    /**
+     * Compute the checksums of count consecutive windows of blockLength bytes
+     * starting at buf[offset], buf[offset + 1], ... into sums[0], sums[1],
+     * ..., i.e. the same as compute for the first window followed by
+     * subtract and add for every following one, but without any per byte
+     * calls.
+     */
+    public static void computeRun(byte[] buf, int offset, int blockLength,
+                                  int[] sums, int count)
+    {
+        assert blockLength > 0;
+        rollRun(compute(buf, offset, blockLength), buf, offset, blockLength,
+                sums, count);
+    }
+
+    /**
+     * Same as computeRun, given the already known checksum of the first
+     * window.
+     */
+    public static void rollRun(int checksum, byte[] buf, int offset,
+                               int blockLength, int[] sums, int count)
+    {
+        assert blockLength > 0;
+        assert count > 0 && count <= sums.length;
+        assert offset + count - 1 + blockLength <= buf.length;
+
+        int low16 = low16(checksum);
+        int high16 = high16(checksum);
+        sums[0] = checksum;
+        for (int k = 1; k < count; k++) {
+            int out = buf[offset + k - 1] + CHAR_OFFSET;
+            int in = buf[offset + k - 1 + blockLength] + CHAR_OFFSET;
+            low16 += in - out;
+            high16 += low16 - blockLength * out;
+            sums[k] = toInt(low16, high16);
+        }
+    }
+
+    /**
+     * Same as rollRun for the windows starting at the position of buf, which
+     * must have at least count - 1 + blockLength bytes remaining. The
+     * position of buf is left unchanged.
+     */
+    public static void rollRun(int checksum, ByteBuffer buf, int blockLength,
+                               int[] sums, int count)
+    {
+        if (buf.hasArray()) {
+            rollRun(checksum, buf.array(), buf.arrayOffset() + buf.position(),
+                    blockLength, sums, count);
+            return;
+        }
+
+        assert blockLength > 0;
+        assert count > 0 && count <= sums.length;
+        assert buf.remaining() >= count - 1 + blockLength;
+
+        int offset = buf.position();
+        int low16 = low16(checksum);
+        int high16 = high16(checksum);
+        sums[0] = checksum;
+        for (int k = 1; k < count; k++) {
+            int out = buf.get(offset + k - 1) + CHAR_OFFSET;
+            int in = buf.get(offset + k - 1 + blockLength) + CHAR_OFFSET;
+            low16 += in - out;
+            high16 += low16 - blockLength * out;
+            sums[k] = toInt(low16, high16);
+        }
+    }
+
     public static int add(int checksum, byte value)
     {
         int low16 = low16(checksum) + value + CHAR_OFFSET;
@@ -0,0 +1,500 @@
+/*
+ * XXH3 128 bit hash (xxh128)
+ *
+ * Copyright (C) 2012-2021 Yann Collet
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.util;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * A pure Java implementation of the unseeded 128 bit variant of XXH3 using
+ * the default secret, as a streaming MessageDigest. The digest is the
+ * canonical (big endian) representation of the hash, i.e. the high 64 bits
+ * followed by the low 64 bits, and is identical to the one produced by
+ * XXH3_128bits() of the reference implementation.
+ *
+ * XXH3 is not a cryptographic hash function, but it is several times faster
+ * than MD5 and its 128 bit variant is just as well suited for detecting
+ * (non malicious) differences between blocks of files.
+ */
+public final class XXH128 extends MessageDigest
+{
+    public static final int DIGEST_LENGTH = 16;
+    private static final String NAME = "XXH128";
+
+    private static final long PRIME32_1 = 0x9E3779B1L;
+    private static final long PRIME32_2 = 0x85EBCA77L;
+    private static final long PRIME32_3 = 0xC2B2AE3DL;
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    private static final long PRIME_MX1 = 0x165667919E3779F9L;
+    private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private static final byte[] SECRET = {
+        (byte) 0xb8, (byte) 0xfe, (byte) 0x6c, (byte) 0x39, (byte) 0x23, (byte) 0xa4, (byte) 0x4b, (byte) 0xbe,
+        (byte) 0x7c, (byte) 0x01, (byte) 0x81, (byte) 0x2c, (byte) 0xf7, (byte) 0x21, (byte) 0xad, (byte) 0x1c,
+        (byte) 0xde, (byte) 0xd4, (byte) 0x6d, (byte) 0xe9, (byte) 0x83, (byte) 0x90, (byte) 0x97, (byte) 0xdb,
+        (byte) 0x72, (byte) 0x40, (byte) 0xa4, (byte) 0xa4, (byte) 0xb7, (byte) 0xb3, (byte) 0x67, (byte) 0x1f,
+        (byte) 0xcb, (byte) 0x79, (byte) 0xe6, (byte) 0x4e, (byte) 0xcc, (byte) 0xc0, (byte) 0xe5, (byte) 0x78,
+        (byte) 0x82, (byte) 0x5a, (byte) 0xd0, (byte) 0x7d, (byte) 0xcc, (byte) 0xff, (byte) 0x72, (byte) 0x21,
+        (byte) 0xb8, (byte) 0x08, (byte) 0x46, (byte) 0x74, (byte) 0xf7, (byte) 0x43, (byte) 0x24, (byte) 0x8e,
+        (byte) 0xe0, (byte) 0x35, (byte) 0x90, (byte) 0xe6, (byte) 0x81, (byte) 0x3a, (byte) 0x26, (byte) 0x4c,
+        (byte) 0x3c, (byte) 0x28, (byte) 0x52, (byte) 0xbb, (byte) 0x91, (byte) 0xc3, (byte) 0x00, (byte) 0xcb,
+        (byte) 0x88, (byte) 0xd0, (byte) 0x65, (byte) 0x8b, (byte) 0x1b, (byte) 0x53, (byte) 0x2e, (byte) 0xa3,
+        (byte) 0x71, (byte) 0x64, (byte) 0x48, (byte) 0x97, (byte) 0xa2, (byte) 0x0d, (byte) 0xf9, (byte) 0x4e,
+        (byte) 0x38, (byte) 0x19, (byte) 0xef, (byte) 0x46, (byte) 0xa9, (byte) 0xde, (byte) 0xac, (byte) 0xd8,
+        (byte) 0xa8, (byte) 0xfa, (byte) 0x76, (byte) 0x3f, (byte) 0xe3, (byte) 0x9c, (byte) 0x34, (byte) 0x3f,
+        (byte) 0xf9, (byte) 0xdc, (byte) 0xbb, (byte) 0xc7, (byte) 0xc7, (byte) 0x0b, (byte) 0x4f, (byte) 0x1d,
+        (byte) 0x8a, (byte) 0x51, (byte) 0xe0, (byte) 0x4b, (byte) 0xcd, (byte) 0xb4, (byte) 0x59, (byte) 0x31,
+        (byte) 0xc8, (byte) 0x9f, (byte) 0x7e, (byte) 0xc9, (byte) 0xd9, (byte) 0x78, (byte) 0x73, (byte) 0x64,
+        (byte) 0xea, (byte) 0xc5, (byte) 0xac, (byte) 0x83, (byte) 0x34, (byte) 0xd3, (byte) 0xeb, (byte) 0xc3,
+        (byte) 0xc5, (byte) 0x81, (byte) 0xa0, (byte) 0xff, (byte) 0xfa, (byte) 0x13, (byte) 0x63, (byte) 0xeb,
+        (byte) 0x17, (byte) 0x0d, (byte) 0xdd, (byte) 0x51, (byte) 0xb7, (byte) 0xf0, (byte) 0xda, (byte) 0x49,
+        (byte) 0xd3, (byte) 0x16, (byte) 0x55, (byte) 0x26, (byte) 0x29, (byte) 0xd4, (byte) 0x68, (byte) 0x9e,
+        (byte) 0x2b, (byte) 0x16, (byte) 0xbe, (byte) 0x58, (byte) 0x7d, (byte) 0x47, (byte) 0xa1, (byte) 0xfc,
+        (byte) 0x8f, (byte) 0xf8, (byte) 0xb8, (byte) 0xd1, (byte) 0x7a, (byte) 0xd0, (byte) 0x31, (byte) 0xce,
+        (byte) 0x45, (byte) 0xcb, (byte) 0x3a, (byte) 0x8f, (byte) 0x95, (byte) 0x16, (byte) 0x04, (byte) 0x28,
+        (byte) 0xaf, (byte) 0xd7, (byte) 0xfb, (byte) 0xca, (byte) 0xbb, (byte) 0x4b, (byte) 0x40, (byte) 0x7e,
+    };
+
+    private static final int STRIPE_LENGTH = 64;
+    private static final int ACC_COUNT = STRIPE_LENGTH / 8;
+    private static final int SECRET_CONSUME_RATE = 8;
+    private static final int STRIPES_PER_BLOCK =
+        (SECRET.length - STRIPE_LENGTH) / SECRET_CONSUME_RATE;
+    private static final int MIDSIZE_MAX = 240;
+    private static final int MIDSIZE_START_OFFSET = 3;
+    private static final int MIDSIZE_LAST_OFFSET = 17;
+    private static final int SECRET_SIZE_MIN = 136;
+    private static final int SECRET_LAST_ACC_START = 7;
+    private static final int SECRET_MERGE_ACCS_START = 11;
+    private static final int BUFFER_SIZE = 4 * STRIPE_LENGTH;
+    private static final int BUFFER_STRIPES = BUFFER_SIZE / STRIPE_LENGTH;
+
+    // the secret as 64 bit words at every multiple of 8, used per stripe
+    private static final long[] STRIPE_KEYS = new long[SECRET.length / 8];
+    private static final long[] LAST_STRIPE_KEYS = new long[ACC_COUNT];
+    private static final long[] SCRAMBLE_KEYS = new long[ACC_COUNT];
+
+    static {
+        for (int i = 0; i < STRIPE_KEYS.length; i++) {
+            STRIPE_KEYS[i] = readLE64(SECRET, i * 8);
+        }
+        for (int i = 0; i < ACC_COUNT; i++) {
+            LAST_STRIPE_KEYS[i] = readLE64(SECRET, SECRET.length -
+                                                   STRIPE_LENGTH -
+                                                   SECRET_LAST_ACC_START +
+                                                   i * 8);
+            SCRAMBLE_KEYS[i] = readLE64(SECRET,
+                                        SECRET.length - STRIPE_LENGTH + i * 8);
+        }
+    }
+
+    private final long[] _acc = new long[ACC_COUNT];
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+    private int _numBuffered;
+    private int _numStripesInBlock;
+    private long _totalLength;
+
+    // scratch space used when completing the digest
+    private final long[] _finalAcc = new long[ACC_COUNT];
+    private final byte[] _lastStripe = new byte[STRIPE_LENGTH];
+    private final long[] _hash = new long[2];
+
+    public XXH128()
+    {
+        super(NAME);
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength()
+    {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineReset()
+    {
+        _acc[0] = PRIME32_3;
+        _acc[1] = PRIME64_1;
+        _acc[2] = PRIME64_2;
+        _acc[3] = PRIME64_3;
+        _acc[4] = PRIME64_4;
+        _acc[5] = PRIME32_2;
+        _acc[6] = PRIME64_5;
+        _acc[7] = PRIME32_1;
+        _numBuffered = 0;
+        _numStripesInBlock = 0;
+        _totalLength = 0;
+    }
+
+    @Override
+    protected void engineUpdate(byte input)
+    {
+        if (_numBuffered == BUFFER_SIZE) {
+            _numStripesInBlock = consumeStripes(_acc, _numStripesInBlock,
+                                                _buffer, 0, BUFFER_STRIPES);
+            _numBuffered = 0;
+        }
+        _buffer[_numBuffered++] = input;
+        _totalLength++;
+    }
+
+    /**
+     * Stripes are only consumed once it is known that more input follows
+     * them, as the final (possibly overlapping) stripe is treated
+     * differently. The last stripe consumed is always kept at the end of the
+     * buffer for the case where less than a stripe remains buffered.
+     */
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length)
+    {
+        _totalLength += length;
+        if (length <= BUFFER_SIZE - _numBuffered) {
+            System.arraycopy(input, offset, _buffer, _numBuffered, length);
+            _numBuffered += length;
+            return;
+        }
+
+        int end = offset + length;
+        if (_numBuffered > 0) {
+            int fillLength = BUFFER_SIZE - _numBuffered;
+            System.arraycopy(input, offset, _buffer, _numBuffered, fillLength);
+            offset += fillLength;
+            _numStripesInBlock = consumeStripes(_acc, _numStripesInBlock,
+                                                _buffer, 0, BUFFER_STRIPES);
+            _numBuffered = 0;
+        }
+        if (end - offset > BUFFER_SIZE) {
+            do {
+                _numStripesInBlock = consumeStripes(_acc, _numStripesInBlock,
+                                                    input, offset,
+                                                    BUFFER_STRIPES);
+                offset += BUFFER_SIZE;
+            } while (end - offset > BUFFER_SIZE);
+            System.arraycopy(input, offset - STRIPE_LENGTH,
+                             _buffer, BUFFER_SIZE - STRIPE_LENGTH,
+                             STRIPE_LENGTH);
+        }
+        System.arraycopy(input, offset, _buffer, 0, end - offset);
+        _numBuffered = end - offset;
+    }
+
+    @Override
+    protected byte[] engineDigest()
+    {
+        byte[] result = new byte[DIGEST_LENGTH];
+        digestInto(result, 0);
+        return result;
+    }
+
+    @Override
+    protected int engineDigest(byte[] buf, int offset, int length)
+        throws DigestException
+    {
+        if (length < DIGEST_LENGTH) {
+            throw new DigestException(String.format(
+                "buffer too short for digest (%d < %d)",
+                length, DIGEST_LENGTH));
+        }
+        digestInto(buf, offset);
+        return DIGEST_LENGTH;
+    }
+
+    private void digestInto(byte[] buf, int offset)
+    {
+        if (_totalLength <= MIDSIZE_MAX) {
+            hashShort(_buffer, (int) _totalLength, _hash);
+        } else {
+            hashLong();
+        }
+        writeBE64(_hash[1], buf, offset);
+        writeBE64(_hash[0], buf, offset + 8);
+        engineReset();
+    }
+
+    private void hashLong()
+    {
+        long[] acc = _finalAcc;
+        System.arraycopy(_acc, 0, acc, 0, ACC_COUNT);
+        if (_numBuffered >= STRIPE_LENGTH) {
+            int numStripes = (_numBuffered - 1) / STRIPE_LENGTH;
+            consumeStripes(acc, _numStripesInBlock, _buffer, 0, numStripes);
+            accumulate(acc, _buffer, _numBuffered - STRIPE_LENGTH,
+                       LAST_STRIPE_KEYS, 0);
+        } else {
+            int catchupLength = STRIPE_LENGTH - _numBuffered;
+            System.arraycopy(_buffer, BUFFER_SIZE - catchupLength,
+                             _lastStripe, 0, catchupLength);
+            System.arraycopy(_buffer, 0, _lastStripe, catchupLength,
+                             _numBuffered);
+            accumulate(acc, _lastStripe, 0, LAST_STRIPE_KEYS, 0);
+        }
+        _hash[0] = mergeAccs(acc, SECRET_MERGE_ACCS_START,
+                             _totalLength * PRIME64_1);
+        _hash[1] = mergeAccs(acc,
+                             SECRET.length - STRIPE_LENGTH -
+                             SECRET_MERGE_ACCS_START,
+                             ~(_totalLength * PRIME64_2));
+    }
+
+    private static int consumeStripes(long[] acc, int numStripesInBlock,
+                                      byte[] input, int offset,
+                                      int numStripes)
+    {
+        for (int i = 0; i < numStripes; i++) {
+            accumulate(acc, input, offset + i * STRIPE_LENGTH,
+                       STRIPE_KEYS, numStripesInBlock);
+            numStripesInBlock++;
+            if (numStripesInBlock == STRIPES_PER_BLOCK) {
+                scramble(acc);
+                numStripesInBlock = 0;
+            }
+        }
+        return numStripesInBlock;
+    }
+
+    private static void accumulate(long[] acc, byte[] input, int offset,
+                                   long[] keys, int keyIndex)
+    {
+        for (int i = 0; i < ACC_COUNT; i++) {
+            long value = readLE64(input, offset + i * 8);
+            long key = value ^ keys[keyIndex + i];
+            acc[i ^ 1] += value;
+            acc[i] += (key & 0xFFFFFFFFL) * (key >>> 32);
+        }
+    }
+
+    private static void scramble(long[] acc)
+    {
+        for (int i = 0; i < ACC_COUNT; i++) {
+            long a = acc[i];
+            a ^= a >>> 47;
+            a ^= SCRAMBLE_KEYS[i];
+            a *= PRIME32_1;
+            acc[i] = a;
+        }
+    }
+
+    private static long mergeAccs(long[] acc, int secretOffset, long start)
+    {
+        long result = start;
+        for (int i = 0; i < 4; i++) {
+            result += mulFold64(
+                acc[2 * i] ^ readLE64(SECRET, secretOffset + 16 * i),
+                acc[2 * i + 1] ^ readLE64(SECRET, secretOffset + 16 * i + 8));
+        }
+        return avalanche(result);
+    }
+
+    /**
+     * Hash the length first bytes of input, length <= 240, storing the low
+     * 64 bits in hash[0] and the high 64 bits in hash[1].
+     */
+    private static void hashShort(byte[] input, int length, long[] hash)
+    {
+        assert length <= MIDSIZE_MAX;
+        if (length == 0) {
+            hash[0] = xxh64Avalanche(readLE64(SECRET, 64) ^
+                                     readLE64(SECRET, 72));
+            hash[1] = xxh64Avalanche(readLE64(SECRET, 80) ^
+                                     readLE64(SECRET, 88));
+        } else if (length <= 3) {
+            hash1To3(input, length, hash);
+        } else if (length <= 8) {
+            hash4To8(input, length, hash);
+        } else if (length <= 16) {
+            hash9To16(input, length, hash);
+        } else if (length <= 128) {
+            hash17To128(input, length, hash);
+        } else {
+            hash129To240(input, length, hash);
+        }
+    }
+
+    private static void hash1To3(byte[] input, int length, long[] hash)
+    {
+        int c1 = input[0] & 0xFF;
+        int c2 = input[length >> 1] & 0xFF;
+        int c3 = input[length - 1] & 0xFF;
+        int combinedLow = (c1 << 16) | (c2 << 24) | c3 | (length << 8);
+        int combinedHigh = Integer.rotateLeft(Integer.reverseBytes(combinedLow),
+                                              13);
+        long bitflipLow = (readLE32(SECRET, 0) ^ readLE32(SECRET, 4)) &
+                          0xFFFFFFFFL;
+        long bitflipHigh = (readLE32(SECRET, 8) ^ readLE32(SECRET, 12)) &
+                           0xFFFFFFFFL;
+        hash[0] = xxh64Avalanche((combinedLow & 0xFFFFFFFFL) ^ bitflipLow);
+        hash[1] = xxh64Avalanche((combinedHigh & 0xFFFFFFFFL) ^ bitflipHigh);
+    }
+
+    private static void hash4To8(byte[] input, int length, long[] hash)
+    {
+        long inputLow = readLE32(input, 0) & 0xFFFFFFFFL;
+        long inputHigh = readLE32(input, length - 4) & 0xFFFFFFFFL;
+        long keyed = (inputLow + (inputHigh << 32)) ^
+                     (readLE64(SECRET, 16) ^ readLE64(SECRET, 24));
+        long multiplier = PRIME64_1 + ((long) length << 2);
+        long low = keyed * multiplier;
+        long high = multiplyHigh(keyed, multiplier);
+        high += low << 1;
+        low ^= high >>> 3;
+        low ^= low >>> 35;
+        low *= PRIME_MX2;
+        low ^= low >>> 28;
+        hash[0] = low;
+        hash[1] = avalanche(high);
+    }
+
+    private static void hash9To16(byte[] input, int length, long[] hash)
+    {
+        long bitflipLow = readLE64(SECRET, 32) ^ readLE64(SECRET, 40);
+        long bitflipHigh = readLE64(SECRET, 48) ^ readLE64(SECRET, 56);
+        long inputLow = readLE64(input, 0);
+        long inputHigh = readLE64(input, length - 8);
+        long keyed = inputLow ^ inputHigh ^ bitflipLow;
+        long low = keyed * PRIME64_1;
+        long high = multiplyHigh(keyed, PRIME64_1);
+        low += (long) (length - 1) << 54;
+        inputHigh ^= bitflipHigh;
+        high += inputHigh + (inputHigh & 0xFFFFFFFFL) * (PRIME32_2 - 1);
+        low ^= Long.reverseBytes(high);
+        long resultLow = low * PRIME64_2;
+        long resultHigh = multiplyHigh(low, PRIME64_2) + high * PRIME64_2;
+        hash[0] = avalanche(resultLow);
+        hash[1] = avalanche(resultHigh);
+    }
+
+    private static void hash17To128(byte[] input, int length, long[] hash)
+    {
+        hash[0] = length * PRIME64_1;
+        hash[1] = 0;
+        for (int i = (length - 1) / 32; i >= 0; i--) {
+            mix32(hash, input, 16 * i, length - 16 * (i + 1), 32 * i);
+        }
+        finishMidsize(length, hash);
+    }
+
+    private static void hash129To240(byte[] input, int length, long[] hash)
+    {
+        int numRounds = length / 32;
+        hash[0] = length * PRIME64_1;
+        hash[1] = 0;
+        for (int i = 0; i < 4; i++) {
+            mix32(hash, input, 32 * i, 32 * i + 16, 32 * i);
+        }
+        hash[0] = avalanche(hash[0]);
+        hash[1] = avalanche(hash[1]);
+        for (int i = 4; i < numRounds; i++) {
+            mix32(hash, input, 32 * i, 32 * i + 16,
+                  MIDSIZE_START_OFFSET + 32 * (i - 4));
+        }
+        mix32(hash, input, length - 16, length - 32,
+              SECRET_SIZE_MIN - MIDSIZE_LAST_OFFSET - 16);
+        finishMidsize(length, hash);
+    }
+
+    private static void finishMidsize(int length, long[] hash)
+    {
+        long low = hash[0] + hash[1];
+        long high = hash[0] * PRIME64_1 + hash[1] * PRIME64_4 +
+                    length * PRIME64_2;
+        hash[0] = avalanche(low);
+        hash[1] = -avalanche(high);
+    }
+
+    private static void mix32(long[] acc, byte[] input, int offset1,
+                              int offset2, int secretOffset)
+    {
+        acc[0] += mix16(input, offset1, secretOffset);
+        acc[0] ^= readLE64(input, offset2) + readLE64(input, offset2 + 8);
+        acc[1] += mix16(input, offset2, secretOffset + 16);
+        acc[1] ^= readLE64(input, offset1) + readLE64(input, offset1 + 8);
+    }
+
+    private static long mix16(byte[] input, int offset, int secretOffset)
+    {
+        return mulFold64(
+            readLE64(input, offset) ^ readLE64(SECRET, secretOffset),
+            readLE64(input, offset + 8) ^ readLE64(SECRET, secretOffset + 8));
+    }
+
+    private static long mulFold64(long a, long b)
+    {
+        return (a * b) ^ multiplyHigh(a, b);
+    }
+
+    /**
+     * @return the high 64 bits of the unsigned 128 bit product of a and b
+     */
+    private static long multiplyHigh(long a, long b)
+    {
+        long aLow = a & 0xFFFFFFFFL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xFFFFFFFFL;
+        long bHigh = b >>> 32;
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long cross = (lowLow >>> 32) + (highLow & 0xFFFFFFFFL) + lowHigh;
+        return aHigh * bHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
+    private static long avalanche(long h)
+    {
+        h ^= h >>> 37;
+        h *= PRIME_MX1;
+        return h ^ (h >>> 32);
+    }
+
+    private static long xxh64Avalanche(long h)
+    {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ (h >>> 32);
+    }
+
+    private static int readLE32(byte[] buf, int offset)
+    {
+        return (buf[offset] & 0xFF) |
+               (buf[offset + 1] & 0xFF) << 8 |
+               (buf[offset + 2] & 0xFF) << 16 |
+               (buf[offset + 3] & 0xFF) << 24;
+    }
+
+    private static long readLE64(byte[] buf, int offset)
+    {
+        return (readLE32(buf, offset) & 0xFFFFFFFFL) |
+               (long) readLE32(buf, offset + 4) << 32;
+    }
+
+    private static void writeBE64(long value, byte[] buf, int offset)
+    {
+        for (int i = 7; i >= 0; i--) {
+            buf[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
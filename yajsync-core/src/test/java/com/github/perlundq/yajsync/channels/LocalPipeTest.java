@@ -0,0 +1,249 @@
+/*
+ * LocalPipe tests
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.channels;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.internal.channels.BufferedOutputChannel;
+import com.github.perlundq.yajsync.internal.channels.LocalPipe;
+import com.github.perlundq.yajsync.internal.util.Environment;
+
+public class LocalPipeTest
+{
+    @Test(timeout=10000)
+    public void testTransfer() throws Exception
+    {
+        final LocalPipe pipe = new LocalPipe(2, 16);
+        final byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> writer = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException
+                {
+                    Random random = new Random(1);
+                    ByteBuffer src = ByteBuffer.wrap(data);
+                    while (src.hasRemaining()) {
+                        int length = Math.min(src.remaining(),
+                                              random.nextInt(40));
+                        ByteBuffer a = ByteBuffer.wrap(data, src.position(),
+                                                       length / 2);
+                        ByteBuffer b = ByteBuffer.wrap(data,
+                                                       a.limit(),
+                                                       length - length / 2);
+                        ByteBuffer[] srcs = { a, b };
+                        while (a.hasRemaining() || b.hasRemaining()) {
+                            pipe.sink().write(srcs);
+                        }
+                        src.position(b.position());
+                    }
+                    pipe.sink().close();
+                    return null;
+                }
+            });
+
+            Random random = new Random(2);
+            byte[] result = new byte[data.length];
+            ByteBuffer dst = ByteBuffer.wrap(result);
+            while (dst.position() < dst.capacity()) {
+                dst.limit(Math.min(dst.capacity(),
+                                   dst.position() + 1 + random.nextInt(50)));
+                int n = pipe.source().read(dst);
+                assertTrue(n > 0);
+            }
+            assertEquals(-1, pipe.source().read(ByteBuffer.allocate(1)));
+            writer.get();
+            assertArrayEquals(data, result);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // the writer puts data of random length through a BufferedOutputChannel
+    // of the same size as the buffers of the pipe, flushing at random, so
+    // that its buffer is both copied and exchanged
+    @Test(timeout=10000)
+    public void testTransferExchanged() throws Exception
+    {
+        final LocalPipe pipe = new LocalPipe(4, 16);
+        final byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> writer = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception
+                {
+                    Random random = new Random(1);
+                    BufferedOutputChannel out =
+                        new BufferedOutputChannel(pipe.sink(), 16);
+                    int offset = 0;
+                    while (offset < data.length) {
+                        int length = Math.min(data.length - offset,
+                                              random.nextInt(40));
+                        out.put(data, offset, length);
+                        offset += length;
+                        if (random.nextInt(4) == 0) {
+                            out.flush();
+                        }
+                    }
+                    assertEquals(data.length, out.numBytesWritten());
+                    out.close();
+                    return null;
+                }
+            });
+
+            byte[] result = new byte[data.length];
+            ByteBuffer dst = ByteBuffer.wrap(result);
+            while (dst.hasRemaining()) {
+                assertTrue(pipe.source().read(dst) > 0);
+            }
+            assertEquals(-1, pipe.source().read(ByteBuffer.allocate(1)));
+            writer.get();
+            assertArrayEquals(data, result);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // small writes are appended to the same buffer instead of taking one
+    // buffer each
+    @Test(timeout=10000)
+    public void testAppend() throws IOException
+    {
+        LocalPipe pipe = new LocalPipe(2, 16);
+        for (int i = 0; i < 32; i++) {
+            pipe.sink().write(ByteBuffer.wrap(new byte[] { (byte) i }));
+        }
+        pipe.sink().close();
+        ByteBuffer dst = ByteBuffer.allocate(33);
+        while (pipe.source().read(dst) > 0) {
+            // read until EOF
+        }
+        assertEquals(32, dst.position());
+        for (int i = 0; i < 32; i++) {
+            assertEquals(i, dst.get(i));
+        }
+    }
+
+    private static ByteBuffer newPooledBuffer(int size)
+    {
+        return Environment.isAllocateDirect() ? ByteBuffer.allocateDirect(size)
+                                              : ByteBuffer.allocate(size);
+    }
+
+    @Test(timeout=10000)
+    public void testExchange() throws IOException
+    {
+        LocalPipe pipe = new LocalPipe(4, 16);
+        pipe.sink().write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+        ByteBuffer filled = newPooledBuffer(16);
+        for (int i = 0; i < 16; i++) {
+            filled.put((byte) (10 + i));
+        }
+        filled.flip();
+        ByteBuffer free = pipe.sink().exchange(filled);
+        assertNotSame(filled, free);
+        assertEquals(0, free.position());
+        assertEquals(16, free.limit());
+
+        // too little data to be worth a buffer of its own
+        ByteBuffer small = newPooledBuffer(16);
+        small.put((byte) 4).flip();
+        assertSame(small, pipe.sink().exchange(small));
+        assertEquals(0, small.position());
+        pipe.sink().close();
+
+        ByteBuffer dst = ByteBuffer.allocate(21);
+        while (pipe.source().read(dst) > 0) {
+            // read until EOF
+        }
+        assertEquals(20, dst.position());
+        byte[] expected = new byte[20];
+        expected[0] = 1;
+        expected[1] = 2;
+        expected[2] = 3;
+        for (int i = 0; i < 16; i++) {
+            expected[3 + i] = (byte) (10 + i);
+        }
+        expected[19] = 4;
+        assertArrayEquals(expected, Arrays.copyOf(dst.array(), 20));
+    }
+
+    @Test
+    public void testWriteToClosedSource() throws IOException
+    {
+        LocalPipe pipe = new LocalPipe(2, 16);
+        pipe.source().close();
+        try {
+            pipe.sink().write(ByteBuffer.allocate(1));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testInterruptBlockedRead() throws Exception
+    {
+        final LocalPipe pipe = new LocalPipe();
+        final Thread reader = Thread.currentThread();
+        Thread interrupter = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                reader.interrupt();
+            }
+        };
+        interrupter.start();
+        try {
+            pipe.source().read(ByteBuffer.allocate(1));
+            fail();
+        } catch (ClosedByInterruptException e) {
+            assertTrue(Thread.interrupted());
+            assertTrue(!pipe.source().isOpen());
+        } finally {
+            interrupter.join();
+        }
+    }
+}
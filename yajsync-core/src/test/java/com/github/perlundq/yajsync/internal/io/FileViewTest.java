@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileViewTest
+{
+    private static final int FILE_SIZE = 100000;
+    private static final int WINDOW_LENGTH = 700;
+    private static final int BUFFER_SIZE = 4096;
+    // not a multiple of the window length so that a window may straddle the
+    // end of a mapping
+    private static final int MAP_LENGTH = 3 * BUFFER_SIZE + 123;
+
+    private Path _path;
+    private byte[] _data;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _data = new byte[FILE_SIZE];
+        new Random(0).nextBytes(_data);
+        _path = Files.createTempFile("FileViewTest", null);
+        Files.write(_path, _data);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(_path);
+    }
+
+    // slides through the view the same way as Sender does when there are no
+    // matches, verifying the window and marked contents at every position
+    private void verifySlide(FileView fv) throws FileViewReadError
+    {
+        long startPos = 0;
+        long firstPos = 0;
+        fv.setMarkRelativeToStart(0);
+        while (fv.windowLength() > 0) {
+            assertEquals(_data[(int) startPos], fv.valueAt(fv.startOffset()));
+            assertEquals(_data[(int) startPos + fv.windowLength() - 1],
+                         fv.valueAt(fv.endOffset()));
+            assertEquals(firstPos, startPos - fv.numBytesMarked());
+            ByteBuffer marked = fv.slice(fv.firstOffset(), fv.totalBytes());
+            assertEquals(ByteBuffer.wrap(_data, (int) firstPos,
+                                         fv.totalBytes()),
+                         marked);
+            if (fv.isFull()) {
+                fv.setMarkRelativeToStart(fv.windowLength());
+                startPos += fv.windowLength();
+                firstPos = startPos;
+                fv.slide(fv.windowLength());
+            } else {
+                startPos++;
+                fv.slide(1);
+            }
+        }
+        assertEquals(FILE_SIZE, startPos);
+        fv.close();
+    }
+
+    @Test
+    public void testStreamSlide() throws Exception
+    {
+        verifySlide(new StreamFileView(_path, 0, FILE_SIZE, WINDOW_LENGTH,
+                                       BUFFER_SIZE));
+    }
+
+    @Test
+    public void testMappedSlide() throws Exception
+    {
+        verifySlide(new MappedFileView(_path, 0, FILE_SIZE, WINDOW_LENGTH,
+                                       MAP_LENGTH));
+    }
+
+    // slides through the view one window at a time, verifying that it
+    // contains the size bytes of the file starting at position
+    private void verifyBlocks(FileView fv, int position, int size)
+        throws FileViewReadError
+    {
+        try (FileView view = fv) {
+            int pos = position;
+            while (view.windowLength() > 0) {
+                assertEquals(ByteBuffer.wrap(_data, pos, view.windowLength()),
+                             view.slice(view.startOffset(),
+                                        view.windowLength()));
+                pos += view.windowLength();
+                view.slide(view.windowLength());
+            }
+            assertEquals(position + size, pos);
+        }
+    }
+
+    @Test
+    public void testMappedBlocks() throws Exception
+    {
+        verifyBlocks(new MappedFileView(_path, 0, FILE_SIZE, WINDOW_LENGTH,
+                                        MAP_LENGTH),
+                     0, FILE_SIZE);
+    }
+
+    @Test
+    public void testStreamRegion() throws Exception
+    {
+        verifyBlocks(new StreamFileView(_path, 12345, 50000, WINDOW_LENGTH,
+                                        BUFFER_SIZE),
+                     12345, 50000);
+    }
+
+    @Test
+    public void testMappedRegion() throws Exception
+    {
+        verifyBlocks(new MappedFileView(_path, 12345, FILE_SIZE - 12345,
+                                        WINDOW_LENGTH, MAP_LENGTH),
+                     12345, FILE_SIZE - 12345);
+    }
+
+    // slides through a view of a file that is shorter than the view when
+    // opened, verifying that the view is intact up to the end of the file
+    // and zeroes after that, and that close reports the error
+    private void verifyTruncated(int mapLength, int truncatedSize)
+        throws Exception
+    {
+        try (FileChannel channel = FileChannel.open(
+                 _path, StandardOpenOption.WRITE)) {
+            channel.truncate(truncatedSize);
+        }
+        FileView fv = new MappedFileView(_path, 0, FILE_SIZE, WINDOW_LENGTH,
+                                         mapLength);
+        int pos = 0;
+        while (fv.windowLength() > 0) {
+            ByteBuffer window = fv.slice(fv.startOffset(), fv.windowLength());
+            if (pos + fv.windowLength() <= truncatedSize) {
+                assertEquals(ByteBuffer.wrap(_data, pos, fv.windowLength()),
+                             window);
+            } else if (pos >= truncatedSize) {
+                assertEquals(ByteBuffer.allocate(fv.windowLength()), window);
+            }
+            pos += fv.windowLength();
+            fv.slide(fv.windowLength());
+        }
+        assertEquals(FILE_SIZE, pos);
+        try {
+            fv.close();
+            fail("expected a read error");
+        } catch (FileViewReadError e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    // the end of the file is within the first mapping
+    @Test
+    public void testMappedTruncatedWithinMapping() throws Exception
+    {
+        verifyTruncated(FILE_SIZE, FILE_SIZE / 2);
+    }
+
+    // the end of the file is reached after remapping
+    @Test
+    public void testMappedTruncatedAfterRemap() throws Exception
+    {
+        verifyTruncated(MAP_LENGTH, MAP_LENGTH + 1000);
+    }
+
+    @Test
+    public void testOpenSmallFile() throws Exception
+    {
+        try (FileView fv = FileView.open(_path, FILE_SIZE, WINDOW_LENGTH,
+                                         BUFFER_SIZE)) {
+            assertFalse(fv instanceof MappedFileView);
+        }
+    }
+
+    @Test(expected = FileViewNotFound.class)
+    public void testOpenMissingFile() throws Exception
+    {
+        Files.delete(_path);
+        FileView.open(_path, 2 * 1024 * 1024, WINDOW_LENGTH, BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.RsyncClient;
+import com.github.perlundq.yajsync.test.Benchmark;
+
+/**
+ * Measures a local copy of a large file with and without the digest of the
+ * received data being computed by a separate thread, with and without write
+ * behind. The file is either sent as literal data (--whole-file) or fully
+ * matched against an identical replica (--ignore-times). The gain of a
+ * separate digest thread depends on there being a core to spare for it.
+ */
+public class AsyncDigestBenchmark
+{
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final long WRITE_BEHIND_LIMIT = 8 * 1024 * 1024;
+    private static final int NUM_OPS = 3;
+
+    public static void main(String[] args) throws Exception
+    {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        System.out.println(Runtime.getRuntime().availableProcessors() +
+                           " CPUs");
+        Path dir = Files.createTempDirectory("AsyncDigestBenchmark");
+        Path src = dir.resolve("src");
+        Path dst = dir.resolve("dst");
+        byte[] content = new byte[FILE_SIZE];
+        new Random(0).nextBytes(content);
+        Files.write(src, content);
+        Files.write(dst, content);
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for (boolean isWholeFile : new boolean[] { true, false }) {
+                for (long limit : new long[] { 0, WRITE_BEHIND_LIMIT }) {
+                    for (boolean isAsync : new boolean[] { false, true }) {
+                        run(src, dst, executor, isWholeFile, limit, isAsync);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(src);
+            Files.deleteIfExists(dst);
+            Files.delete(dir);
+        }
+    }
+
+    private static void run(final Path src, final Path dst,
+                            final ExecutorService executor,
+                            final boolean isWholeFile,
+                            final long writeBehindLimit,
+                            final boolean isAsyncDigest)
+        throws Exception
+    {
+        Benchmark.run(String.format("%s write-behind=%d async-digest=%b " +
+                                    "%d bytes",
+                                    isWholeFile ? "literal" : "matched",
+                                    writeBehindLimit, isAsyncDigest,
+                                    FILE_SIZE),
+                      NUM_OPS, new Benchmark.Task() {
+            @Override
+            public long run(int numOps) throws Exception
+            {
+                long numBytes = 0;
+                for (int i = 0; i < numOps; i++) {
+                    RsyncClient.Result result = new RsyncClient.Builder().
+                        isIgnoreTimes(true).
+                        isWholeFile(isWholeFile).
+                        isDirectCopy(false).
+                        writeBehindLimit(writeBehindLimit).
+                        isAsyncDigest(isAsyncDigest).
+                        executorService(executor).
+                        buildLocal().
+                        copy(new Path[] { src }).
+                        to(dst);
+                    if (!result.isOK() ||
+                        result.statistics().numTransferredFiles() != 1) {
+                        throw new IllegalStateException("transfer failed");
+                    }
+                    numBytes += result.statistics().totalLiteralSize() +
+                                result.statistics().totalMatchedSize();
+                }
+                return numBytes;
+            }
+        });
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.RsyncClient;
+import com.github.perlundq.yajsync.test.Benchmark;
+
+/**
+ * Measures a local update of a large file with and without a checksum
+ * cache (--checksum-cache). Every operation transfers the file with
+ * --ignore-times, --inplace and --times, so that the basis keeps its inode
+ * and modification time and its cached block checksums stay valid. The
+ * Sender reads the whole file either way, the cache only saves the
+ * Generator from reading and hashing the basis.
+ */
+public class ChecksumCacheBenchmark
+{
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final int NUM_OPS = 1;
+    private static final int CHECKSUM_SEED = 1234;
+
+    public static void main(String[] args) throws Exception
+    {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        Path dir = Files.createTempDirectory("ChecksumCacheBenchmark");
+        Path src = dir.resolve("src");
+        Path dst = dir.resolve("dst");
+        Path cacheDir = dir.resolve("cache");
+        Random random = new Random(0);
+        byte[] content = new byte[FILE_SIZE];
+        random.nextBytes(content);
+        Files.write(src, content);
+        // modified long enough ago for its checksums to be cached
+        Files.setLastModifiedTime(src, FileTime.from(
+            System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1),
+            TimeUnit.MILLISECONDS));
+        content[random.nextInt(FILE_SIZE)]++;
+        Files.write(dst, content);
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            run(src, dst, null, executor);
+            run(src, dst, cacheDir, executor);
+        } finally {
+            executor.shutdown();
+            Files.delete(src);
+            Files.delete(dst);
+            deleteAll(cacheDir);
+            Files.delete(dir);
+        }
+    }
+
+    private static void run(final Path src, final Path dst,
+                            final Path cacheDirOrNull,
+                            final ExecutorService executor)
+        throws Exception
+    {
+        Benchmark.run(String.format("%s %d bytes",
+                                    cacheDirOrNull == null ? "no cache"
+                                                           : "cache",
+                                    FILE_SIZE),
+                      NUM_OPS, new Benchmark.Task() {
+            @Override
+            public long run(int numOps) throws Exception
+            {
+                long numTransferred = 0;
+                for (int i = 0; i < numOps; i++) {
+                    RsyncClient.Result result = new RsyncClient.Builder().
+                        isIgnoreTimes(true).
+                        isInplace(true).
+                        isPreserveTimes(true).
+                        checksumSeed(CHECKSUM_SEED).
+                        checksumCache(cacheDirOrNull).
+                        executorService(executor).
+                        buildLocal().
+                        copy(new Path[] { src }).
+                        to(dst);
+                    if (!result.isOK()) {
+                        throw new IllegalStateException("transfer failed");
+                    }
+                    numTransferred +=
+                        result.statistics().numTransferredFiles();
+                }
+                return numTransferred;
+            }
+        });
+    }
+
+    private static void deleteAll(Path dir) throws IOException
+    {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.FileSelection;
+import com.github.perlundq.yajsync.RsyncClient;
+import com.github.perlundq.yajsync.test.Benchmark;
+
+/**
+ * Measures a local update of a directory of files with their block
+ * checksums generated by the Generator thread alone and by a number of
+ * checksum threads (--checksum-threads). Every operation transfers all
+ * files with --ignore-times, so that the block checksums of every basis
+ * file are generated again. Any gain depends on the number of CPUs
+ * available, there is none to expect with a single CPU.
+ */
+public class ChecksumParallelismBenchmark
+{
+    private static final int NUM_FILES = 64;
+    private static final int FILE_SIZE = 1024 * 1024;
+    private static final int NUM_OPS = 1;
+    private static final int[] PARALLELISMS = { 1, 2, 4 };
+
+    public static void main(String[] args) throws Exception
+    {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        Path dir = Files.createTempDirectory("ChecksumParallelismBenchmark");
+        Path src = Files.createDirectories(dir.resolve("src"));
+        Path dst = Files.createDirectories(dir.resolve("dst"));
+        Random random = new Random(0);
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < NUM_FILES; i++) {
+            random.nextBytes(content);
+            Files.write(src.resolve("file" + i), content);
+            // a slightly different basis of the same size
+            content[random.nextInt(FILE_SIZE)]++;
+            Files.write(dst.resolve("file" + i), content);
+        }
+
+        System.out.format("%d CPUs%n",
+                          Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for (int parallelism : PARALLELISMS) {
+                run(src, dst, executor, parallelism);
+            }
+        } finally {
+            executor.shutdown();
+            deleteAll(src);
+            deleteAll(dst);
+            Files.delete(dir);
+        }
+    }
+
+    private static void run(final Path src, final Path dst,
+                            final ExecutorService executor,
+                            final int parallelism)
+        throws Exception
+    {
+        Benchmark.run(String.format("%d checksum threads %d x %d bytes",
+                                    parallelism, NUM_FILES, FILE_SIZE),
+                      NUM_OPS, new Benchmark.Task() {
+            @Override
+            public long run(int numOps) throws Exception
+            {
+                long numTransferred = 0;
+                for (int i = 0; i < numOps; i++) {
+                    RsyncClient.Result result = new RsyncClient.Builder().
+                        fileSelection(FileSelection.RECURSE).
+                        isIgnoreTimes(true).
+                        checksumParallelism(parallelism).
+                        executorService(executor).
+                        buildLocal().
+                        copy(new Path[] { src.resolve(".") }).
+                        to(dst);
+                    if (!result.isOK()) {
+                        throw new IllegalStateException("transfer failed");
+                    }
+                    numTransferred +=
+                        result.statistics().numTransferredFiles();
+                }
+                return numTransferred;
+            }
+        });
+    }
+
+    private static void deleteAll(Path dir) throws IOException
+    {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+}
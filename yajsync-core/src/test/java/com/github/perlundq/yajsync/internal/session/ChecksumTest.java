@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ChecksumTest
+{
+    private static final int BLOCK_LENGTH = 512;
+
+    private static byte[] digestOf(int value)
+    {
+        return new byte[] { (byte) value, (byte) (value >>> 8) };
+    }
+
+    private static Checksum newChecksum(int[] rollings, int remainder)
+    {
+        Checksum.Header header = new Checksum.Header(rollings.length,
+                                                     BLOCK_LENGTH,
+                                                     remainder, 2);
+        Checksum checksum = new Checksum(header);
+        for (int i = 0; i < rollings.length; i++) {
+            checksum.addChunkInformation(rollings[i], digestOf(i));
+        }
+        return checksum;
+    }
+
+    @Test
+    public void testNoCandidates()
+    {
+        Checksum checksum = newChecksum(new int[] { 1, 2, 3 }, 0);
+        Checksum.Probe probe = checksum.newProbe();
+        assertFalse(probe.reset(4, BLOCK_LENGTH, 0));
+        assertEquals(-1, probe.next());
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        Checksum checksum = newChecksum(new int[0], 0);
+        Checksum.Probe probe = checksum.newProbe();
+        assertFalse(probe.reset(0, BLOCK_LENGTH, 0));
+        assertEquals(-1, probe.next());
+    }
+
+    @Test
+    public void testPreferredIndexFirst()
+    {
+        Checksum checksum = newChecksum(new int[] { 7, 1, 7, 7, 2, 7 }, 0);
+        Checksum.Probe probe = checksum.newProbe();
+        assertTrue(probe.reset(7, BLOCK_LENGTH, 3));
+        assertEquals(3, probe.next());
+        assertEquals(0, probe.next());
+        assertEquals(2, probe.next());
+        assertEquals(5, probe.next());
+        assertEquals(-1, probe.next());
+    }
+
+    @Test
+    public void testCloseToPreferredIndexFirst()
+    {
+        Checksum checksum = newChecksum(new int[] { 7, 1, 7, 7, 2, 7 }, 0);
+        Checksum.Probe probe = checksum.newProbe();
+        probe.reset(7, BLOCK_LENGTH, 4);
+        assertEquals(5, probe.next());
+        assertEquals(0, probe.next());
+        probe.reset(7, BLOCK_LENGTH, 100);
+        assertEquals(5, probe.next());
+        assertEquals(0, probe.next());
+        assertEquals(2, probe.next());
+        assertEquals(3, probe.next());
+        assertEquals(-1, probe.next());
+    }
+
+    @Test
+    public void testLengthMismatch()
+    {
+        Checksum checksum = newChecksum(new int[] { 7, 7, 7 }, 100);
+        Checksum.Probe probe = checksum.newProbe();
+        probe.reset(7, 100, 0);
+        assertEquals(2, probe.next());
+        assertEquals(-1, probe.next());
+        probe.reset(7, BLOCK_LENGTH, 2);
+        assertEquals(0, probe.next());
+        assertEquals(1, probe.next());
+        assertEquals(-1, probe.next());
+    }
+
+    @Test
+    public void testTagCollision()
+    {
+        // 0x00010000 and 0x00000001 share the same 16 bit tag
+        Checksum checksum = newChecksum(new int[] { 0x00010000 }, 0);
+        Checksum.Probe probe = checksum.newProbe();
+        assertFalse(probe.reset(0x00000001, BLOCK_LENGTH, 0));
+        assertTrue(probe.reset(0x00010000, BLOCK_LENGTH, 0));
+        assertEquals(0, probe.next());
+    }
+
+    @Test
+    public void testDigestEqual()
+    {
+        Checksum checksum = newChecksum(new int[] { 1, 2, 3 }, 0);
+        byte[] digest = { 0, 0, 2, 0, 0 };
+        assertTrue(checksum.isDigestEqual(2, digest, 2));
+        assertFalse(checksum.isDigestEqual(1, digest, 2));
+        assertFalse(checksum.isDigestEqual(2, digest, 0));
+    }
+
+    @Test
+    public void testIndexOfCandidate()
+    {
+        Checksum checksum = newChecksum(new int[] { 7, 0x00010000 }, 0);
+        int[] sums = { 1, 2, 0x00000001, 7, 3, 0x00010000 };
+        assertEquals(3, checksum.indexOfCandidate(sums, 0, sums.length));
+        assertEquals(3, checksum.indexOfCandidate(sums, 3, sums.length));
+        assertEquals(5, checksum.indexOfCandidate(sums, 4, sums.length));
+        assertEquals(3, checksum.indexOfCandidate(sums, 0, 3));
+        assertEquals(2, checksum.indexOfCandidate(sums, 2, 2));
+    }
+
+    @Test
+    public void testManyChunks()
+    {
+        int numChunks = 100000;
+        int[] rollings = new int[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            rollings[i] = i % 1000 == 0 ? 42 : i * 31;
+        }
+        Checksum checksum = newChecksum(rollings, 0);
+        Checksum.Probe probe = checksum.newProbe();
+        for (int i = 1; i < numChunks; i++) {
+            if (i % 1000 != 0) {
+                probe.reset(i * 31, BLOCK_LENGTH, 0);
+                assertEquals(i, probe.next());
+                assertEquals(-1, probe.next());
+            }
+        }
+        probe.reset(42, BLOCK_LENGTH, 5001);
+        assertEquals(6000, probe.next());
+        assertEquals(0, probe.next());
+    }
+}
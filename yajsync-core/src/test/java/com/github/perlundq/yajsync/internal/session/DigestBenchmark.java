@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.RsyncClient;
+import com.github.perlundq.yajsync.StrongChecksum;
+import com.github.perlundq.yajsync.test.Benchmark;
+
+/**
+ * Measures the delta transfer of a file with highly repetitive content,
+ * where Sender.sendMatchesAndData computes a strong checksum for almost
+ * every block, against a basis file of many blocks. Every operation is a
+ * local transfer of the whole file, with the basis file restored first.
+ *
+ * The time and allocation per operation include those of the Generator and
+ * the Receiver. Compare the numbers of two builds to measure a change of
+ * Sender.
+ */
+public class DigestBenchmark
+{
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+    private static final int PAGE_SIZE = 4096;
+    private static final int NUM_OPS = 1;
+
+    public static void main(String[] args) throws Exception
+    {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        byte[] zeroes = new byte[FILE_SIZE];
+        byte[] pages = new byte[FILE_SIZE];
+        byte[] page = new byte[PAGE_SIZE];
+        new Random(0).nextBytes(page);
+        for (int offset = 0; offset < FILE_SIZE; offset += PAGE_SIZE) {
+            System.arraycopy(page, 0, pages, offset, PAGE_SIZE);
+        }
+
+        Path dir = Files.createTempDirectory("DigestBenchmark");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for (StrongChecksum strongChecksum : StrongChecksum.values()) {
+                run(dir, executor, strongChecksum, "zeroes", zeroes);
+                run(dir, executor, strongChecksum, "pages", pages);
+            }
+        } finally {
+            executor.shutdown();
+            for (Path path : new Path[] { dir.resolve("src"),
+                                          dir.resolve("basis"),
+                                          dir.resolve("dst") }) {
+                Files.deleteIfExists(path.resolve("file"));
+                Files.deleteIfExists(path);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static void run(Path dir, final ExecutorService executor,
+                            final StrongChecksum strongChecksum, String name,
+                            byte[] content)
+        throws Exception
+    {
+        final Path src = Files.createDirectories(dir.resolve("src"));
+        final Path basis = Files.createDirectories(dir.resolve("basis"));
+        final Path dst = Files.createDirectories(dir.resolve("dst"));
+        Files.write(src.resolve("file"), content);
+        // differs from the source in every block of the first page only
+        byte[] basisContent = Arrays.copyOf(content, content.length);
+        for (int i = 0; i < PAGE_SIZE; i += 64) {
+            basisContent[i]++;
+        }
+        Files.write(basis.resolve("file"), basisContent);
+
+        Benchmark.run(String.format("%s %s %d MiB", strongChecksum, name,
+                                    FILE_SIZE / 1024 / 1024),
+                      NUM_OPS, new Benchmark.Task() {
+            @Override
+            public long run(int numOps) throws Exception
+            {
+                long numMatched = 0;
+                for (int i = 0; i < numOps; i++) {
+                    Files.copy(basis.resolve("file"), dst.resolve("file"),
+                               StandardCopyOption.REPLACE_EXISTING);
+                    RsyncClient.Result result = new RsyncClient.Builder().
+                        isIgnoreTimes(true).
+                        isDirectCopy(false).
+                        checksumChoice(strongChecksum).
+                        executorService(executor).
+                        buildLocal().
+                        copy(new Path[] { src.resolve("file") }).
+                        to(dst);
+                    if (!result.isOK()) {
+                        throw new IllegalStateException("transfer failed");
+                    }
+                    numMatched += result.statistics().totalMatchedSize();
+                    if (numMatched == 0) {
+                        throw new IllegalStateException("no blocks matched");
+                    }
+                }
+                return numMatched;
+            }
+        });
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.FileSelection;
+import com.github.perlundq.yajsync.RsyncClient;
+import com.github.perlundq.yajsync.test.Benchmark;
+
+/**
+ * Measures a local --checksum transfer of a directory of files which are
+ * already up to date, with and without a digest cache (--digest-cache).
+ * Without a cache every file is read and hashed by both Sender and
+ * Generator for every operation.
+ */
+public class DigestCacheBenchmark
+{
+    private static final int NUM_FILES = 64;
+    private static final int FILE_SIZE = 1024 * 1024;
+    private static final int NUM_OPS = 1;
+
+    public static void main(String[] args) throws Exception
+    {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        Path dir = Files.createTempDirectory("DigestCacheBenchmark");
+        Path src = Files.createDirectories(dir.resolve("src"));
+        Path dst = Files.createDirectories(dir.resolve("dst"));
+        Path cacheFile = dir.resolve("cache");
+        // modified long enough ago for their digests to be cached
+        FileTime modified = FileTime.from(
+            System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1),
+            TimeUnit.MILLISECONDS);
+        Random random = new Random(0);
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < NUM_FILES; i++) {
+            random.nextBytes(content);
+            Files.setLastModifiedTime(
+                Files.write(src.resolve("file" + i), content), modified);
+            Files.setLastModifiedTime(
+                Files.write(dst.resolve("file" + i), content), modified);
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            run(src, dst, null, executor);
+            run(src, dst, cacheFile, executor);
+        } finally {
+            executor.shutdown();
+            deleteAll(src);
+            deleteAll(dst);
+            Files.deleteIfExists(cacheFile);
+            Files.delete(dir);
+        }
+    }
+
+    private static void run(final Path src, final Path dst,
+                            final Path cacheFileOrNull,
+                            final ExecutorService executor)
+        throws Exception
+    {
+        Benchmark.run(String.format("%s %d x %d bytes",
+                                    cacheFileOrNull == null ? "no cache"
+                                                            : "cache",
+                                    NUM_FILES, FILE_SIZE),
+                      NUM_OPS, new Benchmark.Task() {
+            @Override
+            public long run(int numOps) throws Exception
+            {
+                long numFiles = 0;
+                for (int i = 0; i < numOps; i++) {
+                    RsyncClient.Result result = new RsyncClient.Builder().
+                        fileSelection(FileSelection.RECURSE).
+                        isAlwaysChecksum(true).
+                        digestCache(cacheFileOrNull).
+                        executorService(executor).
+                        buildLocal().
+                        copy(new Path[] { src.resolve(".") }).
+                        to(dst);
+                    if (!result.isOK() ||
+                        result.statistics().numTransferredFiles() != 0) {
+                        throw new IllegalStateException("transfer failed");
+                    }
+                    numFiles += result.statistics().numFiles();
+                }
+                return numFiles;
+            }
+        });
+    }
+
+    private static void deleteAll(Path dir) throws IOException
+    {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.perlundq.yajsync.Durability;
+import com.github.perlundq.yajsync.FileSelection;
+import com.github.perlundq.yajsync.RsyncClient;
+import com.github.perlundq.yajsync.test.Benchmark;
+
+/**
+ * Measures a local copy of a directory of many small files with each
+ * durability policy. Every operation copies the whole directory to an empty
+ * destination, which is deleted again afterwards. The temporary directory
+ * should be on the kind of file system to measure, as the cost of forcing
+ * files to disk depends on it.
+ */
+public class DurabilityBenchmark
+{
+    private static final int NUM_FILES = 256;
+    private static final int FILE_SIZE = 4096;
+    private static final int NUM_OPS = 1;
+
+    public static void main(String[] args) throws Exception
+    {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        Path dir = Files.createTempDirectory("DurabilityBenchmark");
+        Path src = Files.createDirectories(dir.resolve("src"));
+        Random random = new Random(0);
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < NUM_FILES; i++) {
+            random.nextBytes(content);
+            Files.write(src.resolve("file" + i), content);
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for (Durability durability : Durability.values()) {
+                run(dir, executor, durability);
+            }
+        } finally {
+            executor.shutdown();
+            deleteAll(src);
+            Files.delete(dir);
+        }
+    }
+
+    private static void run(final Path dir, final ExecutorService executor,
+                            final Durability durability)
+        throws Exception
+    {
+        final Path src = dir.resolve("src");
+        final Path dst = dir.resolve("dst");
+        Benchmark.run(String.format("%s %d x %d bytes", durability, NUM_FILES,
+                                    FILE_SIZE),
+                      NUM_OPS, new Benchmark.Task() {
+            @Override
+            public long run(int numOps) throws Exception
+            {
+                long numTransferred = 0;
+                for (int i = 0; i < numOps; i++) {
+                    RsyncClient.Result result = new RsyncClient.Builder().
+                        fileSelection(FileSelection.RECURSE).
+                        durability(durability).
+                        executorService(executor).
+                        buildLocal().
+                        copy(new Path[] { src.resolve(".") }).
+                        to(dst);
+                    if (!result.isOK()) {
+                        throw new IllegalStateException("transfer failed");
+                    }
+                    numTransferred +=
+                        result.statistics().numTransferredFiles();
+                    deleteAll(dst);
+                }
+                return numTransferred;
+            }
+        });
+    }
+
+    private static void deleteAll(Path dir) throws IOException
+    {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+}
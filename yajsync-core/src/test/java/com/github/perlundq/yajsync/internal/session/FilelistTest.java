@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.attr.DeviceInfo;
+import com.github.perlundq.yajsync.attr.FileInfo;
+import com.github.perlundq.yajsync.attr.Group;
+import com.github.perlundq.yajsync.attr.LocatableFileInfo;
+import com.github.perlundq.yajsync.attr.RsyncFileAttributes;
+import com.github.perlundq.yajsync.attr.SymlinkInfo;
+import com.github.perlundq.yajsync.attr.User;
+import com.github.perlundq.yajsync.internal.text.Text;
+import com.github.perlundq.yajsync.internal.util.FileOps;
+
+public class FilelistTest
+{
+    private static final Charset CHARSET = Charset.forName(Text.UTF8_NAME);
+    private static final Path BASE = Paths.get("/base");
+    private static final User USER = new User("user", 1000);
+    private static final Group GROUP = new Group("group", 1000);
+    private static final int NUM_SEGMENT_FILES = 1000;
+
+    private static RsyncFileAttributes attrs(int mode, long size)
+    {
+        return new RsyncFileAttributes(mode, size, 1234567890L, USER, GROUP);
+    }
+
+    private static FileInfoImpl file(String pathName, long size)
+    {
+        return new LocatableFileInfoImpl(pathName, pathName.getBytes(CHARSET),
+                                         attrs(FileOps.S_IFREG | 0644, size),
+                                         BASE.resolve(pathName));
+    }
+
+    private static FileInfoImpl directory(String pathName)
+    {
+        return new LocatableFileInfoImpl(pathName, pathName.getBytes(CHARSET),
+                                         attrs(FileOps.S_IFDIR | 0755, 0),
+                                         BASE.resolve(pathName));
+    }
+
+    private static Filelist.Segment segmentOf(Filelist fileList,
+                                              FileInfo directory,
+                                              List<FileInfoImpl> files)
+    {
+        Filelist.SegmentBuilder builder =
+            new Filelist.SegmentBuilder(directory);
+        for (FileInfo f : files) {
+            builder.add(f);
+        }
+        return fileList.newSegment(builder);
+    }
+
+    private static void assertSameFile(FileInfo expected, FileInfo actual)
+    {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected, actual);
+        assertEquals(0, expected.compareTo(actual));
+        assertEquals(expected.hashCode(), actual.hashCode());
+        assertEquals(expected.pathName(), actual.pathName());
+        assertEquals(expected.attrs(), actual.attrs());
+        assertSame(expected.attrs().user(), actual.attrs().user());
+        assertSame(expected.attrs().group(), actual.attrs().group());
+        assertEquals(((FileInfoImpl) expected).isDotDir(),
+                     ((FileInfoImpl) actual).isDotDir());
+        assertArrayEquals(((FileInfoImpl) expected).checksumOrNull(),
+                          ((FileInfoImpl) actual).checksumOrNull());
+        if (expected instanceof LocatableFileInfo) {
+            assertEquals(((LocatableFileInfo) expected).path(),
+                         ((LocatableFileInfo) actual).path());
+        }
+        if (expected instanceof SymlinkInfo) {
+            assertEquals(((SymlinkInfo) expected).targetPathName(),
+                         ((SymlinkInfo) actual).targetPathName());
+        }
+        if (expected instanceof DeviceInfo) {
+            assertEquals(((DeviceInfo) expected).major(),
+                         ((DeviceInfo) actual).major());
+            assertEquals(((DeviceInfo) expected).minor(),
+                         ((DeviceInfo) actual).minor());
+        }
+    }
+
+    // every kind of file is handed out as a view of the same type and value
+    // as the original
+    @Test
+    public void testViews()
+    {
+        Filelist fileList = new Filelist(false, false, CHARSET);
+        User other = new User("other", 1001);
+        byte[] untransferrable = { 'b', (byte) 0xff };
+        FileInfoImpl withChecksum = file("checksum", 10);
+        withChecksum.setChecksum(new byte[] { 1, 2, 3 });
+        List<FileInfoImpl> files = Arrays.asList(
+            new LocatableFileInfoImpl(".", ".".getBytes(CHARSET),
+                                      attrs(FileOps.S_IFDIR | 0755, 0),
+                                      BASE),
+            file("a", 100),
+            withChecksum,
+            new LocatableFileInfoImpl("elsewhere",
+                                      "elsewhere".getBytes(CHARSET),
+                                      attrs(FileOps.S_IFREG | 0600, 1),
+                                      Paths.get("/other/elsewhere")),
+            new LocatableFileInfoImpl(
+                "åäö", "åäö".getBytes(CHARSET),
+                new RsyncFileAttributes(FileOps.S_IFREG | 0644, 5, 0, other,
+                                        GROUP),
+                BASE.resolve("åäö")),
+            new LocatableSymlinkInfoImpl("link", "link".getBytes(CHARSET),
+                                         attrs(FileOps.S_IFLNK | 0777, 1),
+                                         "a", BASE.resolve("link")),
+            new SymlinkInfoImpl("link2", "link2".getBytes(CHARSET),
+                                attrs(FileOps.S_IFLNK | 0777, 1), "b"),
+            new LocatableDeviceInfoImpl("dev", "dev".getBytes(CHARSET),
+                                        attrs(FileOps.S_IFCHR | 0600, 0), 1,
+                                        3, BASE.resolve("dev")),
+            new DeviceInfoImpl("dev2", "dev2".getBytes(CHARSET),
+                               attrs(FileOps.S_IFBLK | 0600, 0), 8, 1),
+            new FileInfoImpl(null, untransferrable,
+                             attrs(FileOps.S_IFREG | 0644, 7)),
+            directory("dir"));
+        List<FileInfoImpl> sorted = new ArrayList<>(files);
+        Filelist.Segment segment = segmentOf(fileList, null, files);
+        Collections.sort(sorted);
+
+        assertEquals(sorted.size(), segment.files().size());
+        assertEquals(100 + 10 + 1 + 5 + 1 + 1 + 7, fileList.totalFileSize());
+        int i = 0;
+        for (Map.Entry<Integer, FileInfo> e : segment.entrySet()) {
+            assertEquals(i, (int) e.getKey());
+            assertSameFile(sorted.get(i), e.getValue());
+            assertSameFile(sorted.get(i),
+                           segment.getFileWithIndexOrNull(e.getKey()));
+            i++;
+        }
+        assertEquals(sorted.size(), i);
+    }
+
+    @Test
+    public void testRemove()
+    {
+        Filelist fileList = new Filelist(false, false, CHARSET);
+        List<FileInfoImpl> files = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            files.add(file(String.format("file%03d", i), i));
+        }
+        Filelist.Segment segment =
+            segmentOf(fileList, null, new ArrayList<>(files));
+        assertNull(segment.getFileWithIndexOrNull(200));
+
+        assertEquals(files.get(0), segment.remove(0));
+        assertEquals(files.get(63), segment.remove(63));
+        assertEquals(files.get(64), segment.remove(64));
+        assertEquals(files.get(199), segment.remove(199));
+        segment.removeAll(Arrays.asList(1, 2, 63, 500));
+        assertNull(segment.getFileWithIndexOrNull(0));
+        assertNull(segment.getFileWithIndexOrNull(63));
+        assertEquals(files.get(3), segment.getFileWithIndexOrNull(3));
+        assertEquals(200 - 6, segment.files().size());
+        try {
+            segment.remove(64);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        int prev = -1;
+        int n = 0;
+        for (Map.Entry<Integer, FileInfo> e : segment.entrySet()) {
+            assertTrue(e.getKey() > prev);
+            assertFalse(Arrays.asList(0, 1, 2, 63, 64, 199).
+                        contains(e.getKey()));
+            assertEquals(files.get(e.getKey()), e.getValue());
+            prev = e.getKey();
+            n++;
+        }
+        assertEquals(200 - 6, n);
+
+        segment.removeAll();
+        assertTrue(segment.isFinished());
+        assertFalse(segment.files().iterator().hasNext());
+    }
+
+    @Test
+    public void testPruneDuplicates()
+    {
+        Filelist fileList = new Filelist(false, true, CHARSET);
+        Filelist.Segment segment =
+            segmentOf(fileList, null,
+                      new ArrayList<>(Arrays.asList(file("b", 1),
+                                                    file("a", 2),
+                                                    file("b", 4))));
+        assertEquals(2, segment.files().size());
+        assertEquals(file("a", 2), segment.getFileWithIndexOrNull(0));
+        assertEquals(file("b", 4).pathName(),
+                     segment.getFileWithIndexOrNull(1).pathName());
+        assertNull(segment.getFileWithIndexOrNull(2));
+        assertEquals(3, fileList.totalFileSize());
+    }
+
+    // segments are added while the files of earlier ones are removed and
+    // iterated over by other threads, the way the Receiver, Generator and
+    // Sender use them
+    @Test(timeout=60000)
+    public void testConcurrentAddRemoveIterate() throws Exception
+    {
+        final int numSegments = 50;
+        final int numFiles = NUM_SEGMENT_FILES;
+        final Filelist fileList = new ConcurrentFilelist(true, true, CHARSET);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final int[] endIndex = { Integer.MAX_VALUE };
+
+        Thread adder = new Thread() {
+            @Override
+            public void run()
+            {
+                FileInfo directory = null;
+                for (int s = 0; s < numSegments; s++) {
+                    List<FileInfoImpl> files = new ArrayList<>();
+                    for (int i = 0; i < numFiles; i++) {
+                        files.add(file(String.format("d%02d/f%04d", s, i), 1));
+                    }
+                    Filelist.Segment segment =
+                        segmentOf(fileList, directory, files);
+                    directory = directory(String.format("d%02d", s + 1));
+                    if (s == numSegments - 1) {
+                        synchronized (endIndex) {
+                            endIndex[0] = segment.directoryIndex() + numFiles;
+                        }
+                    }
+                }
+            }
+        };
+        Thread iterator = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    // a segment is found by its directory index even if all
+                    // of its files are removed
+                    for (int dirIndex = 0; dirIndex < lastIndex(endIndex); ) {
+                        Filelist.Segment segment =
+                            fileList.getSegmentWith(dirIndex);
+                        if (segment == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        checkIteration(segment);
+                        dirIndex += numFiles + 1;
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        };
+        adder.start();
+        iterator.start();
+
+        // remove every file in order as soon as its segment is added
+        int numRemoved = 0;
+        for (int index = 1; index <= lastIndex(endIndex); ) {
+            Filelist.Segment segment = fileList.getSegmentWith(index);
+            if (segment == null) {
+                Thread.yield();
+                continue;
+            }
+            FileInfo f = segment.remove(index);
+            assertEquals(String.format("d%02d/f%04d",
+                                       (index - 1) / (numFiles + 1),
+                                       (index - 1) % (numFiles + 1)),
+                         f.pathName());
+            numRemoved++;
+            index++;
+            if (segment.isFinished()) {
+                index++; // the directory index of the next segment
+            }
+        }
+        adder.join();
+        iterator.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(numSegments * numFiles, numRemoved);
+        assertEquals(numSegments * numFiles, fileList.numFiles());
+    }
+
+    private static int lastIndex(int[] endIndex)
+    {
+        synchronized (endIndex) {
+            return endIndex[0];
+        }
+    }
+
+    // a weakly consistent iteration returns files in index order, each at
+    // most once and each matching its index
+    private static void checkIteration(Filelist.Segment segment)
+    {
+        int prev = segment.directoryIndex();
+        for (Map.Entry<Integer, FileInfo> e : segment.entrySet()) {
+            int index = e.getKey();
+            assertTrue(index > prev);
+            int segmentIndex = segment.directoryIndex() /
+                               (NUM_SEGMENT_FILES + 1);
+            int fileIndex = index - segment.directoryIndex() - 1;
+            assertEquals(String.format("d%02d/f%04d", segmentIndex, fileIndex),
+                         e.getValue().pathName());
+            prev = index;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.github.perlundq.yajsync.test.Benchmark;
+
+/**
+ * Compares the throughput of the Generator's job queue, a JobQueue of typed
+ * job slots, with the LinkedBlockingQueue of anonymous jobs drained into a
+ * LinkedList that it replaced. One to four producer threads append jobs
+ * which the benchmark thread drains, as the Receiver and the Generator do.
+ *
+ * The number of bytes allocated per job is that of the consumer thread only.
+ */
+public class JobQueueBenchmark
+{
+    private interface Job
+    {
+        long process();
+    }
+
+    private enum JobType { PURGE_FILE }
+
+    private static final int NUM_OPS = 1000000;
+    private static final int JOB_QUEUE_SIZE = 8 * 1024;
+
+    private static long _sum;
+
+    public static void main(String[] args) throws Exception
+    {
+        for (int numProducers = 1; numProducers <= 4; numProducers *= 2) {
+            final int n = numProducers;
+            Benchmark.run(String.format("LinkedBlockingQueue %d producer(s)",
+                                        n),
+                          NUM_OPS, new Benchmark.Task() {
+                @Override
+                public long run(int numOps) throws Exception
+                {
+                    return runLinkedBlockingQueue(n, numOps);
+                }
+            });
+            Benchmark.run(String.format("JobQueue %d producer(s)", n),
+                          NUM_OPS, new Benchmark.Task() {
+                @Override
+                public long run(int numOps) throws Exception
+                {
+                    return runJobQueue(n, numOps);
+                }
+            });
+        }
+    }
+
+    private static long runLinkedBlockingQueue(int numProducers, int numOps)
+        throws Exception
+    {
+        final LinkedBlockingQueue<Job> jobs = new LinkedBlockingQueue<>();
+        final int numJobs = numOps / numProducers;
+        Thread[] producers = new Thread[numProducers];
+        for (int p = 0; p < numProducers; p++) {
+            producers[p] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (int i = 0; i < numJobs; i++) {
+                            final int index = i;
+                            jobs.put(new Job() {
+                                @Override
+                                public long process()
+                                {
+                                    return index;
+                                }
+                            });
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        long sum = 0;
+        List<Job> jobList = new LinkedList<>();
+        for (int numProcessed = 0; numProcessed < numJobs * numProducers; ) {
+            jobList.add(jobs.take());
+            jobs.drainTo(jobList);
+            for (Job job : jobList) {
+                sum += job.process();
+            }
+            numProcessed += jobList.size();
+            jobList.clear();
+        }
+        join(producers);
+        return sum;
+    }
+
+    private static long runJobQueue(int numProducers, int numOps)
+        throws Exception
+    {
+        final JobQueue<JobType> jobs = new JobQueue<>(JOB_QUEUE_SIZE);
+        final int numJobs = numOps / numProducers;
+        Thread[] producers = new Thread[numProducers];
+        for (int p = 0; p < numProducers; p++) {
+            producers[p] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (int i = 0; i < numJobs; i++) {
+                            jobs.put(JobType.PURGE_FILE, null, i, null);
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        _sum = 0;
+        JobQueue.Consumer<JobType> consumer = new JobQueue.Consumer<JobType>() {
+            @Override
+            public void process(JobType type, Filelist.Segment segment,
+                                int index, Object arg)
+            {
+                _sum += index;
+            }
+        };
+        for (int numProcessed = 0; numProcessed < numJobs * numProducers; ) {
+            numProcessed += jobs.drain(consumer);
+        }
+        join(producers);
+        return _sum;
+    }
+
+    private static void join(Thread[] threads) throws InterruptedException
+    {
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.RsyncException;
+
+public class JobQueueTest
+{
+    private enum Type { A, B }
+
+    private static final class Recorder implements JobQueue.Consumer<Type>
+    {
+        private final List<Type> _types = new ArrayList<>();
+        private final List<Integer> _indexes = new ArrayList<>();
+
+        @Override
+        public void process(Type type, Filelist.Segment segment, int index,
+                            Object arg)
+        {
+            _types.add(type);
+            _indexes.add(index);
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testOrder() throws Exception
+    {
+        JobQueue<Type> queue = new JobQueue<>(4);
+        Recorder recorder = new Recorder();
+        int n = 0;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < queue.capacity(); i++) {
+                queue.put(Type.A, null, n++, null);
+            }
+            assertFalse(queue.isEmpty());
+            assertEquals(queue.capacity(), queue.drain(recorder));
+            assertTrue(queue.isEmpty());
+        }
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, (int) recorder._indexes.get(i));
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testDrainHead() throws Exception
+    {
+        JobQueue<Type> queue = new JobQueue<>(8);
+        Recorder recorder = new Recorder();
+        queue.put(Type.A, null, 0, null);
+        queue.put(Type.A, null, 1, null);
+        queue.put(Type.B, null, 2, null);
+        queue.put(Type.A, null, 3, null);
+        assertEquals(2, queue.drainHead(EnumSet.of(Type.A), recorder));
+        assertEquals(0, queue.drainHead(EnumSet.of(Type.A), recorder));
+        assertEquals(2, queue.drain(recorder));
+        assertEquals(0, queue.drainHead(EnumSet.of(Type.A), recorder));
+        assertEquals(4, recorder._indexes.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) recorder._indexes.get(i));
+        }
+    }
+
+    // a job drained ahead by the consumer of a job is not processed twice
+    @Test(timeout=10000)
+    public void testDrainHeadWhileDraining() throws Exception
+    {
+        final JobQueue<Type> queue = new JobQueue<>(8);
+        final Recorder recorder = new Recorder();
+        JobQueue.Consumer<Type> consumer = new JobQueue.Consumer<Type>() {
+            @Override
+            public void process(Type type, Filelist.Segment segment,
+                                int index, Object arg)
+                throws RsyncException
+            {
+                recorder.process(type, segment, index, arg);
+                if (type == Type.B) {
+                    queue.drainHead(EnumSet.of(Type.A), recorder);
+                }
+            }
+        };
+        queue.put(Type.B, null, 0, null);
+        queue.put(Type.A, null, 1, null);
+        queue.put(Type.A, null, 2, null);
+        queue.put(Type.B, null, 3, null);
+        assertEquals(2, queue.drain(consumer));
+        assertTrue(queue.isEmpty());
+        assertEquals(4, recorder._indexes.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) recorder._indexes.get(i));
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testBackPressure() throws Exception
+    {
+        final JobQueue<Type> queue = new JobQueue<>(2);
+        final CountDownLatch isStarted = new CountDownLatch(1);
+        final CountDownLatch isDone = new CountDownLatch(1);
+        queue.put(Type.A, null, 0, null);
+        queue.put(Type.A, null, 1, null);
+        Thread producer = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    isStarted.countDown();
+                    queue.put(Type.A, null, 2, null);
+                    isDone.countDown();
+                } catch (InterruptedException e) {
+                    // test fails
+                }
+            }
+        };
+        producer.start();
+        isStarted.await();
+        assertFalse(isDone.await(200, TimeUnit.MILLISECONDS));
+
+        Recorder recorder = new Recorder();
+        assertEquals(2, queue.drain(recorder));
+        assertTrue(isDone.await(5, TimeUnit.SECONDS));
+        assertEquals(1, queue.drain(recorder));
+        producer.join();
+    }
+
+    // a producer of unbounded jobs never waits for the consumer, even if the
+    // ring is full, and any job after them is kept in order
+    @Test(timeout=10000)
+    public void testUnbounded() throws Exception
+    {
+        JobQueue<Type> queue = new JobQueue<>(2, EnumSet.of(Type.B));
+        Recorder recorder = new Recorder();
+        int n = 0;
+        queue.put(Type.A, null, n++, null);
+        queue.put(Type.A, null, n++, null);
+        for (int i = 0; i < 100; i++) {
+            queue.put(Type.B, null, n++, null);
+        }
+        // not blocking since appended after the unbounded jobs
+        queue.put(Type.A, null, n++, null);
+        queue.put(Type.A, null, n++, null);
+        assertEquals(n, queue.drain(recorder));
+        assertTrue(queue.isEmpty());
+        // the ring is used again once the unbounded jobs are processed
+        queue.put(Type.B, null, n++, null);
+        queue.put(Type.A, null, n++, null);
+        queue.put(Type.A, null, n++, null);
+        assertEquals(3, queue.drain(recorder));
+        queue.put(Type.A, null, n++, null);
+        queue.put(Type.A, null, n++, null);
+        assertEquals(2, queue.drain(recorder));
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, (int) recorder._indexes.get(i));
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testDrainHeadUnbounded() throws Exception
+    {
+        JobQueue<Type> queue = new JobQueue<>(8, EnumSet.of(Type.B));
+        Recorder recorder = new Recorder();
+        queue.put(Type.A, null, 0, null);
+        queue.put(Type.B, null, 1, null);
+        queue.put(Type.B, null, 2, null);
+        queue.put(Type.A, null, 3, null);
+        queue.put(Type.B, null, 4, null);
+        // the unbounded jobs, and the job after them, are only processed
+        // once the ring is empty
+        assertEquals(0, queue.drainHead(EnumSet.of(Type.B), recorder));
+        assertEquals(1, queue.drainHead(EnumSet.of(Type.A), recorder));
+        assertEquals(2, queue.drainHead(EnumSet.of(Type.B), recorder));
+        assertEquals(0, queue.drainHead(EnumSet.of(Type.B), recorder));
+        assertFalse(queue.isEmpty());
+        assertEquals(2, queue.drain(recorder));
+        assertTrue(queue.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) recorder._indexes.get(i));
+        }
+    }
+
+    @Test(timeout=60000)
+    public void testManyProducers() throws Exception
+    {
+        checkManyProducers(new JobQueue<Type>(16));
+    }
+
+    @Test(timeout=60000)
+    public void testManyProducersUnbounded() throws Exception
+    {
+        checkManyProducers(new JobQueue<>(16, EnumSet.of(Type.B)));
+    }
+
+    private static Type typeOf(int id, int i)
+    {
+        return (id + i) % 7 == 0 ? Type.B : Type.A;
+    }
+
+    private static void checkManyProducers(final JobQueue<Type> queue)
+        throws InterruptedException, RsyncException
+    {
+        final int numProducers = 4;
+        final int numJobs = 100000;
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < numProducers; p++) {
+            final int id = p;
+            Thread producer = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (int i = 0; i < numJobs; i++) {
+                            queue.put(typeOf(id, i), null,
+                                      id * numJobs + i, null);
+                        }
+                    } catch (InterruptedException e) {
+                        // test fails
+                    }
+                }
+            };
+            producers.add(producer);
+            producer.start();
+        }
+
+        final int[] next = new int[numProducers];
+        final int[] numReceived = new int[1];
+        JobQueue.Consumer<Type> consumer = new JobQueue.Consumer<Type>() {
+            @Override
+            public void process(Type type, Filelist.Segment segment,
+                                int index, Object arg)
+            {
+                int id = index / numJobs;
+                assertEquals(typeOf(id, index % numJobs), type);
+                // each producer's jobs are received in order
+                assertEquals(next[id]++, index % numJobs);
+                numReceived[0]++;
+            }
+        };
+        while (numReceived[0] < numProducers * numJobs) {
+            queue.drain(consumer);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(queue.isEmpty());
+        for (int p = 0; p < numProducers; p++) {
+            assertEquals(numJobs, next[p]);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.StrongChecksum;
+import com.github.perlundq.yajsync.internal.util.Rolling;
+
+public class RegionMatchesTest
+{
+    private static final int BLOCK_LENGTH = 64;
+    private static final int NUM_BLOCKS = 40;
+    private static final int REMAINDER = 10;
+    private static final int DIGEST_LENGTH = 8;
+    private static final StrongChecksum STRONG_CHECKSUM = StrongChecksum.MD5;
+    private static final byte[] SEED = { 1, 2, 3, 4 };
+
+    private final Random _random = new Random(0);
+    private Path _path;
+    private long _fileSize;
+    private Checksum _checksum;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        byte[] basis = randomBytes(NUM_BLOCKS * BLOCK_LENGTH + REMAINDER);
+        _checksum = checksumOf(basis);
+
+        // runs of basis blocks separated by literal data, so that some
+        // matches start before and end after a region boundary
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(randomBytes(30));
+        data.write(basis, 0, 10 * BLOCK_LENGTH);
+        data.write(randomBytes(7));
+        data.write(basis, 3 * BLOCK_LENGTH, 20 * BLOCK_LENGTH);
+        data.write(randomBytes(1));
+        data.write(basis, 5, 10 * BLOCK_LENGTH); // blocks 1 to 9 match
+        data.write(basis, 25 * BLOCK_LENGTH, 5 * BLOCK_LENGTH);
+        data.write(randomBytes(200));
+        data.write(basis, NUM_BLOCKS * BLOCK_LENGTH, REMAINDER);
+        _path = Files.createTempFile("RegionMatchesTest", null);
+        Files.write(_path, data.toByteArray());
+        _fileSize = data.size();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(_path);
+    }
+
+    private byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        _random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Checksum checksumOf(byte[] basis)
+    {
+        Checksum.Header header =
+            new Checksum.Header(NUM_BLOCKS + 1, BLOCK_LENGTH, REMAINDER,
+                                DIGEST_LENGTH);
+        Checksum checksum = new Checksum(header);
+        MessageDigest md = STRONG_CHECKSUM.newInstance();
+        for (int offset = 0; offset < basis.length; offset += BLOCK_LENGTH) {
+            int length = Math.min(BLOCK_LENGTH, basis.length - offset);
+            checksum.addChunkInformation(
+                Rolling.compute(ByteBuffer.wrap(basis, offset, length)),
+                truncated(md, basis, offset, length));
+        }
+        return checksum;
+    }
+
+    private static byte[] truncated(MessageDigest md, byte[] data, int offset,
+                                    int length)
+    {
+        md.update(data, offset, length);
+        md.update(SEED);
+        byte[] digest = new byte[DIGEST_LENGTH];
+        System.arraycopy(md.digest(), 0, digest, 0, DIGEST_LENGTH);
+        return digest;
+    }
+
+    private RegionMatches scan(long start, long end, RegionMatches syncWith)
+        throws Exception
+    {
+        return RegionMatches.scan(_path, _fileSize, _checksum,
+                                  STRONG_CHECKSUM, SEED, start, end,
+                                  syncWith);
+    }
+
+    private static void addMatches(List<Long> matches, RegionMatches region,
+                                   int first)
+    {
+        for (int i = first; i < region.size(); i++) {
+            matches.add(region.offset(i));
+            matches.add((long) region.length(i));
+        }
+    }
+
+    // merges the scans of regions of regionSize in file order the same way
+    // as Sender.sendParallelMatchesAndData
+    private List<Long> mergedMatches(long regionSize) throws Exception
+    {
+        List<Long> matches = new ArrayList<>();
+        long position = 0;
+        for (long start = 0; start < _fileSize; start += regionSize) {
+            RegionMatches region = scan(start,
+                                        Math.min(_fileSize,
+                                                 start + regionSize),
+                                        null);
+            if (position >= region.end()) {
+                continue;
+            }
+            if (!region.isOnTrajectory(position)) {
+                RegionMatches rescanned = scan(position, region.end(),
+                                               region);
+                addMatches(matches, rescanned, 0);
+                position = rescanned.exitPosition();
+            }
+            if (position < region.end()) {
+                if (!region.isOnTrajectory(position)) {
+                    break;
+                }
+                addMatches(matches, region, region.cursor());
+                position = region.exitPosition();
+            }
+        }
+        return matches;
+    }
+
+    private static boolean isCrossingBoundary(List<Long> matches,
+                                              long regionSize)
+    {
+        for (int i = 0; i < matches.size(); i += 2) {
+            long offset = matches.get(i);
+            long end = offset + matches.get(i + 1);
+            if (offset / regionSize != (end - 1) / regionSize) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testSequentialScan() throws Exception
+    {
+        RegionMatches region = scan(0, _fileSize, null);
+        assertEquals(_fileSize, region.exitPosition());
+        // 10 + 20 + 9 + 5 blocks and the remainder
+        assertEquals(45, region.size());
+        assertEquals(30, region.offset(0));
+        assertEquals(BLOCK_LENGTH, region.length(0));
+        assertEquals(REMAINDER, region.length(region.size() - 1));
+        assertEquals(_fileSize - REMAINDER,
+                     region.offset(region.size() - 1));
+    }
+
+    @Test
+    public void testMergedRegionsEqualSequentialScan() throws Exception
+    {
+        List<Long> expected = new ArrayList<>();
+        addMatches(expected, scan(0, _fileSize, null), 0);
+        for (long regionSize : new long[] { 1, 63, 64, 65, 100, 1000, 1023,
+                                            2048, _fileSize - 1,
+                                            _fileSize }) {
+            if (regionSize > 1 && regionSize < _fileSize) {
+                assertTrue(isCrossingBoundary(expected, regionSize));
+            }
+            assertEquals("region size " + regionSize, expected,
+                         mergedMatches(regionSize));
+        }
+    }
+
+    // the rescan of a region entered in the middle of one of its matches
+    // stops where it reaches the trajectory of the region scan
+    @Test
+    public void testRescanStopsOnTrajectory() throws Exception
+    {
+        long end = 30 + 5 * BLOCK_LENGTH;
+        RegionMatches region = scan(30, end, null);
+        assertEquals(5, region.size());
+        assertFalse(region.isOnTrajectory(31));
+        RegionMatches rescanned = scan(31, end, region);
+        assertEquals(0, rescanned.size());
+        assertEquals(30 + BLOCK_LENGTH, rescanned.exitPosition());
+        assertTrue(region.isOnTrajectory(rescanned.exitPosition()));
+        assertEquals(1, region.cursor());
+    }
+}
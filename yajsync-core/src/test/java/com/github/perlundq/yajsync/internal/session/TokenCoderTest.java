@@ -0,0 +1,305 @@
+package com.github.perlundq.yajsync.internal.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.CompressionCodec;
+import com.github.perlundq.yajsync.internal.channels.Readable;
+import com.github.perlundq.yajsync.internal.channels.Writable;
+
+public class TokenCoderTest
+{
+    private static class WritableByteBuffer implements Writable
+    {
+        private ByteBuffer _buf =
+            ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        private void ensureRemaining(int length)
+        {
+            if (_buf.remaining() < length) {
+                ByteBuffer b = ByteBuffer.allocate(
+                    2 * (_buf.capacity() + length)).order(_buf.order());
+                _buf.flip();
+                b.put(_buf);
+                _buf = b;
+            }
+        }
+
+        @Override
+        public void put(ByteBuffer src)
+        {
+            ensureRemaining(src.remaining());
+            _buf.put(src);
+        }
+
+        @Override
+        public void put(byte[] src, int offset, int length)
+        {
+            ensureRemaining(length);
+            _buf.put(src, offset, length);
+        }
+
+        @Override
+        public void putByte(byte b)
+        {
+            ensureRemaining(1);
+            _buf.put(b);
+        }
+
+        @Override
+        public void putChar(char c)
+        {
+            ensureRemaining(2);
+            _buf.putChar(c);
+        }
+
+        @Override
+        public void putInt(int i)
+        {
+            ensureRemaining(4);
+            _buf.putInt(i);
+        }
+
+        ByteBuffer flip()
+        {
+            _buf.flip();
+            return _buf;
+        }
+    }
+
+    private static class ReadableByteBuffer implements Readable
+    {
+        private final ByteBuffer _buf;
+
+        ReadableByteBuffer(ByteBuffer buf)
+        {
+            _buf = buf;
+        }
+
+        @Override
+        public void get(byte[] dst, int offset, int length)
+        {
+            _buf.get(dst, offset, length);
+        }
+
+        @Override
+        public ByteBuffer get(int numBytes)
+        {
+            ByteBuffer slice = _buf.slice();
+            slice.limit(numBytes);
+            skip(numBytes);
+            return slice;
+        }
+
+        @Override
+        public byte getByte()
+        {
+            return _buf.get();
+        }
+
+        @Override
+        public char getChar()
+        {
+            return _buf.getChar();
+        }
+
+        @Override
+        public int getInt()
+        {
+            return _buf.getInt();
+        }
+
+        @Override
+        public void skip(int numBytes)
+        {
+            _buf.position(_buf.position() + numBytes);
+        }
+    }
+
+    private static final int BLOCK_LENGTH = 700;
+    // a match is a negative block index - 1, anything else the length of
+    // literal data
+    private static final int[] TOKENS = {
+        -1, -2, -3, 5000, -4, -5, 40000, -1, -10, -11, -12, 1, -100, -99,
+        100000, -101, -102, 3, -200, 17
+    };
+
+    private final Random _random = new Random(0);
+    private boolean _isIncompressible;
+
+    private static byte[] replica(int numBlocks, int blockLength)
+    {
+        byte[] replica = new byte[numBlocks * blockLength];
+        for (int i = 0; i < replica.length; i++) {
+            replica[i] = (byte) ("0123456789abcdef".charAt(i % 16) + i / 4096);
+        }
+        return replica;
+    }
+
+    private byte[] literal(int length)
+    {
+        byte[] data = new byte[length];
+        if (_isIncompressible) {
+            _random.nextBytes(data);
+            return data;
+        }
+        // compressible but not trivially so
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + _random.nextInt(4));
+        }
+        return data;
+    }
+
+    private static ByteBuffer block(byte[] replica, int blockLength, int index)
+    {
+        return ByteBuffer.wrap(replica, index * blockLength, blockLength);
+    }
+
+    // @return the expected file contents
+    private byte[] encode(TokenEncoder encoder, int[] tokens, byte[] replica,
+                          int blockLength) throws Exception
+    {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int token : tokens) {
+            if (token < 0) {
+                int index = -token - 1;
+                encoder.putMatch(index, block(replica, blockLength, index));
+                expected.write(replica, index * blockLength, blockLength);
+            } else {
+                byte[] data = literal(token);
+                encoder.putData(ByteBuffer.wrap(data));
+                expected.write(data);
+            }
+        }
+        encoder.putEnd();
+        return expected.toByteArray();
+    }
+
+    private static byte[] decode(TokenDecoder decoder, byte[] replica,
+                                 int blockLength) throws Exception
+    {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int token;
+        while ((token = decoder.getToken()) != 0) {
+            ByteBuffer data;
+            if (token > 0) {
+                data = decoder.getData(token);
+            } else {
+                data = block(replica, blockLength, -token - 1);
+                if (decoder.isMatchDataNeeded()) {
+                    decoder.seeMatch(data);
+                }
+            }
+            byte[] buf = new byte[data.remaining()];
+            data.get(buf);
+            result.write(buf);
+        }
+        return result.toByteArray();
+    }
+
+    private void testRoundTrip(CompressionCodec codec, int level,
+                               int[] tokens, int numBlocks, int blockLength)
+        throws Exception
+    {
+        byte[] replica = replica(numBlocks, blockLength);
+        WritableByteBuffer out = new WritableByteBuffer();
+        byte[] expected;
+        try (TokenEncoder encoder = TokenEncoder.newInstance(out, codec,
+                                                             level)) {
+            expected = encode(encoder, tokens, replica, blockLength);
+        }
+        ByteBuffer sent = out.flip();
+        int sentLength = sent.remaining();
+        assertTrue(sentLength <= TokenEncoder.maxSize(expected.length,
+                                                      blockLength, codec));
+        try (TokenDecoder decoder = TokenDecoder.newInstance(
+                new ReadableByteBuffer(sent.duplicate().order(sent.order())),
+                codec)) {
+            assertArrayEquals(expected, decode(decoder, replica, blockLength));
+        }
+        if (codec != null && !_isIncompressible) {
+            assertTrue(sentLength < expected.length);
+        }
+
+        ByteBuffer skipped = sent.duplicate().order(sent.order());
+        try (TokenDecoder decoder = TokenDecoder.newInstance(
+                new ReadableByteBuffer(skipped), codec)) {
+            while (decoder.skipToken() != 0) {
+                // discard
+            }
+        }
+        assertFalse(skipped.hasRemaining());
+    }
+
+    @Test
+    public void testPlain() throws Exception
+    {
+        testRoundTrip(null, -1, TOKENS, 300, BLOCK_LENGTH);
+    }
+
+    @Test
+    public void testZlib() throws Exception
+    {
+        for (int level : new int[] { -1, 1, 9 }) {
+            testRoundTrip(CompressionCodec.ZLIB, level, TOKENS, 300,
+                          BLOCK_LENGTH);
+        }
+    }
+
+    @Test
+    public void testLz4() throws Exception
+    {
+        testRoundTrip(CompressionCodec.LZ4, -1, TOKENS, 300, BLOCK_LENGTH);
+    }
+
+    @Test
+    public void testLongRunsAndLargeBlocks() throws Exception
+    {
+        // a run longer than the maximum run length and literal data
+        // referring to a block larger than the maximum stored block
+        int[] tokens = new int[70002];
+        for (int i = 0; i < 70000; i++) {
+            tokens[i] = -(i + 1);
+        }
+        tokens[70000] = 10;
+        tokens[70001] = -70001;
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            testRoundTrip(codec, -1, tokens, 70001, 2);
+            testRoundTrip(codec, -1, new int[] { 10, -2, 100, -1, 1000 }, 2,
+                          150000);
+        }
+    }
+
+    // the tokens of literal data which does not compress at all, with a
+    // flush before every match, are within the bound used by Sender for
+    // buffering deltas
+    @Test
+    public void testMaxSizeIncompressible() throws Exception
+    {
+        _isIncompressible = true;
+        int[] tokens = new int[2000];
+        for (int i = 0; i < tokens.length; i += 2) {
+            tokens[i] = 1 + _random.nextInt(3 * BLOCK_LENGTH);
+            tokens[i + 1] = -(1 + _random.nextInt(300));
+        }
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            for (int level : new int[] { -1, 0, 9 }) {
+                testRoundTrip(codec, level, tokens, 300, BLOCK_LENGTH);
+            }
+        }
+        testRoundTrip(null, -1, tokens, 300, BLOCK_LENGTH);
+        // a new file, there are no blocks to match
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            testRoundTrip(codec, -1, new int[] { 1000000 }, 0, 0);
+        }
+    }
+}
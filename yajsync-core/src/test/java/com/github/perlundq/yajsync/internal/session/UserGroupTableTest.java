@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.internal.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.attr.Group;
+import com.github.perlundq.yajsync.attr.User;
+
+public class UserGroupTableTest
+{
+    @Test
+    public void testInternUsers()
+    {
+        UserGroupTable table = new UserGroupTable();
+        User user = table.user("user", 1000);
+        assertEquals(new User("user", 1000), user);
+        assertSame(user, table.user("user", 1000));
+        assertNotSame(user, table.user("user", 1001));
+        assertNotSame(user, table.user("other", 1000));
+        assertNotSame(user, table.user("", 1000));
+        assertSame(table.user("", 1000), table.user("", 1000));
+    }
+
+    @Test
+    public void testInternGroups()
+    {
+        UserGroupTable table = new UserGroupTable();
+        Group group = table.group("group", 1000);
+        assertEquals(new Group("group", 1000), group);
+        assertSame(group, table.group("group", 1000));
+        assertNotSame(group, table.group("group", 1001));
+        assertNotSame(group, table.group("other", 1000));
+    }
+
+    @Test
+    public void testTablesAreSeparate()
+    {
+        UserGroupTable table = new UserGroupTable();
+        UserGroupTable other = new UserGroupTable();
+        assertNotSame(table.user("user", 1000), other.user("user", 1000));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidUser()
+    {
+        new UserGroupTable().user("user", -1);
+    }
+
+    // all threads interning the same user and group get the same instances
+    @Test(timeout=60000)
+    public void testConcurrentIntern() throws Exception
+    {
+        final int numThreads = 4;
+        final int numIds = 1000;
+        final UserGroupTable table = new UserGroupTable();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Object[]>> results = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                results.add(executor.submit(new Callable<Object[]>() {
+                    @Override
+                    public Object[] call()
+                    {
+                        Object[] interned = new Object[2 * numIds];
+                        for (int id = 0; id < numIds; id++) {
+                            interned[2 * id] = table.user("u" + id, id);
+                            interned[2 * id + 1] = table.group("g" + id, id);
+                        }
+                        return interned;
+                    }
+                }));
+            }
+            Object[] first = results.get(0).get();
+            for (Future<Object[]> result : results) {
+                Object[] interned = result.get();
+                for (int i = 0; i < interned.length; i++) {
+                    assertSame(first[i], interned[i]);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
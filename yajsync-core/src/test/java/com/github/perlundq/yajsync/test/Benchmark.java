@@ -0,0 +1,132 @@
+/*
+ * A minimal timing harness for micro benchmarks
+ *
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs a task a number of untimed warm up rounds followed by a number of
+ * timed rounds and prints the median, minimum and maximum time per operation
+ * of the timed rounds, together with the number of bytes allocated per
+ * operation if the JVM can tell. The allocation is that of all threads
+ * alive both before and after the timed rounds, i.e. the calling thread
+ * and the threads of any thread pool it uses, but not of threads started
+ * and terminated by the task itself.
+ *
+ * The benchmarks using it are not run as a part of the test suite, they are
+ * run from the command line once the test classes are compiled, e.g.:
+ *
+ * java -cp target/classes:target/test-classes \
+ *     com.github.perlundq.yajsync.internal.session.DigestBenchmark
+ *
+ * The number of rounds may be changed with -Dbenchmark.warmup=N and
+ * -Dbenchmark.rounds=N.
+ */
+public final class Benchmark
+{
+    public interface Task
+    {
+        /**
+         * Perform numOps operations.
+         *
+         * @return any value depending on the result of the operations, so
+         *         that they cannot be optimised away
+         */
+        long run(int numOps) throws Exception;
+    }
+
+    private static final int WARMUP_ROUNDS =
+        Integer.getInteger("benchmark.warmup", 10);
+    private static final int ROUNDS =
+        Integer.getInteger("benchmark.rounds", 10);
+
+    private static long _blackhole;
+
+    private Benchmark() {}
+
+    public static void run(String name, int numOps, Task task) throws Exception
+    {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            _blackhole += task.run(numOps);
+        }
+        double[] nanosPerOp = new double[ROUNDS];
+        Map<Long, Long> allocated = allocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            _blackhole += task.run(numOps);
+            nanosPerOp[i] = (double) (System.nanoTime() - start) / numOps;
+        }
+        long numBytes = allocated == null ? 0
+                                          : allocatedBytesSince(allocated);
+        Arrays.sort(nanosPerOp);
+
+        String allocation = allocated == null
+                ? "unknown"
+                : String.format("%.1f", (double) numBytes / numOps / ROUNDS);
+        System.out.format("%-40s %10.1f ns/op (min %.1f, max %.1f) " +
+                          "%s bytes/op%n",
+                          name, nanosPerOp[ROUNDS / 2], nanosPerOp[0],
+                          nanosPerOp[ROUNDS - 1], allocation);
+        if (_blackhole == 42) {
+            System.out.print("");
+        }
+    }
+
+    /**
+     * @return the number of bytes allocated so far by each live thread, or
+     *         null if not supported
+     */
+    private static Map<Long, Long> allocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean =
+                (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() &&
+                sunBean.isThreadAllocatedMemoryEnabled()) {
+                long[] ids = sunBean.getAllThreadIds();
+                long[] numBytes = sunBean.getThreadAllocatedBytes(ids);
+                Map<Long, Long> result = new HashMap<>();
+                for (int i = 0; i < ids.length; i++) {
+                    if (numBytes[i] >= 0) {
+                        result.put(ids[i], numBytes[i]);
+                    }
+                }
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytesSince(Map<Long, Long> before)
+    {
+        long numBytes = 0;
+        for (Map.Entry<Long, Long> e : allocatedBytes().entrySet()) {
+            Long prev = before.get(e.getKey());
+            if (prev != null) {
+                numBytes += e.getValue() - prev;
+            }
+        }
+        return numBytes;
+    }
+}
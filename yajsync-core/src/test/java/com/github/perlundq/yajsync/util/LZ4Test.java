@@ -0,0 +1,126 @@
+package com.github.perlundq.yajsync.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.internal.util.LZ4;
+
+public class LZ4Test
+{
+    private static final String TEXT =
+        "yajsync yajsync yajsync is a port of rsync to java, " +
+        "rsync rsync rsync!";
+
+    // LZ4_compress_default of TEXT repeated three times
+    private static final String TEXT_COMPRESSED =
+        "8c79616a73796e63200800e16973206120706f7274206f662072230083746f20" +
+        "6a6176612c0f000215000106001c213e000410000f46005c5073796e6321";
+
+    private static byte[] fromHex(String hex)
+    {
+        byte[] buf = new byte[hex.length() / 2];
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2),
+                                             16);
+        }
+        return buf;
+    }
+
+    private static byte[] roundTrip(byte[] src) throws DataFormatException
+    {
+        byte[] compressed = new byte[LZ4.maxCompressedLength(src.length)];
+        int n = LZ4.compress(src, 0, src.length,
+                             compressed, 0, compressed.length,
+                             LZ4.newHashTable());
+        assertTrue(n > 0);
+        byte[] result = new byte[src.length];
+        int m = LZ4.decompress(compressed, 0, n, result, 0, result.length);
+        assertEquals(src.length, m);
+        return result;
+    }
+
+    @Test
+    public void testDecompressReference() throws DataFormatException
+    {
+        byte[] expected = (TEXT + TEXT + TEXT).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = fromHex(TEXT_COMPRESSED);
+        byte[] result = new byte[expected.length];
+        int n = LZ4.decompress(compressed, 0, compressed.length,
+                               result, 0, result.length);
+        assertEquals(expected.length, n);
+        assertArrayEquals(expected, result);
+    }
+
+    @Test
+    public void testRoundTrip() throws DataFormatException
+    {
+        Random random = new Random(0);
+        for (int length : new int[] { 0, 1, 12, 13, 100, 4096, 16383,
+                                      100000 }) {
+            byte[] randomData = new byte[length];
+            random.nextBytes(randomData);
+            assertArrayEquals(randomData, roundTrip(randomData));
+
+            byte[] repetitive = new byte[length];
+            for (int i = 0; i < length; i++) {
+                repetitive[i] = (byte) "abcabd".charAt(i % 6);
+            }
+            assertArrayEquals(repetitive, roundTrip(repetitive));
+
+            byte[] zeros = new byte[length];
+            assertArrayEquals(zeros, roundTrip(zeros));
+        }
+    }
+
+    @Test
+    public void testCompressTooSmallOutput()
+    {
+        byte[] src = new byte[1000];
+        new Random(0).nextBytes(src);
+        byte[] dst = new byte[LZ4.maxCompressedLength(src.length)];
+        assertEquals(0, LZ4.compress(src, 0, src.length, dst, 0, 999,
+                                     LZ4.newHashTable()));
+    }
+
+    @Test(expected=DataFormatException.class)
+    public void testDecompressTruncated() throws DataFormatException
+    {
+        byte[] compressed = fromHex(TEXT_COMPRESSED);
+        byte[] result = new byte[1000];
+        LZ4.decompress(compressed, 0, compressed.length - 10,
+                       result, 0, result.length);
+    }
+
+    @Test(expected=DataFormatException.class)
+    public void testDecompressTooSmallOutput() throws DataFormatException
+    {
+        byte[] compressed = fromHex(TEXT_COMPRESSED);
+        byte[] result = new byte[100];
+        LZ4.decompress(compressed, 0, compressed.length,
+                       result, 0, result.length);
+    }
+
+    @Test
+    public void testOffsets() throws DataFormatException
+    {
+        byte[] src = (TEXT + TEXT).getBytes(StandardCharsets.UTF_8);
+        byte[] padded = new byte[src.length + 20];
+        System.arraycopy(src, 0, padded, 7, src.length);
+        byte[] compressed = new byte[LZ4.maxCompressedLength(src.length) + 5];
+        int n = LZ4.compress(padded, 7, src.length,
+                             compressed, 5, compressed.length - 5,
+                             LZ4.newHashTable());
+        byte[] result = new byte[src.length + 3];
+        int m = LZ4.decompress(compressed, 5, n, result, 3, src.length);
+        assertEquals(src.length, m);
+        assertArrayEquals(src, Arrays.copyOfRange(result, 3, result.length));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.perlundq.yajsync.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.github.perlundq.yajsync.internal.util.Rolling;
+import com.github.perlundq.yajsync.test.Benchmark;
+
+/**
+ * Measures the rolling checksum of consecutive windows computed one byte at
+ * a time with Rolling.subtract and Rolling.add, as Sender did for every
+ * position, against Rolling.rollRun computing a run of windows at once. An
+ * operation is the checksum of one window. The runs are as long as those
+ * of Sender and RegionMatches.
+ */
+public class RollingBenchmark
+{
+    private static final int[] BLOCK_LENGTHS = { 700, 8192, 131072 };
+    private static final int RUN_LENGTH = 4096;
+    private static final int NUM_OPS = 1024 * RUN_LENGTH;
+
+    public static void main(String[] args) throws Exception
+    {
+        for (int blockLength : BLOCK_LENGTHS) {
+            byte[] buf = new byte[RUN_LENGTH - 1 + blockLength];
+            new Random(0).nextBytes(buf);
+            ByteBuffer direct = ByteBuffer.allocateDirect(buf.length);
+            direct.put(buf);
+            direct.clear();
+            run(blockLength, "per byte", ByteBuffer.wrap(buf), false);
+            run(blockLength, "run", ByteBuffer.wrap(buf), true);
+            run(blockLength, "per byte direct", direct, false);
+            run(blockLength, "run direct", direct, true);
+        }
+    }
+
+    private static void run(final int blockLength, String name,
+                            final ByteBuffer buf, final boolean isRun)
+        throws Exception
+    {
+        final int[] sums = new int[RUN_LENGTH];
+        final int first = Rolling.compute(
+            (ByteBuffer) buf.duplicate().limit(blockLength));
+        Benchmark.run(String.format("block length %d %s", blockLength, name),
+                      NUM_OPS, new Benchmark.Task() {
+            @Override
+            public long run(int numOps) throws Exception
+            {
+                long result = 0;
+                for (int i = 0; i < numOps; i += RUN_LENGTH) {
+                    if (isRun) {
+                        Rolling.rollRun(first, buf, blockLength, sums,
+                                        RUN_LENGTH);
+                    } else {
+                        rollOneByOne(first, buf, blockLength, sums);
+                    }
+                    result += sums[RUN_LENGTH - 1];
+                }
+                return result;
+            }
+        });
+    }
+
+    // the same as Sender's per byte update of the rolling checksum
+    private static void rollOneByOne(int first, ByteBuffer buf,
+                                     int blockLength, int[] sums)
+    {
+        int rolling = first;
+        sums[0] = rolling;
+        for (int k = 1; k < sums.length; k++) {
+            rolling = Rolling.subtract(rolling, blockLength, buf.get(k - 1));
+            rolling = Rolling.add(rolling, buf.get(k - 1 + blockLength));
+            sums[k] = rolling;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.perlundq.yajsync.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.internal.util.Rolling;
+
+public class RollingTest
+{
+    private static final int[] BLOCK_LENGTHS = { 1, 2, 5, 512, 700, 8192 };
+    private static final int COUNT = 3000;
+
+    private static byte[] randomBytes(int length)
+    {
+        byte[] buf = new byte[length];
+        new Random(length).nextBytes(buf);
+        return buf;
+    }
+
+    private static int[] rollOneByOne(byte[] buf, int offset, int blockLength,
+                                      int count)
+    {
+        int[] sums = new int[count];
+        int rolling = Rolling.compute(buf, offset, blockLength);
+        sums[0] = rolling;
+        for (int k = 1; k < count; k++) {
+            rolling = Rolling.subtract(rolling, blockLength,
+                                       buf[offset + k - 1]);
+            rolling = Rolling.add(rolling, buf[offset + k - 1 + blockLength]);
+            sums[k] = rolling;
+        }
+        return sums;
+    }
+
+    @Test
+    public void testComputeRun()
+    {
+        for (int blockLength : BLOCK_LENGTHS) {
+            byte[] buf = randomBytes(COUNT + blockLength + 10);
+            int[] sums = new int[COUNT];
+            Rolling.computeRun(buf, 10, blockLength, sums, COUNT);
+            assertArrayEquals(rollOneByOne(buf, 10, blockLength, COUNT), sums);
+        }
+    }
+
+    @Test
+    public void testRollRunDirect()
+    {
+        for (int blockLength : BLOCK_LENGTHS) {
+            byte[] buf = randomBytes(COUNT + blockLength + 10);
+            ByteBuffer direct = ByteBuffer.allocateDirect(buf.length);
+            direct.put(buf);
+            direct.position(10);
+            int[] sums = new int[COUNT];
+            Rolling.rollRun(Rolling.compute(buf, 10, blockLength), direct,
+                            blockLength, sums, COUNT);
+            assertArrayEquals(rollOneByOne(buf, 10, blockLength, COUNT), sums);
+        }
+    }
+
+    @Test
+    public void testRollRunSingle()
+    {
+        byte[] buf = randomBytes(100);
+        int[] sums = new int[1];
+        Rolling.rollRun(42, ByteBuffer.wrap(buf), 100, sums, 1);
+        assertArrayEquals(new int[] { 42 }, sums);
+    }
+}
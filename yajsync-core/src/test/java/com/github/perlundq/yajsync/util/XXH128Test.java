@@ -0,0 +1,138 @@
+package com.github.perlundq.yajsync.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+import org.junit.Test;
+
+import com.github.perlundq.yajsync.internal.util.XXH128;
+
+public class XXH128Test
+{
+    // { length, high 64 bits, low 64 bits } of XXH3_128bits(data(length))
+    private static final long[][] VECTORS = {
+        { 0, 0x99aa06d3014798d8L, 0x6001c324468d497fL },
+        { 1, 0xa6cd5e9392000f6aL, 0xc44bdff4074eecdbL },
+        { 2, 0xe3e3af28e2788151L, 0x50a0dc43c774eb84L },
+        { 3, 0x4af3603b5bd30dfeL, 0x3698b80191e625f9L },
+        { 4, 0x11527735d62fce43L, 0xeecdfa5a3b083ba8L },
+        { 7, 0x969f5114845f170cL, 0x0624d295fe95cc20L },
+        { 8, 0x791e22cdc30880baL, 0x073a25812fe4f600L },
+        { 9, 0x22775b5e55c2ace9L, 0x4557529981ebbef0L },
+        { 16, 0x8d0b1cd2088b9620L, 0x843f49fff931d541L },
+        { 17, 0x340f6f9202ad1131L, 0xa378e80882221151L },
+        { 32, 0x4481c666e16d3e17L, 0x430a991e61bb8520L },
+        { 33, 0xa655be5e03fecd87L, 0x08eb5d21280ace96L },
+        { 64, 0x8f41008ff06356f7L, 0x731a5a160a9dce1aL },
+        { 65, 0xa978d0c247ecc7fbL, 0x6e02662b4c167d1aL },
+        { 96, 0x8581c1f17815075aL, 0x39d3afd0b580c0deL },
+        { 97, 0x807605c098c371ccL, 0xcbeff5d359b29a1aL },
+        { 128, 0x9ac3a2d505dc8bbaL, 0xffb5b9abed8b314dL },
+        { 129, 0x4f3f783d604d0184L, 0xc83022477e6bf25aL },
+        { 200, 0x74aaf80f98621358L, 0xb5722aed107bd214L },
+        { 240, 0x550b8ce07c44bc98L, 0xc018ce69a32b5a7cL },
+        { 241, 0x8e7e1f2fe4156df9L, 0x18773c512b008a63L },
+        { 255, 0x56028fc18724306dL, 0x947de0ba95c5ed6bL },
+        { 256, 0xdfb78b82a959f4f6L, 0xcdd3578b9df45e59L },
+        { 257, 0xd6651b4ae17227c4L, 0xa230bbdfddd68d70L },
+        { 1024, 0xea65234127f4dd7bL, 0x5a1893edffa2577cL },
+        { 1025, 0x0fabde917fb0af22L, 0x550abe5d45dd663bL },
+        { 2047, 0x01fdb8c4bb58ebedL, 0xe38af1e0d95a701dL },
+        { 4096, 0xd993a1ab1ec875a6L, 0xbe855965eae8486bL },
+        { 5000, 0x47aa050a1d2c0b8cL, 0xc0dd97972a4d2de3L },
+        { 100000, 0x1ceab015e15e2ba1L, 0x99dbd27fc89c5372L },
+    };
+
+    private static final int[] CHUNK_LENGTHS = { 1, 7, 63, 64, 65, 256, 257,
+                                                 1000, 4096 };
+
+    private static byte[] data(int length)
+    {
+        byte[] buf = new byte[length];
+        for (int i = 0; i < length; i++) {
+            buf[i] = (byte) (i * 31 + (i >>> 8));
+        }
+        return buf;
+    }
+
+    private static byte[] expected(long[] vector)
+    {
+        return ByteBuffer.allocate(XXH128.DIGEST_LENGTH).
+            putLong(vector[1]).putLong(vector[2]).array();
+    }
+
+    @Test
+    public void testOneShot()
+    {
+        MessageDigest md = new XXH128();
+        for (long[] vector : VECTORS) {
+            byte[] buf = data((int) vector[0]);
+            assertArrayEquals("length " + vector[0], expected(vector),
+                              md.digest(buf));
+        }
+    }
+
+    @Test
+    public void testStreaming()
+    {
+        MessageDigest md = new XXH128();
+        for (long[] vector : VECTORS) {
+            byte[] buf = data((int) vector[0]);
+            for (int chunkLength : CHUNK_LENGTHS) {
+                for (int offset = 0; offset < buf.length;
+                     offset += chunkLength) {
+                    md.update(buf, offset,
+                              Math.min(chunkLength, buf.length - offset));
+                }
+                assertArrayEquals("length " + vector[0] + " chunk " +
+                                  chunkLength,
+                                  expected(vector), md.digest());
+            }
+        }
+    }
+
+    @Test
+    public void testSingleBytes()
+    {
+        MessageDigest md = new XXH128();
+        for (long[] vector : VECTORS) {
+            for (byte b : data((int) vector[0])) {
+                md.update(b);
+            }
+            assertArrayEquals("length " + vector[0], expected(vector),
+                              md.digest());
+        }
+    }
+
+    @Test
+    public void testDirectByteBuffer()
+    {
+        MessageDigest md = new XXH128();
+        long[] vector = VECTORS[VECTORS.length - 1];
+        byte[] buf = data((int) vector[0]);
+        ByteBuffer direct = ByteBuffer.allocateDirect(buf.length);
+        direct.put(buf);
+        direct.flip();
+        md.update(direct);
+        assertArrayEquals(expected(vector), md.digest());
+    }
+
+    @Test
+    public void testDigestIntoBuffer() throws DigestException
+    {
+        MessageDigest md = new XXH128();
+        long[] vector = VECTORS[VECTORS.length - 1];
+        byte[] buf = data((int) vector[0]);
+        byte[] result = new byte[XXH128.DIGEST_LENGTH + 3];
+        md.update(buf);
+        assertEquals(XXH128.DIGEST_LENGTH,
+                     md.digest(result, 3, XXH128.DIGEST_LENGTH));
+        byte[] digest = new byte[XXH128.DIGEST_LENGTH];
+        System.arraycopy(result, 3, digest, 0, digest.length);
+        assertArrayEquals(expected(vector), digest);
+    }
+}